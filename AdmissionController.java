@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.synapse.MessageContext;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gateway wide admission control for AI API requests.
+ * <p>
+ * Each API has a concurrency limit that adapts to the latency observed upstream: the limit follows the ratio of
+ * the long term to the short term average latency plus a small queueing allowance (a gradient limiter), so it
+ * shrinks as soon as latency rises above its baseline, and it is cut multiplicatively when the provider answers
+ * with 429 or 5xx. Admission never blocks the mediation thread: a request is rejected at once when the API is at
+ * its limit, or when its subscription tier already holds its weighted share of the limit among the tiers with
+ * demand, so a flood of batch traffic on a low weight tier cannot starve interactive tiers.
+ * <p>
+ * A permit is held for the whole request, across failover hops and cascade escalations, and every upstream
+ * response feeds the limit. Limits are bounded by {@code ai.admission.minLimit} and {@code ai.admission.maxLimit}
+ * and start at {@code ai.admission.initialLimit}. Permits not returned within {@code ai.admission.leaseTimeoutMs},
+ * e.g. because the request failed before reaching the response flow, are reclaimed.
+ */
+public final class AdmissionController {
+
+    /**
+     * Message context property holding the {@link Permit} of an admitted request.
+     */
+    public static final String PERMIT = "AI_ADMISSION_PERMIT";
+
+    private static final double SHORT_WINDOW = 10.0d;
+    private static final double LONG_WINDOW = 500.0d;
+    private static final double BACKOFF_RATIO = 0.8d;
+    private static final long DEMAND_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final AdmissionController INSTANCE = new AdmissionController(
+            Integer.getInteger("ai.admission.initialLimit", 20),
+            Integer.getInteger("ai.admission.minLimit", 2),
+            Integer.getInteger("ai.admission.maxLimit", 1000),
+            Long.getLong("ai.admission.leaseTimeoutMs", 10 * 60 * 1000L));
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long leaseTimeoutNanos;
+    private final Map<String, ApiLimiter> limiters = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    AdmissionController(int initialLimit, int minLimit, int maxLimit, long leaseTimeoutMillis) {
+
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.initialLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.leaseTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(leaseTimeoutMillis);
+    }
+
+    public static AdmissionController getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Admits a request if the API is below its limit and the request's tier is within its share of the limit.
+     *
+     * @param apiKey The API key as returned by {@code GatewayUtils.getAPIKeyForEndpoints}.
+     * @param tier   The subscription tier of the request, may be {@code null}.
+     * @param weight The weight of the tier, at least 1.
+     * @return The decision; {@link Decision#getPermit()} is {@code null} if the request is rejected.
+     */
+    public Decision acquire(String apiKey, String tier, int weight) {
+
+        ApiLimiter limiter = limiters.get(apiKey);
+        if (limiter == null) {
+            limiter = limiters.computeIfAbsent(apiKey, key -> new ApiLimiter(initialLimit));
+        }
+        Decision decision = limiter.acquire(tier != null ? tier : "", Math.max(1, weight));
+        if (decision.permit == null) {
+            rejected.increment();
+        }
+        return decision;
+    }
+
+    /**
+     * Feeds the latency and outcome of an upstream response to the limit of the permit held on the message
+     * context, if any, keeping the permit for further hops.
+     *
+     * @param messageContext The message context.
+     * @param statusCode     The upstream status code, or 0 if there was no response.
+     */
+    public static void observe(MessageContext messageContext, int statusCode) {
+
+        Permit permit = (Permit) messageContext.getProperty(PERMIT);
+        if (permit != null) {
+            permit.observe(statusCode);
+        }
+    }
+
+    /**
+     * Returns the permit held on the message context, if any. Releasing twice has no effect.
+     *
+     * @param messageContext The message context.
+     */
+    public static void release(MessageContext messageContext) {
+
+        Permit permit = (Permit) messageContext.getProperty(PERMIT);
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    /**
+     * Returns the current concurrency limit of an API, or the initial limit if it has seen no traffic.
+     */
+    public int getLimit(String apiKey) {
+
+        ApiLimiter limiter = limiters.get(apiKey);
+        return limiter != null ? limiter.getLimit() : initialLimit;
+    }
+
+    public long getRejected() {
+
+        return rejected.sum();
+    }
+
+    /**
+     * Concurrency limit of one API and the permits its tiers hold.
+     */
+    private final class ApiLimiter {
+
+        private final Set<Permit> permits = ConcurrentHashMap.newKeySet();
+        private final Map<String, TierUsage> tiers = new HashMap<>();
+        private double limit;
+        private double shortLatency;
+        private double longLatency;
+        private int inFlight;
+
+        private ApiLimiter(int initialLimit) {
+
+            this.limit = initialLimit;
+        }
+
+        private synchronized Decision acquire(String tierName, int weight) {
+
+            long now = System.nanoTime();
+            if (inFlight >= (int) limit) {
+                reclaimExpiredPermits();
+            }
+            TierUsage tier = tiers.computeIfAbsent(tierName, name -> new TierUsage());
+            tier.weight = weight;
+            if (inFlight < (int) limit && tier.inFlight < share(tier, now)) {
+                inFlight++;
+                tier.inFlight++;
+                Permit permit = new Permit(this, tier);
+                permits.add(permit);
+                return new Decision(permit, 0);
+            }
+            tier.rejectedAt = now;
+            tier.rejected = true;
+            // A permit frees up about every latency / limit milliseconds
+            return new Decision(null, (long) (longLatency / Math.max(1.0d, limit)));
+        }
+
+        /**
+         * Returns the tier's weighted share of the limit among the tiers holding permits or rejected within the
+         * last second. A tier without competition may use the whole limit.
+         */
+        private int share(TierUsage tier, long now) {
+
+            double activeWeight = tier.weight;
+            for (TierUsage other : tiers.values()) {
+                if (other != tier && (other.inFlight > 0
+                        || other.rejected && now - other.rejectedAt < DEMAND_WINDOW_NANOS)) {
+                    activeWeight += other.weight;
+                }
+            }
+            return Math.max(1, (int) Math.ceil(limit * tier.weight / activeWeight));
+        }
+
+        private synchronized int getLimit() {
+
+            return (int) limit;
+        }
+
+        private synchronized void onResponse(long latencyNanos, int statusCode) {
+
+            if (statusCode == 429 || statusCode >= 500) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            } else if (statusCode > 0) {
+                adapt(latencyNanos / 1_000_000.0d);
+            }
+        }
+
+        private synchronized void onRelease(Permit permit) {
+
+            if (permits.remove(permit)) {
+                inFlight--;
+                permit.tier.inFlight--;
+            }
+        }
+
+        private void adapt(double latencyMillis) {
+
+            if (longLatency == 0) {
+                shortLatency = latencyMillis;
+                longLatency = latencyMillis;
+                return;
+            }
+            shortLatency += (latencyMillis - shortLatency) / SHORT_WINDOW;
+            longLatency += (latencyMillis - longLatency) / LONG_WINDOW;
+            // Let the baseline drift down quickly when the provider recovers
+            if (longLatency > shortLatency * 2) {
+                longLatency = shortLatency * 2;
+            }
+            double gradient = Math.max(0.5d, Math.min(1.0d, longLatency / shortLatency));
+            double queueAllowance = Math.sqrt(limit);
+            double target = limit * gradient + queueAllowance;
+            // Smooth upward moves, apply downward ones at once
+            limit = target < limit ? target : limit + (target - limit) * 0.2d;
+            limit = Math.max(minLimit, Math.min(maxLimit, limit));
+        }
+
+        private void reclaimExpiredPermits() {
+
+            long now = System.nanoTime();
+            Iterator<Permit> iterator = permits.iterator();
+            while (iterator.hasNext()) {
+                Permit permit = iterator.next();
+                if (now - permit.acquiredAt > leaseTimeoutNanos && permit.released.compareAndSet(false, true)) {
+                    iterator.remove();
+                    inFlight--;
+                    permit.tier.inFlight--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Weight, permits in flight and last rejection of one subscription tier of an API.
+     */
+    private static final class TierUsage {
+
+        private int weight = 1;
+        private int inFlight;
+        private boolean rejected;
+        private long rejectedAt;
+    }
+
+    /**
+     * A unit of an API's concurrency held by one admitted request.
+     */
+    public static final class Permit {
+
+        private final ApiLimiter limiter;
+        private final TierUsage tier;
+        private final long acquiredAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile long hopStartedAt = acquiredAt;
+
+        private Permit(ApiLimiter limiter, TierUsage tier) {
+
+            this.limiter = limiter;
+            this.tier = tier;
+        }
+
+        /**
+         * Feeds the latency and outcome of the current upstream hop to the limit; the next hop is timed from now.
+         *
+         * @param statusCode The upstream status code, or 0 if there was no response.
+         */
+        public void observe(int statusCode) {
+
+            if (!released.get()) {
+                long now = System.nanoTime();
+                limiter.onResponse(now - hopStartedAt, statusCode);
+                hopStartedAt = now;
+            }
+        }
+
+        /**
+         * Returns the permit.
+         */
+        public void release() {
+
+            if (released.compareAndSet(false, true)) {
+                limiter.onRelease(this);
+            }
+        }
+    }
+    /**
+     * Outcome of {@link #acquire}.
+     */
+    public static final class Decision {
+
+        private final Permit permit;
+        private final long retryAfterMillis;
+
+        private Decision(Permit permit, long retryAfterMillis) {
+
+            this.permit = permit;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        /**
+         * Returns the permit of an admitted request, or {@code null} if the request is rejected.
+         */
+        public Permit getPermit() {
+
+            return permit;
+        }
+
+        /**
+         * Returns when a rejected request may be retried.
+         */
+        public long getRetryAfterMillis() {
+
+            return retryAfterMillis;
+        }
+    }
+}
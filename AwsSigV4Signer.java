@@ -0,0 +1,273 @@
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AWS Signature Version 4 signing for AWS Bedrock requests.
+ * <p>
+ * The derived signing key only depends on the secret, date, region and service, so it is cached and
+ * reused for every request of the day; each request then costs two hashes and one HMAC. The endpoint
+ * API key is expected in the form {@code ACCESS_KEY_ID:SECRET_ACCESS_KEY[:SESSION_TOKEN]}.
+ * <p>
+ * The region is the first label of the endpoint host that looks like a region, so regional
+ * ({@code bedrock-runtime.us-east-1.amazonaws.com}), FIPS and VPC endpoint
+ * ({@code vpce-0a1b.bedrock-runtime.us-east-1.vpce.amazonaws.com}) hosts all work. Hosts without one, such as
+ * private DNS names, are signed for {@code ai.bedrock.region} ({@code us-east-1} by default).
+ */
+final class AwsSigV4Signer {
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final String SERVICE = "bedrock";
+    private static final String TERMINATOR = "aws4_request";
+    private static final int MAX_CACHED_KEYS = 64;
+    private static final DateTimeFormatter AMZ_DATE =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Pattern REGION = Pattern.compile("[a-z]{2}(-[a-z]+)+-\\d+");
+    private static final String DEFAULT_REGION = System.getProperty("ai.bedrock.region", "us-east-1");
+
+    private static final Map<String, byte[]> SIGNING_KEYS = new ConcurrentHashMap<>();
+    private static final Map<String, Target> TARGETS = new ConcurrentHashMap<>();
+
+    private AwsSigV4Signer() {
+    }
+
+    /**
+     * Signs a request and returns the headers to add to it.
+     *
+     * @param method      The HTTP method.
+     * @param url         The full request URL.
+     * @param payload     The request body.
+     * @param credentials The AWS credentials.
+     * @param nowMillis   The signing time in milliseconds.
+     * @return The {@code Authorization}, {@code X-Amz-*} headers of the signed request.
+     */
+    static Map<String, String> sign(String method, String url, String payload, Credentials credentials,
+                                    long nowMillis) throws GeneralSecurityException {
+
+        Target target = TARGETS.computeIfAbsent(url, Target::parse);
+        String amzDate = AMZ_DATE.format(Instant.ofEpochMilli(nowMillis));
+        String payloadHash = hex(sha256(payload.getBytes(StandardCharsets.UTF_8)));
+
+        SortedMap<String, String> signedHeaders = new TreeMap<>();
+        signedHeaders.put("content-type", "application/json");
+        signedHeaders.put("host", target.host);
+        signedHeaders.put("x-amz-content-sha256", payloadHash);
+        signedHeaders.put("x-amz-date", amzDate);
+        if (credentials.sessionToken != null) {
+            signedHeaders.put("x-amz-security-token", credentials.sessionToken);
+        }
+
+        Map<String, String> headers = new LinkedHashMap<>(8);
+        headers.put(ProviderAuthHeaders.AUTHORIZATION, authorization(method, target, signedHeaders, payloadHash,
+                credentials, amzDate, target.region, SERVICE));
+        headers.put("X-Amz-Date", amzDate);
+        headers.put("X-Amz-Content-Sha256", payloadHash);
+        if (credentials.sessionToken != null) {
+            headers.put("X-Amz-Security-Token", credentials.sessionToken);
+        }
+        return headers;
+    }
+
+    /**
+     * Computes the {@code Authorization} header of a request.
+     *
+     * @param method        The HTTP method.
+     * @param url           The full request URL.
+     * @param signedHeaders The headers to sign by lower-case name, including {@code host} and {@code x-amz-date}.
+     * @param payloadHash   The hex encoded SHA-256 of the request body.
+     * @param credentials   The AWS credentials.
+     * @param amzDate       The signing time as in {@code x-amz-date}.
+     * @param region        The region to sign for.
+     * @param service       The service to sign for.
+     * @return The header value.
+     */
+    static String authorization(String method, String url, SortedMap<String, String> signedHeaders,
+                                String payloadHash, Credentials credentials, String amzDate, String region,
+                                String service) throws GeneralSecurityException {
+
+        return authorization(method, TARGETS.computeIfAbsent(url, Target::parse), signedHeaders, payloadHash,
+                credentials, amzDate, region, service);
+    }
+
+    private static String authorization(String method, Target target, SortedMap<String, String> signedHeaders,
+                                        String payloadHash, Credentials credentials, String amzDate, String region,
+                                        String service) throws GeneralSecurityException {
+
+        StringBuilder canonical = new StringBuilder(256);
+        canonical.append(method).append('\n')
+                .append(target.canonicalUri).append('\n')
+                .append(target.canonicalQuery).append('\n');
+        for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+            canonical.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+        }
+        String signedHeaderNames = String.join(";", signedHeaders.keySet());
+        canonical.append('\n').append(signedHeaderNames).append('\n').append(payloadHash);
+
+        String dateStamp = amzDate.substring(0, 8);
+        String scope = dateStamp + '/' + region + '/' + service + '/' + TERMINATOR;
+        String stringToSign = ALGORITHM + '\n' + amzDate + '\n' + scope + '\n'
+                + hex(sha256(canonical.toString().getBytes(StandardCharsets.UTF_8)));
+        String signature = hex(hmac(getSigningKey(credentials, dateStamp, region, service), stringToSign));
+        return ALGORITHM + " Credential=" + credentials.accessKeyId + '/' + scope + ", SignedHeaders="
+                + signedHeaderNames + ", Signature=" + signature;
+    }
+
+    private static byte[] getSigningKey(Credentials credentials, String dateStamp, String region, String service)
+            throws GeneralSecurityException {
+
+        String cacheKey = dateStamp + '/' + region + '/' + service + '/' + credentials.accessKeyId + '/'
+                + credentials.secretAccessKey.hashCode();
+        byte[] signingKey = SIGNING_KEYS.get(cacheKey);
+        if (signingKey != null) {
+            return signingKey;
+        }
+        signingKey = deriveSigningKey(credentials.secretAccessKey, dateStamp, region, service);
+        if (SIGNING_KEYS.size() >= MAX_CACHED_KEYS) {
+            // Keys of previous days are never used again
+            SIGNING_KEYS.clear();
+        }
+        SIGNING_KEYS.put(cacheKey, signingKey);
+        return signingKey;
+    }
+
+    static byte[] deriveSigningKey(String secretAccessKey, String dateStamp, String region, String service)
+            throws GeneralSecurityException {
+        byte[] dateKey = hmac(("AWS4" + secretAccessKey).getBytes(StandardCharsets.UTF_8), dateStamp);
+        byte[] regionKey = hmac(dateKey, region);
+        byte[] serviceKey = hmac(regionKey, service);
+        return hmac(serviceKey, TERMINATOR);
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC_SHA256);
+        mac.init(new SecretKeySpec(key, HMAC_SHA256));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static byte[] sha256(byte[] data) throws GeneralSecurityException {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static String uriEncode(String value) {
+        StringBuilder encoded = new StringBuilder(value.length() + 16);
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(HEX[(b >> 4) & 0xF]))
+                        .append(Character.toUpperCase(HEX[b & 0xF]));
+            }
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * AWS credentials taken from an endpoint API key.
+     */
+    static final class Credentials {
+
+        private final String accessKeyId;
+        private final String secretAccessKey;
+        private final String sessionToken;
+
+        private Credentials(String accessKeyId, String secretAccessKey, String sessionToken) {
+            this.accessKeyId = accessKeyId;
+            this.secretAccessKey = secretAccessKey;
+            this.sessionToken = sessionToken;
+        }
+
+        /**
+         * Parses {@code ACCESS_KEY_ID:SECRET_ACCESS_KEY[:SESSION_TOKEN]}.
+         *
+         * @return The credentials, or {@code null} if the key is not in that form.
+         */
+        static Credentials parse(String apiKey) {
+            String[] parts = apiKey.split(":", 3);
+            if (parts.length < 2 || parts[0].isEmpty() || parts[1].isEmpty()) {
+                return null;
+            }
+            return new Credentials(parts[0], parts[1], parts.length == 3 && !parts[2].isEmpty() ? parts[2] : null);
+        }
+    }
+
+    /**
+     * Canonical parts of a request URL and the region derived from its host.
+     */
+    private static final class Target {
+
+        private final String host;
+        private final String region;
+        private final String canonicalUri;
+        private final String canonicalQuery;
+
+        private Target(String host, String region, String canonicalUri, String canonicalQuery) {
+            this.host = host;
+            this.region = region;
+            this.canonicalUri = canonicalUri;
+            this.canonicalQuery = canonicalQuery;
+        }
+
+        private static Target parse(String url) {
+            URI uri = URI.create(url);
+            String host = uri.getHost();
+            String region = DEFAULT_REGION;
+            for (String label : host.split("\\.")) {
+                if (REGION.matcher(label).matches()) {
+                    region = label;
+                    break;
+                }
+            }
+
+            String rawPath = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            StringBuilder canonicalUri = new StringBuilder(rawPath.length() + 16);
+            for (String segment : rawPath.split("/", -1)) {
+                if (canonicalUri.length() > 0 || !segment.isEmpty()) {
+                    canonicalUri.append('/').append(uriEncode(segment));
+                }
+            }
+            if (canonicalUri.length() == 0) {
+                canonicalUri.append('/');
+            }
+
+            String canonicalQuery = "";
+            if (uri.getRawQuery() != null && !uri.getRawQuery().isEmpty()) {
+                String[] params = uri.getRawQuery().split("&");
+                for (int i = 0; i < params.length; i++) {
+                    String[] pair = params[i].split("=", 2);
+                    params[i] = uriEncode(pair[0]) + '=' + (pair.length > 1 ? uriEncode(pair[1]) : "");
+                }
+                Arrays.sort(params);
+                canonicalQuery = String.join("&", params);
+            }
+            return new Target(host, region, canonicalUri.toString(), canonicalQuery);
+        }
+    }
+}
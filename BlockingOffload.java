@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in execution mode for blocking segments of AI mediation, such as the routing classifier call and endpoint
+ * resolution, enabled with the {@code ai.mediation.offload} system property.
+ * <p>
+ * When enabled, a segment runs on a virtual thread (JDK 21 and later) or on a dedicated bounded pool of
+ * {@code ai.mediation.offload.threads} threads, and the Synapse worker waits for it for at most the segment's
+ * time budget before continuing with the segment's fallback. Each segment kind is also a bulkhead of
+ * {@code ai.mediation.offload.maxConcurrent} concurrent calls: once that many are running, further calls get the
+ * fallback without waiting. A slow classifier therefore holds a bounded number of workers for a bounded time, and
+ * other APIs on the gateway keep their workers. When disabled, segments run inline as before.
+ */
+public final class BlockingOffload {
+
+    private static final Log log = LogFactory.getLog(BlockingOffload.class);
+
+    private static final boolean ENABLED = Boolean.getBoolean("ai.mediation.offload");
+    private static final int MAX_CONCURRENT = Integer.getInteger("ai.mediation.offload.maxConcurrent", 64);
+    private static final ExecutorService EXECUTOR = ENABLED ? createExecutor() : null;
+
+    private static final Map<String, Semaphore> BULKHEADS = new ConcurrentHashMap<>();
+    private static final LongAdder TIMEOUTS = new LongAdder();
+    private static final LongAdder SHED = new LongAdder();
+
+    private BlockingOffload() {
+
+    }
+
+    /**
+     * Runs a blocking segment within its time budget.
+     *
+     * @param segment       The segment kind, e.g. {@code classifier}; each kind has its own bulkhead.
+     * @param task          The blocking work.
+     * @param timeoutMillis The time budget of the segment.
+     * @param fallback      The result used if the segment fails, times out or is shed.
+     * @param <T>           The result type.
+     * @return The result of the task, or the fallback.
+     */
+    public static <T> T call(String segment, Callable<T> task, long timeoutMillis, T fallback) {
+
+        if (!ENABLED) {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                log.warn("Blocking segment " + segment + " failed", e);
+                return fallback;
+            }
+        }
+
+        Semaphore bulkhead = BULKHEADS.computeIfAbsent(segment, key -> new Semaphore(MAX_CONCURRENT));
+        if (!bulkhead.tryAcquire()) {
+            SHED.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("Too many concurrent " + segment + " segments, using the fallback");
+            }
+            return fallback;
+        }
+        Future<T> future;
+        try {
+            future = EXECUTOR.submit(() -> {
+                try {
+                    return task.call();
+                } finally {
+                    bulkhead.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            bulkhead.release();
+            SHED.increment();
+            return fallback;
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            TIMEOUTS.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("Blocking segment " + segment + " exceeded its budget of " + timeoutMillis
+                        + " ms, using the fallback");
+            }
+            return fallback;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return fallback;
+        } catch (ExecutionException e) {
+            log.warn("Blocking segment " + segment + " failed", e.getCause());
+            return fallback;
+        }
+    }
+
+    public static boolean isEnabled() {
+
+        return ENABLED;
+    }
+
+    public static long getTimeouts() {
+
+        return TIMEOUTS.sum();
+    }
+
+    public static long getShed() {
+
+        return SHED.sum();
+    }
+
+    private static ExecutorService createExecutor() {
+
+        try {
+            // Resolved reflectively so that the gateway still runs on JDKs without virtual threads
+            ExecutorService executor = (ExecutorService) Class.forName("java.util.concurrent.Executors")
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("Offloading blocking AI mediation segments to virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            int threads = Integer.getInteger("ai.mediation.offload.threads", 32);
+            AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(threads * 4), runnable -> {
+                        Thread thread = new Thread(runnable, "ai-mediation-offload-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            log.info("Offloading blocking AI mediation segments to a pool of " + threads + " threads");
+            return executor;
+        }
+    }
+}
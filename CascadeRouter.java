@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Speculative cascade: a request is first sent to a cheaper model than the one routing selected, and escalated to
+ * the selected model only when the draft response fails a confidence check.
+ * <p>
+ * {@code LLMRouteMediator} picks the draft, the cheapest healthy model of a lower tier that fits the request, and
+ * keeps the selected endpoint in the route configs under {@link #ESCALATION_ENDPOINT}. {@code AIAPIMediator}
+ * checks the draft response with {@link #check} and, if it fails, resends the original request to the escalation
+ * endpoint the way a failover hop does. A draft response is rejected when:
+ * <ul>
+ *     <li>it is a 5xx or 429 error;</li>
+ *     <li>generation stopped on a content filter, or at the token limit unless the request's own
+ *     {@code max_tokens} was reached;</li>
+ *     <li>it has fewer than {@code minAnswerChars} characters of text and no tool calls;</li>
+ *     <li>the request asked for JSON output and the text is not JSON, or tool call arguments are not JSON;</li>
+ *     <li>its mean token log probability is below {@code minLogprob}, when the response carries log probabilities;
+ *     </li>
+ *     <li>its text matches one of the {@code escalatePatterns}, which by default match answers opening with a
+ *     refusal or apology.</li>
+ * </ul>
+ * Streamed requests, requests changed to another provider schema and prompts over {@code maxPromptTokens} are
+ * not cascaded. The checks are configured by the {@code cascade} object of the routing policy:
+ * <pre>
+ * "cascade": {
+ *     "maxPromptTokens": 4000,
+ *     "minAnswerChars": 1,
+ *     "minLogprob": -0.7,
+ *     "escalatePatterns": ["(?i)^\\s*(i'?m sorry|i cannot|i can'?t)"]
+ * }
+ * </pre>
+ */
+public final class CascadeRouter {
+
+    /**
+     * Routing strategy name selecting this router.
+     */
+    public static final String STRATEGY = "cascade";
+    /**
+     * LLM route configs entry holding the endpoint a failed draft is escalated to.
+     */
+    public static final String ESCALATION_ENDPOINT = "AI_CASCADE_ESCALATION_ENDPOINT";
+    /**
+     * LLM route configs entry holding the {@link CascadeRouter} that checks the draft.
+     */
+    public static final String ROUTER = "AI_CASCADE_ROUTER";
+    /**
+     * LLM route configs entry holding whether the request asked for JSON output.
+     */
+    public static final String EXPECT_JSON = "AI_CASCADE_EXPECT_JSON";
+    /**
+     * The router of a policy without a {@code cascade} object.
+     */
+    public static final CascadeRouter DEFAULT = new CascadeRouter(0, 1, Double.NaN,
+            new Pattern[]{Pattern.compile("^\\s*(?:I'?m sorry|I am sorry|I apologi[sz]e|I can(?:'|no)?t help"
+                    + "|I(?:'m| am) (?:not able|unable) to|As an AI)", Pattern.CASE_INSENSITIVE)});
+
+    private final int maxPromptTokens;
+    private final int minAnswerChars;
+    private final double minLogprob;
+    private final Pattern[] escalatePatterns;
+
+    CascadeRouter(int maxPromptTokens, int minAnswerChars, double minLogprob, Pattern[] escalatePatterns) {
+
+        this.maxPromptTokens = maxPromptTokens;
+        this.minAnswerChars = minAnswerChars;
+        this.minLogprob = minLogprob;
+        this.escalatePatterns = escalatePatterns;
+    }
+
+    /**
+     * Reads the {@code cascade} object of a routing policy. Missing settings keep their defaults; invalid escalate
+     * patterns are skipped.
+     *
+     * @param policy The routing policy.
+     * @return The router of the policy.
+     */
+    public static CascadeRouter fromPolicy(JsonObject policy) {
+
+        JsonElement section = policy != null ? policy.get("cascade") : null;
+        if (section == null || !section.isJsonObject()) {
+            return DEFAULT;
+        }
+        JsonObject cascade = section.getAsJsonObject();
+        Pattern[] patterns = DEFAULT.escalatePatterns;
+        JsonElement configuredPatterns = cascade.get("escalatePatterns");
+        if (configuredPatterns != null && configuredPatterns.isJsonArray()) {
+            List<Pattern> compiled = new ArrayList<>();
+            for (JsonElement pattern : configuredPatterns.getAsJsonArray()) {
+                try {
+                    compiled.add(Pattern.compile(pattern.getAsString()));
+                } catch (PatternSyntaxException | UnsupportedOperationException | IllegalStateException e) {
+                    // An unusable pattern must not disable the other checks
+                }
+            }
+            patterns = compiled.toArray(new Pattern[0]);
+        }
+        JsonElement maxPromptTokens = cascade.get("maxPromptTokens");
+        JsonElement minAnswerChars = cascade.get("minAnswerChars");
+        JsonElement minLogprob = cascade.get("minLogprob");
+        return new CascadeRouter(
+                maxPromptTokens != null && maxPromptTokens.isJsonPrimitive() ? maxPromptTokens.getAsInt() : 0,
+                minAnswerChars != null && minAnswerChars.isJsonPrimitive() ? minAnswerChars.getAsInt()
+                        : DEFAULT.minAnswerChars,
+                minLogprob != null && minLogprob.isJsonPrimitive() ? minLogprob.getAsDouble() : Double.NaN,
+                patterns);
+    }
+
+    /**
+     * Returns whether a request of the given size is cascaded.
+     *
+     * @param promptTokens The estimated prompt tokens, or a negative number if not known.
+     */
+    public boolean accepts(int promptTokens) {
+
+        return maxPromptTokens <= 0 || (promptTokens >= 0 && promptTokens <= maxPromptTokens);
+    }
+
+    /**
+     * Returns whether a request payload asks for JSON output, through an OpenAI {@code response_format} or a
+     * Gemini {@code responseMimeType}.
+     *
+     * @param requestPayload The request payload.
+     */
+    public static boolean expectsJson(String requestPayload) {
+
+        if (requestPayload == null || (!requestPayload.contains("response_format")
+                && !requestPayload.contains("responseMimeType"))) {
+            return false;
+        }
+        try {
+            JsonObject request = JsonParser.parseString(requestPayload).getAsJsonObject();
+            JsonElement format = request.get("response_format");
+            if (format != null && format.isJsonObject()) {
+                String type = getString(format.getAsJsonObject(), "type");
+                return "json_object".equals(type) || "json_schema".equals(type);
+            }
+            JsonElement generationConfig = request.get("generationConfig");
+            return generationConfig != null && generationConfig.isJsonObject() && "application/json".equals(
+                    getString(generationConfig.getAsJsonObject(), "responseMimeType"));
+        } catch (JsonParseException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks a draft response.
+     *
+     * @param statusCode      The upstream status code.
+     * @param responsePayload The response payload, in any of the OpenAI, Anthropic or Gemini schemas.
+     * @param expectJson      Whether the request asked for JSON output.
+     * @param maxTokens       The output token limit the request asks for, or 0 if it sets none. A draft stopped by
+     *                        it would be stopped by the escalation model as well, so it is not escalated.
+     * @return Why the draft is escalated, or {@code null} if it is accepted.
+     */
+    public String check(int statusCode, String responsePayload, boolean expectJson, int maxTokens) {
+
+        if (statusCode >= 500 || statusCode == 429) {
+            return "status " + statusCode;
+        }
+        if (statusCode < 200 || statusCode >= 300) {
+            // Client errors would fail on the larger model as well
+            return null;
+        }
+        Draft draft;
+        try {
+            draft = Draft.parse(JsonParser.parseString(responsePayload).getAsJsonObject());
+        } catch (RuntimeException e) {
+            // Not a chat response in a known schema
+            return "unreadable response";
+        }
+        if (draft.finishReason == ChatResponseTranslator.FinishReason.LENGTH && (maxTokens <= 0
+                || (draft.outputTokens >= 0 && draft.outputTokens < maxTokens))) {
+            // Stopped by the draft model's own limit rather than by the client's
+            return "truncated";
+        }
+        if (draft.finishReason == ChatResponseTranslator.FinishReason.CONTENT_FILTER) {
+            return "content filter";
+        }
+        String text = draft.text.toString();
+        if (draft.toolArguments.isEmpty() && text.trim().length() < minAnswerChars) {
+            return "short answer";
+        }
+        for (String arguments : draft.toolArguments) {
+            if (!isJson(arguments)) {
+                return "malformed tool call";
+            }
+        }
+        if (expectJson && draft.toolArguments.isEmpty() && !isJson(stripCodeFence(text))) {
+            return "malformed JSON";
+        }
+        if (!Double.isNaN(minLogprob) && !Double.isNaN(draft.meanLogprob) && draft.meanLogprob < minLogprob) {
+            return "low confidence";
+        }
+        for (Pattern pattern : escalatePatterns) {
+            if (pattern.matcher(text).find()) {
+                return "escalate pattern";
+            }
+        }
+        return null;
+    }
+
+    private static boolean isJson(String text) {
+
+        try {
+            JsonElement json = JsonParser.parseString(text);
+            return json.isJsonObject() || json.isJsonArray();
+        } catch (JsonParseException e) {
+            return false;
+        }
+    }
+
+    private static String stripCodeFence(String text) {
+
+        String trimmed = text.trim();
+        if (!trimmed.startsWith("```") || !trimmed.endsWith("```") || trimmed.length() < 6) {
+            return trimmed;
+        }
+        int start = trimmed.indexOf('\n');
+        return start < 0 ? trimmed : trimmed.substring(start + 1, trimmed.length() - 3);
+    }
+
+    private static String getString(JsonObject object, String name) {
+
+        JsonElement element = object.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
+    private static int getInt(JsonObject object, String section, String name) {
+
+        JsonElement element = object.get(section);
+        if (element == null || !element.isJsonObject()) {
+            return -1;
+        }
+        element = element.getAsJsonObject().get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsInt() : -1;
+    }
+
+    /**
+     * The parts of a draft response the checks look at.
+     */
+    static final class Draft {
+
+        final StringBuilder text = new StringBuilder();
+        final List<String> toolArguments = new ArrayList<>(0);
+        ChatResponseTranslator.FinishReason finishReason = ChatResponseTranslator.FinishReason.STOP;
+        double meanLogprob = Double.NaN;
+        int outputTokens = -1;
+
+        static Draft parse(JsonObject body) {
+
+            Draft draft = new Draft();
+            if (body.has("choices")) {
+                JsonArray choices = body.getAsJsonArray("choices");
+                if (choices.size() == 0) {
+                    return draft;
+                }
+                draft.outputTokens = getInt(body, "usage", "completion_tokens");
+                JsonObject choice = choices.get(0).getAsJsonObject();
+                draft.finishReason = ChatResponseTranslator.FinishReason.parse(getString(choice, "finish_reason"));
+                JsonElement message = choice.get("message");
+                if (message != null && message.isJsonObject()) {
+                    String content = getString(message.getAsJsonObject(), "content");
+                    if (content != null) {
+                        draft.text.append(content);
+                    }
+                    JsonElement toolCalls = message.getAsJsonObject().get("tool_calls");
+                    if (toolCalls != null && toolCalls.isJsonArray()) {
+                        for (JsonElement call : toolCalls.getAsJsonArray()) {
+                            JsonObject function = call.getAsJsonObject().getAsJsonObject("function");
+                            draft.toolArguments.add(function != null && function.has("arguments")
+                                    ? function.get("arguments").getAsString() : "{}");
+                        }
+                    }
+                }
+                JsonElement logprobs = choice.get("logprobs");
+                if (logprobs != null && logprobs.isJsonObject() && logprobs.getAsJsonObject().has("content")
+                        && logprobs.getAsJsonObject().get("content").isJsonArray()) {
+                    double sum = 0.0d;
+                    int count = 0;
+                    for (JsonElement token : logprobs.getAsJsonObject().getAsJsonArray("content")) {
+                        if (token.isJsonObject() && token.getAsJsonObject().has("logprob")) {
+                            sum += token.getAsJsonObject().get("logprob").getAsDouble();
+                            count++;
+                        }
+                    }
+                    draft.meanLogprob = count > 0 ? sum / count : Double.NaN;
+                }
+            } else if (body.has("candidates")) {
+                JsonArray candidates = body.getAsJsonArray("candidates");
+                if (candidates.size() == 0) {
+                    return draft;
+                }
+                draft.outputTokens = getInt(body, "usageMetadata", "candidatesTokenCount");
+                JsonObject candidate = candidates.get(0).getAsJsonObject();
+                draft.finishReason = ChatResponseTranslator.FinishReason.parse(getString(candidate, "finishReason"));
+                JsonElement content = candidate.get("content");
+                if (content != null && content.isJsonObject() && content.getAsJsonObject().has("parts")) {
+                    for (JsonElement part : content.getAsJsonObject().getAsJsonArray("parts")) {
+                        JsonObject partObject = part.getAsJsonObject();
+                        if (partObject.has("text")) {
+                            draft.text.append(partObject.get("text").getAsString());
+                        } else if (partObject.has("functionCall")) {
+                            JsonElement args = partObject.getAsJsonObject("functionCall").get("args");
+                            draft.toolArguments.add(args != null ? args.toString() : "{}");
+                        }
+                    }
+                }
+                if (candidate.has("avgLogprobs")) {
+                    draft.meanLogprob = candidate.get("avgLogprobs").getAsDouble();
+                }
+            } else {
+                draft.finishReason = ChatResponseTranslator.FinishReason.parse(getString(body, "stop_reason"));
+                draft.outputTokens = getInt(body, "usage", "output_tokens");
+                JsonElement content = body.get("content");
+                if (content != null && content.isJsonArray()) {
+                    for (JsonElement block : content.getAsJsonArray()) {
+                        JsonObject blockObject = block.getAsJsonObject();
+                        String type = getString(blockObject, "type");
+                        if ("text".equals(type) && blockObject.has("text")) {
+                            draft.text.append(blockObject.get("text").getAsString());
+                        } else if ("tool_use".equals(type)) {
+                            JsonElement input = blockObject.get("input");
+                            draft.toolArguments.add(input != null ? input.toString() : "{}");
+                        }
+                    }
+                }
+            }
+            if (!draft.toolArguments.isEmpty()
+                    && draft.finishReason == ChatResponseTranslator.FinishReason.STOP) {
+                draft.finishReason = ChatResponseTranslator.FinishReason.TOOL_CALLS;
+            }
+            return draft;
+        }
+    }
+}
@@ -0,0 +1,1364 @@
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Translates chat requests between the OpenAI, Mistral, Anthropic, Bedrock and Gemini schemas.
+ * <p>
+ * The source payload is read in a single streaming pass into a small {@link ChatRequest} holding the full
+ * conversation (system prompt, every message, tool calls and results), the tool definitions and the sampling
+ * parameters. The target payload is then streamed straight into an output buffer using the field mappings of
+ * the target {@link ChatSchema}. Images are carried over as inline data or URLs. Content parts and parameters
+ * that the source or target schema cannot carry are rejected with an {@link UnsupportedRequestException} rather
+ * than dropped, since the target model would otherwise answer a different request.
+ */
+final class ChatRequestTranslator {
+
+    static final int DEFAULT_MAX_TOKENS = 1000;
+    private static final String BEDROCK_ANTHROPIC_VERSION = "bedrock-2023-05-31";
+    private static final Gson GSON = new Gson();
+    // Top level fields of prompt style payloads, in order of preference
+    private static final List<String> PROMPT_FIELDS =
+            Arrays.asList("message", "prompt", "input", "text", "query", "question");
+    // Image types Gemini accepts by URL, which needs the type stated alongside the URL
+    private static final Map<String, String> IMAGE_TYPES = new HashMap<>();
+
+    static {
+        IMAGE_TYPES.put("png", "image/png");
+        IMAGE_TYPES.put("jpg", "image/jpeg");
+        IMAGE_TYPES.put("jpeg", "image/jpeg");
+        IMAGE_TYPES.put("gif", "image/gif");
+        IMAGE_TYPES.put("webp", "image/webp");
+        IMAGE_TYPES.put("heic", "image/heic");
+        IMAGE_TYPES.put("heif", "image/heif");
+    }
+
+    private ChatRequestTranslator() {
+    }
+
+    /**
+     * Parses a chat request in any supported schema in a single pass over the payload. Prompt style payloads
+     * without a conversation ({@code message}, {@code prompt}, {@code input}, {@code text}, {@code query} or
+     * {@code question} as a top level string) are read as a single user message. Only top level field names
+     * are matched, so these words appearing inside message content have no effect.
+     *
+     * @param payload The request payload.
+     * @return The parsed request, or {@code null} if the payload has neither a conversation nor a prompt field.
+     * @throws UnsupportedRequestException If the request has content parts or a tool choice that cannot be
+     *                                     translated.
+     * @throws IOException                 If the payload is not valid JSON or a known field has an unexpected type.
+     */
+    static ChatRequest parse(String payload) throws IOException {
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return read(payload);
+        } catch (IllegalStateException | UnsupportedOperationException | NumberFormatException
+                | JsonParseException e) {
+            // Thrown by the reader and by JSON element accessors for fields of an unexpected type
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static ChatRequest read(String payload) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(payload));
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return null;
+        }
+        ChatRequest request = new ChatRequest();
+        boolean hasConversation = false;
+        boolean anthropicHints = false;
+        String prompt = null;
+        int promptRank = PROMPT_FIELDS.size();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "model":
+                    if (reader.peek() == JsonToken.STRING) {
+                        request.model = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "message":
+                case "prompt":
+                case "input":
+                case "text":
+                case "query":
+                case "question":
+                    int rank = PROMPT_FIELDS.indexOf(name);
+                    if (rank < promptRank && reader.peek() == JsonToken.STRING) {
+                        prompt = reader.nextString();
+                        promptRank = rank;
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "messages":
+                    anthropicHints |= readMessages(reader, request);
+                    hasConversation = true;
+                    break;
+                case "contents":
+                    readGeminiContents(reader, request);
+                    request.sourceSchema = ChatSchema.GEMINI;
+                    hasConversation = true;
+                    break;
+                case "system":
+                    appendSystem(request, readText(reader));
+                    anthropicHints = true;
+                    break;
+                case "systemInstruction":
+                case "system_instruction":
+                    appendSystem(request, readGeminiText(JsonParser.parseReader(reader)));
+                    break;
+                case "anthropic_version":
+                    anthropicHints = true;
+                    reader.skipValue();
+                    break;
+                case "tools":
+                    readTools(reader, request);
+                    break;
+                case "generationConfig":
+                case "generation_config":
+                    readGenerationConfig(reader, request);
+                    break;
+                case "max_tokens":
+                case "max_completion_tokens":
+                    request.maxTokens = reader.nextInt();
+                    break;
+                case "temperature":
+                    request.temperature = reader.nextDouble();
+                    break;
+                case "top_p":
+                    request.topP = reader.nextDouble();
+                    break;
+                case "top_k":
+                    request.topK = reader.nextInt();
+                    break;
+                case "frequency_penalty":
+                    request.frequencyPenalty = reader.nextDouble();
+                    break;
+                case "presence_penalty":
+                    request.presencePenalty = reader.nextDouble();
+                    break;
+                case "tool_choice":
+                    readToolChoice(JsonParser.parseReader(reader), request);
+                    break;
+                case "toolConfig":
+                case "tool_config":
+                    readGeminiToolConfig(JsonParser.parseReader(reader).getAsJsonObject(), request);
+                    break;
+                case "response_format":
+                    readResponseFormat(JsonParser.parseReader(reader), request);
+                    break;
+                case "stop":
+                case "stop_sequences":
+                    request.stop = readStrings(reader);
+                    break;
+                case "stream":
+                    request.stream = reader.nextBoolean();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        if (!hasConversation) {
+            if (prompt == null) {
+                return null;
+            }
+            request.addUserText(prompt);
+            return request;
+        }
+        if (request.sourceSchema == null) {
+            request.sourceSchema = anthropicHints ? ChatSchema.ANTHROPIC : ChatSchema.OPENAI;
+        }
+        return request;
+    }
+
+    /**
+     * Writes the request in the target schema.
+     *
+     * @param request     The parsed request.
+     * @param target      The target schema.
+     * @param targetModel The target model, written to the body where the schema carries it.
+     * @return The target payload.
+     * @throws UnsupportedRequestException If the request uses content parts or parameters the target schema has
+     *                                     no equivalent for.
+     */
+    static String write(ChatRequest request, ChatSchema target, String targetModel) throws IOException {
+        checkSupported(request, target);
+        StringWriter buffer = new StringWriter(256 + request.estimatedSize);
+        JsonWriter writer = new JsonWriter(buffer);
+        writer.beginObject();
+        switch (target) {
+            case ANTHROPIC:
+            case BEDROCK:
+                writeAnthropic(writer, request, target, targetModel);
+                break;
+            case GEMINI:
+                writeGemini(writer, request);
+                break;
+            default:
+                writeOpenAI(writer, request, target, targetModel);
+                break;
+        }
+        writeParameters(writer, request, target);
+        writer.endObject();
+        writer.flush();
+        return buffer.toString();
+    }
+
+    // ---- Reading ----
+
+    /**
+     * Reads an OpenAI or Anthropic message array.
+     *
+     * @return {@code true} if Anthropic only constructs were seen.
+     */
+    private static boolean readMessages(JsonReader reader, ChatRequest request) throws IOException {
+        boolean anthropicHints = false;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String role = null;
+            String toolCallId = null;
+            Message message = new Message(null);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "role":
+                        role = reader.nextString();
+                        break;
+                    case "content":
+                    case "text":
+                        anthropicHints |= readContent(reader, message, request);
+                        break;
+                    case "tool_calls":
+                        readOpenAIToolCalls(reader, message, request);
+                        break;
+                    case "tool_call_id":
+                        toolCallId = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+
+            if ("system".equals(role) || "developer".equals(role)) {
+                appendSystem(request, message.text());
+            } else if ("tool".equals(role) || "function".equals(role)) {
+                // OpenAI tool results become tool result parts of a user turn, as in the Anthropic schema
+                Message toolMessage = new Message(Role.USER);
+                toolMessage.parts.add(Part.toolResult(toolCallId, null, message.text()));
+                request.messages.add(toolMessage);
+            } else {
+                message.role = "assistant".equals(role) || "model".equals(role) ? Role.ASSISTANT : Role.USER;
+                request.messages.add(message);
+            }
+        }
+        reader.endArray();
+        return anthropicHints;
+    }
+
+    /**
+     * Reads a message content that is either a string or an array of content blocks.
+     *
+     * @return {@code true} if Anthropic tool blocks were seen.
+     * @throws UnsupportedRequestException If a block is neither text, an image nor a tool call or result.
+     */
+    private static boolean readContent(JsonReader reader, Message message, ChatRequest request)
+            throws IOException {
+        if (reader.peek() == JsonToken.STRING) {
+            message.parts.add(Part.text(readString(reader, request)));
+            return false;
+        }
+        boolean anthropicHints = false;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JsonObject block = JsonParser.parseReader(reader).getAsJsonObject();
+            String type = getString(block, "type");
+            if ("text".equals(type) || "input_text".equals(type)) {
+                String text = getString(block, "text");
+                request.estimatedSize += text != null ? text.length() : 0;
+                message.parts.add(Part.text(text));
+            } else if ("tool_use".equals(type)) {
+                anthropicHints = true;
+                JsonElement input = block.get("input");
+                message.parts.add(Part.toolCall(getString(block, "id"), getString(block, "name"),
+                        input != null ? input.toString() : "{}"));
+            } else if ("tool_result".equals(type)) {
+                anthropicHints = true;
+                message.parts.add(Part.toolResult(getString(block, "tool_use_id"), null,
+                        readBlockText(block.get("content"))));
+            } else if ("image_url".equals(type) || "input_image".equals(type)) {
+                JsonElement image = block.get("image_url");
+                String url = image != null && image.isJsonObject()
+                        ? getString(image.getAsJsonObject(), "url") : getString(block, "image_url");
+                message.parts.add(readImageUrl(url, request));
+            } else if ("image".equals(type)) {
+                anthropicHints = true;
+                message.parts.add(readAnthropicImage(block.getAsJsonObject("source"), request));
+            } else {
+                throw new UnsupportedRequestException("Content parts of type " + type + " are not supported");
+            }
+        }
+        reader.endArray();
+        return anthropicHints;
+    }
+
+    /**
+     * Reads an OpenAI image URL, which is either a web URL or a base64 data URL.
+     */
+    private static Part readImageUrl(String url, ChatRequest request) throws UnsupportedRequestException {
+        if (url == null || url.isEmpty()) {
+            throw new UnsupportedRequestException("Image content parts must have a URL");
+        }
+        if (!url.startsWith("data:")) {
+            return Part.image(null, null, url);
+        }
+        int comma = url.indexOf(',');
+        String header = comma > 0 ? url.substring("data:".length(), comma) : "";
+        if (!header.endsWith(";base64")) {
+            throw new UnsupportedRequestException("Image data URLs must be base64 encoded");
+        }
+        request.estimatedSize += url.length();
+        return Part.image(header.substring(0, header.length() - ";base64".length()), url.substring(comma + 1), null);
+    }
+
+    private static Part readAnthropicImage(JsonObject source, ChatRequest request)
+            throws UnsupportedRequestException {
+        String type = getString(source, "type");
+        if ("base64".equals(type)) {
+            String data = getString(source, "data");
+            request.estimatedSize += data != null ? data.length() : 0;
+            return Part.image(getString(source, "media_type"), data, null);
+        }
+        if ("url".equals(type)) {
+            return Part.image(null, null, getString(source, "url"));
+        }
+        throw new UnsupportedRequestException("Image sources of type " + type + " are not supported");
+    }
+
+    private static void readToolChoice(JsonElement choice, ChatRequest request) throws UnsupportedRequestException {
+        String type;
+        String name = null;
+        if (choice.isJsonPrimitive()) {
+            type = choice.getAsString();
+        } else {
+            JsonObject object = choice.getAsJsonObject();
+            type = getString(object, "type");
+            name = object.has("function") ? getString(object.getAsJsonObject("function"), "name")
+                    : getString(object, "name");
+        }
+        if ("auto".equals(type)) {
+            request.toolChoice = ToolChoice.AUTO;
+        } else if ("none".equals(type)) {
+            request.toolChoice = ToolChoice.NONE;
+        } else if ("required".equals(type) || "any".equals(type)) {
+            request.toolChoice = ToolChoice.REQUIRED;
+        } else if (("function".equals(type) || "tool".equals(type)) && name != null) {
+            request.toolChoice = ToolChoice.FUNCTION;
+            request.toolChoiceName = name;
+        } else {
+            throw new UnsupportedRequestException("Tool choice " + choice + " is not supported");
+        }
+    }
+
+    private static void readGeminiToolConfig(JsonObject toolConfig, ChatRequest request)
+            throws UnsupportedRequestException {
+        JsonElement config = toolConfig.has("functionCallingConfig") ? toolConfig.get("functionCallingConfig")
+                : toolConfig.get("function_calling_config");
+        if (config == null || !config.isJsonObject()) {
+            return;
+        }
+        String mode = getString(config.getAsJsonObject(), "mode");
+        JsonElement names = config.getAsJsonObject().has("allowedFunctionNames")
+                ? config.getAsJsonObject().get("allowedFunctionNames")
+                : config.getAsJsonObject().get("allowed_function_names");
+        int allowed = names != null && names.isJsonArray() ? names.getAsJsonArray().size() : 0;
+        if ("AUTO".equals(mode) && allowed == 0) {
+            request.toolChoice = ToolChoice.AUTO;
+        } else if ("NONE".equals(mode)) {
+            request.toolChoice = ToolChoice.NONE;
+        } else if ("ANY".equals(mode) && allowed == 0) {
+            request.toolChoice = ToolChoice.REQUIRED;
+        } else if ("ANY".equals(mode) && allowed == 1) {
+            request.toolChoice = ToolChoice.FUNCTION;
+            request.toolChoiceName = names.getAsJsonArray().get(0).getAsString();
+        } else if (mode != null) {
+            throw new UnsupportedRequestException("Function calling config " + config + " is not supported");
+        }
+    }
+
+    private static void readResponseFormat(JsonElement format, ChatRequest request)
+            throws UnsupportedRequestException {
+        JsonObject object = format.getAsJsonObject();
+        String type = getString(object, "type");
+        if ("text".equals(type)) {
+            request.responseFormat = ResponseFormat.TEXT;
+        } else if ("json_object".equals(type)) {
+            request.responseFormat = ResponseFormat.JSON_OBJECT;
+        } else if ("json_schema".equals(type) && object.has("json_schema")) {
+            JsonObject jsonSchema = object.getAsJsonObject("json_schema");
+            request.responseFormat = ResponseFormat.JSON_SCHEMA;
+            request.responseSchemaName = getString(jsonSchema, "name");
+            request.responseSchema = jsonSchema.get("schema");
+            JsonElement strict = jsonSchema.get("strict");
+            request.responseSchemaStrict = strict != null && !strict.isJsonNull() ? strict.getAsBoolean() : null;
+        } else {
+            throw new UnsupportedRequestException("Response format " + format + " is not supported");
+        }
+    }
+
+    private static void readOpenAIToolCalls(JsonReader reader, Message message, ChatRequest request)
+            throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JsonObject call = JsonParser.parseReader(reader).getAsJsonObject();
+            JsonObject function = call.has("function") ? call.getAsJsonObject("function") : new JsonObject();
+            String arguments = getString(function, "arguments");
+            request.estimatedSize += arguments != null ? arguments.length() : 0;
+            message.parts.add(Part.toolCall(getString(call, "id"), getString(function, "name"),
+                    arguments != null && !arguments.isEmpty() ? arguments : "{}"));
+        }
+        reader.endArray();
+    }
+
+    private static void readGeminiContents(JsonReader reader, ChatRequest request) throws IOException {
+        int callIndex = 0;
+        // Gemini pairs function responses with calls by name, the other schemas by call ID
+        Map<String, String> callIds = new HashMap<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JsonObject content = JsonParser.parseReader(reader).getAsJsonObject();
+            Message message = new Message("model".equals(getString(content, "role")) ? Role.ASSISTANT : Role.USER);
+            if (content.has("parts") && content.get("parts").isJsonArray()) {
+                for (JsonElement element : content.getAsJsonArray("parts")) {
+                    JsonObject part = element.getAsJsonObject();
+                    if (part.has("text")) {
+                        String text = getString(part, "text");
+                        request.estimatedSize += text != null ? text.length() : 0;
+                        message.parts.add(Part.text(text));
+                    } else if (part.has("functionCall")) {
+                        JsonObject call = part.getAsJsonObject("functionCall");
+                        JsonElement args = call.get("args");
+                        String id = "call_" + callIndex++;
+                        callIds.put(getString(call, "name"), id);
+                        message.parts.add(Part.toolCall(id, getString(call, "name"),
+                                args != null ? args.toString() : "{}"));
+                    } else if (part.has("functionResponse")) {
+                        JsonObject response = part.getAsJsonObject("functionResponse");
+                        JsonElement body = response.get("response");
+                        String name = getString(response, "name");
+                        message.parts.add(Part.toolResult(callIds.get(name), name,
+                                body != null ? body.toString() : ""));
+                    } else if (part.has("inlineData") || part.has("inline_data")) {
+                        JsonObject data = part.has("inlineData") ? part.getAsJsonObject("inlineData")
+                                : part.getAsJsonObject("inline_data");
+                        String encoded = getString(data, "data");
+                        request.estimatedSize += encoded != null ? encoded.length() : 0;
+                        message.parts.add(Part.image(getString(data, data.has("mimeType") ? "mimeType"
+                                : "mime_type"), encoded, null));
+                    } else if (part.has("fileData") || part.has("file_data")) {
+                        JsonObject data = part.has("fileData") ? part.getAsJsonObject("fileData")
+                                : part.getAsJsonObject("file_data");
+                        message.parts.add(Part.image(getString(data, data.has("mimeType") ? "mimeType"
+                                : "mime_type"), null, getString(data, data.has("fileUri") ? "fileUri" : "file_uri")));
+                    } else {
+                        throw new UnsupportedRequestException("Content parts " + part.keySet()
+                                + " are not supported");
+                    }
+                }
+            }
+            request.messages.add(message);
+        }
+        reader.endArray();
+    }
+
+    private static void readTools(JsonReader reader, ChatRequest request) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JsonObject tool = JsonParser.parseReader(reader).getAsJsonObject();
+            if (tool.has("function")) {
+                JsonObject function = tool.getAsJsonObject("function");
+                request.tools.add(new Tool(getString(function, "name"), getString(function, "description"),
+                        function.get("parameters")));
+            } else if (tool.has("functionDeclarations") || tool.has("function_declarations")) {
+                JsonElement declarations = tool.has("functionDeclarations")
+                        ? tool.get("functionDeclarations") : tool.get("function_declarations");
+                for (JsonElement element : declarations.getAsJsonArray()) {
+                    JsonObject declaration = element.getAsJsonObject();
+                    request.tools.add(new Tool(getString(declaration, "name"),
+                            getString(declaration, "description"), declaration.get("parameters")));
+                }
+            } else if (tool.has("name")) {
+                request.tools.add(new Tool(getString(tool, "name"), getString(tool, "description"),
+                        tool.get("input_schema")));
+            }
+        }
+        reader.endArray();
+    }
+
+    private static void readGenerationConfig(JsonReader reader, ChatRequest request) throws IOException {
+        String mimeType = null;
+        JsonElement schema = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "maxOutputTokens":
+                case "max_output_tokens":
+                    request.maxTokens = reader.nextInt();
+                    break;
+                case "temperature":
+                    request.temperature = reader.nextDouble();
+                    break;
+                case "topP":
+                case "top_p":
+                    request.topP = reader.nextDouble();
+                    break;
+                case "stopSequences":
+                case "stop_sequences":
+                    request.stop = readStrings(reader);
+                    break;
+                case "topK":
+                case "top_k":
+                    request.topK = reader.nextInt();
+                    break;
+                case "frequencyPenalty":
+                case "frequency_penalty":
+                    request.frequencyPenalty = reader.nextDouble();
+                    break;
+                case "presencePenalty":
+                case "presence_penalty":
+                    request.presencePenalty = reader.nextDouble();
+                    break;
+                case "responseMimeType":
+                case "response_mime_type":
+                    mimeType = reader.nextString();
+                    break;
+                case "responseSchema":
+                case "response_schema":
+                    // The OpenAPI subset schema has no JSON schema equivalent for the other providers
+                    throw new UnsupportedRequestException("responseSchema is not supported, use responseJsonSchema");
+                case "responseJsonSchema":
+                case "response_json_schema":
+                    schema = JsonParser.parseReader(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        if (schema != null) {
+            request.responseFormat = ResponseFormat.JSON_SCHEMA;
+            request.responseSchema = schema;
+        } else if ("application/json".equals(mimeType)) {
+            request.responseFormat = ResponseFormat.JSON_OBJECT;
+        } else if ("text/plain".equals(mimeType)) {
+            request.responseFormat = ResponseFormat.TEXT;
+        } else if (mimeType != null) {
+            throw new UnsupportedRequestException("Response MIME type " + mimeType + " is not supported");
+        }
+    }
+
+    private static String readText(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.STRING) {
+            return reader.nextString();
+        }
+        return readBlockText(JsonParser.parseReader(reader));
+    }
+
+    private static String readString(JsonReader reader, ChatRequest request) throws IOException {
+        String value = reader.nextString();
+        request.estimatedSize += value.length();
+        return value;
+    }
+
+    private static List<String> readStrings(JsonReader reader) throws IOException {
+        List<String> values = new ArrayList<>();
+        if (reader.peek() == JsonToken.STRING) {
+            values.add(reader.nextString());
+            return values;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+        return values;
+    }
+
+    /**
+     * Returns the text of a string or an array of text blocks.
+     */
+    private static String readBlockText(JsonElement content) {
+        if (content == null || content.isJsonNull()) {
+            return "";
+        }
+        if (content.isJsonPrimitive()) {
+            return content.getAsString();
+        }
+        if (!content.isJsonArray()) {
+            return content.toString();
+        }
+        StringBuilder text = new StringBuilder();
+        for (JsonElement element : content.getAsJsonArray()) {
+            if (element.isJsonObject() && element.getAsJsonObject().has("text")) {
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(element.getAsJsonObject().get("text").getAsString());
+            }
+        }
+        return text.toString();
+    }
+
+    private static String readGeminiText(JsonElement content) {
+        if (content != null && content.isJsonObject() && content.getAsJsonObject().has("parts")) {
+            return readBlockText(content.getAsJsonObject().get("parts"));
+        }
+        return readBlockText(content);
+    }
+
+    private static String getString(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element != null && !element.isJsonNull() ? element.getAsString() : null;
+    }
+
+    private static void appendSystem(ChatRequest request, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        request.system = request.system == null ? text : request.system + "\n" + text;
+        request.estimatedSize += text.length();
+    }
+
+    // ---- Writing ----
+
+    /**
+     * Rejects requests the target schema cannot carry. Penalties of zero are the defaults and need no parameter.
+     */
+    private static void checkSupported(ChatRequest request, ChatSchema target) throws UnsupportedRequestException {
+        if (request.topK != null && target.getTopKField() == null) {
+            throw new UnsupportedRequestException("top_k is not supported by the target model");
+        }
+        if (isNonZero(request.frequencyPenalty) && target.getFrequencyPenaltyField() == null) {
+            throw new UnsupportedRequestException("frequency_penalty is not supported by the target model");
+        }
+        if (isNonZero(request.presencePenalty) && target.getPresencePenaltyField() == null) {
+            throw new UnsupportedRequestException("presence_penalty is not supported by the target model");
+        }
+        if (request.responseFormat != null && request.responseFormat != ResponseFormat.TEXT
+                && !target.supportsResponseFormat()) {
+            throw new UnsupportedRequestException("JSON response formats are not supported by the target model");
+        }
+        for (Message message : request.messages) {
+            for (Part part : message.parts) {
+                if (part.type != PartType.IMAGE) {
+                    continue;
+                }
+                if (part.url == null && (part.data == null || part.mediaType == null)) {
+                    throw new UnsupportedRequestException("Inline images must have data and a media type");
+                }
+                if (part.url != null && !target.supportsImageUrls()) {
+                    throw new UnsupportedRequestException(
+                            "Images by URL are not supported by the target model, send them as base64 data");
+                }
+                if (part.url != null && target == ChatSchema.GEMINI && imageType(part) == null) {
+                    throw new UnsupportedRequestException("The media type of image " + part.url
+                            + " cannot be determined from its URL");
+                }
+            }
+        }
+    }
+
+    private static boolean isNonZero(Double value) {
+        return value != null && value != 0.0d;
+    }
+
+    /**
+     * Returns the stated media type of an image, or the one implied by the extension of its URL.
+     */
+    private static String imageType(Part image) {
+        if (image.mediaType != null || image.url == null) {
+            return image.mediaType;
+        }
+        String path = image.url;
+        int end = path.indexOf('?');
+        path = end >= 0 ? path.substring(0, end) : path;
+        int dot = path.lastIndexOf('.');
+        return dot >= 0 ? IMAGE_TYPES.get(path.substring(dot + 1).toLowerCase(Locale.ROOT)) : null;
+    }
+
+    private static String dataUrl(Part image) {
+        return image.url != null ? image.url : "data:" + image.mediaType + ";base64," + image.data;
+    }
+
+    private static void writeOpenAI(JsonWriter writer, ChatRequest request, ChatSchema target, String targetModel)
+            throws IOException {
+        if (target.isModelInBody()) {
+            writer.name("model").value(targetModel);
+        }
+        writer.name("messages").beginArray();
+        if (request.system != null) {
+            writer.beginObject().name("role").value("system").name("content").value(request.system).endObject();
+        }
+        for (Message message : request.messages) {
+            StringBuilder text = new StringBuilder();
+            List<Part> toolCalls = new ArrayList<>();
+            boolean hasImages = false;
+            for (Part part : message.parts) {
+                if (part.type == PartType.TOOL_RESULT) {
+                    writer.beginObject().name("role").value("tool")
+                            .name("tool_call_id").value(part.id)
+                            .name("content").value(part.text).endObject();
+                } else if (part.type == PartType.TOOL_CALL) {
+                    toolCalls.add(part);
+                } else if (part.type == PartType.IMAGE) {
+                    hasImages = true;
+                } else if (!part.text.isEmpty()) {
+                    if (text.length() > 0) {
+                        text.append('\n');
+                    }
+                    text.append(part.text);
+                }
+            }
+            if (text.length() == 0 && !hasImages && toolCalls.isEmpty()) {
+                continue;
+            }
+            writer.beginObject().name("role").value(message.role == Role.ASSISTANT ? "assistant" : "user");
+            writer.name("content");
+            if (hasImages) {
+                // Images need the content part array, which keeps the text and images in their original order
+                writer.beginArray();
+                for (Part part : message.parts) {
+                    if (part.type == PartType.IMAGE) {
+                        writer.beginObject().name("type").value("image_url")
+                                .name("image_url").beginObject().name("url").value(dataUrl(part)).endObject()
+                                .endObject();
+                    } else if (part.type == PartType.TEXT && !part.text.isEmpty()) {
+                        writer.beginObject().name("type").value("text").name("text").value(part.text).endObject();
+                    }
+                }
+                writer.endArray();
+            } else if (text.length() > 0) {
+                writer.value(text.toString());
+            } else {
+                writer.nullValue();
+            }
+            if (!toolCalls.isEmpty()) {
+                writer.name("tool_calls").beginArray();
+                for (Part call : toolCalls) {
+                    writer.beginObject().name("id").value(call.id).name("type").value("function")
+                            .name("function").beginObject()
+                            .name("name").value(call.name)
+                            .name("arguments").value(call.arguments)
+                            .endObject().endObject();
+                }
+                writer.endArray();
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+        if (!request.tools.isEmpty()) {
+            writer.name("tools").beginArray();
+            for (Tool tool : request.tools) {
+                writer.beginObject().name("type").value("function").name("function").beginObject();
+                writeToolDeclaration(writer, tool, "parameters");
+                writer.endObject().endObject();
+            }
+            writer.endArray();
+            if (request.toolChoice == ToolChoice.FUNCTION) {
+                writer.name("tool_choice").beginObject().name("type").value("function")
+                        .name("function").beginObject().name("name").value(request.toolChoiceName).endObject()
+                        .endObject();
+            } else if (request.toolChoice != null) {
+                writer.name("tool_choice").value(request.toolChoice.name().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    private static void writeAnthropic(JsonWriter writer, ChatRequest request, ChatSchema target,
+                                       String targetModel) throws IOException {
+        if (target.isModelInBody()) {
+            writer.name("model").value(targetModel);
+        } else {
+            writer.name("anthropic_version").value(BEDROCK_ANTHROPIC_VERSION);
+        }
+        if (request.system != null) {
+            writer.name("system").value(request.system);
+        }
+        writer.name("messages").beginArray();
+        Role openRole = null;
+        for (Message message : request.messages) {
+            if (!hasNonEmptyParts(message)) {
+                continue;
+            }
+            // Consecutive turns of the same role are merged since the schema requires alternating roles
+            if (message.role != openRole) {
+                if (openRole != null) {
+                    writer.endArray().endObject();
+                }
+                writer.beginObject().name("role").value(message.role == Role.ASSISTANT ? "assistant" : "user")
+                        .name("content").beginArray();
+                openRole = message.role;
+            }
+            for (Part part : message.parts) {
+                if (isEmptyText(part)) {
+                    continue;
+                }
+                writer.beginObject();
+                if (part.type == PartType.TOOL_CALL) {
+                    writer.name("type").value("tool_use").name("id").value(part.id).name("name").value(part.name)
+                            .name("input").jsonValue(part.arguments);
+                } else if (part.type == PartType.TOOL_RESULT) {
+                    writer.name("type").value("tool_result").name("tool_use_id").value(part.id)
+                            .name("content").value(part.text);
+                } else if (part.type == PartType.IMAGE) {
+                    writer.name("type").value("image").name("source").beginObject();
+                    if (part.url != null) {
+                        writer.name("type").value("url").name("url").value(part.url);
+                    } else {
+                        writer.name("type").value("base64").name("media_type").value(part.mediaType)
+                                .name("data").value(part.data);
+                    }
+                    writer.endObject();
+                } else {
+                    writer.name("type").value("text").name("text").value(part.text);
+                }
+                writer.endObject();
+            }
+        }
+        if (openRole != null) {
+            writer.endArray().endObject();
+        }
+        writer.endArray();
+        if (!request.tools.isEmpty()) {
+            writer.name("tools").beginArray();
+            for (Tool tool : request.tools) {
+                writer.beginObject();
+                writeToolDeclaration(writer, tool, "input_schema");
+                writer.endObject();
+            }
+            writer.endArray();
+            if (request.toolChoice != null) {
+                writer.name("tool_choice").beginObject();
+                switch (request.toolChoice) {
+                    case FUNCTION:
+                        writer.name("type").value("tool").name("name").value(request.toolChoiceName);
+                        break;
+                    case REQUIRED:
+                        writer.name("type").value("any");
+                        break;
+                    default:
+                        writer.name("type").value(request.toolChoice.name().toLowerCase(Locale.ROOT));
+                        break;
+                }
+                writer.endObject();
+            }
+        }
+    }
+
+    /**
+     * Anthropic and Gemini reject empty text parts, so messages holding nothing else are left out.
+     */
+    private static boolean hasNonEmptyParts(Message message) {
+        for (Part part : message.parts) {
+            if (!isEmptyText(part)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEmptyText(Part part) {
+        return part.type == PartType.TEXT && part.text.isEmpty();
+    }
+
+    private static void writeGemini(JsonWriter writer, ChatRequest request) throws IOException {
+        Map<String, String> toolNames = new HashMap<>();
+        writer.name("contents").beginArray();
+        for (Message message : request.messages) {
+            if (!hasNonEmptyParts(message)) {
+                continue;
+            }
+            writer.beginObject().name("role").value(message.role == Role.ASSISTANT ? "model" : "user")
+                    .name("parts").beginArray();
+            for (Part part : message.parts) {
+                if (isEmptyText(part)) {
+                    continue;
+                }
+                writer.beginObject();
+                if (part.type == PartType.TOOL_CALL) {
+                    toolNames.put(part.id, part.name);
+                    writer.name("functionCall").beginObject().name("name").value(part.name)
+                            .name("args").jsonValue(part.arguments).endObject();
+                } else if (part.type == PartType.TOOL_RESULT) {
+                    String name = part.name != null ? part.name : toolNames.get(part.id);
+                    writer.name("functionResponse").beginObject().name("name").value(name)
+                            .name("response");
+                    writeGeminiFunctionResponse(writer, part.text);
+                    writer.endObject();
+                } else if (part.type == PartType.IMAGE && part.url != null) {
+                    writer.name("fileData").beginObject().name("mimeType").value(imageType(part))
+                            .name("fileUri").value(part.url).endObject();
+                } else if (part.type == PartType.IMAGE) {
+                    writer.name("inlineData").beginObject().name("mimeType").value(part.mediaType)
+                            .name("data").value(part.data).endObject();
+                } else {
+                    writer.name("text").value(part.text);
+                }
+                writer.endObject();
+            }
+            writer.endArray().endObject();
+        }
+        writer.endArray();
+        if (request.system != null) {
+            writer.name("systemInstruction").beginObject().name("parts").beginArray()
+                    .beginObject().name("text").value(request.system).endObject()
+                    .endArray().endObject();
+        }
+        if (!request.tools.isEmpty()) {
+            writer.name("tools").beginArray().beginObject().name("functionDeclarations").beginArray();
+            for (Tool tool : request.tools) {
+                writer.beginObject();
+                writeToolDeclaration(writer, tool, "parameters");
+                writer.endObject();
+            }
+            writer.endArray().endObject().endArray();
+            if (request.toolChoice != null) {
+                writer.name("toolConfig").beginObject().name("functionCallingConfig").beginObject().name("mode")
+                        .value(request.toolChoice == ToolChoice.AUTO ? "AUTO"
+                                : request.toolChoice == ToolChoice.NONE ? "NONE" : "ANY");
+                if (request.toolChoice == ToolChoice.FUNCTION) {
+                    writer.name("allowedFunctionNames").beginArray().value(request.toolChoiceName).endArray();
+                }
+                writer.endObject().endObject();
+            }
+        }
+    }
+
+    /**
+     * Gemini function responses must be JSON objects, so plain text results are wrapped.
+     */
+    private static void writeGeminiFunctionResponse(JsonWriter writer, String text) throws IOException {
+        String trimmed = text != null ? text.trim() : "";
+        if (trimmed.startsWith("{")) {
+            try {
+                JsonElement parsed = JsonParser.parseString(trimmed);
+                if (parsed.isJsonObject()) {
+                    writer.jsonValue(trimmed);
+                    return;
+                }
+            } catch (RuntimeException e) {
+                // Not JSON, wrapped below
+            }
+        }
+        writer.beginObject().name("content").value(text).endObject();
+    }
+
+    private static void writeToolDeclaration(JsonWriter writer, Tool tool, String schemaField) throws IOException {
+        writer.name("name").value(tool.name);
+        if (tool.description != null) {
+            writer.name("description").value(tool.description);
+        }
+        if (tool.parameters != null && !tool.parameters.isJsonNull()) {
+            writer.name(schemaField);
+            GSON.toJson(tool.parameters, writer);
+        }
+    }
+
+    private static void writeParameters(JsonWriter writer, ChatRequest request, ChatSchema target)
+            throws IOException {
+        Integer maxTokens = request.maxTokens;
+        if (maxTokens == null && target.requiresMaxTokens()) {
+            maxTokens = DEFAULT_MAX_TOKENS;
+        }
+        Double frequencyPenalty = target.getFrequencyPenaltyField() != null ? request.frequencyPenalty : null;
+        Double presencePenalty = target.getPresencePenaltyField() != null ? request.presencePenalty : null;
+        ResponseFormat responseFormat = target.supportsResponseFormat() ? request.responseFormat : null;
+        boolean hasParameters = maxTokens != null || request.temperature != null || request.topP != null
+                || request.stop != null || request.topK != null || frequencyPenalty != null
+                || presencePenalty != null || responseFormat != null;
+        if (hasParameters) {
+            if (target.getParametersObject() != null) {
+                writer.name(target.getParametersObject()).beginObject();
+            }
+            if (maxTokens != null) {
+                writer.name(target.getMaxTokensField()).value(maxTokens);
+            }
+            if (request.temperature != null) {
+                writer.name(target.getTemperatureField()).value(request.temperature);
+            }
+            if (request.topP != null) {
+                writer.name(target.getTopPField()).value(request.topP);
+            }
+            if (request.stop != null) {
+                writer.name(target.getStopField()).beginArray();
+                for (String stop : request.stop) {
+                    writer.value(stop);
+                }
+                writer.endArray();
+            }
+            if (request.topK != null) {
+                writer.name(target.getTopKField()).value(request.topK);
+            }
+            if (frequencyPenalty != null) {
+                writer.name(target.getFrequencyPenaltyField()).value(frequencyPenalty);
+            }
+            if (presencePenalty != null) {
+                writer.name(target.getPresencePenaltyField()).value(presencePenalty);
+            }
+            if (responseFormat != null) {
+                writeResponseFormat(writer, request, target);
+            }
+            if (target.getParametersObject() != null) {
+                writer.endObject();
+            }
+        }
+        if (request.stream && target.isStreamInBody()) {
+            writer.name("stream").value(true);
+        }
+    }
+
+    private static void writeResponseFormat(JsonWriter writer, ChatRequest request, ChatSchema target)
+            throws IOException {
+        if (target == ChatSchema.GEMINI) {
+            writer.name("responseMimeType")
+                    .value(request.responseFormat == ResponseFormat.TEXT ? "text/plain" : "application/json");
+            if (request.responseFormat == ResponseFormat.JSON_SCHEMA && request.responseSchema != null) {
+                writer.name("responseJsonSchema");
+                GSON.toJson(request.responseSchema, writer);
+            }
+            return;
+        }
+        writer.name("response_format").beginObject()
+                .name("type").value(request.responseFormat.name().toLowerCase(Locale.ROOT));
+        if (request.responseFormat == ResponseFormat.JSON_SCHEMA) {
+            // The name is required by the OpenAI schema but has no counterpart in Gemini
+            writer.name("json_schema").beginObject()
+                    .name("name").value(request.responseSchemaName != null ? request.responseSchemaName : "response");
+            if (request.responseSchema != null) {
+                writer.name("schema");
+                GSON.toJson(request.responseSchema, writer);
+            }
+            if (request.responseSchemaStrict != null) {
+                writer.name("strict").value(request.responseSchemaStrict);
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+    }
+
+    // ---- Model ----
+
+    enum Role {
+        USER,
+        ASSISTANT
+    }
+
+    enum PartType {
+        TEXT,
+        IMAGE,
+        TOOL_CALL,
+        TOOL_RESULT
+    }
+
+    enum ToolChoice {
+        AUTO,
+        NONE,
+        REQUIRED,
+        FUNCTION
+    }
+
+    enum ResponseFormat {
+        TEXT,
+        JSON_OBJECT,
+        JSON_SCHEMA
+    }
+
+    /**
+     * Thrown for requests using content parts or parameters that cannot be carried to the target schema.
+     */
+    static final class UnsupportedRequestException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedRequestException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Schema neutral chat request.
+     */
+    static final class ChatRequest {
+
+        private ChatSchema sourceSchema;
+        private String model;
+        private String system;
+        private final List<Message> messages = new ArrayList<>();
+        private final List<Tool> tools = new ArrayList<>();
+        private Integer maxTokens;
+        private Double temperature;
+        private Double topP;
+        private Integer topK;
+        private Double frequencyPenalty;
+        private Double presencePenalty;
+        private List<String> stop;
+        private ToolChoice toolChoice;
+        private String toolChoiceName;
+        private ResponseFormat responseFormat;
+        private String responseSchemaName;
+        private JsonElement responseSchema;
+        private Boolean responseSchemaStrict;
+        private boolean stream;
+        private int estimatedSize;
+
+        /**
+         * Creates a single turn request from a plain user message.
+         */
+        static ChatRequest ofUserMessage(String text) {
+            ChatRequest request = new ChatRequest();
+            request.addUserText(text);
+            return request;
+        }
+
+        private void addUserText(String text) {
+            Message message = new Message(Role.USER);
+            message.parts.add(Part.text(text));
+            messages.add(message);
+            estimatedSize += text.length();
+        }
+
+        /**
+         * The schema the request was written in, or {@code null} for prompt style and plain text requests.
+         */
+        ChatSchema getSourceSchema() {
+            return sourceSchema;
+        }
+
+        /**
+         * The model named in the payload, or {@code null} for providers taking it from the URL.
+         */
+        String getModel() {
+            return model;
+        }
+
+        String getSystem() {
+            return system;
+        }
+
+        List<Message> getMessages() {
+            return messages;
+        }
+
+        boolean isStream() {
+            return stream;
+        }
+
+        boolean hasTools() {
+            return !tools.isEmpty();
+        }
+
+        List<Tool> getTools() {
+            return tools;
+        }
+
+        /**
+         * The requested maximum number of output tokens, or {@code null} if not set.
+         */
+        Integer getMaxTokens() {
+            return maxTokens;
+        }
+
+        ToolChoice getToolChoice() {
+            return toolChoice;
+        }
+
+        ResponseFormat getResponseFormat() {
+            return responseFormat;
+        }
+
+        /**
+         * Returns whether the conversation has any non-empty text, image or tool content.
+         */
+        boolean hasContent() {
+            for (Message message : messages) {
+                if (hasNonEmptyParts(message)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class Message {
+
+        private Role role;
+        private final List<Part> parts = new ArrayList<>(1);
+
+        private Message(Role role) {
+            this.role = role;
+        }
+
+        Role getRole() {
+            return role;
+        }
+
+        List<Part> getParts() {
+            return parts;
+        }
+
+        /**
+         * Returns the text parts of the message joined by new lines.
+         */
+        String text() {
+            if (parts.size() == 1 && parts.get(0).type == PartType.TEXT) {
+                return parts.get(0).text;
+            }
+            StringBuilder text = new StringBuilder();
+            for (Part part : parts) {
+                if (part.type == PartType.TEXT && part.text != null) {
+                    if (text.length() > 0) {
+                        text.append('\n');
+                    }
+                    text.append(part.text);
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    static final class Part {
+
+        private final PartType type;
+        private final String text;
+        private final String id;
+        private final String name;
+        private final String arguments;
+        private final String mediaType;
+        private final String data;
+        private final String url;
+
+        private Part(PartType type, String text, String id, String name, String arguments, String mediaType,
+                     String data, String url) {
+            this.type = type;
+            this.text = text;
+            this.id = id;
+            this.name = name;
+            this.arguments = arguments;
+            this.mediaType = mediaType;
+            this.data = data;
+            this.url = url;
+        }
+
+        static Part text(String text) {
+            return new Part(PartType.TEXT, text != null ? text : "", null, null, null, null, null, null);
+        }
+
+        static Part toolCall(String id, String name, String arguments) {
+            return new Part(PartType.TOOL_CALL, null, id, name, arguments, null, null, null);
+        }
+
+        static Part toolResult(String id, String name, String text) {
+            return new Part(PartType.TOOL_RESULT, text != null ? text : "", id, name, null, null, null, null);
+        }
+
+        /**
+         * Creates an image part from base64 data or a URL.
+         */
+        static Part image(String mediaType, String data, String url) {
+            return new Part(PartType.IMAGE, null, null, null, null, mediaType, data, url);
+        }
+
+        PartType getType() {
+            return type;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getArguments() {
+            return arguments;
+        }
+
+        String getMediaType() {
+            return mediaType;
+        }
+
+        String getData() {
+            return data;
+        }
+
+        String getUrl() {
+            return url;
+        }
+    }
+
+    static final class Tool {
+
+        private final String name;
+        private final String description;
+        private final JsonElement parameters;
+
+        private Tool(String name, String description, JsonElement parameters) {
+            this.name = name;
+            this.description = description;
+            this.parameters = parameters;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getDescription() {
+            return description;
+        }
+
+        JsonElement getParameters() {
+            return parameters;
+        }
+    }
+}
@@ -0,0 +1,891 @@
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translates chat responses of the provider a request was changed to back into the schema the client sent
+ * the request in, so that client SDKs keep working after {@link RequestChangeMediator} reroutes a request.
+ * <p>
+ * Complete responses are translated with {@link #translate(String, ChatSchema, ChatSchema)}. Server-sent event
+ * streams are translated with a {@link StreamConverter}, which accepts the stream in arbitrary chunks, keeps
+ * partial lines between calls and emits the client schema events as soon as the provider events are complete.
+ * Mediators have no hook into the relayed response stream, so {@link RequestChangeMediator} rejects streamed
+ * requests whose response would need translation rather than buffering the whole stream; streams of the client's
+ * own schema are relayed untouched. AWS Bedrock streams use the binary AWS event stream encoding and are not
+ * translated.
+ */
+final class ChatResponseTranslator {
+
+    /**
+     * Message context property holding the {@link ChatSchema} the client sent the request in.
+     */
+    static final String CLIENT_SCHEMA = "AI_REQUEST_CHANGE_CLIENT_SCHEMA";
+    /**
+     * Message context property holding the {@link ChatSchema} of the provider the request was changed to.
+     */
+    static final String PROVIDER_SCHEMA = "AI_REQUEST_CHANGE_PROVIDER_SCHEMA";
+
+    private static final String DATA_PREFIX = "data:";
+    private static final String EVENT_PREFIX = "event:";
+    private static final String DONE = "[DONE]";
+
+    private ChatResponseTranslator() {
+    }
+
+    /**
+     * Returns whether responses of the provider schema differ from the client schema.
+     */
+    static boolean needsTranslation(ChatSchema providerSchema, ChatSchema clientSchema) {
+        return family(providerSchema) != family(clientSchema);
+    }
+
+    /**
+     * Translates a complete (non-streamed) response.
+     *
+     * @param payload        The provider response.
+     * @param providerSchema The schema of the provider.
+     * @param clientSchema   The schema of the client request.
+     * @return The response in the client schema.
+     */
+    static String translate(String payload, ChatSchema providerSchema, ChatSchema clientSchema) throws IOException {
+        ChatResponse response = parseResponse(JsonParser.parseString(payload).getAsJsonObject(), providerSchema);
+        StringWriter buffer = new StringWriter(payload.length() + 128);
+        JsonWriter writer = new JsonWriter(buffer);
+        switch (family(clientSchema)) {
+            case ANTHROPIC:
+                writeAnthropic(writer, response);
+                break;
+            case GEMINI:
+                writeGemini(writer, response);
+                break;
+            default:
+                writeOpenAI(writer, response);
+                break;
+        }
+        writer.flush();
+        return buffer.toString();
+    }
+
+    /**
+     * Creates a converter for a streamed response.
+     */
+    static StreamConverter newStreamConverter(ChatSchema providerSchema, ChatSchema clientSchema) {
+        return new StreamConverter(family(providerSchema), family(clientSchema));
+    }
+
+    /**
+     * Mistral responses follow the OpenAI schema and Bedrock responses follow the Anthropic schema.
+     */
+    private static ChatSchema family(ChatSchema schema) {
+        switch (schema) {
+            case MISTRAL:
+                return ChatSchema.OPENAI;
+            case BEDROCK:
+                return ChatSchema.ANTHROPIC;
+            default:
+                return schema;
+        }
+    }
+
+    // ---- Complete responses ----
+
+    private static ChatResponse parseResponse(JsonObject body, ChatSchema providerSchema) {
+        ChatResponse response = new ChatResponse();
+        switch (family(providerSchema)) {
+            case ANTHROPIC:
+                response.id = getString(body, "id");
+                response.model = getString(body, "model");
+                JsonArray content = getArray(body, "content");
+                if (content != null) {
+                    for (JsonElement element : content) {
+                        JsonObject block = element.getAsJsonObject();
+                        String type = getString(block, "type");
+                        if ("text".equals(type)) {
+                            response.text.append(getString(block, "text"));
+                        } else if ("tool_use".equals(type)) {
+                            JsonElement input = block.get("input");
+                            response.toolCalls.add(new ToolCall(getString(block, "id"), getString(block, "name"),
+                                    input != null ? input.toString() : "{}"));
+                        }
+                    }
+                }
+                response.finishReason = FinishReason.parse(getString(body, "stop_reason"));
+                JsonObject usage = getObject(body, "usage");
+                if (usage != null) {
+                    response.inputTokens = getInt(usage, "input_tokens");
+                    response.outputTokens = getInt(usage, "output_tokens");
+                }
+                break;
+            case GEMINI:
+                response.id = getString(body, "responseId");
+                response.model = getString(body, "modelVersion");
+                JsonObject candidate = firstCandidate(body);
+                if (candidate != null) {
+                    readGeminiParts(candidate, response.text, response.toolCalls);
+                    response.finishReason = FinishReason.parse(getString(candidate, "finishReason"));
+                }
+                readGeminiUsage(body, response);
+                break;
+            default:
+                response.id = getString(body, "id");
+                response.model = getString(body, "model");
+                JsonArray choices = getArray(body, "choices");
+                if (choices != null && choices.size() > 0) {
+                    JsonObject choice = choices.get(0).getAsJsonObject();
+                    JsonObject message = getObject(choice, "message");
+                    if (message != null) {
+                        String text = getString(message, "content");
+                        if (text != null) {
+                            response.text.append(text);
+                        }
+                        JsonArray toolCalls = getArray(message, "tool_calls");
+                        if (toolCalls != null) {
+                            for (JsonElement element : toolCalls) {
+                                JsonObject call = element.getAsJsonObject();
+                                JsonObject function = getObject(call, "function");
+                                response.toolCalls.add(new ToolCall(getString(call, "id"),
+                                        function != null ? getString(function, "name") : null,
+                                        function != null ? getString(function, "arguments") : "{}"));
+                            }
+                        }
+                    }
+                    response.finishReason = FinishReason.parse(getString(choice, "finish_reason"));
+                }
+                JsonObject openAIUsage = getObject(body, "usage");
+                if (openAIUsage != null) {
+                    response.inputTokens = getInt(openAIUsage, "prompt_tokens");
+                    response.outputTokens = getInt(openAIUsage, "completion_tokens");
+                }
+                break;
+        }
+        if (!response.toolCalls.isEmpty() && response.finishReason == FinishReason.STOP) {
+            // Gemini reports STOP for turns ending in a function call
+            response.finishReason = FinishReason.TOOL_CALLS;
+        }
+        return response;
+    }
+
+    private static void writeOpenAI(JsonWriter writer, ChatResponse response) throws IOException {
+        writer.beginObject()
+                .name("id").value(response.id != null ? response.id : "chatcmpl-" + System.nanoTime())
+                .name("object").value("chat.completion")
+                .name("created").value(System.currentTimeMillis() / 1000)
+                .name("model").value(response.model)
+                .name("choices").beginArray().beginObject()
+                .name("index").value(0)
+                .name("message").beginObject().name("role").value("assistant").name("content");
+        if (response.text.length() > 0 || response.toolCalls.isEmpty()) {
+            writer.value(response.text.toString());
+        } else {
+            writer.nullValue();
+        }
+        if (!response.toolCalls.isEmpty()) {
+            writer.name("tool_calls").beginArray();
+            for (ToolCall call : response.toolCalls) {
+                writer.beginObject().name("id").value(call.id).name("type").value("function")
+                        .name("function").beginObject()
+                        .name("name").value(call.name)
+                        .name("arguments").value(call.arguments.toString())
+                        .endObject().endObject();
+            }
+            writer.endArray();
+        }
+        writer.endObject()
+                .name("finish_reason").value(response.finishReason.openAI)
+                .endObject().endArray();
+        writeOpenAIUsage(writer, response.inputTokens, response.outputTokens);
+        writer.endObject();
+    }
+
+    private static void writeAnthropic(JsonWriter writer, ChatResponse response) throws IOException {
+        writer.beginObject()
+                .name("id").value(response.id != null ? response.id : "msg_" + System.nanoTime())
+                .name("type").value("message")
+                .name("role").value("assistant")
+                .name("model").value(response.model)
+                .name("content").beginArray();
+        if (response.text.length() > 0) {
+            writer.beginObject().name("type").value("text").name("text").value(response.text.toString())
+                    .endObject();
+        }
+        for (ToolCall call : response.toolCalls) {
+            writer.beginObject().name("type").value("tool_use").name("id").value(call.id)
+                    .name("name").value(call.name).name("input").jsonValue(call.argumentsObject())
+                    .endObject();
+        }
+        writer.endArray()
+                .name("stop_reason").value(response.finishReason.anthropic)
+                .name("stop_sequence").nullValue()
+                .name("usage").beginObject()
+                .name("input_tokens").value(Math.max(response.inputTokens, 0))
+                .name("output_tokens").value(Math.max(response.outputTokens, 0))
+                .endObject()
+                .endObject();
+    }
+
+    private static void writeGemini(JsonWriter writer, ChatResponse response) throws IOException {
+        writer.beginObject().name("candidates").beginArray().beginObject()
+                .name("content").beginObject().name("role").value("model").name("parts").beginArray();
+        if (response.text.length() > 0) {
+            writer.beginObject().name("text").value(response.text.toString()).endObject();
+        }
+        for (ToolCall call : response.toolCalls) {
+            writer.beginObject().name("functionCall").beginObject().name("name").value(call.name)
+                    .name("args").jsonValue(call.argumentsObject()).endObject().endObject();
+        }
+        writer.endArray().endObject()
+                .name("finishReason").value(response.finishReason.gemini)
+                .name("index").value(0)
+                .endObject().endArray();
+        writeGeminiUsage(writer, response.inputTokens, response.outputTokens);
+        if (response.model != null) {
+            writer.name("modelVersion").value(response.model);
+        }
+        writer.endObject();
+    }
+
+    private static void writeOpenAIUsage(JsonWriter writer, int inputTokens, int outputTokens) throws IOException {
+        if (inputTokens < 0 && outputTokens < 0) {
+            return;
+        }
+        int prompt = Math.max(inputTokens, 0);
+        int completion = Math.max(outputTokens, 0);
+        writer.name("usage").beginObject()
+                .name("prompt_tokens").value(prompt)
+                .name("completion_tokens").value(completion)
+                .name("total_tokens").value(prompt + completion)
+                .endObject();
+    }
+
+    private static void writeGeminiUsage(JsonWriter writer, int inputTokens, int outputTokens) throws IOException {
+        if (inputTokens < 0 && outputTokens < 0) {
+            return;
+        }
+        int prompt = Math.max(inputTokens, 0);
+        int candidates = Math.max(outputTokens, 0);
+        writer.name("usageMetadata").beginObject()
+                .name("promptTokenCount").value(prompt)
+                .name("candidatesTokenCount").value(candidates)
+                .name("totalTokenCount").value(prompt + candidates)
+                .endObject();
+    }
+
+    private static JsonObject firstCandidate(JsonObject body) {
+        JsonArray candidates = getArray(body, "candidates");
+        return candidates != null && candidates.size() > 0 ? candidates.get(0).getAsJsonObject() : null;
+    }
+
+    private static void readGeminiParts(JsonObject candidate, StringBuilder text, List<ToolCall> toolCalls) {
+        JsonObject content = getObject(candidate, "content");
+        JsonArray parts = content != null ? getArray(content, "parts") : null;
+        if (parts == null) {
+            return;
+        }
+        for (JsonElement element : parts) {
+            JsonObject part = element.getAsJsonObject();
+            if (part.has("text")) {
+                text.append(getString(part, "text"));
+            } else if (part.has("functionCall")) {
+                JsonObject call = part.getAsJsonObject("functionCall");
+                JsonElement args = call.get("args");
+                toolCalls.add(new ToolCall("call_" + toolCalls.size(), getString(call, "name"),
+                        args != null ? args.toString() : "{}"));
+            }
+        }
+    }
+
+    private static void readGeminiUsage(JsonObject body, ChatResponse response) {
+        JsonObject usage = getObject(body, "usageMetadata");
+        if (usage != null) {
+            response.inputTokens = getInt(usage, "promptTokenCount");
+            response.outputTokens = getInt(usage, "candidatesTokenCount");
+        }
+    }
+
+    private static String getString(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
+    private static int getInt(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsInt() : -1;
+    }
+
+    private static JsonObject getObject(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element != null && element.isJsonObject() ? element.getAsJsonObject() : null;
+    }
+
+    private static JsonArray getArray(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element != null && element.isJsonArray() ? element.getAsJsonArray() : null;
+    }
+
+    // ---- Streamed responses ----
+
+    /**
+     * Incremental converter of a server-sent event stream. Not thread safe; one instance serves one response.
+     */
+    static final class StreamConverter {
+
+        private final ChatSchema provider;
+        private final ChatSchema client;
+        private final StringBuilder pending = new StringBuilder();
+        private final StringBuilder out = new StringBuilder();
+
+        private String id;
+        private String model;
+        private boolean started;
+        private boolean finished;
+        private FinishReason finishReason;
+        private int inputTokens = -1;
+        private int outputTokens = -1;
+        private String eventType;
+
+        // Client side state: the open Anthropic content block and the Gemini function calls awaiting arguments
+        private int blockIndex = -1;
+        private boolean blockOpen;
+        private boolean textBlockOpen;
+        private int toolCount;
+        private final List<ToolCall> bufferedCalls = new ArrayList<>();
+        // Provider side state: tool calls by provider index, to map argument deltas
+        private final List<Integer> providerToolIndexes = new ArrayList<>();
+
+        private StreamConverter(ChatSchema provider, ChatSchema client) {
+            this.provider = provider;
+            this.client = client;
+        }
+
+        /**
+         * Converts the next chunk of the provider stream.
+         *
+         * @param chunk Raw stream text, possibly ending in the middle of a line.
+         * @return The client schema events completed by this chunk, possibly empty.
+         */
+        String convert(String chunk) throws IOException {
+            pending.append(chunk);
+            int lineStart = 0;
+            for (int i = 0; i < pending.length(); i++) {
+                if (pending.charAt(i) == '\n') {
+                    int lineEnd = i > lineStart && pending.charAt(i - 1) == '\r' ? i - 1 : i;
+                    onLine(pending.substring(lineStart, lineEnd));
+                    lineStart = i + 1;
+                }
+            }
+            pending.delete(0, lineStart);
+            return drain();
+        }
+
+        /**
+         * Ends the stream, emitting the terminal client events if the provider stream ended without them.
+         */
+        String finish() throws IOException {
+            if (pending.length() > 0) {
+                onLine(pending.toString());
+                pending.setLength(0);
+            }
+            complete();
+            return drain();
+        }
+
+        private String drain() {
+            String converted = out.toString();
+            out.setLength(0);
+            return converted;
+        }
+
+        private void onLine(String line) throws IOException {
+            if (line.startsWith(EVENT_PREFIX)) {
+                eventType = line.substring(EVENT_PREFIX.length()).trim();
+                return;
+            }
+            if (!line.startsWith(DATA_PREFIX)) {
+                return;
+            }
+            String data = line.substring(DATA_PREFIX.length()).trim();
+            if (data.isEmpty()) {
+                return;
+            }
+            if (DONE.equals(data)) {
+                complete();
+                return;
+            }
+            JsonElement parsed = JsonParser.parseString(data);
+            if (!parsed.isJsonObject()) {
+                return;
+            }
+            JsonObject event = parsed.getAsJsonObject();
+            switch (provider) {
+                case ANTHROPIC:
+                    onAnthropicEvent(event.has("type") ? getString(event, "type") : eventType, event);
+                    break;
+                case GEMINI:
+                    onGeminiEvent(event);
+                    break;
+                default:
+                    onOpenAIEvent(event);
+                    break;
+            }
+        }
+
+        // -- Provider events --
+
+        private void onOpenAIEvent(JsonObject event) throws IOException {
+            start(getString(event, "id"), getString(event, "model"));
+            JsonArray choices = getArray(event, "choices");
+            if (choices != null && choices.size() > 0) {
+                JsonObject choice = choices.get(0).getAsJsonObject();
+                JsonObject delta = getObject(choice, "delta");
+                if (delta != null) {
+                    String text = getString(delta, "content");
+                    if (text != null && !text.isEmpty()) {
+                        text(text);
+                    }
+                    JsonArray toolCalls = getArray(delta, "tool_calls");
+                    if (toolCalls != null) {
+                        for (JsonElement element : toolCalls) {
+                            JsonObject call = element.getAsJsonObject();
+                            JsonObject function = getObject(call, "function");
+                            int providerIndex = call.has("index") ? getInt(call, "index") : 0;
+                            if (call.has("id")) {
+                                toolStart(providerIndex, getString(call, "id"),
+                                        function != null ? getString(function, "name") : null);
+                            }
+                            String arguments = function != null ? getString(function, "arguments") : null;
+                            if (arguments != null && !arguments.isEmpty()) {
+                                toolArguments(providerIndex, arguments);
+                            }
+                        }
+                    }
+                }
+                String reason = getString(choice, "finish_reason");
+                if (reason != null) {
+                    finishReason = FinishReason.parse(reason);
+                }
+            }
+            JsonObject usage = getObject(event, "usage");
+            if (usage != null) {
+                inputTokens = getInt(usage, "prompt_tokens");
+                outputTokens = getInt(usage, "completion_tokens");
+            }
+        }
+
+        private void onAnthropicEvent(String type, JsonObject event) throws IOException {
+            if (type == null) {
+                return;
+            }
+            switch (type) {
+                case "message_start":
+                    JsonObject message = getObject(event, "message");
+                    if (message != null) {
+                        JsonObject usage = getObject(message, "usage");
+                        if (usage != null) {
+                            inputTokens = getInt(usage, "input_tokens");
+                        }
+                        start(getString(message, "id"), getString(message, "model"));
+                    }
+                    break;
+                case "content_block_start":
+                    JsonObject block = getObject(event, "content_block");
+                    if (block != null && "tool_use".equals(getString(block, "type"))) {
+                        start(null, null);
+                        toolStart(getInt(event, "index"), getString(block, "id"), getString(block, "name"));
+                    }
+                    break;
+                case "content_block_delta":
+                    JsonObject delta = getObject(event, "delta");
+                    if (delta == null) {
+                        break;
+                    }
+                    start(null, null);
+                    if ("text_delta".equals(getString(delta, "type"))) {
+                        text(getString(delta, "text"));
+                    } else if ("input_json_delta".equals(getString(delta, "type"))) {
+                        String json = getString(delta, "partial_json");
+                        if (json != null && !json.isEmpty()) {
+                            toolArguments(getInt(event, "index"), json);
+                        }
+                    }
+                    break;
+                case "message_delta":
+                    JsonObject messageDelta = getObject(event, "delta");
+                    if (messageDelta != null && messageDelta.has("stop_reason")) {
+                        finishReason = FinishReason.parse(getString(messageDelta, "stop_reason"));
+                    }
+                    JsonObject usage = getObject(event, "usage");
+                    if (usage != null) {
+                        outputTokens = getInt(usage, "output_tokens");
+                    }
+                    break;
+                case "message_stop":
+                    complete();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void onGeminiEvent(JsonObject event) throws IOException {
+            start(getString(event, "responseId"), getString(event, "modelVersion"));
+            JsonObject candidate = firstCandidate(event);
+            if (candidate != null) {
+                StringBuilder text = new StringBuilder();
+                List<ToolCall> calls = new ArrayList<>();
+                readGeminiParts(candidate, text, calls);
+                if (text.length() > 0) {
+                    text(text.toString());
+                }
+                for (ToolCall call : calls) {
+                    // Gemini sends each function call whole, in one event
+                    int providerIndex = providerToolIndexes.size();
+                    toolStart(providerIndex, "call_" + providerIndex, call.name);
+                    toolArguments(providerIndex, call.arguments.toString());
+                }
+            }
+            JsonObject usage = getObject(event, "usageMetadata");
+            if (usage != null) {
+                inputTokens = getInt(usage, "promptTokenCount");
+                outputTokens = getInt(usage, "candidatesTokenCount");
+            }
+            if (candidate != null && candidate.has("finishReason")) {
+                finishReason = FinishReason.parse(getString(candidate, "finishReason"));
+                complete();
+            }
+        }
+
+        // -- Normalised events, written in the client schema --
+
+        private void start(String providerId, String providerModel) throws IOException {
+            if (id == null && providerId != null) {
+                id = providerId;
+            }
+            if (model == null && providerModel != null) {
+                model = providerModel;
+            }
+            if (started) {
+                return;
+            }
+            started = true;
+            if (id == null) {
+                id = (client == ChatSchema.ANTHROPIC ? "msg_" : "chatcmpl-") + System.nanoTime();
+            }
+            if (client == ChatSchema.OPENAI) {
+                openAIChunk(writer -> writer.name("role").value("assistant").name("content").value(""), null);
+            } else if (client == ChatSchema.ANTHROPIC) {
+                anthropicEvent("message_start", writer -> {
+                    writer.name("message").beginObject()
+                            .name("id").value(id).name("type").value("message").name("role").value("assistant")
+                            .name("model").value(model)
+                            .name("content").beginArray().endArray()
+                            .name("stop_reason").nullValue().name("stop_sequence").nullValue()
+                            .name("usage").beginObject()
+                            .name("input_tokens").value(Math.max(inputTokens, 0))
+                            .name("output_tokens").value(0)
+                            .endObject().endObject();
+                });
+            }
+        }
+
+        private void text(String text) throws IOException {
+            if (text == null || finished) {
+                return;
+            }
+            start(null, null);
+            switch (client) {
+                case ANTHROPIC:
+                    if (!textBlockOpen) {
+                        closeBlock();
+                        blockIndex++;
+                        blockOpen = true;
+                        textBlockOpen = true;
+                        anthropicEvent("content_block_start", writer -> writer.name("index").value(blockIndex)
+                                .name("content_block").beginObject().name("type").value("text")
+                                .name("text").value("").endObject());
+                    }
+                    anthropicEvent("content_block_delta", writer -> writer.name("index").value(blockIndex)
+                            .name("delta").beginObject().name("type").value("text_delta")
+                            .name("text").value(text).endObject());
+                    break;
+                case GEMINI:
+                    geminiChunk(writer -> writer.beginObject().name("text").value(text).endObject(), null);
+                    break;
+                default:
+                    openAIChunk(writer -> writer.name("content").value(text), null);
+                    break;
+            }
+        }
+
+        private void toolStart(int providerIndex, String callId, String name) throws IOException {
+            if (finished) {
+                return;
+            }
+            while (providerToolIndexes.size() <= providerIndex) {
+                providerToolIndexes.add(-1);
+            }
+            int index = toolCount++;
+            providerToolIndexes.set(providerIndex, index);
+            String toolId = callId != null ? callId : "call_" + index;
+            switch (client) {
+                case ANTHROPIC:
+                    closeBlock();
+                    blockIndex++;
+                    blockOpen = true;
+                    anthropicEvent("content_block_start", writer -> writer.name("index").value(blockIndex)
+                            .name("content_block").beginObject().name("type").value("tool_use")
+                            .name("id").value(toolId).name("name").value(name)
+                            .name("input").beginObject().endObject().endObject());
+                    break;
+                case GEMINI:
+                    bufferedCalls.add(new ToolCall(toolId, name, ""));
+                    break;
+                default:
+                    openAIChunk(writer -> writer.name("tool_calls").beginArray().beginObject()
+                            .name("index").value(index).name("id").value(toolId).name("type").value("function")
+                            .name("function").beginObject().name("name").value(name)
+                            .name("arguments").value("").endObject()
+                            .endObject().endArray(), null);
+                    break;
+            }
+        }
+
+        private void toolArguments(int providerIndex, String json) throws IOException {
+            if (finished || providerIndex < 0 || providerIndex >= providerToolIndexes.size()) {
+                return;
+            }
+            int index = providerToolIndexes.get(providerIndex);
+            if (index < 0) {
+                return;
+            }
+            switch (client) {
+                case ANTHROPIC:
+                    anthropicEvent("content_block_delta", writer -> writer.name("index").value(blockIndex)
+                            .name("delta").beginObject().name("type").value("input_json_delta")
+                            .name("partial_json").value(json).endObject());
+                    break;
+                case GEMINI:
+                    bufferedCalls.get(index).arguments.append(json);
+                    break;
+                default:
+                    openAIChunk(writer -> writer.name("tool_calls").beginArray().beginObject()
+                            .name("index").value(index)
+                            .name("function").beginObject().name("arguments").value(json).endObject()
+                            .endObject().endArray(), null);
+                    break;
+            }
+        }
+
+        private void complete() throws IOException {
+            if (finished) {
+                return;
+            }
+            start(null, null);
+            FinishReason reason = finishReason != null ? finishReason : FinishReason.STOP;
+            if (toolCount > 0 && reason == FinishReason.STOP) {
+                reason = FinishReason.TOOL_CALLS;
+            }
+            FinishReason finalReason = reason;
+            switch (client) {
+                case ANTHROPIC:
+                    closeBlock();
+                    anthropicEvent("message_delta", writer -> writer
+                            .name("delta").beginObject().name("stop_reason").value(finalReason.anthropic)
+                            .name("stop_sequence").nullValue().endObject()
+                            .name("usage").beginObject()
+                            .name("input_tokens").value(Math.max(inputTokens, 0))
+                            .name("output_tokens").value(Math.max(outputTokens, 0))
+                            .endObject());
+                    anthropicEvent("message_stop", writer -> {
+                    });
+                    break;
+                case GEMINI:
+                    geminiChunk(writer -> {
+                        for (ToolCall call : bufferedCalls) {
+                            writer.beginObject().name("functionCall").beginObject().name("name").value(call.name)
+                                    .name("args").jsonValue(call.argumentsObject()).endObject().endObject();
+                        }
+                    }, finalReason);
+                    break;
+                default:
+                    openAIChunk(writer -> {
+                    }, finalReason);
+                    out.append(DATA_PREFIX).append(' ').append(DONE).append("\n\n");
+                    break;
+            }
+            finished = true;
+        }
+
+        private void closeBlock() throws IOException {
+            if (blockOpen) {
+                anthropicEvent("content_block_stop", writer -> writer.name("index").value(blockIndex));
+            }
+            blockOpen = false;
+            textBlockOpen = false;
+        }
+
+        private void openAIChunk(Fields delta, FinishReason reason) throws IOException {
+            StringWriter buffer = new StringWriter(128);
+            JsonWriter writer = new JsonWriter(buffer);
+            writer.beginObject()
+                    .name("id").value(id)
+                    .name("object").value("chat.completion.chunk")
+                    .name("created").value(System.currentTimeMillis() / 1000)
+                    .name("model").value(model)
+                    .name("choices").beginArray().beginObject()
+                    .name("index").value(0)
+                    .name("delta").beginObject();
+            delta.write(writer);
+            writer.endObject().name("finish_reason");
+            if (reason != null) {
+                writer.value(reason.openAI);
+            } else {
+                writer.nullValue();
+            }
+            writer.endObject().endArray();
+            if (reason != null) {
+                writeOpenAIUsage(writer, inputTokens, outputTokens);
+            }
+            writer.endObject().flush();
+            out.append(DATA_PREFIX).append(' ').append(buffer).append("\n\n");
+        }
+
+        private void anthropicEvent(String type, Fields fields) throws IOException {
+            StringWriter buffer = new StringWriter(128);
+            JsonWriter writer = new JsonWriter(buffer);
+            writer.beginObject().name("type").value(type);
+            fields.write(writer);
+            writer.endObject().flush();
+            out.append(EVENT_PREFIX).append(' ').append(type).append('\n')
+                    .append(DATA_PREFIX).append(' ').append(buffer).append("\n\n");
+        }
+
+        private void geminiChunk(Fields parts, FinishReason reason) throws IOException {
+            StringWriter buffer = new StringWriter(128);
+            JsonWriter writer = new JsonWriter(buffer);
+            writer.beginObject().name("candidates").beginArray().beginObject()
+                    .name("content").beginObject().name("role").value("model").name("parts").beginArray();
+            parts.write(writer);
+            writer.endArray().endObject();
+            if (reason != null) {
+                writer.name("finishReason").value(reason.gemini);
+            }
+            writer.name("index").value(0).endObject().endArray();
+            if (reason != null) {
+                writeGeminiUsage(writer, inputTokens, outputTokens);
+            }
+            if (model != null) {
+                writer.name("modelVersion").value(model);
+            }
+            writer.endObject().flush();
+            out.append(DATA_PREFIX).append(' ').append(buffer).append("\r\n\r\n");
+        }
+    }
+
+    /**
+     * Writes the fields of an event into an open JSON object or array.
+     */
+    private interface Fields {
+
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    // ---- Model ----
+
+    /**
+     * Why generation stopped, with the value each schema uses for it.
+     */
+    enum FinishReason {
+
+        STOP("stop", "end_turn", "STOP"),
+        LENGTH("length", "max_tokens", "MAX_TOKENS"),
+        TOOL_CALLS("tool_calls", "tool_use", "STOP"),
+        CONTENT_FILTER("content_filter", "refusal", "SAFETY");
+
+        private final String openAI;
+        private final String anthropic;
+        private final String gemini;
+
+        FinishReason(String openAI, String anthropic, String gemini) {
+            this.openAI = openAI;
+            this.anthropic = anthropic;
+            this.gemini = gemini;
+        }
+
+        static FinishReason parse(String value) {
+            if (value == null) {
+                return STOP;
+            }
+            switch (value) {
+                case "length":
+                case "max_tokens":
+                case "MAX_TOKENS":
+                    return LENGTH;
+                case "tool_calls":
+                case "function_call":
+                case "tool_use":
+                    return TOOL_CALLS;
+                case "content_filter":
+                case "refusal":
+                case "SAFETY":
+                case "RECITATION":
+                case "BLOCKLIST":
+                case "PROHIBITED_CONTENT":
+                case "SPII":
+                    return CONTENT_FILTER;
+                default:
+                    return STOP;
+            }
+        }
+    }
+
+    private static final class ChatResponse {
+
+        private String id;
+        private String model;
+        private final StringBuilder text = new StringBuilder();
+        private final List<ToolCall> toolCalls = new ArrayList<>(0);
+        private FinishReason finishReason = FinishReason.STOP;
+        private int inputTokens = -1;
+        private int outputTokens = -1;
+    }
+
+    private static final class ToolCall {
+
+        private final String id;
+        private final String name;
+        private final StringBuilder arguments;
+
+        private ToolCall(String id, String name, String arguments) {
+            this.id = id;
+            this.name = name;
+            this.arguments = new StringBuilder(arguments != null ? arguments : "");
+        }
+
+        /**
+         * Arguments as a JSON object, for schemas that carry them as objects rather than strings. Arguments that
+         * are not a JSON object, such as those of a call cut short by the token limit, become an empty object so
+         * that they cannot break the JSON they are written into.
+         */
+        private String argumentsObject() {
+            String json = arguments.toString().trim();
+            if (!json.startsWith("{")) {
+                return "{}";
+            }
+            try {
+                JsonElement parsed = JsonParser.parseString(json);
+                return parsed.isJsonObject() ? parsed.toString() : "{}";
+            } catch (RuntimeException e) {
+                return "{}";
+            }
+        }
+    }
+}
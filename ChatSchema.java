@@ -0,0 +1,171 @@
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chat request/response schemas understood by {@link ChatRequestTranslator}, with the field names each
+ * schema uses for sampling parameters. A {@code null} field name means the schema has no such parameter. The
+ * mappings are fixed at class load.
+ */
+enum ChatSchema {
+
+    OPENAI(true, null, "max_tokens", "temperature", "top_p", "stop", true, null, "frequency_penalty",
+            "presence_penalty"),
+    MISTRAL(true, null, "max_tokens", "temperature", "top_p", "stop", true, null, "frequency_penalty",
+            "presence_penalty"),
+    ANTHROPIC(true, null, "max_tokens", "temperature", "top_p", "stop_sequences", true, "top_k", null, null),
+    BEDROCK(false, null, "max_tokens", "temperature", "top_p", "stop_sequences", false, "top_k", null, null),
+    GEMINI(false, "generationConfig", "maxOutputTokens", "temperature", "topP", "stopSequences", false, "topK",
+            "frequencyPenalty", "presencePenalty");
+
+    private static final Map<String, ChatSchema> PROVIDER_SCHEMAS = new HashMap<>();
+
+    static {
+        PROVIDER_SCHEMAS.put("openai", OPENAI);
+        PROVIDER_SCHEMAS.put("azure", OPENAI);
+        PROVIDER_SCHEMAS.put("azureopenai", OPENAI);
+        PROVIDER_SCHEMAS.put("openrouter", OPENAI);
+        PROVIDER_SCHEMAS.put("mistral", MISTRAL);
+        PROVIDER_SCHEMAS.put("mistralai", MISTRAL);
+        PROVIDER_SCHEMAS.put("claude", ANTHROPIC);
+        PROVIDER_SCHEMAS.put("anthropic", ANTHROPIC);
+        PROVIDER_SCHEMAS.put("aws", BEDROCK);
+        PROVIDER_SCHEMAS.put("bedrock", BEDROCK);
+        PROVIDER_SCHEMAS.put("awsbedrock", BEDROCK);
+        PROVIDER_SCHEMAS.put("gemini", GEMINI);
+        PROVIDER_SCHEMAS.put("google", GEMINI);
+    }
+
+    private final boolean modelInBody;
+    private final String parametersObject;
+    private final String maxTokensField;
+    private final String temperatureField;
+    private final String topPField;
+    private final String stopField;
+    private final boolean streamInBody;
+    private final String topKField;
+    private final String frequencyPenaltyField;
+    private final String presencePenaltyField;
+
+    ChatSchema(boolean modelInBody, String parametersObject, String maxTokensField, String temperatureField,
+               String topPField, String stopField, boolean streamInBody, String topKField,
+               String frequencyPenaltyField, String presencePenaltyField) {
+        this.modelInBody = modelInBody;
+        this.parametersObject = parametersObject;
+        this.maxTokensField = maxTokensField;
+        this.temperatureField = temperatureField;
+        this.topPField = topPField;
+        this.stopField = stopField;
+        this.streamInBody = streamInBody;
+        this.topKField = topKField;
+        this.frequencyPenaltyField = frequencyPenaltyField;
+        this.presencePenaltyField = presencePenaltyField;
+    }
+
+    /**
+     * Returns the schema spoken by the provider, defaulting to the OpenAI schema for unknown providers.
+     */
+    static ChatSchema forProvider(String providerKey) {
+        ChatSchema schema = PROVIDER_SCHEMAS.get(providerKey);
+        return schema != null ? schema : OPENAI;
+    }
+
+    /**
+     * Whether the model is part of the request body rather than the URL.
+     */
+    boolean isModelInBody() {
+        return modelInBody;
+    }
+
+    /**
+     * Name of the object holding the sampling parameters, or {@code null} if they are top level fields.
+     */
+    String getParametersObject() {
+        return parametersObject;
+    }
+
+    String getMaxTokensField() {
+        return maxTokensField;
+    }
+
+    String getTemperatureField() {
+        return temperatureField;
+    }
+
+    String getTopPField() {
+        return topPField;
+    }
+
+    String getStopField() {
+        return stopField;
+    }
+
+    String getTopKField() {
+        return topKField;
+    }
+
+    String getFrequencyPenaltyField() {
+        return frequencyPenaltyField;
+    }
+
+    String getPresencePenaltyField() {
+        return presencePenaltyField;
+    }
+
+    /**
+     * Whether the schema takes a JSON response format. Anthropic models have no such parameter.
+     */
+    boolean supportsResponseFormat() {
+        return this != ANTHROPIC && this != BEDROCK;
+    }
+
+    /**
+     * Whether the schema takes images by URL. Bedrock only accepts inline image data.
+     */
+    boolean supportsImageUrls() {
+        return this != BEDROCK;
+    }
+
+    /**
+     * Whether streaming is requested with a body flag rather than a different URL.
+     */
+    boolean isStreamInBody() {
+        return streamInBody;
+    }
+
+    /**
+     * Returns the endpoint URL to send a streamed request to. Schemas with a body flag stream from the same URL,
+     * Gemini streams server-sent events from {@code :streamGenerateContent?alt=sse}. Bedrock streams the binary
+     * AWS event stream encoding, which cannot be translated back for the client, so it has no streaming URL.
+     *
+     * @param endpointUrl The endpoint URL of non-streamed requests.
+     * @return The streaming URL, or {@code null} if the request cannot be streamed to this endpoint.
+     */
+    String streamingUrl(String endpointUrl) {
+        if (streamInBody) {
+            return endpointUrl;
+        }
+        if (this != GEMINI || endpointUrl == null) {
+            return null;
+        }
+        String url = endpointUrl;
+        if (!url.contains(":streamGenerateContent")) {
+            if (!url.contains(":generateContent")) {
+                return null;
+            }
+            url = url.replace(":generateContent", ":streamGenerateContent");
+        }
+        if (url.contains("alt=sse")) {
+            return url;
+        }
+        return url + (url.indexOf('?') >= 0 ? "&" : "?") + "alt=sse";
+    }
+
+    /**
+     * Whether the schema needs max tokens to be set explicitly.
+     */
+    boolean requiresMaxTokens() {
+        return this == ANTHROPIC || this == BEDROCK;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonObject;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.transport.base.BaseConstants;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseConstants;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.core.axis2.Axis2Sender;
+import org.apache.synapse.transport.passthru.PassThroughConstants;
+import org.apache.synapse.transport.passthru.util.RelayUtils;
+import org.wso2.carbon.apimgt.gateway.APIMgtGatewayConstants;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sends a response to the client from the request flow without calling the backend, for responses served by the
+ * gateway itself such as cache hits and admission control rejections.
+ * <p>
+ * Callers return {@code false} from {@code mediate} after sending so that the request flow stops.
+ */
+public final class DirectResponse {
+
+    private static final String APPLICATION_JSON = "application/json";
+
+    private DirectResponse() {
+
+    }
+
+    /**
+     * Sends the given body back to the client.
+     *
+     * @param messageContext The message context of the request.
+     * @param statusCode     The HTTP status code.
+     * @param contentType    The content type of the body.
+     * @param body           The response body, JSON for JSON content types and text otherwise.
+     * @param headers        Additional response headers, may be {@code null}.
+     * @throws AxisFault If the response could not be sent.
+     */
+    public static void send(MessageContext messageContext, int statusCode, String contentType, String body,
+                            Map<String, String> headers) throws AxisFault {
+
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        try {
+            // Drain the request body so that the connection can be reused
+            RelayUtils.discardRequestMessage(axis2MessageContext);
+        } catch (IOException e) {
+            throw new AxisFault("Error while discarding the request body", e);
+        }
+
+        Map<String, String> transportHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (headers != null) {
+            transportHeaders.putAll(headers);
+        }
+        transportHeaders.put(Constants.Configuration.CONTENT_TYPE, contentType);
+        axis2MessageContext.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, transportHeaders);
+
+        if (contentType.startsWith(APPLICATION_JSON)) {
+            JsonUtil.getNewJsonPayload(axis2MessageContext, body, true, true);
+        } else {
+            JsonUtil.removeJsonPayload(axis2MessageContext);
+            OMElement textElement = OMAbstractFactory.getOMFactory().createOMElement(BaseConstants.DEFAULT_TEXT_WRAPPER);
+            textElement.setText(body);
+            axis2MessageContext.getEnvelope().getBody().addChild(textElement);
+        }
+        axis2MessageContext.setProperty(Constants.Configuration.MESSAGE_TYPE, contentType);
+        axis2MessageContext.setProperty(Constants.Configuration.CONTENT_TYPE, contentType);
+        axis2MessageContext.setProperty(APIMgtGatewayConstants.HTTP_SC, statusCode);
+        axis2MessageContext.removeProperty(PassThroughConstants.NO_ENTITY_BODY);
+
+        messageContext.setResponse(true);
+        messageContext.setProperty(SynapseConstants.RESPONSE, "true");
+        messageContext.setTo(null);
+        Axis2Sender.sendBack(messageContext);
+    }
+
+    /**
+     * Sends a JSON error body in the OpenAI error shape, which the common client SDKs understand.
+     *
+     * @param messageContext The message context of the request.
+     * @param statusCode     The HTTP status code.
+     * @param type           The error type.
+     * @param message        The error message.
+     * @param headers        Additional response headers such as {@code Retry-After}, may be {@code null}.
+     * @throws AxisFault If the response could not be sent.
+     */
+    public static void sendError(MessageContext messageContext, int statusCode, String type, String message,
+                                 Map<String, String> headers) throws AxisFault {
+
+        JsonObject error = new JsonObject();
+        error.addProperty("message", message);
+        error.addProperty("type", type);
+        error.addProperty("code", statusCode);
+        JsonObject body = new JsonObject();
+        body.add("error", error);
+        send(messageContext, statusCode, APPLICATION_JSON, body.toString(), headers);
+    }
+}
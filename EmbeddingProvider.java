@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+/**
+ * Computes prompt embeddings for the semantic response cache.
+ * <p>
+ * Implementations must be thread safe and return L2 normalised vectors of {@link #getDimensions()} elements, so
+ * that the dot product of two embeddings is their cosine similarity. A custom implementation can be plugged in
+ * with the {@code ai.semantic.cache.embeddingProvider} system property holding its class name; the class needs a
+ * public no-argument constructor.
+ */
+public interface EmbeddingProvider {
+
+    /**
+     * Returns a name identifying the provider and its configuration. Persisted embeddings are only reused by a
+     * provider with the same name.
+     *
+     * @return The provider name.
+     */
+    String getName();
+
+    /**
+     * Returns the number of dimensions of the embeddings.
+     *
+     * @return The embedding dimensions.
+     */
+    int getDimensions();
+
+    /**
+     * Computes the embedding of a text.
+     *
+     * @param text The text.
+     * @return The L2 normalised embedding, or {@code null} if the text has no content to embed.
+     */
+    float[] embed(String text);
+}
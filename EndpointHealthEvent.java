@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Endpoint health change exchanged between gateway nodes by {@link EndpointHealthSync}.
+ * <p>
+ * Events carry durations rather than absolute suspension times so that receivers do not depend on
+ * synchronized clocks; the origin timestamp is only used to drop stale events.
+ */
+public final class EndpointHealthEvent {
+
+    /**
+     * Kind of endpoint health change.
+     */
+    public enum Type {
+        SUSPEND,
+        RESUME,
+        TOKEN_BUDGET,
+        SUBSCRIPTION_TOKENS
+    }
+
+    private static final char SEPARATOR = '\t';
+    private static final int FIELD_COUNT = 7;
+
+    private final Type type;
+    private final String originNode;
+    private final long timestamp;
+    private final String apiKey;
+    private final String endpointId;
+    private final String model;
+    private final long value;
+
+    /**
+     * Creates an event.
+     *
+     * @param type       The kind of change.
+     * @param originNode The ID of the node that observed the change.
+     * @param timestamp  The time the change was observed on the origin node in milliseconds.
+     * @param apiKey     The API key the endpoint belongs to.
+     * @param endpointId The endpoint ID, or the consumer of the subscription for {@link Type#SUBSCRIPTION_TOKENS}.
+     * @param model      The model served by the endpoint.
+     * @param value      The remaining suspension in milliseconds for {@link Type#SUSPEND}, the remaining token
+     *                   count for {@link Type#TOKEN_BUDGET}, the tokens used since the last event for
+     *                   {@link Type#SUBSCRIPTION_TOKENS} and unused for {@link Type#RESUME}.
+     */
+    public EndpointHealthEvent(Type type, String originNode, long timestamp, String apiKey, String endpointId,
+                               String model, long value) {
+
+        this.type = type;
+        this.originNode = originNode;
+        this.timestamp = timestamp;
+        this.apiKey = apiKey;
+        this.endpointId = endpointId;
+        this.model = model;
+        this.value = value;
+    }
+
+    public Type getType() {
+
+        return type;
+    }
+
+    public String getOriginNode() {
+
+        return originNode;
+    }
+
+    public long getTimestamp() {
+
+        return timestamp;
+    }
+
+    public String getApiKey() {
+
+        return apiKey;
+    }
+
+    public String getEndpointId() {
+
+        return endpointId;
+    }
+
+    public String getModel() {
+
+        return model;
+    }
+
+    public long getValue() {
+
+        return value;
+    }
+
+    /**
+     * Encodes the event into its compact wire format.
+     *
+     * @return The UTF-8 encoded event.
+     */
+    public byte[] encode() {
+
+        StringBuilder builder = new StringBuilder(128);
+        builder.append(type.name()).append(SEPARATOR)
+                .append(originNode).append(SEPARATOR)
+                .append(timestamp).append(SEPARATOR)
+                .append(apiKey).append(SEPARATOR)
+                .append(endpointId).append(SEPARATOR)
+                .append(model).append(SEPARATOR)
+                .append(value);
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes an event from its wire format.
+     *
+     * @param data   The buffer holding the encoded event.
+     * @param offset The offset of the event in the buffer.
+     * @param length The length of the encoded event.
+     * @return The decoded event, or {@code null} if the data is not a valid event.
+     */
+    public static EndpointHealthEvent decode(byte[] data, int offset, int length) {
+
+        String[] fields = new String(data, offset, length, StandardCharsets.UTF_8)
+                .split(String.valueOf(SEPARATOR), -1);
+        if (fields.length != FIELD_COUNT) {
+            return null;
+        }
+        try {
+            return new EndpointHealthEvent(Type.valueOf(fields[0]), fields[1], Long.parseLong(fields[2]),
+                    fields[3], fields[4], fields[5], Long.parseLong(fields[6]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the event can be encoded without corrupting the wire format.
+     *
+     * @return {@code true} if no field contains the separator character.
+     */
+    boolean isEncodable() {
+
+        return isEncodable(originNode) && isEncodable(apiKey) && isEncodable(endpointId) && isEncodable(model);
+    }
+
+    private static boolean isEncodable(String field) {
+
+        return field != null && field.indexOf(SEPARATOR) < 0;
+    }
+
+    @Override
+    public String toString() {
+
+        return type + "[" + apiKey + ", " + endpointId + ", " + model + ", " + value + "] from " + originNode;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.wso2.carbon.apimgt.api.gateway.ModelEndpointDTO;
+import org.wso2.carbon.apimgt.gateway.internal.DataHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared, lock-free registry of AI endpoint health used by the AI mediators.
+ * <p>
+ * Endpoint state is interned per API as {@link EndpointHealth} handles addressed by endpoint ID and model,
+ * so health checks on the request path are two hash lookups with no key building. The registry is authoritative
+ * for the AI mediators: every suspension they record goes through {@link ApiEndpoints#suspend}, which mirrors it
+ * to {@code DataHolder} so that other gateway components keep seeing it, and health checks never consult
+ * {@code DataHolder}. The state of an API is dropped with {@link #invalidate} when its mediators are destroyed.
+ */
+public final class EndpointHealthRegistry {
+
+    private static final EndpointHealthRegistry INSTANCE = new EndpointHealthRegistry();
+
+    private final ConcurrentHashMap<String, ApiEndpoints> apis = new ConcurrentHashMap<>();
+
+    EndpointHealthRegistry() {
+
+    }
+
+    /**
+     * Returns the gateway wide registry instance.
+     *
+     * @return The registry.
+     */
+    public static EndpointHealthRegistry getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the endpoint health view of the given API, creating it on first use.
+     *
+     * @param apiKey The API key as returned by {@code GatewayUtils.getAPIKeyForEndpoints}.
+     * @return The endpoints of the API.
+     */
+    public ApiEndpoints forApi(String apiKey) {
+
+        ApiEndpoints endpoints = apis.get(apiKey);
+        if (endpoints != null) {
+            return endpoints;
+        }
+        return apis.computeIfAbsent(apiKey, ApiEndpoints::new);
+    }
+
+    /**
+     * Drops all endpoint state held for the given API, when the API is undeployed or redeployed.
+     *
+     * @param apiKey The API key.
+     */
+    public void invalidate(String apiKey) {
+
+        apis.remove(apiKey);
+    }
+
+    /**
+     * Health state of all endpoints belonging to a single API.
+     */
+    public static final class ApiEndpoints {
+
+        private final String apiKey;
+        private final ConcurrentHashMap<String, ConcurrentHashMap<String, EndpointHealth>> endpoints =
+                new ConcurrentHashMap<>();
+
+        private ApiEndpoints(String apiKey) {
+
+            this.apiKey = apiKey;
+        }
+
+        public String getApiKey() {
+
+            return apiKey;
+        }
+
+        /**
+         * Returns the interned handle for the endpoint and model, creating it if needed.
+         *
+         * @param endpointId The endpoint ID.
+         * @param model      The model served by the endpoint.
+         * @return The endpoint handle.
+         */
+        public EndpointHealth handle(String endpointId, String model) {
+
+            EndpointHealth health = find(endpointId, model);
+            if (health != null) {
+                return health;
+            }
+            return endpoints.computeIfAbsent(endpointId, id -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(model, m -> new EndpointHealth(apiKey, endpointId, m));
+        }
+
+        /**
+         * Returns the handle for the endpoint and model if one has been created.
+         *
+         * @param endpointId The endpoint ID.
+         * @param model      The model served by the endpoint.
+         * @return The endpoint handle or {@code null} if the endpoint has never been tracked.
+         */
+        public EndpointHealth find(String endpointId, String model) {
+
+            if (endpointId == null || model == null) {
+                return null;
+            }
+            ConcurrentHashMap<String, EndpointHealth> models = endpoints.get(endpointId);
+            return models != null ? models.get(model) : null;
+        }
+
+        /**
+         * Checks whether the given model endpoint is currently suspended.
+         *
+         * @param modelEndpoint The model endpoint.
+         * @return {@code true} if the endpoint is suspended.
+         */
+        public boolean isSuspended(ModelEndpointDTO modelEndpoint) {
+
+            return isSuspended(modelEndpoint, System.currentTimeMillis());
+        }
+
+        /**
+         * Filters the given endpoints down to the ones that are not suspended. When every endpoint is healthy
+         * the given list itself is returned, so callers must not modify the result.
+         *
+         * @param modelEndpoints The candidate endpoints, may be {@code null}.
+         * @return The healthy endpoints in their original order.
+         */
+        public List<ModelEndpointDTO> filterHealthy(List<ModelEndpointDTO> modelEndpoints) {
+
+            if (modelEndpoints == null || modelEndpoints.isEmpty()) {
+                return Collections.emptyList();
+            }
+            long now = System.currentTimeMillis();
+            List<ModelEndpointDTO> healthy = null;
+            for (int i = 0; i < modelEndpoints.size(); i++) {
+                ModelEndpointDTO modelEndpoint = modelEndpoints.get(i);
+                boolean suspended = isSuspended(modelEndpoint, now);
+                if (suspended && healthy == null) {
+                    healthy = new ArrayList<>(modelEndpoints.size() - 1);
+                    for (int j = 0; j < i; j++) {
+                        healthy.add(modelEndpoints.get(j));
+                    }
+                } else if (!suspended && healthy != null) {
+                    healthy.add(modelEndpoint);
+                }
+            }
+            return healthy != null ? healthy : modelEndpoints;
+        }
+
+        private boolean isSuspended(ModelEndpointDTO modelEndpoint, long now) {
+
+            EndpointHealth health = find(modelEndpoint.getEndpointId(), modelEndpoint.getModel());
+            return health != null && health.isSuspended(now);
+        }
+
+        /**
+         * Suspends the endpoint for the given duration, counts the failure that caused it and mirrors the
+         * suspension to {@code DataHolder}.
+         *
+         * @param endpointId     The endpoint ID.
+         * @param model          The model served by the endpoint.
+         * @param durationMillis The suspension duration in milliseconds.
+         * @return The endpoint handle.
+         */
+        public EndpointHealth suspend(String endpointId, String model, long durationMillis) {
+
+            EndpointHealth health = handle(endpointId, model);
+            health.recordFailure();
+            health.suspendUntil(System.currentTimeMillis() + durationMillis);
+            DataHolder.getInstance().suspendEndpoint(apiKey, endpointId + "_" + model, durationMillis);
+            return health;
+        }
+    }
+
+    /**
+     * Interned health handle of a single endpoint and model.
+     */
+    public static final class EndpointHealth {
+
+        private final String apiKey;
+        private final String endpointId;
+        private final String model;
+        private final AtomicLong suspendedUntil = new AtomicLong();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final LongAdder totalFailures = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long remainingTokens = -1L;
+        private volatile long remainingTokensUpdatedAt;
+        private final AtomicLong tokenBudgetPublishedAt = new AtomicLong();
+
+        private EndpointHealth(String apiKey, String endpointId, String model) {
+
+            this.apiKey = apiKey;
+            this.endpointId = endpointId;
+            this.model = model;
+        }
+
+        public String getApiKey() {
+
+            return apiKey;
+        }
+
+        public String getEndpointId() {
+
+            return endpointId;
+        }
+
+        public String getModel() {
+
+            return model;
+        }
+
+        /**
+         * Checks whether the endpoint is suspended at the given time.
+         *
+         * @param now The current time in milliseconds.
+         * @return {@code true} if the endpoint is suspended.
+         */
+        public boolean isSuspended(long now) {
+
+            return suspendedUntil.get() > now;
+        }
+
+        /**
+         * Returns the time until which the endpoint is suspended, or a past time if it is active.
+         *
+         * @return The suspension end time in milliseconds.
+         */
+        public long getSuspendedUntil() {
+
+            return suspendedUntil.get();
+        }
+
+        /**
+         * Extends the suspension to the given time. An existing longer suspension is kept.
+         *
+         * @param until The suspension end time in milliseconds.
+         */
+        public void suspendUntil(long until) {
+
+            suspendedUntil.accumulateAndGet(until, Math::max);
+        }
+
+        /**
+         * Forgets a suspension that has run out, so that it is reported as ended only once.
+         *
+         * @param now The current time in milliseconds.
+         * @return {@code true} if the endpoint had a suspension that ended by now.
+         */
+        public boolean clearEndedSuspension(long now) {
+
+            long until = suspendedUntil.get();
+            return until > 0 && until <= now && suspendedUntil.compareAndSet(until, 0L);
+        }
+
+        /**
+         * Lifts any active suspension.
+         */
+        public void resume() {
+
+            suspendedUntil.set(0L);
+        }
+
+        public int recordFailure() {
+
+            totalFailures.increment();
+            return consecutiveFailures.incrementAndGet();
+        }
+
+        /**
+         * Claims the publication of a token budget snapshot of the endpoint, at most once per interval.
+         *
+         * @param now            The current time in milliseconds.
+         * @param intervalMillis The minimum interval between snapshots.
+         * @return {@code true} if the caller may publish the snapshot.
+         */
+        boolean claimTokenBudgetPublish(long now, long intervalMillis) {
+
+            long last = tokenBudgetPublishedAt.get();
+            return now - last >= intervalMillis && tokenBudgetPublishedAt.compareAndSet(last, now);
+        }
+
+        public void recordSuccess() {
+
+            if (consecutiveFailures.get() != 0) {
+                consecutiveFailures.set(0);
+            }
+        }
+
+        public int getConsecutiveFailures() {
+
+            return consecutiveFailures.get();
+        }
+
+        public long getTotalFailures() {
+
+            return totalFailures.sum();
+        }
+
+        /**
+         * Records the remaining token budget reported by the provider for this endpoint.
+         *
+         * @param tokens    The remaining token count.
+         * @param timestamp The time the budget was observed or received on this node in milliseconds.
+         */
+        public void recordRemainingTokens(long tokens, long timestamp) {
+
+            if (timestamp >= remainingTokensUpdatedAt) {
+                remainingTokensUpdatedAt = timestamp;
+                remainingTokens = tokens;
+            }
+        }
+
+        /**
+         * Returns the last remaining token budget reported for this endpoint.
+         *
+         * @return The remaining token count, or {@code -1} if it is unknown.
+         */
+        public long getRemainingTokens() {
+
+            return remainingTokens;
+        }
+
+        public long getRemainingTokensUpdatedAt() {
+
+            return remainingTokensUpdatedAt;
+        }
+
+        /**
+         * Counts a request sent to this endpoint that has not completed yet.
+         *
+         * @return The number of in-flight requests including this one.
+         */
+        public int acquireInFlight() {
+
+            return inFlight.incrementAndGet();
+        }
+
+        /**
+         * Counts the completion of a request counted by {@link #acquireInFlight()}.
+         */
+        public void releaseInFlight() {
+
+            inFlight.updateAndGet(count -> count > 0 ? count - 1 : 0);
+        }
+
+        public int getInFlight() {
+
+            return inFlight.get();
+        }
+    }
+}
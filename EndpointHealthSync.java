@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.gateway.internal.DataHolder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Optional propagation of endpoint suspensions and token budgets between gateway nodes.
+ * <p>
+ * When enabled, every suspension recorded on one node is published to the other nodes, which apply it to
+ * their own {@link EndpointHealthRegistry} so that they stop sending traffic to the rate limited endpoint
+ * without first burning their own failed calls. The same channel carries the token usage of subscriptions for
+ * {@link SubscriptionTokenLimiter}.
+ * <p>
+ * Events delayed by more than the configured staleness bound are ignored. Clocks of the nodes are not compared:
+ * the delay of an event is its receive time minus its origin timestamp, which includes the clock offset between
+ * the two nodes, and is measured against the smallest such delay seen from the same origin over the last two
+ * {@code clockWindowMs} periods. Accepted events are applied at their receive time, suspensions and token
+ * budgets alike, so no other node's clock ends up in local state.
+ * <p>
+ * The gateway instance is configured through system properties and is disabled by default:
+ * <ul>
+ * <li>{@code ai.endpoint.health.sync.enabled} - enables multicast propagation</li>
+ * <li>{@code ai.endpoint.health.sync.secret} - shared secret authenticating the events with HMAC-SHA256;
+ * multicast propagation stays disabled without it</li>
+ * <li>{@code ai.endpoint.health.sync.group} / {@code .port} / {@code .ttl} - multicast settings</li>
+ * <li>{@code ai.endpoint.health.sync.maxStalenessMs} - maximum accepted event delay</li>
+ * <li>{@code ai.endpoint.health.sync.clockWindowMs} - period over which the clock offset of another node is
+ * estimated, 10 minutes by default</li>
+ * <li>{@code ai.endpoint.health.sync.tokenBudgetIntervalMs} - minimum interval between token budget
+ * snapshots of the same endpoint</li>
+ * </ul>
+ * The gateway instance is held by the mediators using it through {@link #acquire()} and {@link #release()}, and
+ * is stopped when the last of them is destroyed.
+ */
+public class EndpointHealthSync {
+
+    private static final Log log = LogFactory.getLog(EndpointHealthSync.class);
+
+    private static final String PROPERTY_PREFIX = "ai.endpoint.health.sync.";
+    private static final String DEFAULT_GROUP = "239.255.42.99";
+    private static final int DEFAULT_PORT = 45699;
+    private static final long DEFAULT_MAX_STALENESS_MILLIS = 5000L;
+    private static final long DEFAULT_TOKEN_BUDGET_INTERVAL_MILLIS = 1000L;
+    private static final long DEFAULT_CLOCK_WINDOW_MILLIS = 600_000L;
+    // Origins beyond this are dropped once idle, node IDs change on every restart
+    private static final int MAX_ORIGINS = 256;
+
+    private static volatile EndpointHealthSync instance;
+    private static int users;
+
+    private final EndpointHealthRegistry registry;
+    private final EndpointHealthTransport transport;
+    private final String nodeId;
+    private final long maxStalenessMillis;
+    private final long tokenBudgetIntervalMillis;
+    private final boolean mirrorToDataHolder;
+    private final long clockWindowMillis = Long.getLong(PROPERTY_PREFIX + "clockWindowMs",
+            DEFAULT_CLOCK_WINDOW_MILLIS);
+    private final Map<String, OriginClock> originClocks = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a sync instance. The transport is not started until {@link #start()} is called.
+     *
+     * @param registry                  The registry remote events are applied to.
+     * @param transport                 The transport, or {@code null} to disable propagation.
+     * @param nodeId                    The unique ID of this node.
+     * @param maxStalenessMillis        The maximum age of an accepted remote event.
+     * @param tokenBudgetIntervalMillis The minimum interval between token budget snapshots of an endpoint.
+     * @param mirrorToDataHolder        Whether remote suspensions are also recorded in {@code DataHolder}.
+     */
+    public EndpointHealthSync(EndpointHealthRegistry registry, EndpointHealthTransport transport, String nodeId,
+                              long maxStalenessMillis, long tokenBudgetIntervalMillis,
+                              boolean mirrorToDataHolder) {
+
+        this.registry = registry;
+        this.transport = transport;
+        this.nodeId = nodeId;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.tokenBudgetIntervalMillis = tokenBudgetIntervalMillis;
+        this.mirrorToDataHolder = mirrorToDataHolder;
+    }
+
+    /**
+     * Returns the gateway instance, configured from system properties on first use.
+     *
+     * @return The gateway endpoint health sync.
+     */
+    public static EndpointHealthSync getInstance() {
+
+        EndpointHealthSync sync = instance;
+        if (sync != null) {
+            return sync;
+        }
+        synchronized (EndpointHealthSync.class) {
+            if (instance == null) {
+                instance = createFromSystemProperties();
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Registers a user of the gateway instance, starting it if needed. Each call must be matched by a call to
+     * {@link #release()}.
+     *
+     * @return The gateway endpoint health sync.
+     */
+    public static synchronized EndpointHealthSync acquire() {
+
+        users++;
+        return getInstance();
+    }
+
+    /**
+     * Releases a user of the gateway instance, stopping it when no user is left.
+     */
+    public static synchronized void release() {
+
+        if (users > 0 && --users == 0 && instance != null) {
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    /**
+     * Starts receiving events from the other nodes.
+     *
+     * @throws IOException If the transport cannot be started.
+     */
+    public void start() throws IOException {
+
+        if (transport != null) {
+            transport.start(this::onEvent);
+        }
+    }
+
+    /**
+     * Stops propagation.
+     */
+    public void stop() {
+
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
+    public boolean isEnabled() {
+
+        return transport != null;
+    }
+
+    public String getNodeId() {
+
+        return nodeId;
+    }
+
+    /**
+     * Publishes a locally recorded suspension to the other nodes.
+     *
+     * @param health         The suspended endpoint.
+     * @param durationMillis The suspension duration in milliseconds.
+     */
+    public void publishSuspension(EndpointHealthRegistry.EndpointHealth health, long durationMillis) {
+
+        publish(EndpointHealthEvent.Type.SUSPEND, health, durationMillis);
+    }
+
+    /**
+     * Publishes that a previously failing endpoint has recovered.
+     *
+     * @param health The recovered endpoint.
+     */
+    public void publishResume(EndpointHealthRegistry.EndpointHealth health) {
+
+        publish(EndpointHealthEvent.Type.RESUME, health, 0L);
+    }
+
+    /**
+     * Publishes the remaining token budget reported for an endpoint, at most once per configured interval.
+     *
+     * @param health          The endpoint.
+     * @param remainingTokens The remaining token count.
+     */
+    public void publishTokenBudget(EndpointHealthRegistry.EndpointHealth health, long remainingTokens) {
+
+        if (transport == null || !health.claimTokenBudgetPublish(System.currentTimeMillis(),
+                tokenBudgetIntervalMillis)) {
+            return;
+        }
+        publish(EndpointHealthEvent.Type.TOKEN_BUDGET, health, remainingTokens);
+    }
+
+    /**
+     * Publishes the tokens a subscription used on this node since the last call.
+     *
+     * @param apiKey   The API key of the subscription.
+     * @param consumer The application or user the subscription belongs to.
+     * @param tokens   The tokens used, negative when reservations were reconciled downwards.
+     */
+    public void publishSubscriptionTokens(String apiKey, String consumer, long tokens) {
+
+        publish(EndpointHealthEvent.Type.SUBSCRIPTION_TOKENS, apiKey, consumer, "-", tokens);
+    }
+
+    private void publish(EndpointHealthEvent.Type type, EndpointHealthRegistry.EndpointHealth health, long value) {
+
+        publish(type, health.getApiKey(), health.getEndpointId(), health.getModel(), value);
+    }
+
+    private void publish(EndpointHealthEvent.Type type, String apiKey, String endpointId, String model, long value) {
+
+        if (transport == null) {
+            return;
+        }
+        EndpointHealthEvent event = new EndpointHealthEvent(type, nodeId, System.currentTimeMillis(), apiKey,
+                endpointId, model, value);
+        if (!event.isEncodable()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Skipping endpoint health event that cannot be encoded: " + event);
+            }
+            return;
+        }
+        transport.publish(event);
+    }
+
+    /**
+     * Applies an event received from another node.
+     *
+     * @param event The received event.
+     */
+    void onEvent(EndpointHealthEvent event) {
+
+        if (event == null || nodeId.equals(event.getOriginNode())) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (lag(event.getOriginNode(), now - event.getTimestamp(), now) > maxStalenessMillis) {
+            if (log.isDebugEnabled()) {
+                log.debug("Dropping stale endpoint health event: " + event);
+            }
+            return;
+        }
+        if (event.getType() == EndpointHealthEvent.Type.SUBSCRIPTION_TOKENS) {
+            SubscriptionTokenLimiter.getInstance().applyRemote(event.getApiKey(), event.getEndpointId(),
+                    event.getValue());
+            return;
+        }
+        EndpointHealthRegistry.ApiEndpoints endpoints = registry.forApi(event.getApiKey());
+        switch (event.getType()) {
+            case SUSPEND:
+                if (event.getValue() > 0) {
+                    endpoints.handle(event.getEndpointId(), event.getModel()).suspendUntil(now + event.getValue());
+                    if (mirrorToDataHolder) {
+                        DataHolder.getInstance().suspendEndpoint(event.getApiKey(),
+                                event.getEndpointId() + "_" + event.getModel(), event.getValue());
+                    }
+                }
+                break;
+            case RESUME:
+                EndpointHealthRegistry.EndpointHealth health =
+                        endpoints.find(event.getEndpointId(), event.getModel());
+                if (health != null) {
+                    health.resume();
+                }
+                break;
+            case TOKEN_BUDGET:
+                endpoints.handle(event.getEndpointId(), event.getModel())
+                        .recordRemainingTokens(event.getValue(), now);
+                break;
+            default:
+                break;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Applied endpoint health event: " + event);
+        }
+    }
+
+    /**
+     * Returns how much longer the event took to arrive than the fastest event of its origin.
+     *
+     * @param origin The node the event comes from.
+     * @param delay  The receive time minus the origin timestamp, including the clock offset of the nodes.
+     * @param now    The receive time.
+     */
+    private long lag(String origin, long delay, long now) {
+
+        OriginClock clock = originClocks.get(origin);
+        if (clock == null) {
+            if (originClocks.size() >= MAX_ORIGINS) {
+                for (Iterator<OriginClock> iterator = originClocks.values().iterator(); iterator.hasNext(); ) {
+                    if (now - iterator.next().lastSeen > 2 * clockWindowMillis) {
+                        iterator.remove();
+                    }
+                }
+            }
+            clock = originClocks.computeIfAbsent(origin, o -> new OriginClock());
+        }
+        return clock.lag(delay, now, clockWindowMillis);
+    }
+
+    private static EndpointHealthSync createFromSystemProperties() {
+
+        String nodeId = UUID.randomUUID().toString();
+        long maxStaleness = Long.getLong(PROPERTY_PREFIX + "maxStalenessMs", DEFAULT_MAX_STALENESS_MILLIS);
+        long tokenBudgetInterval =
+                Long.getLong(PROPERTY_PREFIX + "tokenBudgetIntervalMs", DEFAULT_TOKEN_BUDGET_INTERVAL_MILLIS);
+        EndpointHealthTransport transport = null;
+        String secret = System.getProperty(PROPERTY_PREFIX + "secret");
+        if (Boolean.getBoolean(PROPERTY_PREFIX + "enabled") && (secret == null || secret.isEmpty())) {
+            log.error("No endpoint health sync secret configured, cluster propagation disabled");
+        } else if (Boolean.getBoolean(PROPERTY_PREFIX + "enabled")) {
+            try {
+                transport = new MulticastEndpointHealthTransport(
+                        InetAddress.getByName(System.getProperty(PROPERTY_PREFIX + "group", DEFAULT_GROUP)),
+                        Integer.getInteger(PROPERTY_PREFIX + "port", DEFAULT_PORT),
+                        Integer.getInteger(PROPERTY_PREFIX + "ttl", 1), secret.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                log.error("Invalid endpoint health sync group, cluster propagation disabled", e);
+            }
+        }
+        EndpointHealthSync sync = new EndpointHealthSync(EndpointHealthRegistry.getInstance(), transport, nodeId,
+                maxStaleness, tokenBudgetInterval, true);
+        try {
+            sync.start();
+        } catch (IOException e) {
+            log.error("Failed to start endpoint health sync, cluster propagation disabled", e);
+            sync.stop();
+            return new EndpointHealthSync(EndpointHealthRegistry.getInstance(), null, nodeId, maxStaleness,
+                    tokenBudgetInterval, true);
+        }
+        if (sync.isEnabled() && log.isDebugEnabled()) {
+            log.debug("Endpoint health sync started with node ID: " + nodeId);
+        }
+        return sync;
+    }
+
+    /**
+     * Smallest delay of the events of one origin over the current and the previous period, so that a step of
+     * the origin's clock is followed within two periods.
+     */
+    private static final class OriginClock {
+
+        private long periodStart;
+        private long currentMin = Long.MAX_VALUE;
+        private long previousMin = Long.MAX_VALUE;
+        private volatile long lastSeen;
+
+        private synchronized long lag(long delay, long now, long periodMillis) {
+
+            if (now - periodStart >= periodMillis) {
+                previousMin = now - periodStart < 2 * periodMillis ? currentMin : Long.MAX_VALUE;
+                currentMin = Long.MAX_VALUE;
+                periodStart = now;
+            }
+            currentMin = Math.min(currentMin, delay);
+            lastSeen = now;
+            return delay - Math.min(currentMin, previousMin);
+        }
+    }
+}
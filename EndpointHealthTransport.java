@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Best-effort transport used by {@link EndpointHealthSync} to exchange {@link EndpointHealthEvent}s
+ * between gateway nodes. Implementations must not block the caller of {@link #publish} on remote nodes.
+ */
+public interface EndpointHealthTransport {
+
+    /**
+     * Starts receiving events from other nodes.
+     *
+     * @param listener The listener invoked for every received event.
+     * @throws IOException If the transport cannot be started.
+     */
+    void start(Consumer<EndpointHealthEvent> listener) throws IOException;
+
+    /**
+     * Sends the event to the other nodes. Delivery is not guaranteed.
+     *
+     * @param event The event to send.
+     */
+    void publish(EndpointHealthEvent event);
+
+    /**
+     * Stops the transport and releases its resources.
+     */
+    void close();
+}
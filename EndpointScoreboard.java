@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Live latency and error statistics of upstream endpoints, used to score them when routing.
+ * <p>
+ * Each endpoint and model keeps running estimates of its median and 95th percentile latency and an exponentially
+ * weighted error rate, where 5xx and 429 responses count as errors. The estimates are updated by the thread
+ * handling the response with a compare-and-set on their bits, so recording never locks and readers always see a
+ * complete value. The quantiles are stochastic estimates that step towards each sample by a fraction of the
+ * current estimate, so they follow a shift in latency within a few dozen responses and need no sample buffer.
+ * At most {@code ai.routing.scoreboard.maxEndpoints} (4096 by default) endpoints are tracked.
+ */
+public final class EndpointScoreboard {
+
+    // Weight of a new sample in the error rate, about the last 20 responses
+    private static final double ERROR_RATE_ALPHA = 0.05d;
+    // Step of the quantile estimates as a share of the current estimate
+    private static final double QUANTILE_STEP = 0.05d;
+
+    private static final EndpointScoreboard INSTANCE =
+            new EndpointScoreboard(Integer.getInteger("ai.routing.scoreboard.maxEndpoints", 4096));
+
+    private final int maxEndpoints;
+    private final Map<Key, Stats> stats = new ConcurrentHashMap<>();
+
+    EndpointScoreboard(int maxEndpoints) {
+
+        this.maxEndpoints = Math.max(1, maxEndpoints);
+    }
+
+    public static EndpointScoreboard getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Records a response from upstream.
+     *
+     * @param endpointId    The ID of the endpoint that served the response.
+     * @param model         The model that served the response.
+     * @param statusCode    The upstream status code.
+     * @param latencyMillis The time from sending the request to the response in milliseconds, or a negative
+     *                      number if it is not known.
+     */
+    public void record(String endpointId, String model, int statusCode, double latencyMillis) {
+
+        if (endpointId == null || statusCode <= 0) {
+            return;
+        }
+        Key key = new Key(endpointId, model);
+        Stats endpoint = stats.get(key);
+        if (endpoint == null) {
+            if (stats.size() >= maxEndpoints) {
+                return;
+            }
+            endpoint = stats.computeIfAbsent(key, k -> new Stats());
+        }
+        boolean error = statusCode >= 500 || statusCode == 429;
+        endpoint.record(error, error ? -1 : latencyMillis);
+    }
+
+    /**
+     * Returns the statistics of an endpoint.
+     *
+     * @return The statistics, or {@code null} if no response of the endpoint was recorded.
+     */
+    public Stats get(String endpointId, String model) {
+
+        return stats.get(new Key(endpointId, model));
+    }
+
+    /**
+     * Statistics of one endpoint and model.
+     */
+    public static final class Stats {
+
+        private final AtomicLong samples = new AtomicLong();
+        private final AtomicLong latencySamples = new AtomicLong();
+        private final AtomicLong p50 = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+        private final AtomicLong p95 = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+        private final AtomicLong errorRate = new AtomicLong(Double.doubleToRawLongBits(0.0d));
+
+        private void record(boolean error, double latencyMillis) {
+
+            long n = samples.incrementAndGet();
+            // Average the first responses evenly so the rate does not start from a single outcome
+            double alpha = Math.max(ERROR_RATE_ALPHA, 1.0d / n);
+            update(errorRate, current -> current + alpha * ((error ? 1.0d : 0.0d) - current));
+            // Errors are often fast and would pull the latency down, so only successful responses count
+            if (latencyMillis >= 0) {
+                latencySamples.incrementAndGet();
+                update(p50, current -> quantileStep(current, latencyMillis, 0.50d));
+                update(p95, current -> quantileStep(current, latencyMillis, 0.95d));
+            }
+        }
+
+        private static double quantileStep(double estimate, double sample, double quantile) {
+
+            if (Double.isNaN(estimate)) {
+                return sample;
+            }
+            // Moves up by q and down by 1 - q steps, which balances where a share q of the samples lie below
+            double step = QUANTILE_STEP * Math.max(estimate, 1.0d);
+            if (sample > estimate) {
+                return Math.min(sample, estimate + step * quantile);
+            }
+            if (sample < estimate) {
+                return Math.max(sample, estimate - step * (1.0d - quantile));
+            }
+            return estimate;
+        }
+
+        private static void update(AtomicLong bits, DoubleUnaryOperator step) {
+
+            long current;
+            long next;
+            do {
+                current = bits.get();
+                next = Double.doubleToRawLongBits(step.applyAsDouble(Double.longBitsToDouble(current)));
+            } while (current != next && !bits.compareAndSet(current, next));
+        }
+
+        /**
+         * Returns the number of responses recorded.
+         */
+        public long getSamples() {
+
+            return samples.get();
+        }
+
+        /**
+         * Returns the estimated median latency of successful responses in milliseconds, or {@code NaN} if none
+         * was recorded.
+         */
+        public double getP50Millis() {
+
+            return Double.longBitsToDouble(p50.get());
+        }
+
+        /**
+         * Returns the estimated 95th percentile latency of successful responses in milliseconds, or {@code NaN}
+         * if none was recorded.
+         */
+        public double getP95Millis() {
+
+            // The two estimates move independently and may cross for a while after a shift
+            return Math.max(getP50Millis(), Double.longBitsToDouble(p95.get()));
+        }
+
+        /**
+         * Returns the recent share of responses that were 5xx or 429.
+         */
+        public double getErrorRate() {
+
+            return Double.longBitsToDouble(errorRate.get());
+        }
+
+        public long getLatencySamples() {
+
+            return latencySamples.get();
+        }
+    }
+
+    private static final class Key {
+
+        private final String endpointId;
+        private final String model;
+
+        private Key(String endpointId, String model) {
+
+            this.endpointId = endpointId;
+            this.model = model;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return endpointId.equals(key.endpointId) && Objects.equals(model, key.model);
+        }
+
+        @Override
+        public int hashCode() {
+
+            return 31 * endpointId.hashCode() + Objects.hashCode(model);
+        }
+    }
+}
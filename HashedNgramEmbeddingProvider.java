@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Local embedding provider needing no model or network call: words, word bigrams and character trigrams of the
+ * lower-cased text are hashed into a fixed number of signed buckets (feature hashing), with function words weighted
+ * down, and the vector is L2 normalised. Paraphrases sharing most of their content words and word stems land close
+ * together, which is enough for FAQ style traffic; deployments needing true semantic similarity should plug in a
+ * model backed provider.
+ */
+public final class HashedNgramEmbeddingProvider implements EmbeddingProvider {
+
+    private static final int DEFAULT_DIMENSIONS = 512;
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float BIGRAM_WEIGHT = 0.7f;
+    private static final float TRIGRAM_WEIGHT = 0.4f;
+    private static final float STOP_WORD_WEIGHT = 0.2f;
+    // Function words carry little of the meaning of a question but make up much of its text
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList("a", "an", "the", "i", "me", "my",
+            "you", "your", "we", "our", "it", "is", "are", "was", "be", "do", "does", "did", "can", "could", "how",
+            "what", "to", "of", "in", "on", "for", "with", "and", "or", "please", "s"));
+
+    private final int dimensions;
+
+    public HashedNgramEmbeddingProvider() {
+
+        this(Integer.getInteger("ai.semantic.cache.dimensions", DEFAULT_DIMENSIONS));
+    }
+
+    HashedNgramEmbeddingProvider(int dimensions) {
+
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public String getName() {
+
+        return "hashed-ngram-" + dimensions;
+    }
+
+    @Override
+    public int getDimensions() {
+
+        return dimensions;
+    }
+
+    @Override
+    public float[] embed(String text) {
+
+        List<String> words = tokenize(text);
+        if (words.isEmpty()) {
+            return null;
+        }
+        float[] vector = new float[dimensions];
+        String previous = null;
+        for (String word : words) {
+            if (STOP_WORDS.contains(word)) {
+                add(vector, word.hashCode(), STOP_WORD_WEIGHT);
+                continue;
+            }
+            add(vector, word.hashCode(), WORD_WEIGHT);
+            if (previous != null) {
+                add(vector, (previous + ' ' + word).hashCode() * 31 + 7, BIGRAM_WEIGHT);
+            }
+            String padded = '^' + word + '$';
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                add(vector, padded.substring(i, i + 3).hashCode() * 17 + 3, TRIGRAM_WEIGHT);
+            }
+            previous = word;
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float scale = (float) (1.0d / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private void add(float[] vector, int hash, float weight) {
+
+        int mixed = hash * 0x9E3779B1;
+        int bucket = (mixed >>> 1) % dimensions;
+        vector[bucket] += (mixed & 1) == 0 ? weight : -weight;
+    }
+
+    private static List<String> tokenize(String text) {
+
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process Hierarchical Navigable Small World index over L2 normalised vectors, using cosine similarity.
+ * <p>
+ * Searches run concurrently under a read lock; inserts take the write lock. Removal marks nodes as deleted
+ * (tombstones) and searches skip them; once tombstones make up a quarter of the index it is rebuilt from the
+ * live nodes by {@link #compact()}.
+ *
+ * @param <T> The type of the value attached to each vector.
+ */
+final class HnswIndex<T> {
+
+    private final int maxConnections;
+    private final int maxConnectionsLayer0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+    private final Random random = new Random();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<Node<T>> nodes = new ArrayList<>();
+    private Node<T> entryPoint;
+    private int deleted;
+
+    /**
+     * @param maxConnections The number of links per node on the upper layers (M); layer 0 allows twice as many.
+     * @param efConstruction The candidate list size while inserting.
+     * @param efSearch       The candidate list size while searching.
+     */
+    HnswIndex(int maxConnections, int efConstruction, int efSearch) {
+
+        this.maxConnections = maxConnections;
+        this.maxConnectionsLayer0 = maxConnections * 2;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0d / Math.log(maxConnections);
+    }
+
+    /**
+     * Adds a vector.
+     *
+     * @param vector The L2 normalised vector.
+     * @param value  The value attached to it.
+     * @return The node, which can later be passed to {@link #remove(Node)}.
+     */
+    Node<T> add(float[] vector, T value) {
+
+        lock.writeLock().lock();
+        try {
+            int level = (int) Math.floor(-Math.log(1.0d - random.nextDouble()) * levelMultiplier);
+            Node<T> node = new Node<>(nodes.size(), vector, value, level, maxConnections, maxConnectionsLayer0);
+            nodes.add(node);
+            if (entryPoint == null) {
+                entryPoint = node;
+                return node;
+            }
+            Node<T> current = entryPoint;
+            for (int layer = entryPoint.level; layer > level; layer--) {
+                current = greedyClosest(vector, current, layer);
+            }
+            for (int layer = Math.min(level, entryPoint.level); layer >= 0; layer--) {
+                List<Candidate<T>> candidates = searchLayer(vector, current, efConstruction, layer);
+                int limit = layer == 0 ? maxConnectionsLayer0 : maxConnections;
+                for (int i = 0; i < candidates.size() && i < maxConnections; i++) {
+                    Node<T> neighbour = candidates.get(i).node;
+                    node.link(layer, neighbour.id);
+                    connect(neighbour, node, layer, limit);
+                }
+                current = candidates.get(0).node;
+            }
+            if (level > entryPoint.level) {
+                entryPoint = node;
+            }
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the live node most similar to the query.
+     *
+     * @param query The L2 normalised query vector.
+     * @return The best match, or {@code null} if the index has no live nodes.
+     */
+    Match<T> nearest(float[] query) {
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint == null) {
+                return null;
+            }
+            Node<T> current = entryPoint;
+            for (int layer = entryPoint.level; layer > 0; layer--) {
+                current = greedyClosest(query, current, layer);
+            }
+            for (Candidate<T> candidate : searchLayer(query, current, efSearch, 0)) {
+                if (!candidate.node.deleted) {
+                    return new Match<>(candidate.node, candidate.similarity);
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Marks a node as deleted. Its links stay in place so that the graph remains navigable. Nodes of another
+     * index, e.g. of the index this one was compacted from, are ignored.
+     */
+    void remove(Node<T> node) {
+
+        lock.writeLock().lock();
+        try {
+            if (!node.deleted && node.id < nodes.size() && nodes.get(node.id) == node) {
+                node.deleted = true;
+                deleted++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether enough nodes are deleted for {@link #compact()} to be worthwhile.
+     */
+    boolean needsCompaction() {
+
+        lock.readLock().lock();
+        try {
+            return deleted > 0 && deleted * 4 >= nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Builds a new index holding only the live nodes, in insertion order.
+     *
+     * @return The compacted index.
+     */
+    HnswIndex<T> compact() {
+
+        HnswIndex<T> compacted = new HnswIndex<>(maxConnections, efConstruction, efSearch);
+        for (Node<T> node : liveNodes()) {
+            compacted.add(node.vector, node.value);
+        }
+        return compacted;
+    }
+
+    /**
+     * Returns the live nodes in insertion order.
+     */
+    List<Node<T>> liveNodes() {
+
+        lock.readLock().lock();
+        try {
+            List<Node<T>> live = new ArrayList<>(nodes.size() - deleted);
+            for (Node<T> node : nodes) {
+                if (!node.deleted) {
+                    live.add(node);
+                }
+            }
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+
+        lock.readLock().lock();
+        try {
+            return nodes.size() - deleted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void connect(Node<T> from, Node<T> to, int layer, int limit) {
+
+        if (from.linkCount[layer] < limit) {
+            from.link(layer, to.id);
+            return;
+        }
+        // Replace the farthest link if the new node is closer
+        int farthest = -1;
+        double farthestSimilarity = dot(from.vector, to.vector);
+        for (int i = 0; i < from.linkCount[layer]; i++) {
+            double similarity = dot(from.vector, nodes.get(from.links[layer][i]).vector);
+            if (similarity < farthestSimilarity) {
+                farthestSimilarity = similarity;
+                farthest = i;
+            }
+        }
+        if (farthest >= 0) {
+            from.links[layer][farthest] = to.id;
+        }
+    }
+
+    private Node<T> greedyClosest(float[] query, Node<T> start, int layer) {
+
+        Node<T> current = start;
+        double best = dot(query, current.vector);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = 0; i < current.linkCount[layer]; i++) {
+                Node<T> neighbour = nodes.get(current.links[layer][i]);
+                double similarity = dot(query, neighbour.vector);
+                if (similarity > best) {
+                    best = similarity;
+                    current = neighbour;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Beam search on one layer.
+     *
+     * @return Up to {@code ef} candidates ordered from most to least similar.
+     */
+    private List<Candidate<T>> searchLayer(float[] query, Node<T> start, int ef, int layer) {
+
+        BitSet visited = new BitSet(nodes.size());
+        visited.set(start.id);
+        Candidate<T> first = new Candidate<>(start, dot(query, start.vector));
+        // Frontier ordered most similar first, results ordered least similar first
+        PriorityQueue<Candidate<T>> frontier = new PriorityQueue<>((a, b) -> Double.compare(b.similarity, a.similarity));
+        PriorityQueue<Candidate<T>> results = new PriorityQueue<>((a, b) -> Double.compare(a.similarity, b.similarity));
+        frontier.add(first);
+        results.add(first);
+        while (!frontier.isEmpty()) {
+            Candidate<T> candidate = frontier.poll();
+            if (results.size() >= ef && candidate.similarity < results.peek().similarity) {
+                break;
+            }
+            Node<T> node = candidate.node;
+            if (node.level < layer) {
+                continue;
+            }
+            for (int i = 0; i < node.linkCount[layer]; i++) {
+                int neighbourId = node.links[layer][i];
+                if (visited.get(neighbourId)) {
+                    continue;
+                }
+                visited.set(neighbourId);
+                Node<T> neighbour = nodes.get(neighbourId);
+                double similarity = dot(query, neighbour.vector);
+                if (results.size() < ef || similarity > results.peek().similarity) {
+                    Candidate<T> next = new Candidate<>(neighbour, similarity);
+                    frontier.add(next);
+                    results.add(next);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Candidate<T>> ordered = new ArrayList<>(results);
+        ordered.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        return ordered;
+    }
+
+    private static double dot(float[] a, float[] b) {
+
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * A vector of the index and its value.
+     */
+    static final class Node<T> {
+
+        private final int id;
+        private final float[] vector;
+        private final T value;
+        private final int level;
+        private final int[][] links;
+        private final int[] linkCount;
+        private volatile boolean deleted;
+
+        private Node(int id, float[] vector, T value, int level, int maxConnections, int maxConnectionsLayer0) {
+
+            this.id = id;
+            this.vector = vector;
+            this.value = value;
+            this.level = level;
+            this.links = new int[level + 1][];
+            this.linkCount = new int[level + 1];
+            for (int layer = 0; layer <= level; layer++) {
+                links[layer] = new int[layer == 0 ? maxConnectionsLayer0 : maxConnections];
+            }
+        }
+
+        private void link(int layer, int target) {
+
+            if (linkCount[layer] < links[layer].length) {
+                links[layer][linkCount[layer]++] = target;
+            }
+        }
+
+        float[] getVector() {
+
+            return vector;
+        }
+
+        T getValue() {
+
+            return value;
+        }
+
+        boolean isDeleted() {
+
+            return deleted;
+        }
+    }
+
+    /**
+     * Result of a nearest neighbour search.
+     */
+    static final class Match<T> {
+
+        private final Node<T> node;
+        private final double similarity;
+
+        private Match(Node<T> node, double similarity) {
+
+            this.node = node;
+            this.similarity = similarity;
+        }
+
+        Node<T> getNode() {
+
+            return node;
+        }
+
+        double getSimilarity() {
+
+            return similarity;
+        }
+    }
+
+    private static final class Candidate<T> {
+
+        private final Node<T> node;
+        private final double similarity;
+
+        private Candidate(Node<T> node, double similarity) {
+
+            this.node = node;
+            this.similarity = similarity;
+        }
+    }
+}
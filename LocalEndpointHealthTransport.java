@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process {@link EndpointHealthTransport} that connects the transports attached to the same {@link Bus}.
+ * Used as a stand-in for the network transport when several simulated nodes run in one JVM.
+ */
+public class LocalEndpointHealthTransport implements EndpointHealthTransport {
+
+    private final Bus bus;
+    private volatile Consumer<EndpointHealthEvent> listener;
+
+    /**
+     * Creates a transport attached to the given bus.
+     *
+     * @param bus The bus shared by the simulated nodes.
+     */
+    public LocalEndpointHealthTransport(Bus bus) {
+
+        this.bus = bus;
+    }
+
+    @Override
+    public void start(Consumer<EndpointHealthEvent> listener) {
+
+        this.listener = listener;
+        bus.members.add(this);
+    }
+
+    @Override
+    public void publish(EndpointHealthEvent event) {
+
+        byte[] encoded = event.encode();
+        for (LocalEndpointHealthTransport member : bus.members) {
+            Consumer<EndpointHealthEvent> memberListener = member.listener;
+            if (member != this && memberListener != null) {
+                memberListener.accept(EndpointHealthEvent.decode(encoded, 0, encoded.length));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+
+        bus.members.remove(this);
+        listener = null;
+    }
+
+    /**
+     * Shared channel between local transports.
+     */
+    public static class Bus {
+
+        private final List<LocalEndpointHealthTransport> members = new CopyOnWriteArrayList<>();
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.rest.RESTConstants;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured log of mediation decisions of the AI mediators: routing, request changes, upstream responses,
+ * failover hops and suspensions.
+ * <p>
+ * Events carry typed fields and are written by the calling thread into a preallocated ring buffer of
+ * {@code ai.events.bufferSize} slots, without locking or allocating. A background thread formats them as JSON and
+ * writes them to the {@code AI_MEDIATION_EVENTS} log at INFO level, so they can be routed to their own appender.
+ * When the writer falls behind, {@link Level#DETAIL} events are sampled once the buffer is half full and every
+ * event is dropped once it is full; drops are counted. Events below {@code ai.events.level} ({@code OFF},
+ * {@code DECISION} or {@code DETAIL}, default {@code OFF}) return at the first check.
+ */
+public final class MediationEventLog {
+
+    private static final Log log = LogFactory.getLog(MediationEventLog.class);
+    private static final Log eventLog = LogFactory.getLog("AI_MEDIATION_EVENTS");
+
+    // One in this many detail events is kept while the buffer is more than half full
+    private static final int PRESSURE_SAMPLE_RATE = 8;
+
+    private static final MediationEventLog INSTANCE = new MediationEventLog(
+            Level.parse(System.getProperty("ai.events.level")), Integer.getInteger("ai.events.bufferSize", 8192));
+
+    private final Level level;
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+
+    /**
+     * Importance of an event type.
+     */
+    public enum Level {
+
+        OFF, DECISION, DETAIL;
+
+        /**
+         * Parses a level name, ignoring case. An unknown name turns the log off with a warning rather than failing
+         * the class initialisation of the mediators.
+         *
+         * @param value The level name, may be {@code null}.
+         * @return The level, {@link #OFF} if the value is empty or unknown.
+         */
+        static Level parse(String value) {
+
+            if (value == null || value.trim().isEmpty()) {
+                return OFF;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown mediation event level " + value + ", expected OFF, DECISION or DETAIL; "
+                        + "mediation events are not logged");
+                return OFF;
+            }
+        }
+    }
+
+    /**
+     * Mediation events and the meaning of their fields. Fields that do not apply to a type are left out.
+     */
+    public enum Type {
+
+        /**
+         * A request was routed: {@code category}, {@code endpoint}, {@code model}.
+         */
+        ROUTE_SELECTED(Level.DECISION),
+        /**
+         * No endpoint serves the request's {@code category}.
+         */
+        ROUTE_REJECTED(Level.DECISION),
+        /**
+         * A request was rewritten for another provider: {@code endpoint}, {@code model}, {@code detail} is the
+         * target schema.
+         */
+        REQUEST_CHANGED(Level.DECISION),
+        /**
+         * A request failed over: {@code endpoint} and {@code model} it leaves, {@code value} is the next failover
+         * index.
+         */
+        FAILOVER_HOP(Level.DECISION),
+        /**
+         * An endpoint was suspended: {@code endpoint}, {@code model}, {@code value} is the duration in
+         * milliseconds.
+         */
+        ENDPOINT_SUSPENDED(Level.DECISION),
+        /**
+         * A cascade draft was rejected: {@code endpoint} and {@code model} of the draft, {@code detail} is the
+         * reason.
+         */
+        CASCADE_ESCALATED(Level.DECISION),
+        /**
+         * A request was rejected by the token rate limit of its subscription: {@code value} is the limit,
+         * {@code detail} is the subscription tier.
+         */
+        TOKEN_RATE_LIMITED(Level.DECISION),
+        /**
+         * An upstream response arrived: {@code endpoint}, {@code model}, {@code value} is the status code.
+         */
+        UPSTREAM_RESPONSE(Level.DETAIL);
+
+        private final Level level;
+
+        Type(Level level) {
+
+            this.level = level;
+        }
+    }
+
+    MediationEventLog(Level level, int bufferSize) {
+
+        this.level = level;
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1;
+        if (level == Level.OFF) {
+            this.slots = new Slot[0];
+            this.mask = 0;
+            return;
+        }
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            slots[i].published = -1L;
+        }
+        this.mask = capacity - 1;
+        Thread thread = new Thread(this::drain, "ai-event-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static MediationEventLog getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Returns whether events of the type are recorded, for callers that have to compute a field.
+     */
+    public boolean isEnabled(Type type) {
+
+        return type.level.ordinal() <= level.ordinal();
+    }
+
+    /**
+     * Records an event of the API the request belongs to. Returns at once if the type is not enabled.
+     *
+     * @param type           The event type.
+     * @param messageContext The message context of the request.
+     * @param category       The routing category, or {@code null}.
+     * @param endpoint       The endpoint ID, or {@code null}.
+     * @param model          The model, or {@code null}.
+     * @param value          The numeric value of the type, see {@link Type}.
+     * @param detail         The detail of the type, or {@code null}.
+     */
+    public void record(Type type, MessageContext messageContext, String category, String endpoint, String model,
+                       long value, String detail) {
+
+        if (type.level.ordinal() <= level.ordinal()) {
+            record(type, (String) messageContext.getProperty(RESTConstants.SYNAPSE_REST_API), category, endpoint,
+                    model, value, detail);
+        }
+    }
+
+    /**
+     * Records an event. Returns at once if the type is not enabled.
+     *
+     * @param type     The event type.
+     * @param api      The API the request belongs to.
+     * @param category The routing category, or {@code null}.
+     * @param endpoint The endpoint ID, or {@code null}.
+     * @param model    The model, or {@code null}.
+     * @param value    The numeric value of the type, see {@link Type}.
+     * @param detail   The detail of the type, or {@code null}.
+     */
+    public void record(Type type, String api, String category, String endpoint, String model, long value,
+                       String detail) {
+
+        if (type.level.ordinal() > level.ordinal()) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            long pending = sequence - consumed.get();
+            if (pending >= slots.length) {
+                dropped.increment();
+                return;
+            }
+            if (type.level == Level.DETAIL && pending >= slots.length / 2
+                    && ThreadLocalRandom.current().nextInt(PRESSURE_SAMPLE_RATE) != 0) {
+                sampledOut.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = slots[(int) (sequence & mask)];
+        slot.timestamp = System.currentTimeMillis();
+        slot.type = type;
+        slot.api = api;
+        slot.category = category;
+        slot.endpoint = endpoint;
+        slot.model = model;
+        slot.value = value;
+        slot.detail = detail;
+        // Publishing the sequence makes the fields above visible to the writer
+        slot.published = sequence;
+    }
+
+    public long getDropped() {
+
+        return dropped.sum();
+    }
+
+    public long getSampledOut() {
+
+        return sampledOut.sum();
+    }
+
+    private void drain() {
+
+        StringWriter buffer = new StringWriter(256);
+        long next = 0;
+        while (true) {
+            Slot slot = slots[(int) (next & mask)];
+            if (slot.published != next) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+            buffer.getBuffer().setLength(0);
+            try {
+                write(slot, new JsonWriter(buffer));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not format mediation event: " + e.getMessage());
+            }
+            clear(slot);
+            // The slot may be reused from here on
+            consumed.lazySet(++next);
+            if (buffer.getBuffer().length() > 0) {
+                eventLog.info(buffer.toString());
+            }
+        }
+    }
+
+    private static void write(Slot slot, JsonWriter json) throws IOException {
+
+        json.beginObject()
+                .name("timestamp").value(slot.timestamp)
+                .name("event").value(slot.type.name());
+        if (slot.api != null) {
+            json.name("api").value(slot.api);
+        }
+        if (slot.category != null) {
+            json.name("category").value(slot.category);
+        }
+        if (slot.endpoint != null) {
+            json.name("endpoint").value(slot.endpoint);
+        }
+        if (slot.model != null) {
+            json.name("model").value(slot.model);
+        }
+        switch (slot.type) {
+            case FAILOVER_HOP:
+                json.name("failoverIndex").value(slot.value);
+                break;
+            case ENDPOINT_SUSPENDED:
+                json.name("durationMillis").value(slot.value);
+                break;
+            case UPSTREAM_RESPONSE:
+                json.name("status").value(slot.value);
+                break;
+            case TOKEN_RATE_LIMITED:
+                json.name("limit").value(slot.value);
+                break;
+            default:
+                break;
+        }
+        if (slot.detail != null) {
+            json.name("detail").value(slot.detail);
+        }
+        json.endObject().flush();
+    }
+
+    private static void clear(Slot slot) {
+
+        slot.type = null;
+        slot.api = null;
+        slot.category = null;
+        slot.endpoint = null;
+        slot.model = null;
+        slot.detail = null;
+    }
+
+    private static final class Slot {
+
+        private volatile long published;
+        private long timestamp;
+        private Type type;
+        private String api;
+        private String category;
+        private String endpoint;
+        private String model;
+        private long value;
+        private String detail;
+    }
+}
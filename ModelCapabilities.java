@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Limits and relative cost of a model: the context window, the maximum output tokens and a tier, where a lower
+ * tier is cheaper and faster.
+ * <p>
+ * Well-known OpenAI, Anthropic, Gemini and Mistral model families are built in. A model resolves to the longest
+ * family its name starts with when the rest is a version, such as the date of {@code gpt-4o-2024-08-06} or the
+ * {@code @20240620} of a Vertex AI model; other variants, such as {@code gpt-4-32k}, are separate families or
+ * unknown. A routing policy can add or override models with a {@code modelCapabilities} object:
+ * <pre>
+ * "modelCapabilities": {
+ *     "my-azure-deployment": {"contextWindow": 128000, "maxOutputTokens": 16384, "tier": 2}
+ * }
+ * </pre>
+ */
+public final class ModelCapabilities {
+
+    private static final Map<String, ModelCapabilities> BUILT_IN = new HashMap<>();
+    // What may follow a family name: a date or build number, "latest", or a provider's version tag
+    private static final Pattern VERSION = Pattern.compile("(?:[-@](?:\\d{3,}|latest)(?:[-@:.].*)?|:.*)?");
+
+    static {
+        builtIn("gpt-3.5-turbo", 16385, 4096, 1);
+        builtIn("gpt-4", 8192, 8192, 3);
+        builtIn("gpt-4-32k", 32768, 32768, 3);
+        builtIn("gpt-4-1106-preview", 128000, 4096, 3);
+        builtIn("gpt-4-0125-preview", 128000, 4096, 3);
+        builtIn("gpt-4-turbo", 128000, 4096, 3);
+        builtIn("gpt-4-turbo-preview", 128000, 4096, 3);
+        builtIn("gpt-4o", 128000, 16384, 2);
+        builtIn("gpt-4o-mini", 128000, 16384, 1);
+        builtIn("gpt-4.1", 1047576, 32768, 2);
+        builtIn("gpt-4.1-mini", 1047576, 32768, 1);
+        builtIn("gpt-4.1-nano", 1047576, 32768, 1);
+        builtIn("o1", 200000, 100000, 3);
+        builtIn("o1-mini", 128000, 65536, 2);
+        builtIn("o1-preview", 128000, 32768, 3);
+        builtIn("o3", 200000, 100000, 3);
+        builtIn("o3-mini", 200000, 100000, 2);
+        builtIn("o4-mini", 200000, 100000, 2);
+        builtIn("claude-3-haiku", 200000, 4096, 1);
+        builtIn("claude-3-5-haiku", 200000, 8192, 1);
+        builtIn("claude-3-5-sonnet", 200000, 8192, 2);
+        builtIn("claude-3-7-sonnet", 200000, 64000, 2);
+        builtIn("claude-sonnet-4", 200000, 64000, 2);
+        builtIn("claude-3-opus", 200000, 4096, 3);
+        builtIn("claude-opus-4", 200000, 32000, 3);
+        builtIn("gemini-1.5-flash", 1048576, 8192, 1);
+        builtIn("gemini-1.5-pro", 2097152, 8192, 2);
+        builtIn("gemini-2.0-flash", 1048576, 8192, 1);
+        builtIn("gemini-2.5-flash", 1048576, 65536, 1);
+        builtIn("gemini-2.5-pro", 1048576, 65536, 3);
+        builtIn("mistral-small", 32768, 8192, 1);
+        builtIn("mistral-medium", 131072, 8192, 2);
+        builtIn("mistral-large", 131072, 8192, 3);
+        builtIn("open-mistral-nemo", 131072, 8192, 1);
+        builtIn("ministral-8b", 131072, 8192, 1);
+        builtIn("codestral", 262144, 8192, 2);
+    }
+
+    private final int contextWindow;
+    private final int maxOutputTokens;
+    private final int tier;
+
+    ModelCapabilities(int contextWindow, int maxOutputTokens, int tier) {
+
+        this.contextWindow = contextWindow;
+        this.maxOutputTokens = maxOutputTokens;
+        this.tier = tier;
+    }
+
+    private static void builtIn(String model, int contextWindow, int maxOutputTokens, int tier) {
+
+        BUILT_IN.put(model, new ModelCapabilities(contextWindow, maxOutputTokens, tier));
+    }
+
+    public int getContextWindow() {
+
+        return contextWindow;
+    }
+
+    public int getMaxOutputTokens() {
+
+        return maxOutputTokens;
+    }
+
+    public int getTier() {
+
+        return tier;
+    }
+
+    /**
+     * Returns whether a request fits the model.
+     *
+     * @param promptTokens The estimated prompt tokens.
+     * @param outputTokens The output tokens the request asks for, or 0 if it sets no limit.
+     * @return {@code true} if the prompt and the requested output fit the context window and output limit.
+     */
+    public boolean fits(int promptTokens, int outputTokens) {
+
+        return outputTokens <= maxOutputTokens && (long) promptTokens + outputTokens <= contextWindow;
+    }
+
+    /**
+     * The models known to a routing policy: its own entries first, then the built-in families.
+     */
+    public static final class Catalog {
+
+        /**
+         * A catalog of the built-in families only.
+         */
+        public static final Catalog BUILT_IN_ONLY = new Catalog(Collections.emptyMap());
+
+        private final Map<String, ModelCapabilities> models;
+
+        private Catalog(Map<String, ModelCapabilities> models) {
+
+            this.models = models;
+        }
+
+        /**
+         * Reads the {@code modelCapabilities} object of a routing policy. Entries missing a context window are
+         * skipped; a missing output limit defaults to the context window and a missing tier to 2.
+         *
+         * @param policy The routing policy.
+         * @return The catalog of the policy.
+         */
+        public static Catalog fromPolicy(JsonObject policy) {
+
+            JsonElement section = policy != null ? policy.get("modelCapabilities") : null;
+            if (section == null || !section.isJsonObject()) {
+                return BUILT_IN_ONLY;
+            }
+            Map<String, ModelCapabilities> models = new HashMap<>();
+            for (Map.Entry<String, JsonElement> entry : section.getAsJsonObject().entrySet()) {
+                if (!entry.getValue().isJsonObject()) {
+                    continue;
+                }
+                JsonObject model = entry.getValue().getAsJsonObject();
+                if (!model.has("contextWindow")) {
+                    continue;
+                }
+                int contextWindow = model.get("contextWindow").getAsInt();
+                models.put(entry.getKey().toLowerCase(Locale.ROOT), new ModelCapabilities(contextWindow,
+                        model.has("maxOutputTokens") ? model.get("maxOutputTokens").getAsInt() : contextWindow,
+                        model.has("tier") ? model.get("tier").getAsInt() : 2));
+            }
+            return models.isEmpty() ? BUILT_IN_ONLY : new Catalog(models);
+        }
+
+        /**
+         * Returns the capabilities of a model.
+         *
+         * @param model The model name as configured on the endpoint.
+         * @return The capabilities, or {@code null} if the model is unknown.
+         */
+        public ModelCapabilities of(String model) {
+
+            if (model == null) {
+                return null;
+            }
+            String name = model.toLowerCase(Locale.ROOT);
+            ModelCapabilities capabilities = models.get(name);
+            if (capabilities != null) {
+                return capabilities;
+            }
+            // Drop resource paths ("models/gemini-1.5-pro") and vendor prefixes ("anthropic.claude-3-haiku-...")
+            name = name.substring(name.lastIndexOf('/') + 1);
+            capabilities = byFamily(name);
+            if (capabilities == null && name.indexOf('.') > 0) {
+                capabilities = byFamily(name.substring(name.indexOf('.') + 1));
+            }
+            return capabilities;
+        }
+
+        private static ModelCapabilities byFamily(String name) {
+
+            // Longest family that the name starts with, followed by a version or nothing
+            for (int end = name.length(); end > 0; end--) {
+                if (end < name.length() && ("-@:".indexOf(name.charAt(end)) < 0
+                        || !VERSION.matcher(name.substring(end)).matches())) {
+                    continue;
+                }
+                ModelCapabilities capabilities = BUILT_IN.get(name.substring(0, end));
+                if (capabilities != null) {
+                    return capabilities;
+                }
+            }
+            return null;
+        }
+    }
+}
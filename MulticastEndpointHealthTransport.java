@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * UDP multicast {@link EndpointHealthTransport}. Every gateway node joins the same multicast group and
+ * receives the events published by the others; lost datagrams are tolerated since suspensions are only
+ * an optimization over each node discovering the failure by itself.
+ * <p>
+ * Every datagram ends with an HMAC-SHA256 of the event under a secret shared by the nodes, and datagrams without
+ * a valid HMAC are dropped, so hosts without the secret cannot suspend or resume endpoints.
+ */
+public class MulticastEndpointHealthTransport implements EndpointHealthTransport {
+
+    private static final Log log = LogFactory.getLog(MulticastEndpointHealthTransport.class);
+    private static final int MAX_DATAGRAM_SIZE = 1024;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int HMAC_LENGTH = 32;
+
+    private final InetAddress group;
+    private final int port;
+    private final int timeToLive;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private MulticastSocket socket;
+    private Thread receiver;
+    private volatile boolean running;
+
+    /**
+     * Creates a multicast transport.
+     *
+     * @param group      The multicast group address.
+     * @param port       The multicast port.
+     * @param timeToLive The multicast time to live of sent datagrams.
+     * @param secret     The secret shared by the nodes, not empty.
+     */
+    public MulticastEndpointHealthTransport(InetAddress group, int port, int timeToLive, byte[] secret) {
+
+        this.group = group;
+        this.port = port;
+        this.timeToLive = timeToLive;
+        this.key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    private Mac newMac() {
+
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    @Override
+    public synchronized void start(Consumer<EndpointHealthEvent> listener) throws IOException {
+
+        socket = new MulticastSocket(port);
+        socket.setTimeToLive(timeToLive);
+        socket.joinGroup(group);
+        running = true;
+        receiver = new Thread(() -> receive(listener), "ai-endpoint-health-sync");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    private void receive(Consumer<EndpointHealthEvent> listener) {
+
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+        while (running) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                int length = packet.getLength() - HMAC_LENGTH;
+                if (length <= 0 || !MessageDigest.isEqual(sign(packet.getData(), packet.getOffset(), length),
+                        Arrays.copyOfRange(packet.getData(), packet.getOffset() + length,
+                                packet.getOffset() + packet.getLength()))) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Dropping unauthenticated endpoint health event from " + packet.getAddress());
+                    }
+                    continue;
+                }
+                EndpointHealthEvent event = EndpointHealthEvent.decode(packet.getData(), packet.getOffset(), length);
+                if (event != null) {
+                    listener.accept(event);
+                }
+            } catch (SocketException e) {
+                if (running) {
+                    log.warn("Endpoint health sync socket failed, stopping receiver", e);
+                }
+                return;
+            } catch (Exception e) {
+                log.warn("Error while processing endpoint health event", e);
+            }
+        }
+    }
+
+    @Override
+    public void publish(EndpointHealthEvent event) {
+
+        MulticastSocket currentSocket = socket;
+        if (!running || currentSocket == null) {
+            return;
+        }
+        byte[] encoded = event.encode();
+        if (encoded.length + HMAC_LENGTH > MAX_DATAGRAM_SIZE) {
+            log.warn("Endpoint health event too large to publish: " + event);
+            return;
+        }
+        byte[] data = Arrays.copyOf(encoded, encoded.length + HMAC_LENGTH);
+        System.arraycopy(sign(encoded, 0, encoded.length), 0, data, encoded.length, HMAC_LENGTH);
+        try {
+            currentSocket.send(new DatagramPacket(data, data.length, group, port));
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to publish endpoint health event: " + event, e);
+            }
+        }
+    }
+
+    private byte[] sign(byte[] data, int offset, int length) {
+
+        Mac mac = macs.get();
+        mac.update(data, offset, length);
+        return mac.doFinal();
+    }
+
+    @Override
+    public synchronized void close() {
+
+        running = false;
+        if (socket != null) {
+            try {
+                socket.leaveGroup(group);
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Error while leaving endpoint health sync group", e);
+                }
+            }
+            socket.close();
+            socket = null;
+        }
+        receiver = null;
+    }
+}
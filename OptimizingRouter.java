@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.wso2.carbon.apimgt.api.gateway.ModelEndpointDTO;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks, per request, the endpoint with the lowest weighted cost of observed latency, errors, price and quota use.
+ * <p>
+ * Every eligible endpoint gets a score that is the weighted sum of:
+ * <ul>
+ *     <li>{@code latency} and {@code tailLatency}: its median and 95th percentile latency from the
+ *     {@link EndpointScoreboard}, relative to the slowest candidate;</li>
+ *     <li>{@code errorRate}: its recent share of 5xx and 429 responses;</li>
+ *     <li>{@code price}: the price of the request on its model, relative to the most expensive candidate;</li>
+ *     <li>{@code quota}: the share of the provider token budget it has used, relative to the candidate with the
+ *     most remaining tokens.</li>
+ * </ul>
+ * A candidate missing a measure, such as a new endpoint or a model without a price, gets the average of the
+ * others for it, so it is neither favoured nor shunned. The lowest score wins. A share of requests,
+ * {@code explore} (0.05 by default), goes to a random candidate instead, so the statistics of endpoints that are
+ * losing stay current and a recovered endpoint wins again. The router is configured by the {@code optimization}
+ * object of the routing policy, with prices in any currency per million tokens:
+ * <pre>
+ * "optimization": {
+ *     "weights": {"latency": 1, "tailLatency": 1, "errorRate": 4, "price": 1, "quota": 0.5},
+ *     "prices": {"gpt-4o": {"input": 2.5, "output": 10}, "gpt-4o-mini": {"input": 0.15, "output": 0.6}},
+ *     "explore": 0.05
+ * }
+ * </pre>
+ */
+public final class OptimizingRouter {
+
+    /**
+     * Routing strategy name selecting this router.
+     */
+    public static final String STRATEGY = "optimize";
+    /**
+     * The router of a policy without an {@code optimization} object.
+     */
+    public static final OptimizingRouter DEFAULT = new OptimizingRouter(1.0d, 1.0d, 4.0d, 1.0d, 0.5d, 0.05d,
+            Collections.emptyMap());
+
+    // Output tokens assumed for pricing a request that does not limit them
+    private static final int DEFAULT_OUTPUT_TOKENS = 256;
+    // Remaining token budgets older than this have likely been reset by the provider
+    private static final long QUOTA_FRESHNESS_MILLIS = 60_000L;
+
+    private final double latencyWeight;
+    private final double tailLatencyWeight;
+    private final double errorRateWeight;
+    private final double priceWeight;
+    private final double quotaWeight;
+    private final double explore;
+    private final Map<String, double[]> prices;
+
+    OptimizingRouter(double latencyWeight, double tailLatencyWeight, double errorRateWeight, double priceWeight,
+                     double quotaWeight, double explore, Map<String, double[]> prices) {
+
+        this.latencyWeight = Math.max(0.0d, latencyWeight);
+        this.tailLatencyWeight = Math.max(0.0d, tailLatencyWeight);
+        this.errorRateWeight = Math.max(0.0d, errorRateWeight);
+        this.priceWeight = Math.max(0.0d, priceWeight);
+        this.quotaWeight = Math.max(0.0d, quotaWeight);
+        this.explore = Math.min(Math.max(explore, 0.0d), 1.0d);
+        this.prices = prices;
+    }
+
+    /**
+     * Reads the {@code optimization} object of a routing policy. Missing weights keep their defaults.
+     *
+     * @param policy The routing policy.
+     * @return The router of the policy.
+     */
+    public static OptimizingRouter fromPolicy(JsonObject policy) {
+
+        JsonElement section = policy != null ? policy.get("optimization") : null;
+        if (section == null || !section.isJsonObject()) {
+            return DEFAULT;
+        }
+        JsonObject optimization = section.getAsJsonObject();
+        JsonObject weights = optimization.has("weights") && optimization.get("weights").isJsonObject()
+                ? optimization.getAsJsonObject("weights") : new JsonObject();
+        Map<String, double[]> prices = new HashMap<>();
+        if (optimization.has("prices") && optimization.get("prices").isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : optimization.getAsJsonObject("prices").entrySet()) {
+                if (!entry.getValue().isJsonObject()) {
+                    continue;
+                }
+                JsonObject price = entry.getValue().getAsJsonObject();
+                double input = number(price, "input", 0.0d);
+                prices.put(entry.getKey().toLowerCase(Locale.ROOT),
+                        new double[]{input, number(price, "output", input)});
+            }
+        }
+        return new OptimizingRouter(number(weights, "latency", DEFAULT.latencyWeight),
+                number(weights, "tailLatency", DEFAULT.tailLatencyWeight),
+                number(weights, "errorRate", DEFAULT.errorRateWeight),
+                number(weights, "price", DEFAULT.priceWeight),
+                number(weights, "quota", DEFAULT.quotaWeight),
+                number(optimization, "explore", DEFAULT.explore), prices);
+    }
+
+    private static double number(JsonObject object, String name, double defaultValue) {
+
+        JsonElement value = object.get(name);
+        return value != null && value.isJsonPrimitive() ? value.getAsDouble() : defaultValue;
+    }
+
+    /**
+     * Selects the endpoint with the lowest score.
+     *
+     * @param endpointHealth The endpoint health of the API, for the remaining token budgets.
+     * @param candidates     The healthy endpoints able to serve the request, not empty.
+     * @param promptTokens   The estimated prompt tokens, or a negative number if not known.
+     * @param outputTokens   The output tokens the request asks for, or 0 if it sets no limit.
+     * @return The selection.
+     */
+    public Selection select(EndpointHealthRegistry.ApiEndpoints endpointHealth, List<ModelEndpointDTO> candidates,
+                            int promptTokens, int outputTokens) {
+
+        int count = candidates.size();
+        if (count == 1) {
+            return new Selection(candidates.get(0), Double.NaN, false);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (explore > 0 && random.nextDouble() < explore) {
+            return new Selection(candidates.get(random.nextInt(count)), Double.NaN, true);
+        }
+
+        EndpointScoreboard scoreboard = EndpointScoreboard.getInstance();
+        double[] latency = new double[count];
+        double[] tailLatency = new double[count];
+        double[] errorRate = new double[count];
+        double[] price = new double[count];
+        double[] remainingTokens = new double[count];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            ModelEndpointDTO candidate = candidates.get(i);
+            EndpointScoreboard.Stats stats = scoreboard.get(candidate.getEndpointId(), candidate.getModel());
+            latency[i] = stats != null ? stats.getP50Millis() : Double.NaN;
+            tailLatency[i] = stats != null ? stats.getP95Millis() : Double.NaN;
+            errorRate[i] = stats != null && stats.getSamples() > 0 ? stats.getErrorRate() : Double.NaN;
+            price[i] = price(candidate.getModel(), promptTokens, outputTokens);
+            EndpointHealthRegistry.EndpointHealth health =
+                    endpointHealth.find(candidate.getEndpointId(), candidate.getModel());
+            remainingTokens[i] = health != null && health.getRemainingTokens() >= 0
+                    && now - health.getRemainingTokensUpdatedAt() <= QUOTA_FRESHNESS_MILLIS
+                    ? health.getRemainingTokens() : Double.NaN;
+        }
+        relativeToMax(latency);
+        relativeToMax(tailLatency);
+        relativeToMax(price);
+        quotaUsed(remainingTokens);
+        fillUnknown(latency);
+        fillUnknown(tailLatency);
+        fillUnknown(errorRate);
+        fillUnknown(price);
+        fillUnknown(remainingTokens);
+
+        int best = 0;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            double score = latencyWeight * latency[i] + tailLatencyWeight * tailLatency[i]
+                    + errorRateWeight * errorRate[i] + priceWeight * price[i] + quotaWeight * remainingTokens[i];
+            if (score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return new Selection(candidates.get(best), bestScore, false);
+    }
+
+    private double price(String model, int promptTokens, int outputTokens) {
+
+        double[] price = model != null ? prices.get(model.toLowerCase(Locale.ROOT)) : null;
+        if (price == null || promptTokens < 0) {
+            return Double.NaN;
+        }
+        return (price[0] * promptTokens + price[1] * (outputTokens > 0 ? outputTokens : DEFAULT_OUTPUT_TOKENS))
+                / 1e6d;
+    }
+
+    /**
+     * Scales known values into [0, 1] relative to the largest.
+     */
+    private static void relativeToMax(double[] values) {
+
+        double max = 0.0d;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                max = Math.max(max, value);
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (!Double.isNaN(values[i])) {
+                values[i] = max > 0 ? values[i] / max : 0.0d;
+            }
+        }
+    }
+
+    /**
+     * Turns known remaining budgets into the share used relative to the largest remaining budget.
+     */
+    private static void quotaUsed(double[] remaining) {
+
+        relativeToMax(remaining);
+        for (int i = 0; i < remaining.length; i++) {
+            if (!Double.isNaN(remaining[i])) {
+                remaining[i] = 1.0d - remaining[i];
+            }
+        }
+    }
+
+    /**
+     * Replaces unknown values by the average of the known ones, or 0 if none is known.
+     */
+    private static void fillUnknown(double[] values) {
+
+        double sum = 0.0d;
+        int known = 0;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                sum += value;
+                known++;
+            }
+        }
+        double average = known > 0 ? sum / known : 0.0d;
+        for (int i = 0; i < values.length; i++) {
+            if (Double.isNaN(values[i])) {
+                values[i] = average;
+            }
+        }
+    }
+
+    /**
+     * The endpoint picked for a request.
+     */
+    public static final class Selection {
+
+        private final ModelEndpointDTO endpoint;
+        private final double score;
+        private final boolean explored;
+
+        private Selection(ModelEndpointDTO endpoint, double score, boolean explored) {
+
+            this.endpoint = endpoint;
+            this.score = score;
+            this.explored = explored;
+        }
+
+        public ModelEndpointDTO getEndpoint() {
+
+            return endpoint;
+        }
+
+        /**
+         * Returns the score of the endpoint, or {@code NaN} if it was not scored.
+         */
+        public double getScore() {
+
+            return score;
+        }
+
+        /**
+         * Returns whether the endpoint was picked at random to refresh its statistics.
+         */
+        public boolean isExplored() {
+
+            return explored;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.apimgt.api.gateway.ModelEndpointDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes requests sharing a prompt prefix to the same deployment so that provider side prompt caches are hit.
+ * <p>
+ * The prefix is the first {@code ai.routing.prefixAffinity.tokens} whitespace separated tokens (256 by default)
+ * of the system prompt and messages, normalised by collapsing whitespace, and is reduced to a 64-bit rolling
+ * hash. Deployments are placed on a consistent hash ring with virtual nodes, so adding or removing one only
+ * moves the prefixes it owned. To keep a hot prefix from overloading its owner, the ring walk skips deployments
+ * whose in-flight count exceeds {@code ai.routing.prefixAffinity.loadFactor} (1.25 by default) times the
+ * average, which is consistent hashing with bounded loads. Below {@code ai.routing.prefixAffinity.minLoad}
+ * (4 by default) in-flight requests an owner is never skipped, so light traffic keeps full affinity.
+ * <p>
+ * In-flight leases are released when the response reaches the mediator. Leases not released within
+ * {@code ai.routing.prefixAffinity.leaseTimeoutMs} (10 minutes by default), e.g. because the request timed out or
+ * faulted before reaching the response flow, are reclaimed so that they do not count against their endpoint.
+ */
+public final class PrefixAffinityRouter {
+
+    /**
+     * Routing strategy name selecting this router.
+     */
+    public static final String STRATEGY = "prefixAffinity";
+    /**
+     * Message context property holding the in-flight {@link Lease} of the selected endpoint.
+     */
+    public static final String LEASE = "AI_PREFIX_AFFINITY_LEASE";
+
+    private static final int VIRTUAL_NODES = 64;
+    private static final int MAX_RINGS = 256;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long ROLLING_BASE = 0x9E3779B97F4A7C15L;
+    private static final long RECLAIM_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double DEFAULT_LOAD_FACTOR = 1.25d;
+
+    private static final Log log = LogFactory.getLog(PrefixAffinityRouter.class);
+
+    private static final PrefixAffinityRouter INSTANCE = new PrefixAffinityRouter(
+            Integer.getInteger("ai.routing.prefixAffinity.tokens", 256),
+            loadFactorProperty(),
+            Integer.getInteger("ai.routing.prefixAffinity.minLoad", 4),
+            Long.getLong("ai.routing.prefixAffinity.leaseTimeoutMs", 10 * 60 * 1000L));
+
+    private final int prefixTokens;
+    private final double loadFactor;
+    private final int minLoad;
+    private final long leaseTimeoutNanos;
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastReclaim = new AtomicLong(System.nanoTime());
+
+    PrefixAffinityRouter(int prefixTokens, double loadFactor, int minLoad, long leaseTimeoutMillis) {
+
+        this.prefixTokens = prefixTokens;
+        this.loadFactor = Math.max(1.0d, loadFactor);
+        this.minLoad = Math.max(1, minLoad);
+        this.leaseTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(leaseTimeoutMillis);
+    }
+
+    public static PrefixAffinityRouter getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Reads {@code ai.routing.prefixAffinity.loadFactor}. A value that is not a number falls back to the default
+     * with a warning, since failing the class initialisation would fail every AI API.
+     */
+    private static double loadFactorProperty() {
+
+        String value = System.getProperty("ai.routing.prefixAffinity.loadFactor");
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_LOAD_FACTOR;
+        }
+        try {
+            double loadFactor = Double.parseDouble(value.trim());
+            if (!Double.isNaN(loadFactor) && !Double.isInfinite(loadFactor)) {
+                return loadFactor;
+            }
+        } catch (NumberFormatException e) {
+            // Warned below
+        }
+        log.warn("Invalid prefix affinity load factor " + value + ", using the default of " + DEFAULT_LOAD_FACTOR);
+        return DEFAULT_LOAD_FACTOR;
+    }
+
+    /**
+     * Hashes the normalised prompt prefix of a request.
+     *
+     * @param request The parsed chat request.
+     * @return The prefix hash.
+     */
+    long prefixHash(ChatRequestTranslator.ChatRequest request) {
+
+        PrefixHasher hasher = new PrefixHasher(prefixTokens);
+        if (request.getSystem() != null) {
+            hasher.role('s');
+            hasher.text(request.getSystem());
+        }
+        for (ChatRequestTranslator.Message message : request.getMessages()) {
+            if (hasher.isFull()) {
+                break;
+            }
+            hasher.role(message.getRole() == ChatRequestTranslator.Role.ASSISTANT ? 'a' : 'u');
+            for (ChatRequestTranslator.Part part : message.getParts()) {
+                if (part.getType() != ChatRequestTranslator.PartType.TOOL_CALL) {
+                    hasher.text(part.getText());
+                }
+            }
+        }
+        return hasher.hash;
+    }
+
+    /**
+     * Selects the endpoint owning the prefix among the eligible endpoints and counts the request as in flight on
+     * it. The returned lease is stored on the message context and released by {@link #release(MessageContext)}.
+     *
+     * @param messageContext The message context of the request.
+     * @param endpointHealth The endpoint health of the API.
+     * @param eligible       The healthy endpoints able to serve the request.
+     * @param prefixHash     The prefix hash.
+     * @return The selected endpoint.
+     */
+    public ModelEndpointDTO select(MessageContext messageContext, EndpointHealthRegistry.ApiEndpoints endpointHealth,
+                                   List<ModelEndpointDTO> eligible, long prefixHash) {
+
+        reclaimExpiredLeases(System.nanoTime());
+        Ring ring = getRing(eligible);
+        EndpointHealthRegistry.EndpointHealth[] health = new EndpointHealthRegistry.EndpointHealth[eligible.size()];
+        int totalInFlight = 0;
+        for (int i = 0; i < health.length; i++) {
+            ModelEndpointDTO endpoint = ring.endpoints[i];
+            health[i] = endpointHealth.handle(endpoint.getEndpointId(), endpoint.getModel());
+            totalInFlight += health[i].getInFlight();
+        }
+        // Bound per endpoint: ceil(c * (m + 1) / n), counting the request being placed
+        int bound = Math.max(minLoad, (int) Math.ceil(loadFactor * (totalInFlight + 1) / health.length));
+
+        int start = ring.find(prefixHash);
+        int selected = ring.owners[start];
+        for (int step = 0; step < ring.points.length; step++) {
+            int owner = ring.owners[(start + step) % ring.points.length];
+            if (health[owner].getInFlight() < bound) {
+                selected = owner;
+                break;
+            }
+        }
+        health[selected].acquireInFlight();
+        Lease lease = new Lease(health[selected], leases);
+        leases.add(lease);
+        messageContext.setProperty(LEASE, lease);
+        return ring.endpoints[selected];
+    }
+
+    /**
+     * Releases the in-flight lease taken for the request, if any. Safe to call more than once.
+     *
+     * @param messageContext The message context of the request or response.
+     */
+    public static void release(MessageContext messageContext) {
+
+        Object lease = messageContext.getProperty(LEASE);
+        if (lease instanceof Lease) {
+            ((Lease) lease).release();
+        }
+    }
+
+    /**
+     * Releases the leases held longer than the lease timeout, at most once per second.
+     */
+    private void reclaimExpiredLeases(long now) {
+
+        long last = lastReclaim.get();
+        if (now - last < RECLAIM_INTERVAL_NANOS || !lastReclaim.compareAndSet(last, now)) {
+            return;
+        }
+        for (Lease lease : leases) {
+            if (now - lease.acquiredAt > leaseTimeoutNanos) {
+                lease.release();
+            }
+        }
+    }
+
+    private Ring getRing(List<ModelEndpointDTO> eligible) {
+
+        StringBuilder key = new StringBuilder(eligible.size() * 40);
+        for (ModelEndpointDTO endpoint : eligible) {
+            key.append(endpoint.getEndpointId()).append('/').append(endpoint.getModel()).append('\n');
+        }
+        String ringKey = key.toString();
+        Ring ring = rings.get(ringKey);
+        if (ring == null) {
+            if (rings.size() >= MAX_RINGS) {
+                rings.clear();
+            }
+            ring = new Ring(eligible.toArray(new ModelEndpointDTO[0]));
+            rings.put(ringKey, ring);
+        }
+        return ring;
+    }
+
+    private static long fnv(String value) {
+
+        long hash = FNV_OFFSET;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Polynomial rolling hash over the first tokens of the prompt. Tokens are hashed character by character
+     * without building substrings, and whitespace runs act as a single separator.
+     */
+    private static final class PrefixHasher {
+
+        private final int maxTokens;
+        private int tokens;
+        private long hash = FNV_OFFSET;
+        private long tokenHash = FNV_OFFSET;
+        private boolean inToken;
+
+        private PrefixHasher(int maxTokens) {
+
+            this.maxTokens = maxTokens;
+        }
+
+        private boolean isFull() {
+
+            return tokens >= maxTokens;
+        }
+
+        private void role(char role) {
+
+            endToken();
+            if (!isFull()) {
+                hash = hash * ROLLING_BASE + role;
+            }
+        }
+
+        private void text(String text) {
+
+            if (text == null) {
+                return;
+            }
+            for (int i = 0; i < text.length() && !isFull(); i++) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    endToken();
+                } else {
+                    tokenHash = (tokenHash ^ c) * FNV_PRIME;
+                    inToken = true;
+                }
+            }
+            endToken();
+        }
+
+        private void endToken() {
+
+            if (inToken) {
+                hash = hash * ROLLING_BASE + mix(tokenHash);
+                tokenHash = FNV_OFFSET;
+                inToken = false;
+                tokens++;
+            }
+        }
+    }
+
+    /**
+     * Consistent hash ring over a fixed set of endpoints.
+     */
+    private static final class Ring {
+
+        private final ModelEndpointDTO[] endpoints;
+        private final long[] points;
+        private final int[] owners;
+
+        private Ring(ModelEndpointDTO[] endpoints) {
+
+            this.endpoints = endpoints;
+            int size = endpoints.length * VIRTUAL_NODES;
+            long[][] nodes = new long[size][];
+            for (int i = 0; i < endpoints.length; i++) {
+                String id = endpoints[i].getEndpointId() + '/' + endpoints[i].getModel() + '#';
+                for (int v = 0; v < VIRTUAL_NODES; v++) {
+                    nodes[i * VIRTUAL_NODES + v] = new long[]{fnv(id + v), i};
+                }
+            }
+            Arrays.sort(nodes, (a, b) -> Long.compare(a[0], b[0]));
+            points = new long[size];
+            owners = new int[size];
+            for (int i = 0; i < size; i++) {
+                points[i] = nodes[i][0];
+                owners[i] = (int) nodes[i][1];
+            }
+        }
+
+        /**
+         * Returns the index of the first ring point at or after the hash, wrapping around.
+         */
+        private int find(long hash) {
+
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index == points.length ? 0 : index;
+        }
+    }
+
+    /**
+     * In-flight count held on an endpoint for one request.
+     */
+    public static final class Lease {
+
+        private final EndpointHealthRegistry.EndpointHealth health;
+        private final Set<Lease> leases;
+        private final long acquiredAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(EndpointHealthRegistry.EndpointHealth health, Set<Lease> leases) {
+
+            this.health = health;
+            this.leases = leases;
+        }
+
+        public void release() {
+
+            if (released.compareAndSet(false, true)) {
+                health.releaseInFlight();
+                leases.remove(this);
+            }
+        }
+    }
+}
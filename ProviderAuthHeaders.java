@@ -0,0 +1,181 @@
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precomputed authentication and version headers for each supported LLM provider.
+ * <p>
+ * A {@link Template} is built once per provider when the class loads. For a given endpoint and API key
+ * the template produces an immutable {@link HeaderBlock} which is cached on the resolved endpoint, so
+ * applying headers to a request is a single bulk put with no per-request string building.
+ */
+final class ProviderAuthHeaders {
+
+    static final String CONTENT_TYPE = "Content-Type";
+    static final String AUTHORIZATION = "Authorization";
+    private static final String APPLICATION_JSON = "application/json";
+    private static final String BEARER = "Bearer ";
+
+    private static final Template DEFAULT_TEMPLATE = bearer();
+    private static final Map<String, Template> TEMPLATES = new HashMap<>();
+
+    static {
+        // OpenAI, Mistral, Hugging Face, Cohere: Authorization: Bearer xxx
+        TEMPLATES.put("openai", bearer());
+        TEMPLATES.put("mistral", bearer());
+        TEMPLATES.put("mistralai", bearer());
+        TEMPLATES.put("huggingface", bearer());
+        TEMPLATES.put("hf", bearer());
+        TEMPLATES.put("cohere", bearer());
+
+        // Claude/Anthropic API: x-api-key + anthropic-version header
+        Template anthropic = new Template(Scheme.RAW, "x-api-key")
+                .withHeader("anthropic-version", "2023-06-01");
+        TEMPLATES.put("claude", anthropic);
+        TEMPLATES.put("anthropic", anthropic);
+
+        // Google Gemini: x-goog-api-key for API keys, Bearer for OAuth tokens
+        Template gemini = new Template(Scheme.GOOGLE, null);
+        TEMPLATES.put("gemini", gemini);
+        TEMPLATES.put("google", gemini);
+
+        // Google PaLM API: x-goog-api-key
+        Template palm = new Template(Scheme.RAW, "x-goog-api-key");
+        TEMPLATES.put("palmapi", palm);
+        TEMPLATES.put("palm", palm);
+
+        // Azure OpenAI: api-key header
+        Template azure = new Template(Scheme.RAW, "api-key");
+        TEMPLATES.put("azure", azure);
+        TEMPLATES.put("azureopenai", azure);
+
+        // AWS Bedrock: AWS Signature V4, signed per request by AwsSigV4Signer
+        Template bedrock = new Template(Scheme.AWS_SIGV4, AUTHORIZATION);
+        TEMPLATES.put("aws", bedrock);
+        TEMPLATES.put("bedrock", bedrock);
+        TEMPLATES.put("awsbedrock", bedrock);
+
+        // OpenRouter: Authorization: Bearer xxx + HTTP-Referer
+        TEMPLATES.put("openrouter", bearer().withHeader("HTTP-Referer", "https://wso2.com"));
+    }
+
+    private ProviderAuthHeaders() {
+    }
+
+    /**
+     * Returns the header template of the provider, falling back to Bearer authentication for unknown providers.
+     */
+    static Template forProvider(String providerKey) {
+        Template template = TEMPLATES.get(providerKey);
+        return template != null ? template : DEFAULT_TEMPLATE;
+    }
+
+    static boolean isKnownProvider(String providerKey) {
+        return TEMPLATES.containsKey(providerKey);
+    }
+
+    private static Template bearer() {
+        return new Template(Scheme.BEARER, AUTHORIZATION);
+    }
+
+    /**
+     * How the API key is placed on the request.
+     */
+    enum Scheme {
+        BEARER,
+        RAW,
+        GOOGLE,
+        AWS_SIGV4
+    }
+
+    /**
+     * Header layout of a provider.
+     */
+    static final class Template {
+
+        private final Scheme scheme;
+        private final String authHeader;
+        private final Map<String, String> staticHeaders = new LinkedHashMap<>();
+
+        private Template(Scheme scheme, String authHeader) {
+            this.scheme = scheme;
+            this.authHeader = authHeader;
+            staticHeaders.put(CONTENT_TYPE, APPLICATION_JSON);
+        }
+
+        private Template withHeader(String name, String value) {
+            staticHeaders.put(name, value);
+            return this;
+        }
+
+        /**
+         * Builds the header block for the given API key. For {@link Scheme#AWS_SIGV4} the block only holds the
+         * static headers; the signature depends on the request and is added by {@link AwsSigV4Signer}.
+         */
+        HeaderBlock build(String apiKey) {
+            Map<String, String> headers = new LinkedHashMap<>(staticHeaders);
+            switch (scheme) {
+                case BEARER:
+                    headers.put(authHeader, BEARER + apiKey);
+                    break;
+                case RAW:
+                    headers.put(authHeader, apiKey);
+                    break;
+                case GOOGLE:
+                    if (apiKey.startsWith("AIza")) {
+                        headers.put("x-goog-api-key", apiKey);
+                    } else {
+                        headers.put(AUTHORIZATION, BEARER + apiKey);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            AwsSigV4Signer.Credentials awsCredentials =
+                    scheme == Scheme.AWS_SIGV4 ? AwsSigV4Signer.Credentials.parse(apiKey) : null;
+            return new HeaderBlock(apiKey, scheme, Collections.unmodifiableMap(headers), awsCredentials);
+        }
+    }
+
+    /**
+     * Immutable set of headers built for one endpoint and API key.
+     */
+    static final class HeaderBlock {
+
+        private final String apiKey;
+        private final Scheme scheme;
+        private final Map<String, String> headers;
+        private final AwsSigV4Signer.Credentials awsCredentials;
+
+        private HeaderBlock(String apiKey, Scheme scheme, Map<String, String> headers,
+                            AwsSigV4Signer.Credentials awsCredentials) {
+            this.apiKey = apiKey;
+            this.scheme = scheme;
+            this.headers = headers;
+            this.awsCredentials = awsCredentials;
+        }
+
+        boolean isFor(String apiKey) {
+            return this.apiKey.equals(apiKey);
+        }
+
+        boolean requiresSigning() {
+            return scheme == Scheme.AWS_SIGV4;
+        }
+
+        Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * AWS credentials parsed from the API key, or {@code null} if signing is not required or the key
+         * is not in the expected form.
+         */
+        AwsSigV4Signer.Credentials getAwsCredentials() {
+            return awsCredentials;
+        }
+    }
+}
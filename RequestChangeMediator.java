@@ -1,27 +1,22 @@
 package org.wso2.carbon.apimgt.gateway.mediators;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
-import com.jayway.jsonpath.DocumentContext;
-import com.jayway.jsonpath.JsonPath;
-import com.jayway.jsonpath.PathNotFoundException;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.axis2.AxisFault;
 import org.apache.axis2.addressing.EndpointReference;
+import org.apache.http.HttpStatus;
 import org.apache.synapse.ManagedLifecycle;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.core.SynapseEnvironment;
 import org.apache.synapse.mediators.AbstractMediator;
 import org.wso2.carbon.apimgt.api.APIConstants;
-import org.wso2.carbon.apimgt.gateway.mediators.Json_requests.LLMTemplateFactory;
 import org.apache.synapse.core.axis2.Axis2MessageContext;
 import org.apache.synapse.commons.json.JsonUtil;
 import org.apache.synapse.transport.passthru.util.RelayUtils;
 import org.wso2.carbon.apimgt.gateway.internal.DataHolder;
 import org.wso2.carbon.apimgt.gateway.utils.GatewayUtils;
 import org.wso2.carbon.apimgt.api.gateway.ModelEndpointDTO;
-import org.wso2.carbon.apimgt.api.gateway.RequestChangePolicyConfigDTO;
 import org.wso2.carbon.apimgt.api.model.LLMProviderInfo;
 import org.wso2.carbon.apimgt.api.LLMProviderConfiguration;
 import org.wso2.carbon.apimgt.impl.utils.APIUtil;
@@ -32,36 +27,6 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 
-/**
- * Simple DTO to hold user request input containing message content
- */
-class UserRequestInput {
-    private String message;
-    private String model; // Optional, will be ignored as we use target model from config
-    
-    public UserRequestInput() {}
-    
-    public UserRequestInput(String message) {
-        this.message = message;
-    }
-    
-    public String getMessage() {
-        return message;
-    }
-    
-    public void setMessage(String message) {
-        this.message = message;
-    }
-    
-    public String getModel() {
-        return model;
-    }
-    
-    public void setModel(String model) {
-        this.model = model;
-    }
-}
-
 /**
  * RequestChangeMediator intercepts AI API requests and routes them to a different LLM provider.
  * It extracts message content from the original request, converts it to the target LLM format,
@@ -74,12 +39,10 @@ class UserRequestInput {
 public class RequestChangeMediator extends AbstractMediator implements ManagedLifecycle {
 
     private static final Log log = LogFactory.getLog(RequestChangeMediator.class);
-    private String requestChangeConfigs; // JSON config with production/sandbox endpoints
-    
-    static {
-        System.out.println("RequestChangeMediator class loaded!");
-        log.info("RequestChangeMediator class loaded!");
-    }
+    private static final long RESOLUTION_TIMEOUT_MILLIS =
+            Long.getLong("ai.request.change.resolution.timeoutMs", 2000L);
+    private volatile String requestChangeConfigs; // JSON config with production/sandbox endpoints
+    private volatile RequestChangePlan plan; // Compiled form of requestChangeConfigs, shared across instances
 
     @Override
     public void init(SynapseEnvironment synapseEnvironment) {
@@ -91,11 +54,12 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
 
     @Override
     public void destroy() {
+        // The API is undeployed or redeployed, possibly because its endpoints or keys changed in API Manager
+        invalidateResolutions(plan);
     }
 
     @Override
     public boolean mediate(MessageContext messageContext) {
-        log.info("RequestChangeMediator: Mediate method called - START");
         if (log.isDebugEnabled()) {
             log.debug("RequestChangeMediator: Request routing mediation started.");
             log.debug("RequestChangeMediator: Configuration = " + requestChangeConfigs);
@@ -104,41 +68,24 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         try {
             DataHolder.getInstance().initCache(GatewayUtils.getAPIKeyForEndpoints(messageContext));
 
-            if (requestChangeConfigs == null || requestChangeConfigs.trim().isEmpty()) {
+            // Read the plan once so a concurrent configuration reload cannot change it mid-request
+            RequestChangePlan currentPlan = plan;
+            if (currentPlan == null) {
                 if (log.isDebugEnabled()) {
                     log.debug("No request change configuration provided, bypassing mediator");
                 }
                 return true;
             }
 
-            // Parse configuration like other mediators
-            RequestChangePolicyConfigDTO config;
-            try {
-                config = new Gson().fromJson(requestChangeConfigs, RequestChangePolicyConfigDTO.class);
-                if (config == null) {
-                    log.error("Failed to parse request change configuration: null config");
-                    return false;
-                }
-                if (log.isDebugEnabled()) {
-                    log.debug("Parsed request change config - Production: " + 
-                        (config.getProduction() != null ? config.getProduction().getEndpointId() : "null") +
-                        ", Sandbox: " + 
-                        (config.getSandbox() != null ? config.getSandbox().getEndpointId() : "null"));
-                }
-            } catch (JsonSyntaxException e) {
-                log.error("Failed to parse request change configuration", e);
-                return false;
-            }
-
-            // Validate configuration
-            if (!config.isValid()) {
-                log.error("Invalid request change configuration");
+            if (!currentPlan.isValid()) {
+                log.error(currentPlan.getError());
                 return false;
             }
 
             // Get target endpoint based on environment (production/sandbox) like other mediators
-            String environment = getEnvironment(messageContext);
-            ModelEndpointDTO targetEndpoint = getTargetEndpoint(messageContext, config);
+            boolean isProduction = isProductionEnvironment(messageContext);
+            String environment = isProduction ? "production" : "sandbox";
+            ModelEndpointDTO targetEndpoint = getTargetEndpoint(messageContext, currentPlan, isProduction);
             
             if (targetEndpoint == null) {
                 if (log.isDebugEnabled()) {
@@ -154,16 +101,46 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
                          " for environment: " + environment);
             }
 
-            // Get provider info from API Manager using endpoint ID
-            LLMProviderInfo targetProvider = getProviderFromEndpointId(targetEndpoint.getEndpointId());
-            if (targetProvider == null) {
+            // Provider info, endpoint URL and API key location are cached per endpoint ID
+            RequestTracer tracer = RequestTracer.getInstance();
+            RequestTracer.Span resolveSpan = tracer.startSpan(messageContext, "ai.change.resolve")
+                    .setAttribute("ai.endpoint", targetEndpoint.getEndpointId());
+            ResolvedEndpointCache.ResolvedEndpoint target = ResolvedEndpointCache.getInstance()
+                    .resolve(targetEndpoint.getEndpointId(), endpointId -> BlockingOffload.call("endpoint-resolution",
+                            () -> resolveEndpoint(endpointId), RESOLUTION_TIMEOUT_MILLIS,
+                            ResolvedEndpointCache.ResolvedEndpoint.UNAVAILABLE));
+            if (target == ResolvedEndpointCache.ResolvedEndpoint.UNAVAILABLE) {
+                resolveSpan.setError("Endpoint resolution timed out").end();
+                log.warn("Resolving endpoint ID " + targetEndpoint.getEndpointId() + " did not complete within "
+                        + RESOLUTION_TIMEOUT_MILLIS + " ms or was shed, bypassing request change");
+                return false;
+            }
+            if (target == null) {
+                resolveSpan.setError("No provider for endpoint").end();
                 log.error("No provider found for endpoint ID: " + targetEndpoint.getEndpointId());
                 return false;
             }
+            resolveSpan.end();
+            LLMProviderInfo targetProvider = target.getProvider();
 
-            // Extract user input - expect JSON with model name only
-            UserRequestInput userInput = extractUserRequestInput(messageContext);
-            if (userInput == null || userInput.getMessage() == null || userInput.getMessage().trim().isEmpty()) {
+            // Parse the full conversation from whichever chat schema the client used
+            RequestTracer.Span translateSpan = tracer.startSpan(messageContext, "ai.change.translate");
+            ChatRequestTranslator.ChatRequest chatRequest;
+            try {
+                chatRequest = extractChatRequest(messageContext);
+            } catch (ChatRequestTranslator.UnsupportedRequestException e) {
+                return rejectUnsupported(messageContext, translateSpan, e);
+            } catch (IOException e) {
+                translateSpan.setError("Malformed chat request").end();
+                if (log.isDebugEnabled()) {
+                    log.debug("Rejecting malformed chat request: " + e.getMessage());
+                }
+                DirectResponse.sendError(messageContext, HttpStatus.SC_BAD_REQUEST, "invalid_request_error",
+                        "The request body is not a valid chat request: " + e.getMessage(), null);
+                return false;
+            }
+            if (chatRequest == null || !chatRequest.hasContent()) {
+                translateSpan.end();
                 if (log.isDebugEnabled()) {
                     log.debug("No user message content found in request, bypassing request change");
                 }
@@ -172,45 +149,70 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
 
             // Use target model from configuration, not from user input
             String targetModel = targetEndpoint.getModel();
-            String userMessage = userInput.getMessage();
-            
+            ChatSchema targetSchema = ChatSchema.forProvider(target.getProviderKey());
+
             if (log.isDebugEnabled()) {
-                log.debug("Processing user message for target model: " + targetModel + ", provider: " + targetProvider.getName());
+                log.debug("Translating " + chatRequest.getMessages().size() + " message(s) from "
+                        + chatRequest.getSourceSchema() + " to " + targetSchema + " for target model: "
+                        + targetModel + ", provider: " + targetProvider.getName());
             }
 
-            // Create new request for target model with hardcoded template values (as specified)
-            String jsonRequest = LLMTemplateFactory.createRequest(
-                targetProvider.getName().toLowerCase(), 
-                userMessage, 
-                targetModel,
-                1000, // Hardcoded max tokens
-                0.7   // Hardcoded temperature
-            );
-            
-            if (jsonRequest == null || jsonRequest.trim().isEmpty()) {
-                log.error("Failed to create JSON request for provider: " + targetProvider.getName());
+            // Providers that stream from a different URL are switched to it, the others get a body flag
+            String endpointUrl = target.getEndpointUrl();
+            if (chatRequest.isStream() && chatRequest.getSourceSchema() != null
+                    && ChatResponseTranslator.needsTranslation(targetSchema, chatRequest.getSourceSchema())) {
+                // The relayed event stream cannot be converted as it passes, and buffering it defeats streaming
+                translateSpan.setError("Streaming needs translation").end();
+                if (log.isDebugEnabled()) {
+                    log.debug("Rejecting streamed " + chatRequest.getSourceSchema() + " request to "
+                            + targetSchema + " endpoint " + targetEndpoint.getEndpointId());
+                }
+                DirectResponse.sendError(messageContext, HttpStatus.SC_BAD_REQUEST, "invalid_request_error",
+                        "Streaming is not supported when the target model uses a different API schema, "
+                                + "send the request without stream", null);
                 return false;
             }
+            if (chatRequest.isStream()) {
+                endpointUrl = targetSchema.streamingUrl(endpointUrl);
+                if (endpointUrl == null) {
+                    translateSpan.setError("Streaming not supported").end();
+                    log.warn("Streaming is not supported for endpoint " + targetEndpoint.getEndpointId()
+                            + " of provider " + targetProvider.getName() + ", rejecting request");
+                    DirectResponse.sendError(messageContext, HttpStatus.SC_BAD_REQUEST, "invalid_request_error",
+                            "Streaming is not supported by the target model endpoint", null);
+                    return false;
+                }
+            }
+
+            String jsonRequest;
+            try {
+                jsonRequest = ChatRequestTranslator.write(chatRequest, targetSchema, targetModel);
+            } catch (ChatRequestTranslator.UnsupportedRequestException e) {
+                return rejectUnsupported(messageContext, translateSpan, e);
+            }
+
+            // Remember both schemas so that AIAPIMediator can translate the response back for the client
+            if (chatRequest.getSourceSchema() != null) {
+                messageContext.setProperty(ChatResponseTranslator.CLIENT_SCHEMA, chatRequest.getSourceSchema());
+                messageContext.setProperty(ChatResponseTranslator.PROVIDER_SCHEMA, targetSchema);
+            }
 
             // Set up endpoint configuration for AIAPIMediator to use
-            setupEndpointForAIAPIMediator(messageContext, targetEndpoint, targetProvider);
+            setupEndpointForAIAPIMediator(messageContext, targetEndpoint, endpointUrl);
             
-            // Set appropriate headers for the target LLM
-            setTargetHeaders(messageContext, targetEndpoint, targetProvider);
+            // Set appropriate headers for the target LLM, signing the new payload where the provider requires it
+            setTargetHeaders(messageContext, targetEndpoint, target, endpointUrl, jsonRequest);
             
             // Replace the request payload with the new JSON request
             replaceRequestPayload(messageContext, jsonRequest);
 
             // Set configuration for AIAPIMediator integration
-            setupAIAPIMediatorIntegration(messageContext, targetEndpoint, targetProvider);
-
-            if (log.isDebugEnabled()) {
-                log.debug("Successfully set target endpoint and modified request for: " + targetProvider.getName());
-            }
+            setupAIAPIMediatorIntegration(messageContext, currentPlan, targetEndpoint, targetProvider);
+            translateSpan.setAttribute("ai.model", targetModel)
+                    .setAttribute("ai.target_schema", targetSchema.name()).end();
 
-            if (log.isDebugEnabled()) {
-                log.debug("RequestChangeMediator: Request successfully routed to " + targetProvider.getName());
-            }
+            MediationEventLog.getInstance().record(MediationEventLog.Type.REQUEST_CHANGED, messageContext, null,
+                    targetEndpoint.getEndpointId(), targetModel, 0, targetSchema.name());
 
         } catch (Exception e) {
             log.error("Error during request change mediation", e);
@@ -220,27 +222,41 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         return true;
     }
 
-    private String getEnvironment(MessageContext messageContext) {
-        String apiKeyType = (String) messageContext.getProperty(org.wso2.carbon.apimgt.impl.APIConstants.API_KEY_TYPE);
-        return org.wso2.carbon.apimgt.impl.APIConstants.API_KEY_TYPE_PRODUCTION.equals(apiKeyType) ? "production" : "sandbox";
+    /**
+     * Rejects a request that cannot be translated without dropping content or parameters.
+     *
+     * @return {@code false}, so that the request flow stops after the response is sent.
+     */
+    private boolean rejectUnsupported(MessageContext messageContext, RequestTracer.Span translateSpan,
+                                      ChatRequestTranslator.UnsupportedRequestException e) throws AxisFault {
+        translateSpan.setError("Untranslatable chat request").end();
+        if (log.isDebugEnabled()) {
+            log.debug("Rejecting chat request that cannot be translated: " + e.getMessage());
+        }
+        DirectResponse.sendError(messageContext, HttpStatus.SC_BAD_REQUEST, "invalid_request_error",
+                "The request cannot be sent to the target model: " + e.getMessage(), null);
+        return false;
     }
 
-    private ModelEndpointDTO getTargetEndpoint(MessageContext messageContext, RequestChangePolicyConfigDTO config) {
+    private boolean isProductionEnvironment(MessageContext messageContext) {
         String apiKeyType = (String) messageContext.getProperty(org.wso2.carbon.apimgt.impl.APIConstants.API_KEY_TYPE);
-        ModelEndpointDTO targetEndpoint = org.wso2.carbon.apimgt.impl.APIConstants.API_KEY_TYPE_PRODUCTION.equals(apiKeyType)
-                ? config.getProduction()
-                : config.getSandbox();
+        return org.wso2.carbon.apimgt.impl.APIConstants.API_KEY_TYPE_PRODUCTION.equals(apiKeyType);
+    }
+
+    private ModelEndpointDTO getTargetEndpoint(MessageContext messageContext, RequestChangePlan currentPlan,
+                                               boolean isProduction) {
+        ModelEndpointDTO targetEndpoint = currentPlan.getEndpoint(isProduction);
 
         if (targetEndpoint == null) {
             if (log.isDebugEnabled()) {
-                log.debug("Request change policy is not set for " + apiKeyType);
+                log.debug("Request change policy is not set for " + (isProduction ? "PRODUCTION" : "SANDBOX"));
             }
             return null;
         }
 
         // Check if endpoint is active (like other mediators)
-        if (DataHolder.getInstance().isEndpointSuspended(GatewayUtils.getAPIKeyForEndpoints(messageContext), 
-                GatewayUtils.getEndpointKey(targetEndpoint))) {
+        if (EndpointHealthRegistry.getInstance().forApi(GatewayUtils.getAPIKeyForEndpoints(messageContext))
+                .isSuspended(targetEndpoint)) {
             if (log.isDebugEnabled()) {
                 log.debug("Target endpoint " + targetEndpoint.getEndpointId() + " is suspended");
             }
@@ -250,7 +266,16 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         return targetEndpoint;
     }
 
-    private LLMProviderInfo getProviderFromEndpointId(String endpointId) {
+    private static ResolvedEndpointCache.ResolvedEndpoint resolveEndpoint(String endpointId) {
+        LLMProviderInfo provider = getProviderFromEndpointId(endpointId);
+        if (provider == null) {
+            return null;
+        }
+        return new ResolvedEndpointCache.ResolvedEndpoint(endpointId, provider,
+                getEndpointUrlFromAPIManager(endpointId), extractProviderTypeFromEndpointId(endpointId));
+    }
+
+    private static LLMProviderInfo getProviderFromEndpointId(String endpointId) {
         // This would typically get provider info from API Manager using endpoint ID
         // For now, we'll use a simple mapping or get from DataHolder
         // In real implementation, this would query the endpoint registry
@@ -276,7 +301,7 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         return createOpenAIProvider();
     }
 
-    private LLMProviderInfo createClaudeProvider() {
+    private static LLMProviderInfo createClaudeProvider() {
         LLMProviderInfo provider = new LLMProviderInfo();
         provider.setId("claude-provider");
         provider.setName("claude");
@@ -284,7 +309,7 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         return provider;
     }
 
-    private LLMProviderInfo createOpenAIProvider() {
+    private static LLMProviderInfo createOpenAIProvider() {
         LLMProviderInfo provider = new LLMProviderInfo();
         provider.setId("openai-provider");
         provider.setName("openai");
@@ -292,7 +317,7 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         return provider;
     }
 
-    private LLMProviderInfo createGeminiProvider() {
+    private static LLMProviderInfo createGeminiProvider() {
         LLMProviderInfo provider = new LLMProviderInfo();
         provider.setId("gemini-provider");
         provider.setName("gemini");
@@ -300,7 +325,7 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         return provider;
     }
 
-    private LLMProviderInfo createMistralProvider() {
+    private static LLMProviderInfo createMistralProvider() {
         LLMProviderInfo provider = new LLMProviderInfo();
         provider.setId("mistral-provider");
         provider.setName("mistral");
@@ -308,7 +333,14 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         return provider;
     }
 
-    private UserRequestInput extractUserRequestInput(MessageContext messageContext) {
+    /**
+     * Reads the conversation from the request payload. Bodies that are not JSON at all are forwarded as a single
+     * user message, while JSON bodies must be well formed chat requests.
+     *
+     * @throws IOException If the payload is JSON but not a valid chat request.
+     */
+    private ChatRequestTranslator.ChatRequest extractChatRequest(MessageContext messageContext) throws IOException {
+        String payload = null;
         try {
             org.apache.axis2.context.MessageContext axis2MessageContext = 
                 ((Axis2MessageContext) messageContext).getAxis2MessageContext();
@@ -316,118 +348,35 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
             RelayUtils.buildMessage(axis2MessageContext);
             
             if (JsonUtil.hasAJsonPayload(axis2MessageContext)) {
-                String payload = JsonUtil.jsonPayloadToString(axis2MessageContext);
-                return parseUserRequestFromJson(payload);
+                payload = JsonUtil.jsonPayloadToString(axis2MessageContext);
             } else if (messageContext.getEnvelope().getBody() != null) {
                 Object objFirstElement = messageContext.getEnvelope().getBody().getFirstElement();
                 if (objFirstElement != null) {
-                    String payload = objFirstElement.toString();
-                    return parseUserRequestFromJson(payload);
+                    payload = objFirstElement.toString();
                 }
             }
         } catch (Exception e) {
             log.error("Error extracting user request input", e);
-        }
-        return null;
-    }
-    
-    private UserRequestInput parseUserRequestFromJson(String payload) {
-        try {
-            if (payload == null || payload.trim().isEmpty()) {
-                return null;
-            }
-            
-            // First try to parse as direct UserRequestInput JSON
-            try {
-                Gson gson = new Gson();
-                UserRequestInput userInput = gson.fromJson(payload, UserRequestInput.class);
-                if (userInput != null && userInput.getMessage() != null && !userInput.getMessage().trim().isEmpty()) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Parsed user input directly from JSON");
-                    }
-                    return userInput;
-                }
-            } catch (JsonSyntaxException e) {
-                // Not a direct UserRequestInput format, try extracting from various formats
-            }
-            
-            // Try to extract message from various common LLM request formats
-            String extractedMessage = extractMessageFromPayload(payload);
-            if (extractedMessage != null && !extractedMessage.trim().isEmpty()) {
-                UserRequestInput userInput = new UserRequestInput(extractedMessage);
-                if (log.isDebugEnabled()) {
-                    log.debug("Extracted message from payload format");
-                }
-                return userInput;
-            }
-            
             return null;
-        } catch (Exception e) {
-            log.error("Error parsing user request from JSON", e);
+        }
+        if (payload == null) {
             return null;
         }
-    }
 
-    private String extractMessageFromPayload(String payload) {
-        try {
-            if (payload.contains("messages")) {
-                DocumentContext context = JsonPath.parse(payload);
-                try {
-                    return context.read("$.messages[0].content", String.class);
-                } catch (PathNotFoundException e) {
-                    try {
-                        return context.read("$.messages[0].text", String.class);
-                    } catch (PathNotFoundException e2) {
-                        return null;
-                    }
-                }
-            } else if (payload.contains("prompt")) {
-                DocumentContext context = JsonPath.parse(payload);
-                try {
-                    return context.read("$.prompt", String.class);
-                } catch (PathNotFoundException e) {
-                    return null;
-                }
-            } else if (payload.contains("input")) {
-                DocumentContext context = JsonPath.parse(payload);
-                try {
-                    return context.read("$.input", String.class);
-                } catch (PathNotFoundException e) {
-                    return null;
-                }
-            } else if (payload.contains("text")) {
-                DocumentContext context = JsonPath.parse(payload);
-                try {
-                    return context.read("$.text", String.class);
-                } catch (PathNotFoundException e) {
-                    return null;
-                }
-            } else if (payload.contains("query")) {
-                DocumentContext context = JsonPath.parse(payload);
-                try {
-                    return context.read("$.query", String.class);
-                } catch (PathNotFoundException e) {
-                    return null;
-                }
-            } else if (payload.contains("question")) {
-                DocumentContext context = JsonPath.parse(payload);
-                try {
-                    return context.read("$.question", String.class);
-                } catch (PathNotFoundException e) {
-                    return null;
-                }
+        String trimmed = payload.trim();
+        if (!trimmed.startsWith("{") && !trimmed.startsWith("[")) {
+            // Not JSON, forward the body as a single user message
+            if (log.isDebugEnabled()) {
+                log.debug("Payload is not a JSON chat request, using it as a single user message");
             }
-            return payload;
-        } catch (Exception e) {
-            log.error("Error extracting message content", e);
-            return payload;
+            return trimmed.isEmpty() ? null : ChatRequestTranslator.ChatRequest.ofUserMessage(payload);
         }
+        // One pass over the payload detects the request shape and extracts the conversation
+        return ChatRequestTranslator.parse(payload);
     }
-
-    private void setupEndpointForAIAPIMediator(MessageContext messageContext, ModelEndpointDTO targetEndpoint, LLMProviderInfo targetProvider) {
+    
+    private void setupEndpointForAIAPIMediator(MessageContext messageContext, ModelEndpointDTO targetEndpoint, String endpointUrl) {
         try {
-            // Get endpoint URL from API Manager using endpoint ID
-            String endpointUrl = getEndpointUrlFromAPIManager(targetEndpoint.getEndpointId());
             if (endpointUrl == null || endpointUrl.trim().isEmpty()) {
                 log.error("No endpoint URL found for endpoint ID: " + targetEndpoint.getEndpointId());
                 return;
@@ -450,7 +399,7 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         }
     }
 
-    private String getEndpointUrlFromAPIManager(String endpointId) {
+    private static String getEndpointUrlFromAPIManager(String endpointId) {
         // Get endpoint URL from API Manager's endpoint registry
         try {
             // First try to get from DataHolder cache or registry
@@ -509,7 +458,7 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         }
     }
     
-    private String extractProviderTypeFromEndpointId(String endpointId) {
+    private static String extractProviderTypeFromEndpointId(String endpointId) {
         // Extract provider type from endpoint ID
         if (endpointId == null || endpointId.trim().isEmpty()) {
             return "openai"; // default
@@ -534,7 +483,9 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
         }
     }
     
-    private void setTargetHeaders(MessageContext messageContext, ModelEndpointDTO targetEndpoint, LLMProviderInfo targetProvider) {
+    private void setTargetHeaders(MessageContext messageContext, ModelEndpointDTO targetEndpoint,
+                                  ResolvedEndpointCache.ResolvedEndpoint target, String endpointUrl,
+                                  String payload) {
         try {
             org.apache.axis2.context.MessageContext axis2MessageContext = 
                 ((Axis2MessageContext) messageContext).getAxis2MessageContext();
@@ -550,116 +501,43 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
                     org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headers);
             }
             
-            // Set Content-Type for all providers
-            headers.put("Content-Type", "application/json");
-            
             // Get API key from API Manager
-            String apiKey = getApiKeyFromAPIManager(messageContext, targetEndpoint.getEndpointId());
+            String apiKey = getApiKeyFromAPIManager(messageContext, target);
             
-            if (apiKey != null && !apiKey.trim().isEmpty()) {
-                String providerName = targetProvider.getName().toLowerCase();
-                
-                // Set provider-specific authentication headers based on WSO2 APIM configuration
-                setProviderSpecificHeaders(headers, providerName, apiKey);
-                
-                if (log.isDebugEnabled()) {
-                    log.debug("Set authentication headers for provider: " + providerName);
-                }
-            } else {
+            if (apiKey == null || apiKey.trim().isEmpty()) {
+                headers.put(ProviderAuthHeaders.CONTENT_TYPE, "application/json");
                 log.warn("No API key found for endpoint: " + targetEndpoint.getEndpointId() + " - authentication headers not set");
+                return;
             }
-            
+
+            // Provider-specific authentication headers are precomputed per endpoint and API key
+            ProviderAuthHeaders.HeaderBlock headerBlock = target.getHeaderBlock(apiKey);
+            headers.putAll(headerBlock.getHeaders());
+
+            if (headerBlock.requiresSigning()) {
+                // AWS Bedrock: AWS Signature V4 over the final request payload
+                if (headerBlock.getAwsCredentials() == null) {
+                    log.error("API key for endpoint " + targetEndpoint.getEndpointId()
+                            + " must be ACCESS_KEY_ID:SECRET_ACCESS_KEY[:SESSION_TOKEN] for AWS signing");
+                    return;
+                }
+                headers.putAll(AwsSigV4Signer.sign("POST", endpointUrl, payload,
+                        headerBlock.getAwsCredentials(), System.currentTimeMillis()));
+            }
+
             if (log.isDebugEnabled()) {
-                log.debug("Successfully set headers for target LLM: " + targetProvider.getName());
+                if (!ProviderAuthHeaders.isKnownProvider(target.getProviderKey())) {
+                    log.debug("Unknown provider: " + target.getProviderKey() + ", using default Bearer token authentication");
+                }
+                log.debug("Successfully set headers for target LLM: " + target.getProvider().getName());
             }
         } catch (Exception e) {
             log.error("Error setting target headers", e);
         }
     }
     
-    private void setProviderSpecificHeaders(java.util.Map<String, Object> headers, String providerName, String apiKey) {
-        // Set provider-specific authentication headers according to each provider's requirements
-        switch (providerName) {
-            case "openai":
-                // OpenAI API: Authorization: Bearer sk-xxx
-                headers.put("Authorization", "Bearer " + apiKey);
-                break;
-                
-            case "claude":
-            case "anthropic":
-                // Claude/Anthropic API: x-api-key + anthropic-version header
-                headers.put("x-api-key", apiKey);
-                headers.put("anthropic-version", "2023-06-01");
-                break;
-                
-            case "mistral":
-            case "mistralai":
-                // Mistral AI: Authorization: Bearer xxx
-                headers.put("Authorization", "Bearer " + apiKey);
-                break;
-                
-            case "gemini":
-            case "google":
-                // Google Gemini: Can use either Authorization Bearer or x-goog-api-key
-                if (apiKey.startsWith("AIza")) {
-                    // Google API key format
-                    headers.put("x-goog-api-key", apiKey);
-                } else {
-                    // OAuth token format
-                    headers.put("Authorization", "Bearer " + apiKey);
-                }
-                break;
-                
-            case "azure":
-            case "azureopenai":
-                // Azure OpenAI: api-key header
-                headers.put("api-key", apiKey);
-                break;
-                
-            case "aws":
-            case "bedrock":
-            case "awsbedrock":
-                // AWS Bedrock: Uses AWS Signature V4 authentication (complex)
-                // For now, set basic Authorization header - proper AWS Sig V4 implementation needed
-                headers.put("Authorization", "AWS4-HMAC-SHA256 " + apiKey);
-                headers.put("Content-Type", "application/json");
-                break;
-                
-            case "huggingface":
-            case "hf":
-                // Hugging Face: Authorization: Bearer hf_xxx
-                headers.put("Authorization", "Bearer " + apiKey);
-                break;
-                
-            case "cohere":
-                // Cohere: Authorization: Bearer xxx
-                headers.put("Authorization", "Bearer " + apiKey);
-                break;
-                
-            case "palmapi":
-            case "palm":
-                // Google PaLM API: x-goog-api-key
-                headers.put("x-goog-api-key", apiKey);
-                break;
-                
-            case "openrouter":
-                // OpenRouter: Authorization: Bearer xxx + HTTP-Referer
-                headers.put("Authorization", "Bearer " + apiKey);
-                headers.put("HTTP-Referer", "https://wso2.com");
-                break;
-                
-            default:
-                // Default to Bearer token authentication for unknown providers
-                headers.put("Authorization", "Bearer " + apiKey);
-                if (log.isDebugEnabled()) {
-                    log.debug("Unknown provider: " + providerName + ", using default Bearer token authentication");
-                }
-                break;
-        }
-    }
-    
-    private String getApiKeyFromAPIManager(MessageContext messageContext, String endpointId) {
-        // Get API key from API Manager's secure storage
+    private String getApiKeyFromAPIManager(MessageContext messageContext, ResolvedEndpointCache.ResolvedEndpoint target) {
+        String endpointId = target.getEndpointId();
         try {
             // First try to get from DataHolder cache - this would contain keys from APIM
             String cachedApiKey = DataHolder.getInstance().getApiKeyForEndpoint(endpointId);
@@ -669,49 +547,20 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
                 }
                 return cachedApiKey;
             }
-            
-            // Try to get from WSO2 APIM secure storage via APIUtil
-            try {
-                // TODO: Implement proper APIUtil.getApiKeyFromSecureStorage(endpointId, messageContext) when available
-                String secureApiKey = null; // APIUtil.getApiKeyFromSecureStorage(endpointId, messageContext);
-                if (secureApiKey != null && !secureApiKey.trim().isEmpty()) {
+
+            // TODO: Try WSO2 APIM secure storage via APIUtil.getApiKeyFromSecureStorage(endpointId, messageContext) when available
+
+            // Try to get from message context properties (configured via API Manager), the most specific first.
+            // They can change from one request to the next, so they are looked up on every request
+            for (String propertyName : target.getApiKeyProperties()) {
+                String apiKey = (String) messageContext.getProperty(propertyName);
+                if (apiKey != null && !apiKey.trim().isEmpty()) {
                     if (log.isDebugEnabled()) {
-                        log.debug("Retrieved API key from secure storage for endpoint: " + endpointId);
+                        log.debug("Resolved API key for endpoint: " + endpointId + " from property " + propertyName);
                     }
-                    return secureApiKey;
-                }
-            } catch (Exception e) {
-                log.warn("Failed to get API key from secure storage for endpoint: " + endpointId + ", trying fallback: " + e.getMessage());
-            }
-            
-            // Try to get from message context properties (configured via API Manager)
-            String endpointApiKey = (String) messageContext.getProperty("ENDPOINT_API_KEY_" + endpointId);
-            if (endpointApiKey != null && !endpointApiKey.trim().isEmpty()) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Retrieved endpoint-specific API key from message context for: " + endpointId);
+                    return apiKey;
                 }
-                return endpointApiKey;
             }
-            
-            // Try provider-specific API key
-            String providerType = extractProviderTypeFromEndpointId(endpointId);
-            String providerApiKey = (String) messageContext.getProperty("API_KEY_" + providerType.toUpperCase());
-            if (providerApiKey != null && !providerApiKey.trim().isEmpty()) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Retrieved provider-specific API key for: " + providerType);
-                }
-                return providerApiKey;
-            }
-            
-            // Try generic API key as last fallback
-            String genericApiKey = (String) messageContext.getProperty("API_KEY");
-            if (genericApiKey != null && !genericApiKey.trim().isEmpty()) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Using generic API key for endpoint: " + endpointId);
-                }
-                return genericApiKey;
-            }
-            
             log.warn("No API key found for endpoint: " + endpointId + " - ensure proper configuration in WSO2 API Manager");
             return null;
         } catch (Exception e) {
@@ -743,13 +592,34 @@ public class RequestChangeMediator extends AbstractMediator implements ManagedLi
     }
 
     public void setRequestChangeConfigs(String requestChangeConfigs) {
+        RequestChangePlan previous = plan;
+        // Compile before publishing so in-flight requests keep using the previous plan until the swap
+        this.plan = requestChangeConfigs == null || requestChangeConfigs.trim().isEmpty()
+                ? null
+                : RequestChangePlan.forConfigs(requestChangeConfigs);
         this.requestChangeConfigs = requestChangeConfigs;
+        if (previous != null && previous != plan) {
+            invalidateResolutions(previous);
+        }
+    }
+
+    private static void invalidateResolutions(RequestChangePlan plan) {
+        if (plan == null || !plan.isValid()) {
+            return;
+        }
+        for (boolean production : new boolean[]{true, false}) {
+            ModelEndpointDTO endpoint = plan.getEndpoint(production);
+            if (endpoint != null && endpoint.getEndpointId() != null) {
+                ResolvedEndpointCache.getInstance().invalidate(endpoint.getEndpointId());
+            }
+        }
     }
     
-    private void setupAIAPIMediatorIntegration(MessageContext messageContext, ModelEndpointDTO targetEndpoint, LLMProviderInfo targetProvider) {
+    private void setupAIAPIMediatorIntegration(MessageContext messageContext, RequestChangePlan currentPlan,
+                                               ModelEndpointDTO targetEndpoint, LLMProviderInfo targetProvider) {
         try {
             // Set configuration for AIAPIMediator to recognize RequestChangeMediator usage
-            messageContext.setProperty(APIConstants.AIAPIConstants.REQUEST_CHANGE_CONFIGS, requestChangeConfigs);
+            messageContext.setProperty(APIConstants.AIAPIConstants.REQUEST_CHANGE_CONFIGS, currentPlan.getSource());
             
             // Set provider information for AIAPIMediator
             messageContext.setProperty(APIConstants.AIAPIConstants.LLM_PROVIDER_ID, targetProvider.getId());
@@ -0,0 +1,91 @@
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.apimgt.api.gateway.ModelEndpointDTO;
+import org.wso2.carbon.apimgt.api.gateway.RequestChangePolicyConfigDTO;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form of a request change configuration.
+ * <p>
+ * A plan is parsed and validated once per distinct configuration and shared by every
+ * RequestChangeMediator using that configuration. Provider and URL resolution of the
+ * target endpoints is cached separately in {@link ResolvedEndpointCache} so it can expire
+ * independently of the configuration.
+ */
+final class RequestChangePlan {
+
+    private static final Log log = LogFactory.getLog(RequestChangePlan.class);
+    private static final Gson GSON = new Gson();
+    private static final int MAX_CACHED_PLANS = 256;
+    private static final Map<String, RequestChangePlan> PLANS = new ConcurrentHashMap<>();
+
+    private final String source;
+    private final RequestChangePolicyConfigDTO config;
+    private final String error;
+
+    private RequestChangePlan(String source, RequestChangePolicyConfigDTO config, String error) {
+        this.source = source;
+        this.config = config;
+        this.error = error;
+    }
+
+    /**
+     * Returns the shared plan for the given configuration, compiling it if it has not been seen before.
+     */
+    static RequestChangePlan forConfigs(String requestChangeConfigs) {
+        RequestChangePlan plan = PLANS.get(requestChangeConfigs);
+        if (plan != null) {
+            return plan;
+        }
+        if (PLANS.size() >= MAX_CACHED_PLANS) {
+            PLANS.clear();
+        }
+        return PLANS.computeIfAbsent(requestChangeConfigs, RequestChangePlan::compile);
+    }
+
+    private static RequestChangePlan compile(String requestChangeConfigs) {
+        RequestChangePolicyConfigDTO config;
+        try {
+            config = GSON.fromJson(requestChangeConfigs, RequestChangePolicyConfigDTO.class);
+        } catch (JsonSyntaxException e) {
+            log.error("Failed to parse request change configuration", e);
+            return new RequestChangePlan(requestChangeConfigs, null, "Failed to parse request change configuration");
+        }
+        if (config == null) {
+            return new RequestChangePlan(requestChangeConfigs, null,
+                    "Failed to parse request change configuration: null config");
+        }
+        if (!config.isValid()) {
+            return new RequestChangePlan(requestChangeConfigs, config, "Invalid request change configuration");
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Compiled request change config - Production: " +
+                    (config.getProduction() != null ? config.getProduction().getEndpointId() : "null") +
+                    ", Sandbox: " +
+                    (config.getSandbox() != null ? config.getSandbox().getEndpointId() : "null"));
+        }
+        return new RequestChangePlan(requestChangeConfigs, config, null);
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    boolean isValid() {
+        return error == null;
+    }
+
+    String getError() {
+        return error;
+    }
+
+    ModelEndpointDTO getEndpoint(boolean isProduction) {
+        return isProduction ? config.getProduction() : config.getSandbox();
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gateway wide single-flight stage for AI API requests.
+ * <p>
+ * The first request with a given key leads a flight and goes upstream; identical requests of the same consumer
+ * arriving while it is in flight follow it and wait for its response instead of calling the provider themselves.
+ * Followers hold their worker thread while they wait, so coalescing is off unless an API policy enables it, and
+ * streaming requests are never coalesced since followers could only be sent the stream once it had ended.
+ * <p>
+ * Followers give up and go upstream on their own when the flight has too many followers or when their wait times
+ * out; callers keep the wait well below the upstream timeout. When the leader's response is not successful, one
+ * follower leads a new flight and the others wait for it, so a failed leader does not send all of its followers
+ * upstream at once. A flight whose leader never completes expires after its timeout and is replaced by the next
+ * request.
+ */
+public final class RequestCoalescer {
+
+    /**
+     * Message context property holding the flight led by a request.
+     */
+    public static final String FLIGHT = "AI_COALESCING_FLIGHT";
+
+    private static final RequestCoalescer INSTANCE = new RequestCoalescer();
+
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    RequestCoalescer() {
+
+    }
+
+    public static RequestCoalescer getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Which requests are coalesced, set on {@code AIAPIMediator}.
+     */
+    public enum Mode {
+        /**
+         * Requests are never coalesced. This is the default.
+         */
+        OFF,
+        /**
+         * Requests with a temperature of 0 and requests opting in with {@code X-AI-Cache: true} are coalesced.
+         */
+        DETERMINISTIC,
+        /**
+         * Every request not opting out with {@code X-AI-Cache: false} is coalesced, so identical sampled requests
+         * share one completion.
+         */
+        ALL;
+
+        public static Mode parse(String value) {
+
+            if (value == null || value.trim().isEmpty()) {
+                return OFF;
+            }
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(value.trim())) {
+                    return mode;
+                }
+            }
+            return OFF;
+        }
+    }
+
+    /**
+     * Decides whether a request may be coalesced. As with caching, streaming requests do not qualify.
+     *
+     * @param mode        The API coalescing policy.
+     * @param cacheHeader The value of the {@code X-AI-Cache} request header, may be {@code null}.
+     * @param request     The parsed request payload.
+     * @return {@code true} if the request may share the response of an identical request.
+     */
+    public static boolean isCoalescable(Mode mode, String cacheHeader, JsonObject request) {
+
+        if (mode == Mode.OFF || "false".equalsIgnoreCase(cacheHeader) || ResponseCache.isStreaming(request)) {
+            return false;
+        }
+        return mode == Mode.ALL || "true".equalsIgnoreCase(cacheHeader) || ResponseCache.hasZeroTemperature(request);
+    }
+
+    /**
+     * Starts a flight for the key unless a live one exists.
+     *
+     * @param key           The request key.
+     * @param timeoutMillis How long followers wait for the flight.
+     * @return The new flight, led by the caller, or {@code null} if the request should follow a live flight.
+     */
+    public Flight lead(String key, long timeoutMillis) {
+
+        long now = System.currentTimeMillis();
+        Flight flight = new Flight(key, timeoutMillis, now + timeoutMillis);
+        Flight current = flights.putIfAbsent(key, flight);
+        if (current == null) {
+            return flight;
+        }
+        if (current.expiresAt <= now && flights.replace(key, current, flight)) {
+            // The leader never completed, e.g. because its call failed before reaching the response flow
+            current.abandon();
+            return flight;
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the live flight of the key. If the leader ends the flight without a response, the first follower
+     * to notice leads a new flight for the key and the others follow that one for the rest of their wait.
+     *
+     * @param key           The request key.
+     * @param maxFollowers  The maximum number of requests waiting on one flight.
+     * @param timeoutMillis The maximum time to wait, over all flights followed.
+     * @return The leader's response, a new flight led by the caller, or neither if the request should go upstream
+     * on its own.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public Outcome follow(String key, int maxFollowers, long timeoutMillis) throws InterruptedException {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Flight flight = flights.get(key);
+        while (flight != null) {
+            if (flight.followers.incrementAndGet() > maxFollowers) {
+                flight.followers.decrementAndGet();
+                return Outcome.ALONE;
+            }
+            try {
+                if (!flight.done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return Outcome.ALONE;
+                }
+            } finally {
+                flight.followers.decrementAndGet();
+            }
+            if (flight.response != null) {
+                coalesced.increment();
+                return new Outcome(flight.response, null);
+            }
+            // The ended flight is no longer mapped, so exactly one follower (or new request) leads the next one
+            Flight next = lead(key, flight.timeoutMillis);
+            if (next != null) {
+                return new Outcome(null, next);
+            }
+            flight = flights.get(key);
+        }
+        return Outcome.ALONE;
+    }
+
+    /**
+     * Returns the number of requests served from another request's response.
+     */
+    public long getCoalesced() {
+
+        return coalesced.sum();
+    }
+
+    /**
+     * Returns the number of live flights.
+     */
+    public int getInFlight() {
+
+        return flights.size();
+    }
+
+    /**
+     * An upstream call shared by identical requests.
+     */
+    public final class Flight {
+
+        private final String key;
+        private final long timeoutMillis;
+        private final long expiresAt;
+        private final AtomicInteger followers = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile CoalescedResponse response;
+
+        private Flight(String key, long timeoutMillis, long expiresAt) {
+
+            this.key = key;
+            this.timeoutMillis = timeoutMillis;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Hands the leader's response to the followers and ends the flight.
+         *
+         * @param statusCode  The HTTP status code.
+         * @param contentType The content type.
+         * @param body        The JSON response body.
+         */
+        public void complete(int statusCode, String contentType, String body) {
+
+            response = new CoalescedResponse(statusCode, contentType, body);
+            end();
+        }
+
+        /**
+         * Ends the flight without a response; one follower leads a new flight and the others wait for it.
+         */
+        public void abandon() {
+
+            end();
+        }
+
+        public int getFollowers() {
+
+            return followers.get();
+        }
+
+        private void end() {
+
+            flights.remove(key, this);
+            done.countDown();
+        }
+    }
+
+    /**
+     * What a follower does after waiting: send the leader's response, lead a new flight, or neither and go upstream
+     * on its own.
+     */
+    public static final class Outcome {
+
+        private static final Outcome ALONE = new Outcome(null, null);
+
+        private final CoalescedResponse response;
+        private final Flight flight;
+
+        private Outcome(CoalescedResponse response, Flight flight) {
+
+            this.response = response;
+            this.flight = flight;
+        }
+
+        /**
+         * The leader's response, or {@code null} if the request goes upstream.
+         */
+        public CoalescedResponse getResponse() {
+
+            return response;
+        }
+
+        /**
+         * The flight the request now leads, or {@code null} if it does not lead one.
+         */
+        public Flight getFlight() {
+
+            return flight;
+        }
+    }
+
+    /**
+     * Response of a flight's leader.
+     */
+    public static final class CoalescedResponse {
+
+        private final int statusCode;
+        private final String contentType;
+        private final String body;
+
+        private CoalescedResponse(int statusCode, String contentType, String body) {
+
+            this.statusCode = statusCode;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public int getStatusCode() {
+
+            return statusCode;
+        }
+
+        public String getContentType() {
+
+            return contentType;
+        }
+
+        public String getBody() {
+
+            return body;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traces of AI API requests across the routing, request change and AI API mediation stages, in the OpenTelemetry
+ * span model.
+ * <p>
+ * A share of {@code ai.tracing.sampleRate} of the requests is traced; a request arriving with a sampled W3C
+ * {@code traceparent} is traced as part of the caller's trace. A traced request has a root span
+ * {@code ai.request}, child spans for the stages that ran ({@code ai.route.classify}, {@code ai.route.select},
+ * {@code ai.change.resolve}, {@code ai.change.translate}, {@code ai.rewrite}) and one {@code ai.upstream} span
+ * per upstream attempt, failover hops included. The {@code traceparent} of the current attempt is sent upstream.
+ * <p>
+ * Finished spans go to the exporter named by {@code ai.tracing.exporter}: {@code file} writes them as OTLP JSON
+ * spans, one per line, to {@code ai.tracing.file} from a background thread, and {@code none} drops them. With
+ * tracing off, or for a request that is not sampled, every call returns the shared {@link Span#NOOP} and nothing
+ * is allocated.
+ */
+public final class RequestTracer {
+
+    /**
+     * Message context property holding the root span of the request.
+     */
+    public static final String ROOT_SPAN = "AI_TRACE_ROOT_SPAN";
+
+    /**
+     * Message context property holding the span of the current upstream attempt.
+     */
+    public static final String UPSTREAM_SPAN = "AI_TRACE_UPSTREAM_SPAN";
+
+    static final String TRACEPARENT = "traceparent";
+
+    private static final Log log = LogFactory.getLog(RequestTracer.class);
+
+    private static final RequestTracer INSTANCE = new RequestTracer(
+            sampleRateProperty(),
+            System.getProperty("ai.tracing.exporter", "file"),
+            System.getProperty("ai.tracing.file", defaultFile()),
+            Integer.getInteger("ai.tracing.queueSize", 4096));
+
+    private final double sampleRate;
+    private final BlockingQueue<Span> queue;
+    private final LongAdder exported = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    RequestTracer(double sampleRate, String exporter, String file, int queueSize) {
+
+        this.sampleRate = Math.max(0.0d, Math.min(1.0d, sampleRate));
+        if (this.sampleRate > 0 && "file".equalsIgnoreCase(exporter)) {
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+            Path path = Paths.get(file);
+            Thread thread = new Thread(() -> drain(path), "ai-trace-exporter");
+            thread.setDaemon(true);
+            thread.start();
+            log.info("Tracing " + this.sampleRate + " of AI API requests to " + path);
+        } else {
+            this.queue = null;
+        }
+    }
+
+    public static RequestTracer getInstance() {
+
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+
+        return sampleRate > 0;
+    }
+
+    /**
+     * Returns the root span of the request, starting it on first use. The sampling decision is kept on the
+     * message context, so every stage of a request sees the same decision.
+     *
+     * @param messageContext The message context of the request.
+     * @return The root span, or {@link Span#NOOP} if the request is not traced.
+     */
+    public Span root(MessageContext messageContext) {
+
+        if (sampleRate <= 0) {
+            return Span.NOOP;
+        }
+        Object current = messageContext.getProperty(ROOT_SPAN);
+        if (current instanceof Span) {
+            return (Span) current;
+        }
+        Span root = Span.NOOP;
+        String traceparent = getHeader(messageContext, TRACEPARENT);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (isValidTraceparent(traceparent)) {
+            if ((Character.digit(traceparent.charAt(54), 16) & 1) == 1) {
+                root = new Span(this, "ai.request", Long.parseUnsignedLong(traceparent.substring(3, 19), 16),
+                        Long.parseUnsignedLong(traceparent.substring(19, 35), 16),
+                        Long.parseUnsignedLong(traceparent.substring(36, 52), 16));
+            }
+        } else if (random.nextDouble() < sampleRate) {
+            root = new Span(this, "ai.request", random.nextLong(), random.nextLong(), 0L);
+        }
+        messageContext.setProperty(ROOT_SPAN, root);
+        return root;
+    }
+
+    /**
+     * Starts a span for a mediation stage as a child of the request's root span.
+     *
+     * @param messageContext The message context of the request.
+     * @param name           The name of the stage.
+     * @return The started span, or {@link Span#NOOP} if the request is not traced.
+     */
+    public Span startSpan(MessageContext messageContext, String name) {
+
+        Span root = root(messageContext);
+        return root.isRecording() ? root.child(name) : Span.NOOP;
+    }
+
+    /**
+     * Starts the span of an upstream attempt and sends its trace context with the request. Called when the in
+     * flow hands the request to the endpoint and again before every failover hop.
+     *
+     * @param messageContext The message context of the request.
+     * @param endpointId     The ID of the endpoint the request is sent to.
+     * @param failoverIndex  The failover index of the attempt, 0 for the first attempt.
+     */
+    public void startUpstream(MessageContext messageContext, String endpointId, int failoverIndex) {
+
+        Span root = root(messageContext);
+        if (!root.isRecording()) {
+            return;
+        }
+        Span upstream = root.child("ai.upstream");
+        upstream.setAttribute("ai.endpoint", endpointId);
+        upstream.setAttribute("ai.failover_index", failoverIndex);
+        messageContext.setProperty(UPSTREAM_SPAN, upstream);
+        Object headers = ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS);
+        if (headers instanceof Map) {
+            ((Map<String, Object>) headers).put(TRACEPARENT, upstream.traceparent());
+        }
+    }
+
+    /**
+     * Ends the span of the current upstream attempt with the outcome of its response.
+     *
+     * @param messageContext   The message context of the response.
+     * @param endpointId       The ID of the endpoint that served the response.
+     * @param model            The model that served the response.
+     * @param statusCode       The upstream status code.
+     * @param completionTokens The output tokens of the response, or a negative number if not known.
+     */
+    public void endUpstream(MessageContext messageContext, String endpointId, String model, int statusCode,
+                            long completionTokens) {
+
+        Object current = messageContext.getProperty(UPSTREAM_SPAN);
+        if (!(current instanceof Span)) {
+            return;
+        }
+        Span upstream = (Span) current;
+        upstream.setAttribute("ai.endpoint", endpointId);
+        upstream.setAttribute("ai.model", model);
+        upstream.setAttribute("http.response.status_code", statusCode);
+        if (completionTokens >= 0) {
+            upstream.setAttribute("ai.completion_tokens", completionTokens);
+        }
+        if (statusCode >= 400) {
+            upstream.setError("HTTP " + statusCode);
+        }
+        upstream.end();
+        messageContext.setProperty(UPSTREAM_SPAN, null);
+    }
+
+    /**
+     * Ends the request's root span once the response leaves for the client.
+     *
+     * @param messageContext The message context of the response.
+     */
+    public void endRequest(MessageContext messageContext) {
+
+        if (sampleRate <= 0) {
+            return;
+        }
+        Object current = messageContext.getProperty(ROOT_SPAN);
+        if (current instanceof Span && ((Span) current).isRecording()) {
+            Span root = (Span) current;
+            Object promptTokens = messageContext.getProperty(TokenEstimator.PROMPT_TOKENS);
+            if (promptTokens instanceof Integer) {
+                root.setAttribute("ai.prompt_tokens_estimate", (Integer) promptTokens);
+            }
+            Object category = messageContext.getProperty(LLMRouteMediator.CATEGORY);
+            if (category instanceof String) {
+                root.setAttribute("ai.category", (String) category);
+            }
+            root.end();
+        }
+    }
+
+    public long getExported() {
+
+        return exported.sum();
+    }
+
+    public long getDropped() {
+
+        return dropped.sum();
+    }
+
+    private void export(Span span) {
+
+        if (queue != null && !queue.offer(span)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain(Path path) {
+
+        BufferedWriter writer = null;
+        while (true) {
+            try {
+                Span span = queue.poll(1, TimeUnit.SECONDS);
+                if (span == null) {
+                    if (writer != null) {
+                        writer.flush();
+                    }
+                    continue;
+                }
+                if (writer == null) {
+                    Files.createDirectories(path.toAbsolutePath().getParent());
+                    writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                            StandardOpenOption.APPEND);
+                }
+                span.write(writer);
+                writer.write('\n');
+                exported.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not export span to " + path + ": " + e.getMessage());
+                writer = null;
+            }
+        }
+    }
+
+    private static String getHeader(MessageContext messageContext, String name) {
+
+        Object headers = ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS);
+        if (headers instanceof Map) {
+            Object value = ((Map<?, ?>) headers).get(name);
+            return value instanceof String ? (String) value : null;
+        }
+        return null;
+    }
+
+    static boolean isValidTraceparent(String traceparent) {
+
+        if (traceparent == null || traceparent.length() != 55 || !traceparent.startsWith("00-")
+                || traceparent.charAt(35) != '-' || traceparent.charAt(52) != '-') {
+            return false;
+        }
+        for (int i = 3; i < 55; i++) {
+            char c = traceparent.charAt(i);
+            if (i != 35 && i != 52 && Character.digit(c, 16) < 0) {
+                return false;
+            }
+        }
+        // All zero trace and parent IDs are invalid
+        return !traceparent.startsWith("00-00000000000000000000000000000000-")
+                && !traceparent.regionMatches(36, "0000000000000000", 0, 16);
+    }
+
+    /**
+     * Reads {@code ai.tracing.sampleRate}. A value that is not a number disables sampling with a warning, since
+     * failing the class initialisation would fail every AI API.
+     */
+    private static double sampleRateProperty() {
+
+        String value = System.getProperty("ai.tracing.sampleRate");
+        if (value == null || value.trim().isEmpty()) {
+            return 0.0d;
+        }
+        try {
+            double sampleRate = Double.parseDouble(value.trim());
+            if (!Double.isNaN(sampleRate)) {
+                return sampleRate;
+            }
+        } catch (NumberFormatException e) {
+            // Warned below
+        }
+        log.warn("Invalid trace sample rate " + value + ", requests are not traced");
+        return 0.0d;
+    }
+
+    private static String defaultFile() {
+
+        String carbonHome = System.getProperty("carbon.home");
+        return carbonHome != null ? Paths.get(carbonHome, "repository", "logs", "ai-traces.jsonl").toString()
+                : Paths.get(System.getProperty("java.io.tmpdir"), "ai-traces.jsonl").toString();
+    }
+
+    /**
+     * A timed operation of a traced request. Methods of {@link #NOOP} do nothing, so that untraced requests cost
+     * no more than the calls.
+     */
+    public static final class Span {
+
+        /**
+         * The span of requests that are not traced.
+         */
+        public static final Span NOOP = new Span(null, null, 0L, 0L, 0L);
+
+        private static final int MAX_ATTRIBUTES = 16;
+
+        private final RequestTracer tracer;
+        private final String name;
+        private final long traceIdHigh;
+        private final long traceIdLow;
+        private final long spanId;
+        private final long parentSpanId;
+        // Children share the root's clock offset, so that their times are consistent within the trace
+        private final long epochOffsetNanos;
+        private final long startNanos;
+        private long endNanos;
+        private String[] attributeKeys;
+        private Object[] attributeValues;
+        private int attributeCount;
+        private String error;
+        private boolean ended;
+
+        private Span(RequestTracer tracer, String name, long traceIdHigh, long traceIdLow, long parentSpanId) {
+
+            this(tracer, name, traceIdHigh, traceIdLow, parentSpanId,
+                    tracer != null ? TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime()
+                            : 0L);
+        }
+
+        private Span(RequestTracer tracer, String name, long traceIdHigh, long traceIdLow, long parentSpanId,
+                     long epochOffsetNanos) {
+
+            this.tracer = tracer;
+            this.name = name;
+            this.traceIdHigh = traceIdHigh;
+            this.traceIdLow = traceIdLow;
+            this.parentSpanId = parentSpanId;
+            this.epochOffsetNanos = epochOffsetNanos;
+            this.spanId = tracer != null ? ThreadLocalRandom.current().nextLong() | 1L : 0L;
+            this.startNanos = tracer != null ? System.nanoTime() : 0L;
+        }
+
+        public boolean isRecording() {
+
+            return tracer != null;
+        }
+
+        public Span setAttribute(String key, String value) {
+
+            if (tracer != null && value != null) {
+                put(key, value);
+            }
+            return this;
+        }
+
+        public Span setAttribute(String key, long value) {
+
+            if (tracer != null) {
+                put(key, value);
+            }
+            return this;
+        }
+
+        /**
+         * Marks the operation as failed.
+         */
+        public Span setError(String description) {
+
+            if (tracer != null) {
+                error = description != null ? description : "";
+            }
+            return this;
+        }
+
+        /**
+         * Ends the span and hands it to the exporter. Ending a span again has no effect.
+         */
+        public void end() {
+
+            if (tracer == null) {
+                return;
+            }
+            synchronized (this) {
+                if (ended) {
+                    return;
+                }
+                ended = true;
+                endNanos = System.nanoTime();
+            }
+            tracer.export(this);
+        }
+
+        Span child(String childName) {
+
+            return new Span(tracer, childName, traceIdHigh, traceIdLow, spanId, epochOffsetNanos);
+        }
+
+        String traceparent() {
+
+            return "00-" + hex(traceIdHigh) + hex(traceIdLow) + "-" + hex(spanId) + "-01";
+        }
+
+        private synchronized void put(String key, Object value) {
+
+            if (attributeKeys == null) {
+                attributeKeys = new String[4];
+                attributeValues = new Object[4];
+            }
+            for (int i = 0; i < attributeCount; i++) {
+                if (attributeKeys[i].equals(key)) {
+                    attributeValues[i] = value;
+                    return;
+                }
+            }
+            if (attributeCount == MAX_ATTRIBUTES) {
+                return;
+            }
+            if (attributeCount == attributeKeys.length) {
+                attributeKeys = Arrays.copyOf(attributeKeys, attributeCount * 2);
+                attributeValues = Arrays.copyOf(attributeValues, attributeCount * 2);
+            }
+            attributeKeys[attributeCount] = key;
+            attributeValues[attributeCount++] = value;
+        }
+
+        private synchronized void write(Writer out) throws IOException {
+
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject()
+                    .name("traceId").value(hex(traceIdHigh) + hex(traceIdLow))
+                    .name("spanId").value(hex(spanId));
+            if (parentSpanId != 0L) {
+                json.name("parentSpanId").value(hex(parentSpanId));
+            }
+            json.name("name").value(name)
+                    .name("kind").value("ai.upstream".equals(name) ? "SPAN_KIND_CLIENT" : "SPAN_KIND_INTERNAL")
+                    .name("startTimeUnixNano").value(Long.toString(epochOffsetNanos + startNanos))
+                    .name("endTimeUnixNano").value(Long.toString(epochOffsetNanos + endNanos));
+            json.name("attributes").beginArray();
+            for (int i = 0; i < attributeCount; i++) {
+                json.beginObject().name("key").value(attributeKeys[i]).name("value").beginObject();
+                if (attributeValues[i] instanceof Long) {
+                    // OTLP JSON carries 64 bit integers as strings
+                    json.name("intValue").value(attributeValues[i].toString());
+                } else {
+                    json.name("stringValue").value((String) attributeValues[i]);
+                }
+                json.endObject().endObject();
+            }
+            json.endArray();
+            json.name("status").beginObject();
+            if (error != null) {
+                json.name("code").value("STATUS_CODE_ERROR").name("message").value(error);
+            } else {
+                json.name("code").value("STATUS_CODE_UNSET");
+            }
+            json.endObject().endObject();
+            json.flush();
+        }
+
+        private static String hex(long value) {
+
+            String hex = Long.toHexString(value);
+            return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+        }
+    }
+}
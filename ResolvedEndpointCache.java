@@ -0,0 +1,151 @@
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.wso2.carbon.apimgt.api.model.LLMProviderInfo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Per endpoint ID cache of what RequestChangeMediator resolves for an endpoint: the provider,
+ * the endpoint URL and the names of the properties that may carry the endpoint's API key.
+ * <p>
+ * Entries expire after {@code ai.request.change.resolution.ttlMs} milliseconds (1 minute by default), and are
+ * dropped with {@link #invalidate(String)} when a RequestChangeMediator targeting the endpoint is destroyed or
+ * reconfigured, which happens when API Manager redeploys the API after an endpoint or key change. The API key
+ * itself is not cached, nor where it was found, since it is looked up per request.
+ */
+public final class ResolvedEndpointCache {
+
+    private static final long DEFAULT_TTL_MILLIS = 60 * 1000L;
+    private static final ResolvedEndpointCache INSTANCE =
+            new ResolvedEndpointCache(Long.getLong("ai.request.change.resolution.ttlMs", DEFAULT_TTL_MILLIS));
+
+    private final long ttlMillis;
+    private final Map<String, ResolvedEndpoint> entries = new ConcurrentHashMap<>();
+
+    ResolvedEndpointCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static ResolvedEndpointCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the resolution of the endpoint, running the resolver if there is no live entry.
+     * Resolutions without an endpoint URL are returned but not cached so they are retried.
+     */
+    ResolvedEndpoint resolve(String endpointId, Function<String, ResolvedEndpoint> resolver) {
+        long now = System.currentTimeMillis();
+        ResolvedEndpoint resolved = entries.get(endpointId);
+        if (resolved != null && resolved.expiresAt > now) {
+            return resolved;
+        }
+        resolved = resolver.apply(endpointId);
+        if (resolved == null || resolved == ResolvedEndpoint.UNAVAILABLE) {
+            return resolved;
+        }
+        resolved.expiresAt = now + ttlMillis;
+        if (resolved.getEndpointUrl() != null) {
+            entries.put(endpointId, resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * Drops the cached resolution of an endpoint, e.g. after its URL or API key changed in API Manager.
+     */
+    public void invalidate(String endpointId) {
+        entries.remove(endpointId);
+    }
+
+    /**
+     * Drops every cached resolution, e.g. after an LLM provider configuration changed in API Manager.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Resolved provider, URL and API key properties of one endpoint.
+     */
+    static final class ResolvedEndpoint {
+
+        /**
+         * Result of a resolution that did not complete within its time budget or was shed, never cached.
+         */
+        static final ResolvedEndpoint UNAVAILABLE = new ResolvedEndpoint();
+
+        private final String endpointId;
+        private final LLMProviderInfo provider;
+        private final String providerKey;
+        private final String endpointUrl;
+        private final String[] apiKeyProperties;
+        private volatile ProviderAuthHeaders.HeaderBlock headerBlock;
+        private volatile long expiresAt;
+
+        private ResolvedEndpoint() {
+            this.endpointId = null;
+            this.provider = null;
+            this.providerKey = null;
+            this.endpointUrl = null;
+            this.apiKeyProperties = new String[0];
+        }
+
+        /**
+         * @param endpointId   The endpoint ID.
+         * @param provider     The provider serving the endpoint.
+         * @param endpointUrl  The endpoint URL, or {@code null} if it could not be resolved.
+         * @param providerType The provider type derived from the endpoint ID, used for provider wide API keys.
+         */
+        ResolvedEndpoint(String endpointId, LLMProviderInfo provider, String endpointUrl, String providerType) {
+            this.endpointId = endpointId;
+            this.provider = provider;
+            this.providerKey = provider.getName().toLowerCase();
+            this.endpointUrl = endpointUrl;
+            this.apiKeyProperties = new String[]{"ENDPOINT_API_KEY_" + endpointId,
+                    "API_KEY_" + providerType.toUpperCase(), "API_KEY"};
+        }
+
+        String getEndpointId() {
+            return endpointId;
+        }
+
+        LLMProviderInfo getProvider() {
+            return provider;
+        }
+
+        /**
+         * Lower-cased provider name used to pick the request template and auth header scheme.
+         */
+        String getProviderKey() {
+            return providerKey;
+        }
+
+        String getEndpointUrl() {
+            return endpointUrl;
+        }
+
+        /**
+         * Message context properties that may carry the endpoint's API key, in order of precedence: the
+         * endpoint's own key, the provider wide key and the generic key. The key held in DataHolder precedes
+         * them all.
+         */
+        String[] getApiKeyProperties() {
+            return apiKeyProperties;
+        }
+
+        /**
+         * Returns the provider headers for the given API key, building them only when the key changes.
+         */
+        ProviderAuthHeaders.HeaderBlock getHeaderBlock(String apiKey) {
+            ProviderAuthHeaders.HeaderBlock block = headerBlock;
+            if (block == null || !block.isFor(apiKey)) {
+                block = ProviderAuthHeaders.forProvider(providerKey).build(apiKey);
+                headerBlock = block;
+            }
+            return block;
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Gateway wide exact-match cache of AI API responses.
+ * <p>
+ * Entries are keyed by a SHA-256 digest of the API, the consumer, the target endpoint and model, and the canonical
+ * form of the final request payload (object keys sorted, numbers normalised, insignificant whitespace removed), so requests
+ * that differ only in formatting share an entry. Bodies are deflate-compressed and held in direct buffers outside
+ * the Java heap. The cache is bounded by the compressed bytes it holds ({@code ai.response.cache.maxBytes},
+ * 64 MB by default) and evicts least recently used entries first. Each entry carries the TTL of the API policy
+ * that stored it. The cache is off unless an API policy enables it, and entries are private to the consuming
+ * application (or user) unless the policy explicitly shares them across consumers.
+ */
+public final class ResponseCache {
+
+    /**
+     * Request header with which a client opts in to ({@code true}) or out of ({@code false}) the cache.
+     */
+    public static final String CACHE_HEADER = "X-AI-Cache";
+    /**
+     * Response header marking responses served from the cache.
+     */
+    public static final String CACHE_STATUS_HEADER = "X-AI-Cache-Status";
+    /**
+     * Message context property holding the cache key of a request that missed the cache.
+     */
+    public static final String CACHE_KEY = "AI_RESPONSE_CACHE_KEY";
+    /**
+     * Message context property holding the TTL in milliseconds with which the response should be stored.
+     */
+    public static final String CACHE_TTL = "AI_RESPONSE_CACHE_TTL";
+
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int ENTRY_OVERHEAD = 256;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ResponseCache INSTANCE =
+            new ResponseCache(Long.getLong("ai.response.cache.maxBytes", DEFAULT_MAX_BYTES));
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResponseCache(long maxBytes) {
+
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.max(1024L, maxBytes / 16);
+    }
+
+    public static ResponseCache getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Cache policy of an API, set on {@code AIAPIMediator}.
+     */
+    public enum Mode {
+        /**
+         * The cache is not used. This is the default.
+         */
+        OFF,
+        /**
+         * Only requests carrying {@code X-AI-Cache: true} are cached.
+         */
+        OPT_IN,
+        /**
+         * Requests with a temperature of 0 and requests opting in with the header are cached.
+         */
+        DETERMINISTIC,
+        /**
+         * Requests are cached as in {@link #DETERMINISTIC}, and single turn requests missing the exact match cache
+         * are also looked up in the {@link SemanticResponseCache}.
+         */
+        SEMANTIC;
+
+        public static Mode parse(String value) {
+
+            if (value == null || value.trim().isEmpty()) {
+                return OFF;
+            }
+            String normalized = value.trim().replace("-", "_").replace(" ", "_");
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(normalized) || mode.name().replace("_", "")
+                        .equalsIgnoreCase(normalized)) {
+                    return mode;
+                }
+            }
+            return OFF;
+        }
+    }
+
+    /**
+     * Decides whether a request is cacheable under the given policy.
+     *
+     * @param mode        The API cache policy.
+     * @param cacheHeader The value of the {@code X-AI-Cache} request header, may be {@code null}.
+     * @param request     The parsed request payload.
+     * @return {@code true} if the response may be served from and stored in the cache.
+     */
+    public static boolean isCacheable(Mode mode, String cacheHeader, JsonObject request) {
+
+        if (mode == Mode.OFF || "false".equalsIgnoreCase(cacheHeader) || isStreaming(request)) {
+            return false;
+        }
+        if ("true".equalsIgnoreCase(cacheHeader)) {
+            return true;
+        }
+        // Sampled responses are not reused, whether the match is exact or semantic
+        return mode != Mode.OPT_IN && hasZeroTemperature(request);
+    }
+
+    /**
+     * Builds the cache key of a request.
+     *
+     * @param apiKey       The API key as returned by {@code GatewayUtils.getAPIKeyForEndpoints}.
+     * @param consumer     The application ID or user the entry is private to, or {@code null} for an entry shared
+     *                     by all consumers of the API.
+     * @param endpointId   The target endpoint ID, may be {@code null}.
+     * @param model        The target model, may be {@code null}.
+     * @param clientSchema The schema the client sent a changed request in, or {@code null} for requests that are
+     *                     not changed. Responses of changed requests are stored translated into this schema.
+     * @param request      The parsed final request payload.
+     * @return The hex encoded key.
+     */
+    public static String key(String apiKey, String consumer, String endpointId, String model, String clientSchema,
+                             JsonObject request) throws IOException {
+
+        StringWriter canonical = new StringWriter(256);
+        // A shared entry has no consumer line, so it can never collide with the entry of a consumer
+        canonical.append(apiKey).append('\n');
+        if (consumer != null) {
+            canonical.append("consumer:").append(consumer).append('\n');
+        }
+        canonical.append(String.valueOf(endpointId)).append('\n').append(String.valueOf(model)).append('\n');
+        if (clientSchema != null) {
+            canonical.append("client:").append(clientSchema).append('\n');
+        }
+        JsonWriter writer = new JsonWriter(canonical);
+        writeCanonical(writer, request);
+        writer.flush();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Parses a request payload for {@link #isCacheable} and {@link #key}.
+     *
+     * @return The payload object, or {@code null} if the payload is not a JSON object.
+     */
+    public static JsonObject parseRequest(String payload) {
+
+        if (payload == null) {
+            return null;
+        }
+        try {
+            JsonElement parsed = JsonParser.parseString(payload);
+            return parsed.isJsonObject() ? parsed.getAsJsonObject() : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the live entry of the key.
+     *
+     * @param key The cache key.
+     * @return The cached response, or {@code null} on a miss.
+     */
+    public CachedResponse get(String key) {
+
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= now) {
+                remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.toResponse();
+    }
+
+    /**
+     * Stores a response.
+     *
+     * @param key         The cache key.
+     * @param statusCode  The HTTP status code.
+     * @param contentType The content type.
+     * @param body        The response body.
+     * @param ttlMillis   How long the entry stays valid.
+     */
+    public void put(String key, int statusCode, String contentType, String body, long ttlMillis) {
+
+        if (ttlMillis <= 0 || body == null) {
+            return;
+        }
+        byte[] compressed = deflate(body.getBytes(StandardCharsets.UTF_8));
+        long size = compressed.length + ENTRY_OVERHEAD;
+        if (size > maxEntryBytes) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(compressed.length);
+        buffer.put(compressed).flip();
+        Entry entry = new Entry(statusCode, contentType, buffer, body.length(), size,
+                System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, entry);
+            usedBytes += size;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (usedBytes > maxBytes && eldest.hasNext()) {
+                usedBytes -= eldest.next().getValue().size;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drops every entry, e.g. after an API's model configuration changed.
+     */
+    public void clear() {
+
+        synchronized (entries) {
+            entries.clear();
+            usedBytes = 0;
+        }
+    }
+
+    public long getHits() {
+
+        return hits.sum();
+    }
+
+    public long getMisses() {
+
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+
+        return evictions.sum();
+    }
+
+    public long getUsedBytes() {
+
+        synchronized (entries) {
+            return usedBytes;
+        }
+    }
+
+    private void remove(String key) {
+
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            usedBytes -= previous.size;
+        }
+    }
+
+    static boolean isStreaming(JsonObject request) {
+
+        JsonElement stream = request.get("stream");
+        return stream != null && stream.isJsonPrimitive() && stream.getAsJsonPrimitive().isBoolean()
+                && stream.getAsBoolean();
+    }
+
+    static boolean hasZeroTemperature(JsonObject request) {
+
+        JsonElement temperature = request.get("temperature");
+        if (temperature == null && request.get("generationConfig") instanceof JsonObject) {
+            temperature = request.getAsJsonObject("generationConfig").get("temperature");
+        }
+        return temperature != null && temperature.isJsonPrimitive() && temperature.getAsJsonPrimitive().isNumber()
+                && temperature.getAsDouble() == 0.0d;
+    }
+
+    private static void writeCanonical(JsonWriter writer, JsonElement element) throws IOException {
+
+        if (element == null || element.isJsonNull()) {
+            writer.nullValue();
+        } else if (element.isJsonObject()) {
+            List<String> names = new ArrayList<>(element.getAsJsonObject().keySet());
+            Collections.sort(names);
+            writer.beginObject();
+            for (String name : names) {
+                writer.name(name);
+                writeCanonical(writer, element.getAsJsonObject().get(name));
+            }
+            writer.endObject();
+        } else if (element.isJsonArray()) {
+            writer.beginArray();
+            for (JsonElement item : (JsonArray) element) {
+                writeCanonical(writer, item);
+            }
+            writer.endArray();
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isNumber()) {
+                // 1, 1.0 and 1e0 are the same value
+                writer.jsonValue(new BigDecimal(primitive.getAsString()).stripTrailingZeros().toPlainString());
+            } else if (primitive.isBoolean()) {
+                writer.value(primitive.getAsBoolean());
+            } else {
+                writer.value(primitive.getAsString());
+            }
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static final class Entry {
+
+        private final int statusCode;
+        private final String contentType;
+        private final ByteBuffer body;
+        private final int bodyLength;
+        private final long size;
+        private final long expiresAt;
+
+        private Entry(int statusCode, String contentType, ByteBuffer body, int bodyLength, long size,
+                      long expiresAt) {
+
+            this.statusCode = statusCode;
+            this.contentType = contentType;
+            this.body = body;
+            this.bodyLength = bodyLength;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+
+        private CachedResponse toResponse() {
+
+            ByteBuffer view = body.duplicate();
+            byte[] compressed = new byte[view.remaining()];
+            view.get(compressed);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(bodyLength);
+                byte[] chunk = new byte[8192];
+                while (!inflater.finished()) {
+                    int read = inflater.inflate(chunk);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    out.write(chunk, 0, read);
+                }
+                return new CachedResponse(statusCode, contentType,
+                        new String(out.toByteArray(), StandardCharsets.UTF_8));
+            } catch (DataFormatException e) {
+                return null;
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Response served from the cache.
+     */
+    public static final class CachedResponse {
+
+        private final int statusCode;
+        private final String contentType;
+        private final String body;
+
+        private CachedResponse(int statusCode, String contentType, String body) {
+
+            this.statusCode = statusCode;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public int getStatusCode() {
+
+            return statusCode;
+        }
+
+        public String getContentType() {
+
+            return contentType;
+        }
+
+        public String getBody() {
+
+            return body;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonObject;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gateway wide semantic cache of AI API responses, serving paraphrases of earlier prompts.
+ * <p>
+ * Only single turn requests (one user message, no tools) are considered. The user message is embedded with the
+ * configured {@link EmbeddingProvider} and looked up in an HNSW index of the namespace of the request, which is the
+ * API, consumer, target endpoint, model and system prompt, so responses never cross APIs, consumers (unless the API
+ * shares its cache) or system prompts. A match at or
+ * above the API's similarity threshold is a hit. Response bodies live in a private {@link ResponseCache} (deflated,
+ * off-heap and byte bounded by {@code ai.semantic.cache.maxBytes}); each namespace keeps at most
+ * {@code ai.semantic.cache.maxEntries} vectors and drops its oldest first.
+ * <p>
+ * If {@code ai.semantic.cache.snapshotDir} is set, live entries are written to a snapshot every
+ * {@code ai.semantic.cache.snapshotIntervalMs} and loaded again on start, so a restarted gateway is warm.
+ */
+public final class SemanticResponseCache {
+
+    /**
+     * Message context property holding the namespace of a request that missed the cache.
+     */
+    public static final String NAMESPACE = "AI_SEMANTIC_CACHE_NAMESPACE";
+    /**
+     * Message context property holding the embedded prompt of a request that missed the cache.
+     */
+    public static final String PROMPT = "AI_SEMANTIC_CACHE_PROMPT";
+
+    private static final Log log = LogFactory.getLog(SemanticResponseCache.class);
+    private static final int SNAPSHOT_MAGIC = 0x41495343;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT_FILE = "semantic-response-cache.bin";
+    private static final int MAX_CONNECTIONS = 16;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 64;
+
+    private static final SemanticResponseCache INSTANCE = new SemanticResponseCache(loadEmbeddingProvider(),
+            Long.getLong("ai.semantic.cache.maxBytes", 32L * 1024 * 1024),
+            Integer.getInteger("ai.semantic.cache.maxEntries", 10000),
+            Integer.getInteger("ai.semantic.cache.maxNamespaces", 1024),
+            System.getProperty("ai.semantic.cache.snapshotDir"),
+            Long.getLong("ai.semantic.cache.snapshotIntervalMs", 300000L));
+
+    private final EmbeddingProvider embeddingProvider;
+    private final ResponseCache bodies;
+    private final int maxEntries;
+    private final int maxNamespaces;
+    private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Path snapshot;
+
+    SemanticResponseCache(EmbeddingProvider embeddingProvider, long maxBytes, int maxEntries, int maxNamespaces,
+                          String snapshotDir, long snapshotIntervalMillis) {
+
+        this.embeddingProvider = embeddingProvider;
+        this.bodies = new ResponseCache(maxBytes);
+        this.maxEntries = maxEntries;
+        this.maxNamespaces = maxNamespaces;
+        this.snapshot = snapshotDir != null && !snapshotDir.trim().isEmpty()
+                ? Paths.get(snapshotDir.trim(), SNAPSHOT_FILE) : null;
+        if (snapshot != null) {
+            load();
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ai-semantic-cache-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::saveQuietly, snapshotIntervalMillis, snapshotIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::saveQuietly, "ai-semantic-cache-shutdown"));
+        }
+    }
+
+    public static SemanticResponseCache getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Builds the namespace of a request.
+     *
+     * @param apiKey       The API key as returned by {@code GatewayUtils.getAPIKeyForEndpoints}.
+     * @param consumer     The application ID or user the namespace is private to, or {@code null} if shared.
+     * @param endpointId   The target endpoint ID, may be {@code null}.
+     * @param model        The target model, may be {@code null}.
+     * @param clientSchema The schema the client sent a changed request in, or {@code null} if not changed.
+     * @param system       The system prompt, may be {@code null}.
+     * @return The namespace.
+     */
+    public static String namespace(String apiKey, String consumer, String endpointId, String model,
+                                   String clientSchema, String system) throws IOException {
+
+        JsonObject scope = new JsonObject();
+        scope.addProperty("system", system);
+        return ResponseCache.key(apiKey, consumer, endpointId, model, clientSchema, scope);
+    }
+
+    /**
+     * Returns the prompt to embed if the request qualifies for the semantic cache.
+     *
+     * @param request The parsed chat request.
+     * @return The text of the single user message, or {@code null} if the request does not qualify.
+     */
+    static String promptOf(ChatRequestTranslator.ChatRequest request) {
+
+        if (request == null || request.isStream() || request.hasTools() || request.getMessages().size() != 1) {
+            return null;
+        }
+        ChatRequestTranslator.Message message = request.getMessages().get(0);
+        if (message.getRole() != ChatRequestTranslator.Role.USER) {
+            return null;
+        }
+        for (ChatRequestTranslator.Part part : message.getParts()) {
+            if (part.getType() != ChatRequestTranslator.PartType.TEXT) {
+                return null;
+            }
+        }
+        String text = message.text();
+        return text == null || text.trim().isEmpty() ? null : text;
+    }
+
+    /**
+     * Returns the cached response of the most similar earlier prompt of the namespace.
+     *
+     * @param namespace The namespace of the request.
+     * @param prompt    The prompt.
+     * @param threshold The minimum cosine similarity of a hit.
+     * @return The cached response, or {@code null} on a miss.
+     */
+    public ResponseCache.CachedResponse lookup(String namespace, String prompt, double threshold) {
+
+        Namespace entries = namespaces.get(namespace);
+        float[] vector = entries != null ? embeddingProvider.embed(prompt) : null;
+        HnswIndex.Match<Entry> match = vector != null ? entries.index.nearest(vector) : null;
+        if (match == null || match.getSimilarity() < threshold) {
+            misses.increment();
+            return null;
+        }
+        Entry entry = match.getNode().getValue();
+        ResponseCache.CachedResponse cached =
+                entry.expiresAt > System.currentTimeMillis() ? bodies.get(entry.bodyKey) : null;
+        if (cached == null) {
+            // Expired or evicted from the body store
+            entries.remove(match.getNode());
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached;
+    }
+
+    /**
+     * Stores the response of a prompt.
+     *
+     * @param namespace   The namespace of the request.
+     * @param prompt      The prompt.
+     * @param statusCode  The HTTP status code.
+     * @param contentType The content type.
+     * @param body        The response body.
+     * @param ttlMillis   How long the entry stays valid.
+     */
+    public void store(String namespace, String prompt, int statusCode, String contentType, String body,
+                      long ttlMillis) {
+
+        if (ttlMillis <= 0 || body == null) {
+            return;
+        }
+        float[] vector = embeddingProvider.embed(prompt);
+        if (vector != null) {
+            add(namespace, vector, statusCode, contentType, body, System.currentTimeMillis() + ttlMillis);
+        }
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public void clear() {
+
+        namespaces.clear();
+        bodies.clear();
+    }
+
+    public long getHits() {
+
+        return hits.sum();
+    }
+
+    public long getMisses() {
+
+        return misses.sum();
+    }
+
+    /**
+     * Returns the share of lookups that were hits, or 0 before the first lookup.
+     */
+    public double getHitRate() {
+
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0d : (double) hitCount / total;
+    }
+
+    public long getEvictions() {
+
+        return bodies.getEvictions();
+    }
+
+    public long getUsedBytes() {
+
+        return bodies.getUsedBytes();
+    }
+
+    /**
+     * Returns the number of live vectors over all namespaces.
+     */
+    public int size() {
+
+        int size = 0;
+        for (Namespace entries : namespaces.values()) {
+            size += entries.index.size();
+        }
+        return size;
+    }
+
+    private void add(String namespace, float[] vector, int statusCode, String contentType, String body,
+                     long expiresAt) {
+
+        Namespace entries = namespaces.get(namespace);
+        if (entries == null) {
+            if (namespaces.size() >= maxNamespaces) {
+                return;
+            }
+            entries = namespaces.computeIfAbsent(namespace, key -> new Namespace());
+        }
+        String bodyKey = Long.toString(nextId.incrementAndGet());
+        bodies.put(bodyKey, statusCode, contentType, body, expiresAt - System.currentTimeMillis());
+        entries.add(vector, new Entry(bodyKey, expiresAt), maxEntries);
+    }
+
+    private static EmbeddingProvider loadEmbeddingProvider() {
+
+        String className = System.getProperty("ai.semantic.cache.embeddingProvider");
+        if (className != null && !className.trim().isEmpty()) {
+            try {
+                return (EmbeddingProvider) Class.forName(className.trim()).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                log.error("Could not load embedding provider " + className
+                        + ", falling back to the hashed n-gram provider", e);
+            }
+        }
+        return new HashedNgramEmbeddingProvider();
+    }
+
+    private void saveQuietly() {
+
+        try {
+            save();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not write the semantic response cache snapshot to " + snapshot, e);
+        }
+    }
+
+    /**
+     * Writes the live entries to a temporary file and moves it over the snapshot.
+     */
+    synchronized void save() throws IOException {
+
+        Files.createDirectories(snapshot.getParent());
+        Path temporary = snapshot.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        long now = System.currentTimeMillis();
+        int written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(temporary))))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(embeddingProvider.getName());
+            out.writeInt(embeddingProvider.getDimensions());
+            for (Map.Entry<String, Namespace> namespace : namespaces.entrySet()) {
+                for (HnswIndex.Node<Entry> node : namespace.getValue().index.liveNodes()) {
+                    Entry entry = node.getValue();
+                    ResponseCache.CachedResponse cached = entry.expiresAt > now ? bodies.get(entry.bodyKey) : null;
+                    if (cached == null) {
+                        continue;
+                    }
+                    out.writeBoolean(true);
+                    out.writeUTF(namespace.getKey());
+                    for (float value : node.getVector()) {
+                        out.writeFloat(value);
+                    }
+                    out.writeLong(entry.expiresAt);
+                    out.writeInt(cached.getStatusCode());
+                    out.writeUTF(cached.getContentType());
+                    writeBytes(out, cached.getBody().getBytes(StandardCharsets.UTF_8));
+                    written++;
+                }
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (log.isDebugEnabled()) {
+            log.debug("Wrote " + written + " semantic response cache entries to " + snapshot);
+        }
+    }
+
+    private void load() {
+
+        if (!Files.isRegularFile(snapshot)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(snapshot))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                log.warn("Ignoring semantic response cache snapshot " + snapshot + " of an unknown format");
+                return;
+            }
+            String providerName = in.readUTF();
+            int dimensions = in.readInt();
+            if (!providerName.equals(embeddingProvider.getName()) || dimensions != embeddingProvider.getDimensions()) {
+                log.info("Ignoring semantic response cache snapshot " + snapshot + " written with embedding provider "
+                        + providerName);
+                return;
+            }
+            while (in.readBoolean()) {
+                String namespace = in.readUTF();
+                float[] vector = new float[dimensions];
+                for (int i = 0; i < dimensions; i++) {
+                    vector[i] = in.readFloat();
+                }
+                long expiresAt = in.readLong();
+                int statusCode = in.readInt();
+                String contentType = in.readUTF();
+                String body = new String(readBytes(in), StandardCharsets.UTF_8);
+                if (expiresAt > now) {
+                    add(namespace, vector, statusCode, contentType, body, expiresAt);
+                    loaded++;
+                }
+            }
+            log.info("Loaded " + loaded + " semantic response cache entries from " + snapshot);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read the semantic response cache snapshot " + snapshot, e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * The index of one namespace. Insertion order is kept for evicting the oldest entries.
+     */
+    private static final class Namespace {
+
+        private volatile HnswIndex<Entry> index = new HnswIndex<>(MAX_CONNECTIONS, EF_CONSTRUCTION, EF_SEARCH);
+        private final ArrayDeque<HnswIndex.Node<Entry>> insertionOrder = new ArrayDeque<>();
+
+        private synchronized void add(float[] vector, Entry entry, int maxEntries) {
+
+            insertionOrder.addLast(index.add(vector, entry));
+            while (index.size() > maxEntries && !insertionOrder.isEmpty()) {
+                index.remove(insertionOrder.pollFirst());
+            }
+            compactIfNeeded();
+        }
+
+        private synchronized void remove(HnswIndex.Node<Entry> node) {
+
+            if (node.isDeleted()) {
+                return;
+            }
+            index.remove(node);
+            compactIfNeeded();
+        }
+
+        private void compactIfNeeded() {
+
+            if (!index.needsCompaction()) {
+                return;
+            }
+            HnswIndex<Entry> compacted = index.compact();
+            List<HnswIndex.Node<Entry>> live = compacted.liveNodes();
+            insertionOrder.clear();
+            insertionOrder.addAll(live);
+            index = compacted;
+        }
+    }
+
+    private static final class Entry {
+
+        private final String bodyKey;
+        private final long expiresAt;
+
+        private Entry(String bodyKey, long expiresAt) {
+
+            this.bodyKey = bodyKey;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
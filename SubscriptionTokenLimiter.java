@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Token rate limits per subscription of an AI API, so that one consumer cannot spend the provider quota shared by
+ * all of them.
+ * <p>
+ * Each subscription, an application on an API, has a sliding window of {@code ai.tokenLimit.windowSeconds}
+ * (60 by default) made of {@value #SLICES} slices, each a striped counter, so concurrent requests of a busy
+ * subscription do not contend on one value. A request reserves its estimated prompt tokens plus the output tokens
+ * it asks for, capped at {@code ai.tokenLimit.outputReserve} (512 by default), and is rejected if the reservation
+ * does not fit the rest of the limit. The response reconciles the reservation with the tokens the provider
+ * reports, and every further upstream call of the request, such as a failover hop, adds its own usage. The check
+ * and the reservation are not atomic, so concurrent requests may overshoot the limit by their reservations, and
+ * an increment racing with the reuse of a slice may be lost; both err on the side of the consumer.
+ * <p>
+ * With {@code ai.tokenLimit.sync.enabled} and {@link EndpointHealthSync} enabled, each node publishes the tokens
+ * its subscriptions used every {@code ai.tokenLimit.sync.intervalMs} (1000 by default) and counts the usage
+ * published by the other nodes against the same limits. At most {@code ai.tokenLimit.maxSubscriptions} (100000
+ * by default) subscriptions are tracked; beyond that, subscriptions idle for a window are dropped and new ones
+ * are not limited until there is room.
+ */
+public final class SubscriptionTokenLimiter {
+
+    /**
+     * Message context property holding the {@link Reservation} of the request.
+     */
+    public static final String RESERVATION = "AI_TOKEN_RATE_RESERVATION";
+
+    private static final Log log = LogFactory.getLog(SubscriptionTokenLimiter.class);
+
+    private static final int SLICES = 12;
+
+    private static final SubscriptionTokenLimiter INSTANCE = new SubscriptionTokenLimiter(
+            Long.getLong("ai.tokenLimit.windowSeconds", 60L),
+            Integer.getInteger("ai.tokenLimit.outputReserve", 512),
+            Integer.getInteger("ai.tokenLimit.maxSubscriptions", 100_000),
+            Boolean.getBoolean("ai.tokenLimit.sync.enabled") ? EndpointHealthSync::getInstance : null,
+            Long.getLong("ai.tokenLimit.sync.intervalMs", 1000L));
+
+    private final long sliceMillis;
+    private final int outputReserve;
+    private final int maxSubscriptions;
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    SubscriptionTokenLimiter(long windowSeconds, int outputReserve, int maxSubscriptions,
+                             Supplier<EndpointHealthSync> sync, long syncIntervalMillis) {
+
+        this.sliceMillis = Math.max(1L, TimeUnit.SECONDS.toMillis(Math.max(1L, windowSeconds)) / SLICES);
+        this.outputReserve = Math.max(0, outputReserve);
+        this.maxSubscriptions = Math.max(1, maxSubscriptions);
+        if (sync != null) {
+            ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ai-token-limit-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = Math.max(100L, syncIntervalMillis);
+            publisher.scheduleAtFixedRate(() -> publishUsage(sync), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static SubscriptionTokenLimiter getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Reserves the tokens of a request against the limit of its subscription. A request is always admitted when
+     * the subscription has used nothing in the window, so a single request larger than the limit is not blocked
+     * forever.
+     *
+     * @param apiKey          The API key as returned by {@code GatewayUtils.getAPIKeyForEndpoints}.
+     * @param consumer        The application or user the subscription belongs to.
+     * @param limit           The tokens the subscription may use per window.
+     * @param promptTokens    The estimated prompt tokens, or a negative number if not known.
+     * @param maxOutputTokens The output tokens the request asks for, or 0 if it sets no limit.
+     * @return The decision; {@link Decision#getReservation()} is {@code null} if the request is rejected.
+     */
+    public Decision reserve(String apiKey, String consumer, long limit, int promptTokens, int maxOutputTokens) {
+
+        long now = System.currentTimeMillis();
+        Window window = window(apiKey, consumer, now);
+        if (window == null) {
+            return new Decision(new Reservation(null, 0L, 0L, sliceMillis), limit, limit, 0L);
+        }
+        long tokens = Math.max(0, promptTokens)
+                + (maxOutputTokens > 0 ? Math.min(maxOutputTokens, outputReserve) : outputReserve);
+        long epoch = now / sliceMillis;
+        long used = window.used(epoch);
+        if (used > 0 && used + tokens > limit) {
+            return new Decision(null, limit, Math.max(0L, limit - used),
+                    window.retryAfter(epoch, used + tokens - limit) * sliceMillis - now % sliceMillis);
+        }
+        window.add(epoch, tokens);
+        return new Decision(new Reservation(window, epoch, tokens, sliceMillis), limit,
+                Math.max(0L, limit - used - tokens), 0L);
+    }
+
+    /**
+     * Reconciles the reservation of a request with the tokens an upstream call actually used. The first call
+     * replaces the reservation, later calls of the same request add to it. Has no effect if the request holds no
+     * reservation.
+     *
+     * @param messageContext The message context of the request or response.
+     * @param usedTokens     The tokens the provider reported, or a negative number if it reported none, which
+     *                       keeps the reservation.
+     */
+    public static void reconcile(MessageContext messageContext, long usedTokens) {
+
+        Reservation reservation = (Reservation) messageContext.getProperty(RESERVATION);
+        if (reservation != null && usedTokens >= 0) {
+            reservation.reconcile(usedTokens);
+        }
+    }
+
+    /**
+     * Counts tokens another node reported for a subscription in the current slice. The other node's clock may be
+     * skewed, so its timestamps do not pick the slice.
+     *
+     * @param apiKey   The API key.
+     * @param consumer The application or user the subscription belongs to.
+     * @param tokens   The tokens used, negative when the other node reconciled a reservation downwards.
+     */
+    void applyRemote(String apiKey, String consumer, long tokens) {
+
+        long now = System.currentTimeMillis();
+        Window window = window(apiKey, consumer, now);
+        if (window != null) {
+            window.addRemote(now / sliceMillis, tokens);
+        }
+    }
+
+    private Window window(String apiKey, String consumer, long now) {
+
+        String key = apiKey + '\n' + consumer;
+        Window window = windows.get(key);
+        if (window == null) {
+            if (windows.size() >= maxSubscriptions) {
+                evictIdle(now);
+                if (windows.size() >= maxSubscriptions) {
+                    return null;
+                }
+            }
+            window = windows.computeIfAbsent(key, k -> new Window(apiKey, consumer));
+        }
+        window.lastUsed = now;
+        return window;
+    }
+
+    private void evictIdle(long now) {
+
+        long idleBefore = now - SLICES * sliceMillis;
+        for (Iterator<Window> iterator = windows.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().lastUsed < idleBefore) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void publishUsage(Supplier<EndpointHealthSync> syncSupplier) {
+
+        // The gateway instance is replaced when the mediators holding it are redeployed
+        EndpointHealthSync sync = syncSupplier.get();
+        if (!sync.isEnabled()) {
+            return;
+        }
+        try {
+            for (Window window : windows.values()) {
+                long tokens = window.unpublished.sumThenReset();
+                if (tokens != 0) {
+                    sync.publishSubscriptionTokens(window.apiKey, window.consumer, tokens);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not publish subscription token usage: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The outcome of a reservation.
+     */
+    public static final class Decision {
+
+        private final Reservation reservation;
+        private final long limit;
+        private final long remaining;
+        private final long retryAfterMillis;
+
+        private Decision(Reservation reservation, long limit, long remaining, long retryAfterMillis) {
+
+            this.reservation = reservation;
+            this.limit = limit;
+            this.remaining = remaining;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        /**
+         * Returns the reservation, or {@code null} if the request is rejected.
+         */
+        public Reservation getReservation() {
+
+            return reservation;
+        }
+
+        public long getLimit() {
+
+            return limit;
+        }
+
+        /**
+         * Returns the tokens left in the window after the request.
+         */
+        public long getRemaining() {
+
+            return remaining;
+        }
+
+        /**
+         * Returns how long a rejected request should wait for enough tokens to leave the window.
+         */
+        public long getRetryAfterMillis() {
+
+            return retryAfterMillis;
+        }
+    }
+
+    /**
+     * Tokens reserved by a request.
+     */
+    public static final class Reservation {
+
+        private final Window window;
+        private final long epoch;
+        private final long tokens;
+        private final long sliceMillis;
+        private boolean reconciled;
+
+        private Reservation(Window window, long epoch, long tokens, long sliceMillis) {
+
+            this.window = window;
+            this.epoch = epoch;
+            this.tokens = tokens;
+            this.sliceMillis = sliceMillis;
+        }
+
+        private synchronized void reconcile(long usedTokens) {
+
+            if (window == null) {
+                return;
+            }
+            long delta = reconciled ? usedTokens : usedTokens - tokens;
+            reconciled = true;
+            if (delta == 0) {
+                return;
+            }
+            // A correction belongs to the slice the tokens were reserved in, if that is still in the window
+            if (!window.add(epoch, delta) && delta > 0) {
+                window.add(System.currentTimeMillis() / sliceMillis, delta);
+            }
+        }
+    }
+
+    private static final class Window {
+
+        private final String apiKey;
+        private final String consumer;
+        private final AtomicLongArray epochs = new AtomicLongArray(SLICES);
+        private final LongAdder[] local = new LongAdder[SLICES];
+        private final LongAdder[] remote = new LongAdder[SLICES];
+        private final LongAdder unpublished = new LongAdder();
+        private volatile long lastUsed;
+
+        private Window(String apiKey, String consumer) {
+
+            this.apiKey = apiKey;
+            this.consumer = consumer;
+            for (int i = 0; i < SLICES; i++) {
+                epochs.set(i, -1L);
+                local[i] = new LongAdder();
+                remote[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Moves the slot of the epoch to it if it still holds an older epoch.
+         *
+         * @return The slot index, or -1 if the slot has moved on to a newer epoch.
+         */
+        private int slot(long epoch) {
+
+            int index = (int) (epoch % SLICES);
+            long current = epochs.get(index);
+            while (current < epoch) {
+                if (epochs.compareAndSet(index, current, epoch)) {
+                    local[index].reset();
+                    remote[index].reset();
+                    return index;
+                }
+                current = epochs.get(index);
+            }
+            return current == epoch ? index : -1;
+        }
+
+        private boolean add(long epoch, long tokens) {
+
+            int index = slot(epoch);
+            if (index < 0) {
+                return false;
+            }
+            local[index].add(tokens);
+            unpublished.add(tokens);
+            return true;
+        }
+
+        private void addRemote(long epoch, long tokens) {
+
+            int index = slot(epoch);
+            if (index >= 0) {
+                remote[index].add(tokens);
+            }
+        }
+
+        private long used(long epoch) {
+
+            long used = 0;
+            for (int i = 0; i < SLICES; i++) {
+                long sliceEpoch = epochs.get(i);
+                if (sliceEpoch > epoch - SLICES && sliceEpoch <= epoch) {
+                    used += local[i].sum() + remote[i].sum();
+                }
+            }
+            return Math.max(0L, used);
+        }
+
+        /**
+         * Returns in how many slices enough tokens leave the window to free the given amount, or a whole window if
+         * they never do.
+         */
+        private long retryAfter(long epoch, long overflow) {
+
+            long freed = 0;
+            for (long sliceEpoch = epoch - SLICES + 1; sliceEpoch <= epoch; sliceEpoch++) {
+                int index = (int) (sliceEpoch % SLICES);
+                if (epochs.get(index) == sliceEpoch) {
+                    freed += local[index].sum() + remote[index].sum();
+                }
+                if (freed >= overflow) {
+                    return sliceEpoch + SLICES - epoch;
+                }
+            }
+            return SLICES;
+        }
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.axis2.AxisFault;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.transport.passthru.util.RelayUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Local estimator of the prompt tokens of AI API requests, so that routing and limits can act before the call.
+ * <p>
+ * OpenAI model families are counted exactly with their byte pair encodings when the tiktoken rank files
+ * ({@code cl100k_base.tiktoken}, {@code o200k_base.tiktoken}) are present in the directory named by the
+ * {@code ai.tokenizer.dir} system property. A rank file is memory-mapped and decoded once, on first use, into an
+ * off-heap table. Other families, whose tokenizers are not published in that form, and OpenAI families without a
+ * rank file are estimated from characters per token measured for the family, counting non-ASCII characters as a
+ * token each. Chat formatting overhead is added per message as documented for the OpenAI chat format.
+ */
+public final class TokenEstimator {
+
+    /**
+     * Message context property holding the estimated prompt tokens of the request as an {@link Integer}.
+     */
+    public static final String PROMPT_TOKENS = "AI_PROMPT_TOKEN_ESTIMATE";
+
+    /**
+     * Message context property holding the output token limit the request asks for as an {@link Integer}, if it
+     * sets one.
+     */
+    public static final String MAX_OUTPUT_TOKENS = "AI_REQUESTED_MAX_TOKENS";
+
+    /**
+     * Message context property holding {@link Boolean#TRUE} if {@link #PROMPT_TOKENS} was counted with the model's
+     * byte pair encoding rather than estimated from characters.
+     */
+    public static final String PROMPT_TOKENS_EXACT = "AI_PROMPT_TOKENS_EXACT";
+
+    private static final Log log = LogFactory.getLog(TokenEstimator.class);
+
+    private static final String CL100K = "cl100k_base";
+    private static final String O200K = "o200k_base";
+    private static final Pattern CL100K_PATTERN = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*"
+                    + "|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+    private static final Pattern O200K_PATTERN = Pattern.compile(
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+"
+                    + "(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+                    + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*"
+                    + "(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+                    + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+    private static final int TOKENS_PER_MESSAGE = 3;
+    private static final int TOKENS_PER_REPLY = 3;
+    // Pieces longer than this (long runs of symbols or whitespace) are estimated instead of merged
+    private static final int MAX_MERGE_BYTES = 256;
+
+    private static final TokenEstimator INSTANCE = new TokenEstimator(System.getProperty("ai.tokenizer.dir"));
+
+    private final Path directory;
+    private final Map<String, Optional<BpeTable>> tables = new ConcurrentHashMap<>();
+
+    TokenEstimator(String directory) {
+
+        this.directory = directory != null && !directory.trim().isEmpty() ? Paths.get(directory.trim()) : null;
+    }
+
+    public static TokenEstimator getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the estimated prompt tokens of the request on the message context, estimating them on first use
+     * and keeping the result in {@link #PROMPT_TOKENS}.
+     *
+     * @param messageContext The message context of the request.
+     * @return The estimated prompt tokens, or -1 if the payload is not a chat request.
+     */
+    public static int estimate(MessageContext messageContext) {
+
+        Object cached = messageContext.getProperty(PROMPT_TOKENS);
+        if (cached instanceof Integer) {
+            return (Integer) cached;
+        }
+        int tokens = -1;
+        try {
+            org.apache.axis2.context.MessageContext axis2MessageContext =
+                    ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+            RelayUtils.buildMessage(axis2MessageContext);
+            if (JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+                ChatRequestTranslator.ChatRequest request =
+                        ChatRequestTranslator.parse(JsonUtil.jsonPayloadToString(axis2MessageContext));
+                if (request != null) {
+                    tokens = getInstance().estimate(request, request.getModel());
+                    messageContext.setProperty(PROMPT_TOKENS_EXACT, getInstance().isExact(request.getModel()));
+                    if (request.getMaxTokens() != null) {
+                        messageContext.setProperty(MAX_OUTPUT_TOKENS, request.getMaxTokens());
+                    }
+                }
+            }
+        } catch (AxisFault | XMLStreamException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not read the request to estimate its tokens: " + e.getMessage());
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not JSON or not a chat request
+        }
+        messageContext.setProperty(PROMPT_TOKENS, tokens);
+        return tokens;
+    }
+
+    /**
+     * Returns whether the estimated prompt tokens of the request on the message context were counted exactly.
+     *
+     * @param messageContext The message context of the request.
+     * @return {@code true} if {@link #estimate(MessageContext)} counted them with the model's byte pair encoding.
+     */
+    public static boolean isExact(MessageContext messageContext) {
+
+        return Boolean.TRUE.equals(messageContext.getProperty(PROMPT_TOKENS_EXACT));
+    }
+
+    /**
+     * Estimates the prompt tokens of a chat request.
+     *
+     * @param request The parsed request.
+     * @param model   The model the request is sent to, may be {@code null}.
+     * @return The estimated prompt tokens.
+     */
+    int estimate(ChatRequestTranslator.ChatRequest request, String model) {
+
+        Counter counter = counter(model);
+        int tokens = TOKENS_PER_REPLY;
+        if (request.getSystem() != null) {
+            tokens += TOKENS_PER_MESSAGE + counter.count(request.getSystem());
+        }
+        for (ChatRequestTranslator.Message message : request.getMessages()) {
+            tokens += TOKENS_PER_MESSAGE;
+            for (ChatRequestTranslator.Part part : message.getParts()) {
+                tokens += counter.count(part.getText());
+                tokens += counter.count(part.getName());
+                tokens += counter.count(part.getArguments());
+            }
+        }
+        for (ChatRequestTranslator.Tool tool : request.getTools()) {
+            tokens += counter.count(tool.getName()) + counter.count(tool.getDescription());
+            if (tool.getParameters() != null) {
+                tokens += counter.count(tool.getParameters().toString());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Counts the tokens of a text for a model.
+     *
+     * @param text  The text, may be {@code null}.
+     * @param model The model, may be {@code null}.
+     * @return The token count.
+     */
+    public int count(String text, String model) {
+
+        return counter(model).count(text);
+    }
+
+    /**
+     * Returns whether the tokens of a model are counted exactly rather than estimated from characters per token.
+     *
+     * @param model The model, may be {@code null}.
+     * @return {@code true} if the model's byte pair encoding is loaded.
+     */
+    public boolean isExact(String model) {
+
+        return counter(model) instanceof BpeCounter;
+    }
+
+    private Counter counter(String model) {
+
+        String name = model != null ? model.toLowerCase(Locale.ROOT) : "";
+        if (name.startsWith("gpt-4o") || name.startsWith("gpt-4.1") || name.startsWith("gpt-5")
+                || name.startsWith("chatgpt") || name.matches("^o[134](-.*)?$")) {
+            return bpeOrHeuristic(O200K, O200K_PATTERN, 4.0d);
+        }
+        if (name.contains("claude") || name.contains("anthropic")) {
+            return new HeuristicCounter(3.5d);
+        }
+        if (name.contains("gemini") || name.contains("gemma")) {
+            return new HeuristicCounter(4.0d);
+        }
+        if (name.contains("mistral") || name.contains("mixtral") || name.contains("codestral")
+                || name.contains("llama")) {
+            return new HeuristicCounter(3.7d);
+        }
+        return bpeOrHeuristic(CL100K, CL100K_PATTERN, 4.0d);
+    }
+
+    private Counter bpeOrHeuristic(String encoding, Pattern pattern, double charsPerToken) {
+
+        Optional<BpeTable> table = directory != null ? tables.computeIfAbsent(encoding, this::load) : Optional.empty();
+        return table.isPresent() ? new BpeCounter(table.get(), pattern, charsPerToken)
+                : new HeuristicCounter(charsPerToken);
+    }
+
+    private Optional<BpeTable> load(String encoding) {
+
+        Path file = directory.resolve(encoding + ".tiktoken");
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try {
+            long start = System.nanoTime();
+            BpeTable table = BpeTable.load(file);
+            log.info("Loaded " + table.size() + " " + encoding + " tokens from " + file + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return Optional.of(table);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not load the " + encoding + " token table from " + file
+                    + ", estimating its tokens instead", e);
+            return Optional.empty();
+        }
+    }
+
+    private interface Counter {
+
+        int count(String text);
+    }
+
+    /**
+     * Estimates from characters per token, counting each non-ASCII character as a token.
+     */
+    private static final class HeuristicCounter implements Counter {
+
+        private final double charsPerToken;
+
+        private HeuristicCounter(double charsPerToken) {
+
+            this.charsPerToken = charsPerToken;
+        }
+
+        @Override
+        public int count(String text) {
+
+            if (text == null || text.isEmpty()) {
+                return 0;
+            }
+            int ascii = 0;
+            int other = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    ascii++;
+                } else if (!Character.isLowSurrogate(c)) {
+                    other++;
+                }
+            }
+            return (int) Math.ceil(ascii / charsPerToken) + other;
+        }
+    }
+
+    /**
+     * Counts exactly by splitting the text with the encoding's pattern and merging each piece's bytes.
+     */
+    private static final class BpeCounter implements Counter {
+
+        private final BpeTable table;
+        private final Pattern pattern;
+        private final double charsPerToken;
+
+        private BpeCounter(BpeTable table, Pattern pattern, double charsPerToken) {
+
+            this.table = table;
+            this.pattern = pattern;
+            this.charsPerToken = charsPerToken;
+        }
+
+        @Override
+        public int count(String text) {
+
+            if (text == null || text.isEmpty()) {
+                return 0;
+            }
+            int tokens = 0;
+            Matcher matcher = pattern.matcher(text);
+            while (matcher.find()) {
+                byte[] piece = text.substring(matcher.start(), matcher.end()).getBytes(StandardCharsets.UTF_8);
+                if (piece.length > MAX_MERGE_BYTES) {
+                    tokens += (int) Math.ceil(piece.length / charsPerToken);
+                } else {
+                    tokens += table.countMerged(piece);
+                }
+            }
+            return tokens;
+        }
+    }
+
+    /**
+     * Token ranks of a byte pair encoding, held off-heap in an open addressing table.
+     */
+    static final class BpeTable {
+
+        private final ByteBuffer bytes;
+        private final int[] offsets;
+        private final int[] ranks;
+        private final int[] slots;
+        private final int mask;
+
+        private BpeTable(ByteBuffer bytes, int[] offsets, int[] ranks) {
+
+            this.bytes = bytes;
+            this.offsets = offsets;
+            this.ranks = ranks;
+            int capacity = Integer.highestOneBit(Math.max(16, ranks.length * 2)) << 1;
+            this.slots = new int[capacity];
+            this.mask = capacity - 1;
+            for (int i = 0; i < ranks.length; i++) {
+                int slot = hash(bytes, offsets[i], offsets[i + 1]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = i + 1;
+            }
+        }
+
+        /**
+         * Reads a tiktoken rank file: one base64 encoded token and its rank per line.
+         */
+        static BpeTable load(Path file) throws IOException {
+
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            int lines = 0;
+            for (int i = 0; i < mapped.limit(); i++) {
+                if (mapped.get(i) == '\n') {
+                    lines++;
+                }
+            }
+            if (mapped.limit() > 0 && mapped.get(mapped.limit() - 1) != '\n') {
+                lines++;
+            }
+            // Decoded tokens are at most 3/4 of the file
+            ByteBuffer bytes = ByteBuffer.allocateDirect(mapped.limit() * 3 / 4 + 4);
+            int[] offsets = new int[lines + 1];
+            int[] ranks = new int[lines];
+            Base64.Decoder decoder = Base64.getDecoder();
+            int count = 0;
+            int position = 0;
+            while (position < mapped.limit()) {
+                int space = position;
+                while (space < mapped.limit() && mapped.get(space) != ' ' && mapped.get(space) != '\n') {
+                    space++;
+                }
+                int end = space;
+                int rank = 0;
+                while (end < mapped.limit() && mapped.get(end) != '\n') {
+                    byte b = mapped.get(end++);
+                    if (b >= '0' && b <= '9') {
+                        rank = rank * 10 + (b - '0');
+                    }
+                }
+                if (space > position && space < end) {
+                    ByteBuffer encoded = mapped.duplicate();
+                    encoded.limit(space).position(position);
+                    offsets[count] = bytes.position();
+                    bytes.put(decoder.decode(encoded));
+                    ranks[count++] = rank;
+                }
+                position = end + 1;
+            }
+            offsets[count] = bytes.position();
+            int[] trimmedOffsets = new int[count + 1];
+            int[] trimmedRanks = new int[count];
+            System.arraycopy(offsets, 0, trimmedOffsets, 0, count + 1);
+            System.arraycopy(ranks, 0, trimmedRanks, 0, count);
+            return new BpeTable(bytes, trimmedOffsets, trimmedRanks);
+        }
+
+        int size() {
+
+            return ranks.length;
+        }
+
+        /**
+         * Returns the rank of the bytes, or -1 if they are not a token.
+         */
+        int rank(byte[] piece, int from, int to) {
+
+            int slot = hash(piece, from, to) & mask;
+            int entry;
+            while ((entry = slots[slot]) != 0) {
+                int index = entry - 1;
+                if (matches(index, piece, from, to)) {
+                    return ranks[index];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the number of tokens the piece is merged into.
+         */
+        int countMerged(byte[] piece) {
+
+            if (piece.length <= 1 || rank(piece, 0, piece.length) >= 0) {
+                return 1;
+            }
+            // Boundaries of the current parts and the rank of merging each part with the next
+            int[] starts = new int[piece.length + 1];
+            int[] pairRanks = new int[piece.length + 1];
+            int parts = piece.length;
+            for (int i = 0; i <= piece.length; i++) {
+                starts[i] = i;
+            }
+            for (int i = 0; i < parts - 1; i++) {
+                pairRanks[i] = pairRank(piece, starts, i, parts);
+            }
+            while (parts > 1) {
+                int best = -1;
+                int bestRank = Integer.MAX_VALUE;
+                for (int i = 0; i < parts - 1; i++) {
+                    if (pairRanks[i] >= 0 && pairRanks[i] < bestRank) {
+                        bestRank = pairRanks[i];
+                        best = i;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                // Merge part best + 1 into part best
+                System.arraycopy(starts, best + 2, starts, best + 1, parts - best - 1);
+                System.arraycopy(pairRanks, best + 2, pairRanks, best + 1, Math.max(0, parts - best - 2));
+                parts--;
+                if (best < parts - 1) {
+                    pairRanks[best] = pairRank(piece, starts, best, parts);
+                } else {
+                    pairRanks[best] = -1;
+                }
+                if (best > 0) {
+                    pairRanks[best - 1] = pairRank(piece, starts, best - 1, parts);
+                }
+            }
+            return parts;
+        }
+
+        private int pairRank(byte[] piece, int[] starts, int part, int parts) {
+
+            int end = part + 2 <= parts ? starts[part + 2] : piece.length;
+            return rank(piece, starts[part], end);
+        }
+
+        private boolean matches(int index, byte[] piece, int from, int to) {
+
+            int start = offsets[index];
+            if (offsets[index + 1] - start != to - from) {
+                return false;
+            }
+            for (int i = 0; i < to - from; i++) {
+                if (bytes.get(start + i) != piece[from + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hash(byte[] data, int from, int to) {
+
+            int hash = 0x811c9dc5;
+            for (int i = from; i < to; i++) {
+                hash = (hash ^ (data[i] & 0xff)) * 0x01000193;
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        private static int hash(ByteBuffer data, int from, int to) {
+
+            int hash = 0x811c9dc5;
+            for (int i = from; i < to; i++) {
+                hash = (hash ^ (data.get(i) & 0xff)) * 0x01000193;
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+import org.apache.axiom.om.OMElement;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.rest.RESTConstants;
+import org.apache.synapse.transport.passthru.PassThroughConstants;
+import org.apache.synapse.transport.passthru.util.RelayUtils;
+import org.wso2.carbon.apimgt.api.APIConstants;
+import org.wso2.carbon.apimgt.gateway.APIMgtGatewayConstants;
+import org.wso2.carbon.apimgt.gateway.utils.GatewayUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Sampling tap recording AI API traffic for offline replay.
+ * <p>
+ * A share of {@code ai.capture.sampleRate} of the requests reaching {@code AIAPIMediator} is recorded: the client
+ * request as received, before any rewrite, and, for every response from upstream, its status, body, latency, the
+ * classified category, the target endpoint and the failover index. Each response is written as one JSON line to
+ * {@code ai-traffic.jsonl} in {@code ai.capture.dir}, which is rolled over at {@code ai.capture.maxFileBytes}
+ * keeping {@code ai.capture.maxFiles} files. Responses served by the gateway itself, e.g. from the response cache,
+ * are not recorded.
+ * <p>
+ * Records are sanitized before they leave the worker thread: credentials headers are dropped, JSON fields named
+ * like credentials are blanked, and e-mail addresses, API keys and long digit sequences in text are masked. Bodies
+ * larger than {@code ai.capture.maxBodyBytes} are left out of the record. Lines are written by a background thread;
+ * when it falls behind, new records are dropped.
+ */
+public final class TrafficCapture {
+
+    /**
+     * Message context property holding the capture of a sampled request.
+     */
+    public static final String CAPTURE = "AI_TRAFFIC_CAPTURE";
+
+    private static final Log log = LogFactory.getLog(TrafficCapture.class);
+    private static final String FILE_NAME = "ai-traffic";
+    private static final String FILE_EXTENSION = ".jsonl";
+    private static final String REDACTED = "***";
+
+    private static final Set<String> DROPPED_HEADERS = new HashSet<>(Arrays.asList(
+            "authorization", "proxy-authorization", "cookie", "set-cookie", "apikey", "api-key", "x-api-key",
+            "x-goog-api-key", "internal-key", "x-amz-security-token", "x-amz-date", "activityid"));
+    private static final Pattern SENSITIVE_NAME =
+            Pattern.compile("(?i).*(authorization|api[-_]?key|secret|password|passwd|token|credential).*");
+    private static final Pattern[] SENSITIVE_TEXT = {
+            Pattern.compile("[A-Za-z0-9._%+-]+@[A-Za-z0-9.-]+\\.[A-Za-z]{2,}"),
+            Pattern.compile("\\b(?:sk|pk|rk)-[A-Za-z0-9_-]{16,}"),
+            Pattern.compile("\\bAKIA[0-9A-Z]{16}\\b"),
+            Pattern.compile("\\bAIza[0-9A-Za-z_-]{35}\\b"),
+            Pattern.compile("(?i)\\bbearer\\s+[A-Za-z0-9._~+/=-]{16,}"),
+            Pattern.compile("\\b\\d(?:[ -]?\\d){8,18}\\b")
+    };
+
+    private static final TrafficCapture INSTANCE = new TrafficCapture(
+            sampleRateProperty(),
+            System.getProperty("ai.capture.dir", defaultDirectory()),
+            Long.getLong("ai.capture.maxFileBytes", 64L * 1024 * 1024),
+            Integer.getInteger("ai.capture.maxFiles", 5),
+            Integer.getInteger("ai.capture.maxBodyBytes", 1024 * 1024),
+            Integer.getInteger("ai.capture.queueSize", 1024));
+
+    private final double sampleRate;
+    private final Path directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final int maxBodyBytes;
+    private final BlockingQueue<String> queue;
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private BufferedWriter writer;
+    private long fileBytes;
+
+    TrafficCapture(double sampleRate, String directory, long maxFileBytes, int maxFiles, int maxBodyBytes,
+                   int queueSize) {
+
+        this.sampleRate = Math.max(0.0d, Math.min(1.0d, sampleRate));
+        this.directory = Paths.get(directory);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        this.maxBodyBytes = maxBodyBytes;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        if (this.sampleRate > 0) {
+            Thread thread = new Thread(this::drain, "ai-traffic-capture");
+            thread.setDaemon(true);
+            thread.start();
+            log.info("Capturing " + this.sampleRate + " of AI API traffic to " + this.directory);
+        }
+    }
+
+    public static TrafficCapture getInstance() {
+
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+
+        return sampleRate > 0;
+    }
+
+    /**
+     * Samples a request and, if selected, records it as received from the client. Must run before the request
+     * payload is rewritten.
+     *
+     * @param messageContext The message context of the request.
+     */
+    public void begin(MessageContext messageContext) {
+
+        if (sampleRate <= 0 || messageContext.getProperty(CAPTURE) != null
+                || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        try {
+            org.apache.axis2.context.MessageContext axis2MessageContext =
+                    ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+            RelayUtils.buildMessage(axis2MessageContext);
+            Capture capture = new Capture();
+            capture.id = messageContext.getMessageID();
+            capture.api = GatewayUtils.getAPIKeyForEndpoints(messageContext);
+            capture.method = (String) axis2MessageContext.getProperty(PassThroughConstants.HTTP_METHOD);
+            capture.path = (String) messageContext.getProperty(RESTConstants.REST_SUB_REQUEST_PATH);
+            capture.contentType = (String) axis2MessageContext.getProperty(APIMgtGatewayConstants.REST_CONTENT_TYPE);
+            capture.headers = sanitizeHeaders(
+                    axis2MessageContext.getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS));
+            capture.body = sanitizeBody(readBody(axis2MessageContext, capture.contentType));
+            messageContext.setProperty(CAPTURE, capture);
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not capture request: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Records a response from upstream for a sampled request. Called once per upstream response, so a request
+     * failing over produces one record per attempt.
+     *
+     * @param messageContext The message context of the response.
+     */
+    public void complete(MessageContext messageContext) {
+
+        Capture capture = (Capture) messageContext.getProperty(CAPTURE);
+        if (capture == null) {
+            return;
+        }
+        try {
+            org.apache.axis2.context.MessageContext axis2MessageContext =
+                    ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+            Object statusCode = axis2MessageContext.getProperty(APIMgtGatewayConstants.HTTP_SC);
+            if (!(statusCode instanceof Integer) || (Integer) statusCode <= 0) {
+                return;
+            }
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - capture.startedAt);
+            String contentType = (String) axis2MessageContext.getProperty(APIMgtGatewayConstants.REST_CONTENT_TYPE);
+            RelayUtils.buildMessage(axis2MessageContext);
+            String body = sanitizeBody(readBody(axis2MessageContext, contentType));
+            Object failoverIndex = messageContext.getProperty(APIConstants.AIAPIConstants.CURRENT_ENDPOINT_INDEX);
+            Object promptTokens = messageContext.getProperty(TokenEstimator.PROMPT_TOKENS);
+
+            StringWriter line = new StringWriter(256 + length(capture.body) + length(body));
+            JsonWriter json = new JsonWriter(line);
+            json.setHtmlSafe(false);
+            json.beginObject();
+            json.name("id").value(capture.id);
+            json.name("timestamp").value(capture.timestamp);
+            json.name("api").value(capture.api);
+            json.name("category").value((String) messageContext.getProperty(LLMRouteMediator.CATEGORY));
+            json.name("endpoint").value(
+                    (String) messageContext.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT));
+            json.name("failoverIndex").value(failoverIndex instanceof Integer ? (Integer) failoverIndex : 0);
+            if (promptTokens instanceof Integer) {
+                json.name("promptTokens").value((Integer) promptTokens);
+            }
+            json.name("latencyMs").value(latencyMillis);
+            json.name("request").beginObject();
+            json.name("method").value(capture.method);
+            json.name("path").value(capture.path);
+            json.name("contentType").value(capture.contentType);
+            json.name("headers").beginObject();
+            for (Map.Entry<String, String> header : capture.headers) {
+                json.name(header.getKey()).value(header.getValue());
+            }
+            json.endObject();
+            writeBody(json, capture.body);
+            json.endObject();
+            json.name("response").beginObject();
+            json.name("status").value((Integer) statusCode);
+            json.name("contentType").value(contentType);
+            writeBody(json, body);
+            json.endObject();
+            json.endObject();
+            json.flush();
+
+            if (queue.offer(line.toString())) {
+                captured.increment();
+            } else {
+                dropped.increment();
+            }
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not capture response: " + e.getMessage());
+            }
+        }
+    }
+
+    public long getCaptured() {
+
+        return captured.sum();
+    }
+
+    public long getDropped() {
+
+        return dropped.sum();
+    }
+
+    /**
+     * Masks credentials and personal data in a JSON document, or in plain or event stream text.
+     *
+     * @param body The body, may be {@code null}.
+     * @return The sanitized body.
+     */
+    static String sanitizeBody(String body) {
+
+        if (body == null || body.isEmpty()) {
+            return body;
+        }
+        String trimmed = body.trim();
+        if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            try {
+                return sanitize(JsonParser.parseString(trimmed)).toString();
+            } catch (JsonParseException e) {
+                return sanitizeText(body);
+            }
+        }
+        // Event streams are sanitized event by event so that their framing is kept
+        StringBuilder sanitized = new StringBuilder(body.length());
+        for (String eventLine : body.split("\n", -1)) {
+            if (sanitized.length() > 0) {
+                sanitized.append('\n');
+            }
+            if (eventLine.startsWith("data:")) {
+                String data = eventLine.substring("data:".length()).trim();
+                if (data.startsWith("{")) {
+                    try {
+                        sanitized.append("data: ").append(sanitize(JsonParser.parseString(data)));
+                        continue;
+                    } catch (JsonParseException e) {
+                        // Not JSON, masked as text below
+                    }
+                }
+            }
+            sanitized.append(sanitizeText(eventLine));
+        }
+        return sanitized.toString();
+    }
+
+    static String sanitizeText(String text) {
+
+        String sanitized = text;
+        for (Pattern pattern : SENSITIVE_TEXT) {
+            sanitized = pattern.matcher(sanitized).replaceAll(REDACTED);
+        }
+        return sanitized;
+    }
+
+    private static JsonElement sanitize(JsonElement element) {
+
+        if (element.isJsonObject()) {
+            JsonObject sanitized = new JsonObject();
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                JsonElement value = member.getValue();
+                if (SENSITIVE_NAME.matcher(member.getKey()).matches() && value.isJsonPrimitive()) {
+                    // Keep token counts such as max_tokens and usage.total_tokens
+                    sanitized.add(member.getKey(), value.getAsJsonPrimitive().isNumber()
+                            ? value : new JsonPrimitive(REDACTED));
+                } else {
+                    sanitized.add(member.getKey(), sanitize(value));
+                }
+            }
+            return sanitized;
+        }
+        if (element.isJsonArray()) {
+            JsonArray sanitized = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                sanitized.add(sanitize(item));
+            }
+            return sanitized;
+        }
+        if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString()) {
+            return new JsonPrimitive(sanitizeText(element.getAsString()));
+        }
+        return element;
+    }
+
+    private static List<Map.Entry<String, String>> sanitizeHeaders(Object transportHeaders) {
+
+        List<Map.Entry<String, String>> headers = new ArrayList<>();
+        if (!(transportHeaders instanceof Map)) {
+            return headers;
+        }
+        for (Map.Entry<?, ?> header : ((Map<?, ?>) transportHeaders).entrySet()) {
+            String name = String.valueOf(header.getKey());
+            String normalizedName = name.toLowerCase(Locale.ROOT);
+            if (DROPPED_HEADERS.contains(normalizedName) || SENSITIVE_NAME.matcher(normalizedName).matches()) {
+                continue;
+            }
+            headers.add(new AbstractMap.SimpleImmutableEntry<>(name,
+                    sanitizeText(String.valueOf(header.getValue()))));
+        }
+        return headers;
+    }
+
+    private String readBody(org.apache.axis2.context.MessageContext axis2MessageContext, String contentType) {
+
+        String body = null;
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).contains("json")) {
+            if (JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+                body = JsonUtil.jsonPayloadToString(axis2MessageContext);
+            }
+        } else if (axis2MessageContext.getEnvelope() != null) {
+            OMElement bodyElement = axis2MessageContext.getEnvelope().getBody().getFirstElement();
+            body = bodyElement != null ? bodyElement.getText() : null;
+        }
+        if (body != null && body.length() > maxBodyBytes) {
+            // A truncated body cannot be replayed; record only that there was one
+            return null;
+        }
+        return body;
+    }
+
+    private static void writeBody(JsonWriter json, String body) throws IOException {
+
+        if (body == null) {
+            return;
+        }
+        json.name("body").value(body);
+    }
+
+    private static int length(String value) {
+
+        return value != null ? value.length() : 0;
+    }
+
+    private void drain() {
+
+        List<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (String line : batch) {
+                    write(line);
+                }
+                writer.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                log.warn("Could not write captured AI API traffic to " + directory, e);
+                closeQuietly();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(String line) throws IOException {
+
+        byte[] bytes = (line + '\n').getBytes(StandardCharsets.UTF_8);
+        if (writer == null) {
+            open();
+        } else if (fileBytes + bytes.length > maxFileBytes) {
+            roll();
+        }
+        writer.write(line);
+        writer.write('\n');
+        fileBytes += bytes.length;
+    }
+
+    private void open() throws IOException {
+
+        Files.createDirectories(directory);
+        Path current = file(0);
+        fileBytes = Files.exists(current) ? Files.size(current) : 0;
+        writer = Files.newBufferedWriter(current, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void roll() throws IOException {
+
+        closeQuietly();
+        Files.deleteIfExists(file(maxFiles - 1));
+        for (int index = maxFiles - 2; index >= 0; index--) {
+            Path source = file(index);
+            if (Files.exists(source)) {
+                Files.move(source, file(index + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        open();
+    }
+
+    private void closeQuietly() {
+
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.debug("Could not close the AI traffic capture file");
+            }
+            writer = null;
+        }
+    }
+
+    private Path file(int index) {
+
+        return directory.resolve(index == 0 ? FILE_NAME + FILE_EXTENSION : FILE_NAME + "." + index + FILE_EXTENSION);
+    }
+
+    /**
+     * Reads {@code ai.capture.sampleRate}. A value that is not a number disables sampling with a warning, since
+     * failing the class initialisation would fail every AI API.
+     */
+    private static double sampleRateProperty() {
+
+        String value = System.getProperty("ai.capture.sampleRate");
+        if (value == null || value.trim().isEmpty()) {
+            return 0.0d;
+        }
+        try {
+            double sampleRate = Double.parseDouble(value.trim());
+            if (!Double.isNaN(sampleRate)) {
+                return sampleRate;
+            }
+        } catch (NumberFormatException e) {
+            // Warned below
+        }
+        log.warn("Invalid traffic capture sample rate " + value + ", traffic is not captured");
+        return 0.0d;
+    }
+
+    private static String defaultDirectory() {
+
+        String carbonHome = System.getProperty("carbon.home");
+        return carbonHome != null ? Paths.get(carbonHome, "repository", "logs").toString()
+                : System.getProperty("java.io.tmpdir");
+    }
+
+    /**
+     * A sampled request, kept on the message context until its responses are recorded.
+     */
+    private static final class Capture {
+
+        private final long startedAt = System.nanoTime();
+        private final long timestamp = System.currentTimeMillis();
+        private String id;
+        private String api;
+        private String method;
+        private String path;
+        private String contentType;
+        private List<Map.Entry<String, String>> headers;
+        private String body;
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Performance of the upstream model endpoints behind AI APIs, per endpoint and model.
+ * <p>
+ * For every upstream response {@code AIAPIMediator} records the latency from the request leaving the gateway to
+ * the response reaching the out flow, the time to the first byte when the transport reports the arrival of the
+ * response headers, the output tokens per second, and the response's status class. Suspensions, failover hops
+ * and cascade escalations are counted against the endpoint they move away from. Recording only increments striped
+ * counters and never locks. The number of series is bounded by {@code ai.metrics.maxSeries}; further endpoints are
+ * recorded under {@code endpoint="other"}.
+ * <p>
+ * {@link #writePrometheus} renders the metrics in the Prometheus text format. When {@code ai.metrics.exportFile}
+ * is set, they are also written to that file every {@code ai.metrics.exportIntervalSeconds}, for a node exporter
+ * textfile collector or a log shipper.
+ */
+public final class UpstreamMetrics {
+
+    /**
+     * Message context property holding the time the request was sent to the current upstream endpoint.
+     */
+    public static final String UPSTREAM_SENT_AT = "AI_UPSTREAM_SENT_AT";
+
+    // Set by the pass-through target handler, in milliseconds, when the response headers arrive
+    private static final String RES_HEADER_ARRIVAL_TIME = "RES_HEADER_ARRIVAL_TIME";
+    private static final String OTHER = "other";
+
+    private static final Log log = LogFactory.getLog(UpstreamMetrics.class);
+
+    private static final double[] LATENCY_BUCKETS = {
+            0.05, 0.1, 0.25, 0.5, 1, 2, 4, 8, 15, 30, 60, 120};
+    private static final double[] TOKENS_PER_SECOND_BUCKETS = {
+            5, 10, 20, 40, 60, 80, 120, 160, 240, 400};
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private static final UpstreamMetrics INSTANCE = new UpstreamMetrics(
+            Integer.getInteger("ai.metrics.maxSeries", 1024),
+            System.getProperty("ai.metrics.exportFile"),
+            Integer.getInteger("ai.metrics.exportIntervalSeconds", 15));
+
+    private final Map<SeriesKey, Series> series = new ConcurrentHashMap<>();
+    private final int maxSeries;
+
+    UpstreamMetrics(int maxSeries, String exportFile, int exportIntervalSeconds) {
+
+        this.maxSeries = Math.max(1, maxSeries);
+        if (exportFile != null && !exportFile.isEmpty()) {
+            Path file = Paths.get(exportFile);
+            ScheduledExecutorService exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ai-upstream-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = Math.max(1, exportIntervalSeconds);
+            exporter.scheduleAtFixedRate(() -> export(file), interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    public static UpstreamMetrics getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Marks the request as sent to its current upstream endpoint. Called when the in flow hands the request to
+     * the endpoint and again before every failover hop.
+     *
+     * @param messageContext The message context of the request.
+     */
+    public static void markSent(MessageContext messageContext) {
+
+        messageContext.setProperty(UPSTREAM_SENT_AT, new SentAt());
+    }
+
+    /**
+     * Returns the time since the request was last sent upstream.
+     *
+     * @param messageContext The message context of the request or response.
+     * @return The elapsed time in nanoseconds, or {@code -1} if the request was not marked as sent.
+     */
+    public static long elapsedNanos(MessageContext messageContext) {
+
+        Object sent = messageContext.getProperty(UPSTREAM_SENT_AT);
+        return sent instanceof SentAt ? System.nanoTime() - ((SentAt) sent).nanos : -1L;
+    }
+
+    /**
+     * Records a response from upstream against the endpoint and model that served it.
+     *
+     * @param messageContext   The message context of the response.
+     * @param endpointId       The ID of the endpoint that served the response.
+     * @param model            The model that served the response.
+     * @param statusCode       The upstream status code.
+     * @param completionTokens The output tokens of the response, or a negative number if not known.
+     */
+    public void recordResponse(MessageContext messageContext, String endpointId, String model, int statusCode,
+                               long completionTokens) {
+
+        Object sent = messageContext.getProperty(UPSTREAM_SENT_AT);
+        if (!(sent instanceof SentAt) || statusCode <= 0) {
+            return;
+        }
+        SentAt sentAt = (SentAt) sent;
+        long latencyNanos = System.nanoTime() - sentAt.nanos;
+        Series metrics = series(endpointId, model);
+        metrics.statusClasses[Math.min(Math.max(statusCode / 100, 1), 5) - 1].increment();
+        if (statusCode == 429) {
+            metrics.throttled.increment();
+        }
+        double latencySeconds = latencyNanos / 1e9d;
+        metrics.latency.record(latencySeconds);
+
+        double generationSeconds = latencySeconds;
+        Object headerArrival = ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .getProperty(RES_HEADER_ARRIVAL_TIME);
+        if (headerArrival instanceof Long) {
+            long firstByteMillis = (Long) headerArrival - sentAt.millis;
+            if (firstByteMillis >= 0 && firstByteMillis <= TimeUnit.NANOSECONDS.toMillis(latencyNanos)) {
+                metrics.timeToFirstByte.record(firstByteMillis / 1e3d);
+                generationSeconds = latencySeconds - firstByteMillis / 1e3d;
+            }
+        }
+        if (statusCode / 100 == 2 && completionTokens > 0 && generationSeconds > 0) {
+            metrics.tokensPerSecond.record(completionTokens / generationSeconds);
+        }
+    }
+
+    /**
+     * Counts the suspension of an endpoint.
+     */
+    public void recordSuspension(String endpointId, String model) {
+
+        series(endpointId, model).suspensions.increment();
+    }
+
+    /**
+     * Counts a failover hop away from an endpoint.
+     */
+    public void recordFailoverHop(String endpointId, String model) {
+
+        series(endpointId, model).failoverHops.increment();
+    }
+
+    /**
+     * Counts a cascade draft of the endpoint that was escalated to a larger model.
+     */
+    public void recordCascadeEscalation(String endpointId, String model) {
+
+        series(endpointId, model).cascadeEscalations.increment();
+    }
+
+    /**
+     * Writes all series in the Prometheus text exposition format.
+     *
+     * @param out Where to write the metrics.
+     * @throws IOException If writing fails.
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+
+        out.append("# HELP ai_upstream_latency_seconds Time from sending a request upstream to its response.\n")
+                .append("# TYPE ai_upstream_latency_seconds histogram\n");
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            entry.getValue().latency.write(out, "ai_upstream_latency_seconds", entry.getKey());
+        }
+        out.append("# HELP ai_upstream_time_to_first_byte_seconds Time from sending a request upstream to the ")
+                .append("response headers.\n")
+                .append("# TYPE ai_upstream_time_to_first_byte_seconds histogram\n");
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            entry.getValue().timeToFirstByte.write(out, "ai_upstream_time_to_first_byte_seconds", entry.getKey());
+        }
+        out.append("# HELP ai_upstream_output_tokens_per_second Output tokens per second of generation.\n")
+                .append("# TYPE ai_upstream_output_tokens_per_second histogram\n");
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            entry.getValue().tokensPerSecond.write(out, "ai_upstream_output_tokens_per_second", entry.getKey());
+        }
+        out.append("# HELP ai_upstream_responses_total Upstream responses by status class.\n")
+                .append("# TYPE ai_upstream_responses_total counter\n");
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            for (int i = 0; i < STATUS_CLASSES.length; i++) {
+                long count = entry.getValue().statusClasses[i].sum();
+                if (count > 0) {
+                    out.append("ai_upstream_responses_total{");
+                    entry.getKey().writeLabels(out);
+                    out.append(",class=\"").append(STATUS_CLASSES[i]).append("\"} ").append(Long.toString(count))
+                            .append('\n');
+                }
+            }
+        }
+        writeCounter(out, "ai_upstream_throttled_total", "Upstream responses with status 429.",
+                SeriesCounter.THROTTLED);
+        writeCounter(out, "ai_upstream_suspensions_total", "Suspensions of the endpoint.",
+                SeriesCounter.SUSPENSIONS);
+        writeCounter(out, "ai_upstream_failover_hops_total", "Failover hops away from the endpoint.",
+                SeriesCounter.FAILOVER_HOPS);
+        writeCounter(out, "ai_upstream_cascade_escalations_total",
+                "Cascade drafts of the endpoint escalated to a larger model.", SeriesCounter.CASCADE_ESCALATIONS);
+    }
+
+    private void writeCounter(Appendable out, String name, String help, SeriesCounter counter) throws IOException {
+
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            out.append(name).append('{');
+            entry.getKey().writeLabels(out);
+            out.append("} ").append(Long.toString(counter.of(entry.getValue()).sum())).append('\n');
+        }
+    }
+
+    private void export(Path file) {
+
+        try {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                writePrometheus(writer);
+            }
+            // Readers must never see a partially written file
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not export upstream metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Series series(String endpointId, String model) {
+
+        SeriesKey key = new SeriesKey(endpointId != null ? endpointId : OTHER, model != null ? model : OTHER);
+        Series metrics = series.get(key);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (series.size() >= maxSeries) {
+            key = new SeriesKey(OTHER, OTHER);
+        }
+        return series.computeIfAbsent(key, k -> new Series());
+    }
+
+    private static final class SentAt {
+
+        private final long nanos = System.nanoTime();
+        private final long millis = System.currentTimeMillis();
+    }
+
+    private enum SeriesCounter {
+
+        THROTTLED, SUSPENSIONS, FAILOVER_HOPS, CASCADE_ESCALATIONS;
+
+        LongAdder of(Series series) {
+
+            switch (this) {
+                case THROTTLED:
+                    return series.throttled;
+                case SUSPENSIONS:
+                    return series.suspensions;
+                case CASCADE_ESCALATIONS:
+                    return series.cascadeEscalations;
+                default:
+                    return series.failoverHops;
+            }
+        }
+    }
+
+    private static final class SeriesKey {
+
+        private final String endpointId;
+        private final String model;
+
+        SeriesKey(String endpointId, String model) {
+
+            this.endpointId = endpointId;
+            this.model = model;
+        }
+
+        void writeLabels(Appendable out) throws IOException {
+
+            out.append("endpoint=\"");
+            escape(out, endpointId);
+            out.append("\",model=\"");
+            escape(out, model);
+            out.append('"');
+        }
+
+        private static void escape(Appendable out, String value) throws IOException {
+
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey other = (SeriesKey) o;
+            return endpointId.equals(other.endpointId) && model.equals(other.model);
+        }
+
+        @Override
+        public int hashCode() {
+
+            return 31 * endpointId.hashCode() + model.hashCode();
+        }
+    }
+
+    private static final class Series {
+
+        private final Histogram latency = new Histogram(LATENCY_BUCKETS);
+        private final Histogram timeToFirstByte = new Histogram(LATENCY_BUCKETS);
+        private final Histogram tokensPerSecond = new Histogram(TOKENS_PER_SECOND_BUCKETS);
+        private final LongAdder[] statusClasses = new LongAdder[STATUS_CLASSES.length];
+        private final LongAdder throttled = new LongAdder();
+        private final LongAdder suspensions = new LongAdder();
+        private final LongAdder failoverHops = new LongAdder();
+        private final LongAdder cascadeEscalations = new LongAdder();
+
+        Series() {
+
+            for (int i = 0; i < statusClasses.length; i++) {
+                statusClasses[i] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * Histogram with fixed bucket bounds and a striped counter per bucket.
+     */
+    static final class Histogram {
+
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(double[] bounds) {
+
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(double value) {
+
+            int low = 0;
+            int high = bounds.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (bounds[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            buckets[low].increment();
+            sum.add(value);
+        }
+
+        void write(Appendable out, String name, SeriesKey key) throws IOException {
+
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{");
+                key.writeLabels(out);
+                out.append(",le=\"").append(i < bounds.length ? Double.toString(bounds[i]) : "+Inf").append("\"} ")
+                        .append(Long.toString(cumulative)).append('\n');
+            }
+            out.append(name).append("_sum{");
+            key.writeLabels(out);
+            out.append("} ").append(Double.toString(sum.sum())).append('\n');
+            out.append(name).append("_count{");
+            key.writeLabels(out);
+            out.append("} ").append(Long.toString(cumulative)).append('\n');
+        }
+    }
+}
@@ -15,6 +15,7 @@
 
 package org.wso2.carbon.apimgt.gateway.mediators;
 
+import com.google.gson.JsonObject;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.PathNotFoundException;
@@ -52,6 +53,8 @@ import org.wso2.carbon.apimgt.gateway.mediators.RequestChangeMediator;
 import org.wso2.carbon.apimgt.api.gateway.ModelEndpointDTO;
 import org.wso2.carbon.apimgt.api.model.LLMProviderInfo;
 import org.wso2.carbon.apimgt.gateway.APIMgtGatewayConstants;
+import org.wso2.carbon.apimgt.gateway.handlers.security.APISecurityUtils;
+import org.wso2.carbon.apimgt.gateway.handlers.security.AuthenticationContext;
 import org.wso2.carbon.apimgt.gateway.internal.DataHolder;
 import org.wso2.carbon.apimgt.gateway.internal.ServiceReferenceHolder;
 import org.wso2.carbon.apimgt.gateway.utils.GatewayUtils;
@@ -59,9 +62,12 @@ import org.wso2.carbon.apimgt.impl.utils.APIUtil;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.ws.rs.core.MediaType;
 import javax.xml.stream.XMLStreamException;
 
@@ -72,8 +78,26 @@ import javax.xml.stream.XMLStreamException;
 public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle {
 
     private static final Log log = LogFactory.getLog(AIAPIMediator.class);
+    private static final int MAX_REQUEST_CHANGE_MEDIATORS = 16;
+    private static final long DEFAULT_RESPONSE_CACHE_TTL_MILLIS = 10 * 60 * 1000L;
+    private static final double DEFAULT_SEMANTIC_CACHE_THRESHOLD = 0.9d;
+    private static final long DEFAULT_COALESCING_TIMEOUT_MILLIS = 30 * 1000L;
+    private static final int DEFAULT_COALESCING_MAX_WAITERS = 64;
+    private final Map<String, RequestChangeMediator> requestChangeMediators = new ConcurrentHashMap<>();
+    // APIs this mediator served, whose endpoint health is dropped when it is destroyed
+    private final Set<String> servedApiKeys = ConcurrentHashMap.newKeySet();
     private String llmProviderId;
     private String direction;
+    private ResponseCache.Mode responseCacheMode = ResponseCache.Mode.OFF;
+    private boolean responseCacheShared;
+    private long responseCacheTtlMillis = DEFAULT_RESPONSE_CACHE_TTL_MILLIS;
+    private double semanticCacheThreshold = DEFAULT_SEMANTIC_CACHE_THRESHOLD;
+    private RequestCoalescer.Mode requestCoalescingMode = RequestCoalescer.Mode.OFF;
+    private long coalescingTimeoutMillis = DEFAULT_COALESCING_TIMEOUT_MILLIS;
+    private int coalescingMaxWaiters = DEFAULT_COALESCING_MAX_WAITERS;
+    private boolean admissionControl;
+    private Map<String, Integer> admissionTierWeights = Collections.emptyMap();
+    private Map<String, Long> tokenRateLimits = Collections.emptyMap();
 
     /**
      * Initializes the AIAPIMediator.
@@ -83,6 +107,7 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
     @Override
     public void init(SynapseEnvironment synapseEnvironment) {
 
+        EndpointHealthSync.acquire();
         if (log.isDebugEnabled()) {
             log.debug("AIAPIMediator: Initialized.");
         }
@@ -94,6 +119,14 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
     @Override
     public void destroy() {
 
+        // The mediators of an API are destroyed when it is undeployed or redeployed with a new configuration
+        for (String apiKey : servedApiKeys) {
+            EndpointHealthRegistry.getInstance().invalidate(apiKey);
+        }
+        for (RequestChangeMediator requestChangeMediator : requestChangeMediators.values()) {
+            requestChangeMediator.destroy();
+        }
+        EndpointHealthSync.release();
     }
 
     /**
@@ -138,14 +171,43 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
                 return false;
             }
 
+            RequestTracer tracer = RequestTracer.getInstance();
             if (APIConstants.AIAPIConstants.TRAFFIC_FLOW_DIRECTION_IN.equals(direction)) {
-                processInboundRequest(messageContext, providerConfiguration, provider.getName());
+                String apiKey = GatewayUtils.getAPIKeyForEndpoints(messageContext);
+                if (apiKey != null && !servedApiKeys.contains(apiKey)) {
+                    servedApiKeys.add(apiKey);
+                }
+                RequestTracer.Span rewriteSpan = tracer.startSpan(messageContext, "ai.rewrite");
+                boolean responded = processInboundRequest(messageContext, providerConfiguration, provider.getName());
+                rewriteSpan.end();
+                if (responded || respondFromResponseCache(messageContext)
+                        || respondFromInFlightRequest(messageContext) || rejectByTokenRateLimit(messageContext)
+                        || rejectByAdmissionControl(messageContext)) {
+                    // The request was rejected, or the response was sent from the cache or an identical in-flight
+                    // request, stop the flow
+                    tracer.root(messageContext).setAttribute("ai.served_by_gateway", "true");
+                    tracer.endRequest(messageContext);
+                    return false;
+                }
+                UpstreamMetrics.markSent(messageContext);
+                tracer.startUpstream(messageContext,
+                        (String) messageContext.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT),
+                        getCurrentFailoverIndex(messageContext));
             } else if (APIConstants.AIAPIConstants.TRAFFIC_FLOW_DIRECTION_OUT.equals(direction)) {
                 processOutboundResponse(messageContext, providerConfiguration, llmProviderService, metadataMap,
                         provider.getName());
+                Object targetEndpoint = messageContext.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT);
+                if (APIConstants.AIAPIConstants.EXIT_ENDPOINT.equals(targetEndpoint)
+                        || APIConstants.AIAPIConstants.REJECT_ENDPOINT.equals(targetEndpoint)) {
+                    // No further failover hop, the response goes to the client
+                    AdmissionController.release(messageContext);
+                    tracer.endRequest(messageContext);
+                }
             }
         } catch (Exception e) {
             log.error("Error during mediation.", e);
+            // The flow stops here, so the request makes no further hop
+            AdmissionController.release(messageContext);
             return false;
         }
 
@@ -159,21 +221,30 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
      * @param messageContext        The message context of the request.
      * @param providerConfiguration The configuration of the LLM provider.
      * @param providerName          LLM Service provider
+     * @return {@code true} if a response was already sent to the client and the flow must stop.
      * @throws XMLStreamException If an error occurs while processing the XML stream.
      * @throws IOException        If an I/O error occurs.
      */
-    private void processInboundRequest(MessageContext messageContext,
-                                       LLMProviderConfiguration providerConfiguration,
-                                       String providerName)
+    private boolean processInboundRequest(MessageContext messageContext,
+                                          LLMProviderConfiguration providerConfiguration,
+                                          String providerName)
             throws XMLStreamException, IOException, APIManagementException {
 
+        // Estimate prompt tokens before the payload is changed, for routing and limits ahead of the call
+        TokenEstimator.estimate(messageContext);
+        // Sampled requests are recorded as received from the client, for offline replay
+        TrafficCapture.getInstance().begin(messageContext);
+
         // Check for RequestChangeMediator configuration and execute if present
         String requestChangeConfigs = (String) messageContext.getProperty("requestChangeConfigs");
         if (requestChangeConfigs != null && !requestChangeConfigs.trim().isEmpty()) {
             try {
-                RequestChangeMediator requestChangeMediator = new RequestChangeMediator();
-                requestChangeMediator.setRequestChangeConfigs(requestChangeConfigs);
+                RequestChangeMediator requestChangeMediator = getRequestChangeMediator(requestChangeConfigs);
                 if (!requestChangeMediator.mediate(messageContext)) {
+                    if (messageContext.isResponse()) {
+                        // The request was rejected, for example as untranslatable, and the response is sent
+                        return true;
+                    }
                     log.warn("RequestChangeMediator returned false, continuing with normal flow");
                 } else {
                     // RequestChangeMediator successfully processed the request
@@ -193,15 +264,16 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
         }
 
         if (APIConstants.AIAPIConstants.REJECT_ENDPOINT.equals(targetEndpoint)) {
-            return;
+            return false;
         }
+        prepareCascade(messageContext, requestChangeConfigs != null && !requestChangeConfigs.trim().isEmpty());
 
         Map<String, Object> roundRobinConfigs;
         if (messageContext.getProperty(APIConstants.AIAPIConstants.ROUND_ROBIN_CONFIGS) != null) {
             roundRobinConfigs =
                     (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.ROUND_ROBIN_CONFIGS);
             handleLoadBalancing(messageContext, providerConfiguration, roundRobinConfigs);
-            return;
+            return false;
         }
 
         // Don't override endpoint if RequestChangeMediator already set it
@@ -227,6 +299,90 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
             initFailover(messageContext, providerConfiguration, failoverConfigMap, providerName);
         }
 
+        return false;
+    }
+
+    /**
+     * Keeps what is needed to resend a cascaded request to its escalation endpoint: the payload, headers, HTTP
+     * method and URL postfix as they leave the gateway, and whether the client asked for JSON output. A request
+     * whose draft response cannot be checked, because it is streamed, changed to another provider schema or has
+     * no JSON chat payload, goes to the escalation endpoint straight away.
+     *
+     * @param messageContext   The message context of the request.
+     * @param isRequestChanged Whether the request change mediator rewrote the request.
+     * @throws XMLStreamException If an error occurs while building the request.
+     * @throws IOException        If an I/O error occurs while reading the request.
+     */
+    private void prepareCascade(MessageContext messageContext, boolean isRequestChanged)
+            throws XMLStreamException, IOException {
+
+        Map<String, Object> llmRouteConfigs =
+                (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.LLM_ROUTE_CONFIGS);
+        if (llmRouteConfigs == null || !llmRouteConfigs.containsKey(CascadeRouter.ESCALATION_ENDPOINT)) {
+            return;
+        }
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        Object restUrlPostfix = axis2MessageContext.getProperty(NhttpConstants.REST_URL_POSTFIX);
+        String payload = null;
+        if (!isRequestChanged
+                && !(restUrlPostfix instanceof String && ((String) restUrlPostfix).contains("streamGenerateContent"))) {
+            RelayUtils.buildMessage(axis2MessageContext);
+            if (JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+                payload = JsonUtil.jsonPayloadToString(axis2MessageContext);
+            }
+        }
+        ChatRequestTranslator.ChatRequest request = null;
+        if (payload != null) {
+            try {
+                request = ChatRequestTranslator.parse(payload);
+            } catch (IOException | RuntimeException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Request is not a chat request, skipping the cascade draft: " + e.getMessage());
+                }
+            }
+        }
+        if (request == null || request.isStream()) {
+            ModelEndpointDTO draft =
+                    (ModelEndpointDTO) llmRouteConfigs.get(APIConstants.AIAPIConstants.LLM_TARGET_MODEL_ENDPOINT);
+            ModelEndpointDTO escalation = (ModelEndpointDTO) llmRouteConfigs.remove(CascadeRouter.ESCALATION_ENDPOINT);
+            llmRouteConfigs.put(APIConstants.AIAPIConstants.LLM_TARGET_MODEL_ENDPOINT, escalation);
+            if (draft.getEndpointId().equals(
+                    messageContext.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT))) {
+                messageContext.setProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT, escalation.getEndpointId());
+            }
+            return;
+        }
+        llmRouteConfigs.put(APIConstants.AIAPIConstants.REQUEST_PAYLOAD, payload);
+        llmRouteConfigs.put(APIConstants.AIAPIConstants.REQUEST_HEADERS,
+                axis2MessageContext.getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS));
+        llmRouteConfigs.put(APIConstants.AIAPIConstants.REQUEST_HTTP_METHOD,
+                axis2MessageContext.getProperty(PassThroughConstants.HTTP_METHOD));
+        llmRouteConfigs.put(APIConstants.AIAPIConstants.REQUEST_REST_URL_POSTFIX, restUrlPostfix);
+        llmRouteConfigs.put(CascadeRouter.EXPECT_JSON, CascadeRouter.expectsJson(payload));
+    }
+
+    /**
+     * Returns the request change mediator for the given configuration. Mediators are stateless apart from
+     * their compiled configuration, so one instance is shared by all requests carrying the same configuration.
+     *
+     * @param requestChangeConfigs The request change configuration.
+     * @return The request change mediator.
+     */
+    private RequestChangeMediator getRequestChangeMediator(String requestChangeConfigs) {
+
+        RequestChangeMediator requestChangeMediator = requestChangeMediators.get(requestChangeConfigs);
+        if (requestChangeMediator != null) {
+            return requestChangeMediator;
+        }
+        if (requestChangeMediators.size() >= MAX_REQUEST_CHANGE_MEDIATORS) {
+            requestChangeMediators.clear();
+        }
+        return requestChangeMediators.computeIfAbsent(requestChangeConfigs, configs -> {
+            RequestChangeMediator mediator = new RequestChangeMediator();
+            mediator.setRequestChangeConfigs(configs);
+            return mediator;
+        });
     }
 
     /**
@@ -309,12 +465,12 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
             return;
         }
 
+        EndpointHealthRegistry.ApiEndpoints endpointHealth =
+                EndpointHealthRegistry.getInstance().forApi(GatewayUtils.getAPIKeyForEndpoints(messageContext));
         List<ModelEndpointDTO> failoverEndpoints =
-                GatewayUtils.filterActiveEndpoints(targetConfig.getFallbackModelEndpoints(), messageContext);
+                endpointHealth.filterHealthy(targetConfig.getFallbackModelEndpoints());
 
-        boolean isEndpointSuspended =
-                DataHolder.getInstance().isEndpointSuspended(GatewayUtils.getAPIKeyForEndpoints(messageContext),
-                        GatewayUtils.getEndpointKey(targetModelEndpoint));
+        boolean isEndpointSuspended = endpointHealth.isSuspended(targetModelEndpoint);
 
         if (isEndpointSuspended) {
             if (failoverEndpoints.isEmpty()) {
@@ -490,8 +646,8 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
      * @return The extracted request model as a {@code String}, or {@code null} if the payload is missing,
      * the input source is unsupported, or the attribute is not found.
      */
-    private String extractRequestModelFromJson(LLMProviderMetadata requestModelMetadata,
-                                               org.apache.axis2.context.MessageContext axis2MessageContext) {
+    String extractRequestModelFromJson(LLMProviderMetadata requestModelMetadata,
+                                       org.apache.axis2.context.MessageContext axis2MessageContext) {
 
         if (!JsonUtil.hasAJsonPayload(axis2MessageContext)) {
             log.debug("No JSON payload found.");
@@ -541,6 +697,22 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
                                          String providerName)
             throws APIManagementException, XMLStreamException, IOException {
 
+        // The request is no longer in flight on the deployment chosen by prefix affinity routing
+        PrefixAffinityRouter.release(messageContext);
+        Object upstreamStatus = ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .getProperty(APIMgtGatewayConstants.HTTP_SC);
+        AdmissionController.observe(messageContext, upstreamStatus instanceof Integer ? (Integer) upstreamStatus : 0);
+
+        // Translate a changed request's response first so that metadata is read in the client's schema
+        translateChangedResponse(messageContext);
+        // A cascade draft that is escalated never reaches the client, so it is neither cached nor shared
+        String escalationReason = checkCascadeDraft(messageContext);
+        if (escalationReason == null) {
+            storeInResponseCache(messageContext);
+            completeInFlightRequest(messageContext);
+            TrafficCapture.getInstance().complete(messageContext);
+        }
+
         String payload = extractPayloadFromContext(messageContext, providerConfigs);
         Map<String, String> queryParams = extractQueryParamsFromContext(messageContext);
         Map<String, String> headers = extractHeadersFromContext(messageContext);
@@ -565,6 +737,8 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
             failoverConfigs =
                     (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.FAILOVER_CONFIGS);
         }
+        recordUpstreamResponse(messageContext, metadataMap,
+                getCurrentModelEndpoint(messageContext, roundRobinConfigs, llmRouteConfigs, failoverConfigs));
 
         // Check if RequestChangeMediator was used
         String requestChangeConfigs = (String) messageContext.getProperty("requestChangeConfigs");
@@ -587,6 +761,13 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
                 (int) ((Axis2MessageContext) messageContext).getAxis2MessageContext()
                         .getProperty(APIMgtGatewayConstants.HTTP_SC);
 
+        if (escalationReason != null) {
+            boolean isProviderAzure =
+                    APIConstants.AIAPIConstants.LLM_PROVIDER_SERVICE_AZURE_OPENAI_NAME.equals(providerName);
+            escalateCascade(messageContext, providerConfigs, llmRouteConfigs, escalationReason, !isProviderAzure);
+            return;
+        }
+
         if (handleSuccessfulResponse(messageContext, statusCode, providerConfigs, roundRobinConfigs, llmRouteConfigs, failoverConfigs, isRequestChanged)) {
             return;
         }
@@ -627,6 +808,464 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
                 APIConstants.AIAPIConstants.EXIT_ENDPOINT);
     }
 
+    /**
+     * Serves the request from the response cache if the API's cache policy allows it and a live entry exists.
+     * In semantic mode an exact miss is also looked up in the {@link SemanticResponseCache}. On a miss the cache
+     * keys are kept on the message context so that the response can be stored.
+     *
+     * @param messageContext The message context of the request, after routing and payload changes.
+     * @return {@code true} if the response was sent from the cache.
+     * @throws XMLStreamException If an error occurs while building the request.
+     * @throws IOException        If an I/O error occurs while reading the request.
+     */
+    private boolean respondFromResponseCache(MessageContext messageContext) throws XMLStreamException, IOException {
+
+        if (responseCacheMode == ResponseCache.Mode.OFF) {
+            return false;
+        }
+        Object targetEndpoint = messageContext.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT);
+        if (APIConstants.AIAPIConstants.REJECT_ENDPOINT.equals(targetEndpoint)) {
+            return false;
+        }
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        RelayUtils.buildMessage(axis2MessageContext);
+        if (!JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+            return false;
+        }
+        String payload = JsonUtil.jsonPayloadToString(axis2MessageContext);
+        JsonObject request = ResponseCache.parseRequest(payload);
+        Map<String, String> headers = extractHeadersFromContext(messageContext);
+        String cacheHeader = headers != null ? headers.get(ResponseCache.CACHE_HEADER) : null;
+        if (request == null || !ResponseCache.isCacheable(responseCacheMode, cacheHeader, request)) {
+            return false;
+        }
+
+        ModelEndpointDTO modelEndpoint = getCurrentModelEndpoint(messageContext,
+                (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.ROUND_ROBIN_CONFIGS),
+                (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.LLM_ROUTE_CONFIGS),
+                (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.FAILOVER_CONFIGS));
+        String apiKey = GatewayUtils.getAPIKeyForEndpoints(messageContext);
+        // Unauthenticated requests of an API that does not share its cache only share entries among themselves
+        String consumer = responseCacheShared ? null : consumerOf(messageContext);
+        if (consumer == null && !responseCacheShared) {
+            consumer = "";
+        }
+        String endpointId = targetEndpoint != null ? targetEndpoint.toString() : null;
+        String model = modelEndpoint != null ? modelEndpoint.getModel() : null;
+        // Responses of changed requests are stored in the client's schema, so clients of other schemas need their own
+        String clientSchema = clientSchemaOf(messageContext);
+        String key = ResponseCache.key(apiKey, consumer, endpointId, model, clientSchema, request);
+        ResponseCache.CachedResponse cached = ResponseCache.getInstance().get(key);
+        String cacheStatus = "HIT";
+        if (cached == null && responseCacheMode == ResponseCache.Mode.SEMANTIC) {
+            cached = lookupSemanticCache(messageContext, payload, apiKey, consumer, endpointId, model, clientSchema);
+            cacheStatus = "SEMANTIC_HIT";
+        }
+        if (cached == null) {
+            messageContext.setProperty(ResponseCache.CACHE_KEY, key);
+            messageContext.setProperty(ResponseCache.CACHE_TTL, responseCacheTtlMillis);
+            return false;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Serving AI API response from the response cache: " + cacheStatus);
+        }
+        PrefixAffinityRouter.release(messageContext);
+        DirectResponse.send(messageContext, cached.getStatusCode(), cached.getContentType(), cached.getBody(),
+                Collections.singletonMap(ResponseCache.CACHE_STATUS_HEADER, cacheStatus));
+        return true;
+    }
+
+    /**
+     * Looks up a single turn chat request in the semantic cache. On a miss the namespace and prompt are kept on
+     * the message context so that the response can be stored.
+     *
+     * @return The cached response of a similar prompt, or {@code null}.
+     */
+    private ResponseCache.CachedResponse lookupSemanticCache(MessageContext messageContext, String payload,
+                                                             String apiKey, String consumer, String endpointId,
+                                                             String model, String clientSchema) throws IOException {
+
+        ChatRequestTranslator.ChatRequest chatRequest;
+        try {
+            chatRequest = ChatRequestTranslator.parse(payload);
+        } catch (ChatRequestTranslator.UnsupportedRequestException e) {
+            // Audio, documents and other parts the translator does not model are not looked up by similarity
+            return null;
+        }
+        String prompt = SemanticResponseCache.promptOf(chatRequest);
+        if (prompt == null) {
+            return null;
+        }
+        String namespace = SemanticResponseCache.namespace(apiKey, consumer, endpointId, model, clientSchema,
+                chatRequest.getSystem());
+        ResponseCache.CachedResponse cached =
+                SemanticResponseCache.getInstance().lookup(namespace, prompt, semanticCacheThreshold);
+        if (cached == null) {
+            messageContext.setProperty(SemanticResponseCache.NAMESPACE, namespace);
+            messageContext.setProperty(SemanticResponseCache.PROMPT, prompt);
+        }
+        return cached;
+    }
+
+    /**
+     * Stores a successful JSON response in the response cache if the request missed the cache.
+     *
+     * @param messageContext The message context of the response.
+     * @throws XMLStreamException If an error occurs while building the response.
+     * @throws IOException        If an I/O error occurs while reading the response.
+     */
+    private void storeInResponseCache(MessageContext messageContext) throws XMLStreamException, IOException {
+
+        String key = (String) messageContext.getProperty(ResponseCache.CACHE_KEY);
+        if (key == null) {
+            return;
+        }
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        Object statusCode = axis2MessageContext.getProperty(APIMgtGatewayConstants.HTTP_SC);
+        if (!(statusCode instanceof Integer) || (Integer) statusCode < 200 || (Integer) statusCode >= 300) {
+            return;
+        }
+        String contentType = (String) axis2MessageContext.getProperty(APIMgtGatewayConstants.REST_CONTENT_TYPE);
+        if (contentType == null || !contentType.toLowerCase().contains(MediaType.APPLICATION_JSON)) {
+            return;
+        }
+        RelayUtils.buildMessage(axis2MessageContext);
+        if (JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+            Long ttl = (Long) messageContext.getProperty(ResponseCache.CACHE_TTL);
+            long ttlMillis = ttl != null ? ttl : responseCacheTtlMillis;
+            String body = JsonUtil.jsonPayloadToString(axis2MessageContext);
+            ResponseCache.getInstance().put(key, (Integer) statusCode, contentType, body, ttlMillis);
+            String namespace = (String) messageContext.getProperty(SemanticResponseCache.NAMESPACE);
+            if (namespace != null) {
+                SemanticResponseCache.getInstance().store(namespace,
+                        (String) messageContext.getProperty(SemanticResponseCache.PROMPT), (Integer) statusCode,
+                        contentType, body, ttlMillis);
+            }
+        }
+        // Failover retries of the same request must not store again
+        messageContext.setProperty(ResponseCache.CACHE_KEY, null);
+        messageContext.setProperty(SemanticResponseCache.NAMESPACE, null);
+    }
+
+    /**
+     * Coalesces the request with an identical request of the same consumer already in flight if the API's coalescing
+     * policy allows it. The first of identical requests goes upstream and the others wait for its response, up to
+     * {@code coalescingMaxWaiters} requests for at most {@code coalescingTimeout} and never more than a quarter of
+     * the upstream timeout; requests that cannot wait or time out go upstream themselves. If the leader fails, one
+     * waiting request takes over the flight and goes upstream while the others keep waiting. Streaming requests,
+     * by body flag or by streaming endpoint, are never coalesced.
+     *
+     * @param messageContext The message context of the request, after routing and payload changes.
+     * @return {@code true} if the response of the identical request was sent.
+     * @throws XMLStreamException   If an error occurs while building the request.
+     * @throws IOException          If an I/O error occurs while reading the request.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private boolean respondFromInFlightRequest(MessageContext messageContext)
+            throws XMLStreamException, IOException, InterruptedException {
+
+        if (requestCoalescingMode == RequestCoalescer.Mode.OFF) {
+            return false;
+        }
+        Object targetEndpoint = messageContext.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT);
+        if (APIConstants.AIAPIConstants.REJECT_ENDPOINT.equals(targetEndpoint)) {
+            return false;
+        }
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        RelayUtils.buildMessage(axis2MessageContext);
+        if (!JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+            return false;
+        }
+        JsonObject request = ResponseCache.parseRequest(JsonUtil.jsonPayloadToString(axis2MessageContext));
+        Map<String, String> headers = extractHeadersFromContext(messageContext);
+        String cacheHeader = headers != null ? headers.get(ResponseCache.CACHE_HEADER) : null;
+        if (request == null || !RequestCoalescer.isCoalescable(requestCoalescingMode, cacheHeader, request)
+                || isStreamingEndpoint(messageContext)) {
+            return false;
+        }
+
+        ModelEndpointDTO modelEndpoint = getCurrentModelEndpoint(messageContext,
+                (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.ROUND_ROBIN_CONFIGS),
+                (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.LLM_ROUTE_CONFIGS),
+                (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.FAILOVER_CONFIGS));
+        String consumer = consumerOf(messageContext);
+        String key = ResponseCache.key(GatewayUtils.getAPIKeyForEndpoints(messageContext),
+                consumer != null ? consumer : "", targetEndpoint != null ? targetEndpoint.toString() : null,
+                modelEndpoint != null ? modelEndpoint.getModel() : null, clientSchemaOf(messageContext), request);
+        RequestCoalescer coalescer = RequestCoalescer.getInstance();
+        RequestCoalescer.Flight flight = coalescer.lead(key, coalescingTimeoutMillis);
+        if (flight != null) {
+            messageContext.setProperty(RequestCoalescer.FLIGHT, flight);
+            return false;
+        }
+        // A follower that gives up still makes its own call, so it only waits for a part of the upstream timeout
+        long waitMillis = coalescingTimeoutMillis;
+        Object requestTimeout = messageContext.getProperty(APIConstants.AIAPIConstants.REQUEST_TIMEOUT);
+        if (requestTimeout instanceof Number && ((Number) requestTimeout).longValue() > 0) {
+            waitMillis = Math.min(waitMillis, ((Number) requestTimeout).longValue() / 4);
+        }
+        RequestCoalescer.Outcome outcome = coalescer.follow(key, coalescingMaxWaiters, waitMillis);
+        if (outcome.getFlight() != null) {
+            // The leader failed and this request takes over the flight
+            messageContext.setProperty(RequestCoalescer.FLIGHT, outcome.getFlight());
+            return false;
+        }
+        RequestCoalescer.CoalescedResponse response = outcome.getResponse();
+        if (response == null) {
+            return false;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Serving AI API response of an identical in-flight request");
+        }
+        PrefixAffinityRouter.release(messageContext);
+        DirectResponse.send(messageContext, response.getStatusCode(), response.getContentType(), response.getBody(),
+                Collections.singletonMap(ResponseCache.CACHE_STATUS_HEADER, "COALESCED"));
+        return true;
+    }
+
+    /**
+     * Checks whether the request goes to a provider endpoint that streams without a body flag, Gemini's
+     * {@code streamGenerateContent} or Bedrock's {@code invoke-with-response-stream}.
+     *
+     * @param messageContext The message context of the request.
+     * @return {@code true} if the request streams by its URL.
+     */
+    private static boolean isStreamingEndpoint(MessageContext messageContext) {
+
+        Object address = ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .getProperty("ENDPOINT_ADDRESS");
+        Object path = messageContext.getProperty(RESTConstants.REST_FULL_REQUEST_PATH);
+        for (Object url : new Object[]{address, path}) {
+            if (url instanceof String && (((String) url).contains(":streamGenerateContent")
+                    || ((String) url).contains("/invoke-with-response-stream"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the consumer of the request: the subscribed application, or the user for requests without one.
+     *
+     * @param messageContext The message context of the request.
+     * @return The application ID or user name, or {@code null} for unauthenticated requests.
+     */
+    private static String consumerOf(MessageContext messageContext) {
+
+        AuthenticationContext authContext = APISecurityUtils.getAuthenticationContext(messageContext);
+        if (authContext == null) {
+            return null;
+        }
+        return authContext.getApplicationId() != null ? authContext.getApplicationId() : authContext.getUsername();
+    }
+
+    /**
+     * Returns the schema the client sent a request changed by {@link RequestChangeMediator} in.
+     *
+     * @param messageContext The message context of the request.
+     * @return The schema name, or {@code null} if the request was not changed to another schema.
+     */
+    private static String clientSchemaOf(MessageContext messageContext) {
+
+        Object clientSchema = messageContext.getProperty(ChatResponseTranslator.CLIENT_SCHEMA);
+        return clientSchema instanceof ChatSchema ? ((ChatSchema) clientSchema).name() : null;
+    }
+
+    /**
+     * Reserves the tokens of the request against the token rate limit of its subscription tier, see
+     * {@link SubscriptionTokenLimiter}. Requests that do not fit the rest of the limit are rejected with 429 and a
+     * {@code Retry-After} header.
+     *
+     * @param messageContext The message context of the request.
+     * @return {@code true} if the request was rejected.
+     * @throws AxisFault If the rejection could not be sent.
+     */
+    private boolean rejectByTokenRateLimit(MessageContext messageContext) throws AxisFault {
+
+        if (tokenRateLimits.isEmpty() || APIConstants.AIAPIConstants.REJECT_ENDPOINT.equals(
+                messageContext.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT))) {
+            return false;
+        }
+        AuthenticationContext authContext = APISecurityUtils.getAuthenticationContext(messageContext);
+        String tier = authContext != null ? authContext.getTier() : null;
+        Long limit = tier != null ? tokenRateLimits.get(tier) : null;
+        if (limit == null) {
+            return false;
+        }
+        String consumer = consumerOf(messageContext);
+        if (consumer == null) {
+            return false;
+        }
+        Object maxOutputTokens = messageContext.getProperty(TokenEstimator.MAX_OUTPUT_TOKENS);
+        SubscriptionTokenLimiter.Decision decision = SubscriptionTokenLimiter.getInstance().reserve(
+                GatewayUtils.getAPIKeyForEndpoints(messageContext), consumer, limit,
+                TokenEstimator.estimate(messageContext),
+                maxOutputTokens instanceof Integer ? (Integer) maxOutputTokens : 0);
+        if (decision.getReservation() != null) {
+            messageContext.setProperty(SubscriptionTokenLimiter.RESERVATION, decision.getReservation());
+            return false;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Rejecting AI API request of tier " + tier + " by the token rate limit of its subscription");
+        }
+        RequestCoalescer.Flight flight = (RequestCoalescer.Flight) messageContext.getProperty(RequestCoalescer.FLIGHT);
+        if (flight != null) {
+            flight.abandon();
+        }
+        PrefixAffinityRouter.release(messageContext);
+        MediationEventLog.getInstance().record(MediationEventLog.Type.TOKEN_RATE_LIMITED, messageContext, null, null,
+                null, decision.getLimit(), tier);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Retry-After",
+                String.valueOf(Math.max(1L, (long) Math.ceil(decision.getRetryAfterMillis() / 1000.0d))));
+        headers.put("x-ratelimit-limit-tokens", String.valueOf(decision.getLimit()));
+        headers.put("x-ratelimit-remaining-tokens", String.valueOf(decision.getRemaining()));
+        DirectResponse.sendError(messageContext, HttpStatus.SC_TOO_MANY_REQUESTS, "rate_limit_exceeded",
+                "The token rate limit of the subscription is exceeded, please retry later", headers);
+        return true;
+    }
+
+    /**
+     * Admits the request under the API's adaptive concurrency limit and its subscription tier's share of it.
+     * Requests beyond either are rejected at once with 503 and a {@code Retry-After} header.
+     *
+     * @param messageContext The message context of the request.
+     * @return {@code true} if the request was rejected.
+     * @throws AxisFault If the rejection could not be sent.
+     */
+    private boolean rejectByAdmissionControl(MessageContext messageContext) throws AxisFault {
+
+        if (!admissionControl || APIConstants.AIAPIConstants.REJECT_ENDPOINT.equals(
+                messageContext.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT))) {
+            return false;
+        }
+        AuthenticationContext authContext = APISecurityUtils.getAuthenticationContext(messageContext);
+        String tier = authContext != null ? authContext.getTier() : null;
+        Integer weight = tier != null ? admissionTierWeights.get(tier) : null;
+        AdmissionController.Decision decision = AdmissionController.getInstance().acquire(
+                GatewayUtils.getAPIKeyForEndpoints(messageContext), tier, weight != null ? weight : 1);
+        if (decision.getPermit() != null) {
+            messageContext.setProperty(AdmissionController.PERMIT, decision.getPermit());
+            return false;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Rejecting AI API request of tier " + tier + " by admission control");
+        }
+        // The request never reaches upstream, so it uses none of the tokens it reserved
+        SubscriptionTokenLimiter.reconcile(messageContext, 0L);
+        RequestCoalescer.Flight flight = (RequestCoalescer.Flight) messageContext.getProperty(RequestCoalescer.FLIGHT);
+        if (flight != null) {
+            flight.abandon();
+        }
+        PrefixAffinityRouter.release(messageContext);
+        long retryAfterSeconds = Math.max(1L, (long) Math.ceil(decision.getRetryAfterMillis() / 1000.0d));
+        DirectResponse.sendError(messageContext, HttpStatus.SC_SERVICE_UNAVAILABLE, "server_overloaded",
+                "The API is overloaded, please retry later", Collections.singletonMap("Retry-After",
+                        String.valueOf(retryAfterSeconds)));
+        return true;
+    }
+
+    /**
+     * Hands a successful response to the requests waiting on the flight led by this request. Any other response
+     * ends the flight without a response, so that the waiting requests go upstream themselves.
+     *
+     * @param messageContext The message context of the response.
+     * @throws XMLStreamException If an error occurs while building the response.
+     * @throws IOException        If an I/O error occurs while reading the response.
+     */
+    private void completeInFlightRequest(MessageContext messageContext) throws XMLStreamException, IOException {
+
+        RequestCoalescer.Flight flight = (RequestCoalescer.Flight) messageContext.getProperty(RequestCoalescer.FLIGHT);
+        if (flight == null) {
+            return;
+        }
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        Object statusCode = axis2MessageContext.getProperty(APIMgtGatewayConstants.HTTP_SC);
+        if (!(statusCode instanceof Integer) || (Integer) statusCode <= 0) {
+            // No response yet
+            return;
+        }
+        // Failover retries of the same request must not complete again
+        messageContext.setProperty(RequestCoalescer.FLIGHT, null);
+        String contentType = (String) axis2MessageContext.getProperty(APIMgtGatewayConstants.REST_CONTENT_TYPE);
+        if ((Integer) statusCode < 200 || (Integer) statusCode >= 300 || contentType == null
+                || flight.getFollowers() == 0) {
+            flight.abandon();
+            return;
+        }
+
+        // Only complete JSON responses are shared; an event stream is relayed to the leader without being buffered
+        if (!contentType.toLowerCase().contains(MediaType.APPLICATION_JSON)) {
+            flight.abandon();
+            return;
+        }
+        RelayUtils.buildMessage(axis2MessageContext);
+        String body = JsonUtil.hasAJsonPayload(axis2MessageContext)
+                ? JsonUtil.jsonPayloadToString(axis2MessageContext) : null;
+        if (body == null) {
+            flight.abandon();
+            return;
+        }
+        flight.complete((Integer) statusCode, contentType, body);
+    }
+
+    /**
+     * Translates the response of a request rerouted by {@link RequestChangeMediator} back into the schema the
+     * client sent the request in. Only successful responses are translated; error responses are passed through
+     * as returned by the provider. A response that cannot be read or translated is returned unchanged.
+     *
+     * @param messageContext The message context containing the response.
+     */
+    private void translateChangedResponse(MessageContext messageContext) {
+
+        ChatSchema clientSchema = (ChatSchema) messageContext.getProperty(ChatResponseTranslator.CLIENT_SCHEMA);
+        ChatSchema providerSchema = (ChatSchema) messageContext.getProperty(ChatResponseTranslator.PROVIDER_SCHEMA);
+        if (clientSchema == null || providerSchema == null
+                || !ChatResponseTranslator.needsTranslation(providerSchema, clientSchema)) {
+            return;
+        }
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        Object statusCode = axis2MessageContext.getProperty(APIMgtGatewayConstants.HTTP_SC);
+        if (!(statusCode instanceof Integer) || (Integer) statusCode < 200 || (Integer) statusCode >= 300) {
+            return;
+        }
+        String contentType = (String) axis2MessageContext.getProperty(APIMgtGatewayConstants.REST_CONTENT_TYPE);
+        if (contentType == null) {
+            return;
+        }
+
+        String normalizedContentType = contentType.toLowerCase();
+        // Streamed requests needing translation are rejected by RequestChangeMediator, so only complete JSON
+        // responses are translated here
+        if (!normalizedContentType.contains(MediaType.APPLICATION_JSON)) {
+            return;
+        }
+        try {
+            RelayUtils.buildMessage(axis2MessageContext);
+            if (JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+                String translated = ChatResponseTranslator.translate(
+                        JsonUtil.jsonPayloadToString(axis2MessageContext), providerSchema, clientSchema);
+                JsonUtil.getNewJsonPayload(axis2MessageContext, translated, true, true);
+            }
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            log.warn("Could not translate " + providerSchema + " response to " + clientSchema
+                    + " schema, returning it unchanged", e);
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Translated " + providerSchema + " response to " + clientSchema + " schema");
+        }
+    }
+
     /**
      * Handles the successful response by checking the status code and processing token count headers.
      * If the remaining token count is zero or below, it triggers the suspension of the target endpoint
@@ -664,6 +1303,9 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
             }
             if (remainingTokenCountHeader != null && transportHeaders.containsKey(remainingTokenCountHeader)) {
                 long remainingTokenCount = Long.parseLong((String) transportHeaders.get(remainingTokenCountHeader));
+                recordRemainingTokens(messageContext,
+                        getCurrentModelEndpoint(messageContext, roundRobinConfigs, llmRouteConfigs, failoverConfigs),
+                        remainingTokenCount);
                 if (remainingTokenCount <= 0) {
                     if (roundRobinConfigs != null) {
 
@@ -709,6 +1351,10 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
                     }
                 }
             }
+            if (statusCode >= 200 && statusCode < 300) {
+                recordEndpointSuccess(messageContext,
+                        getCurrentModelEndpoint(messageContext, roundRobinConfigs, llmRouteConfigs, failoverConfigs));
+            }
 
             messageContext.setProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT,
                     APIConstants.AIAPIConstants.EXIT_ENDPOINT);
@@ -742,8 +1388,230 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
         if (targetModel == null || targetEndpoint == null || suspendDuration == null) {
             return;
         }
-        DataHolder.getInstance().suspendEndpoint(GatewayUtils.getAPIKeyForEndpoints(messageContext),
-                getEndpointId(targetEndpoint, targetModel), suspendDuration);
+        UpstreamMetrics.getInstance().recordSuspension(targetEndpoint, targetModel);
+        MediationEventLog.getInstance().record(MediationEventLog.Type.ENDPOINT_SUSPENDED, messageContext, null,
+                targetEndpoint, targetModel, suspendDuration, null);
+        String apiKey = GatewayUtils.getAPIKeyForEndpoints(messageContext);
+        EndpointHealthRegistry.EndpointHealth health =
+                EndpointHealthRegistry.getInstance().forApi(apiKey).suspend(targetEndpoint, targetModel,
+                        suspendDuration);
+        EndpointHealthSync.getInstance().publishSuspension(health, suspendDuration);
+    }
+
+    /**
+     * Resolves the model endpoint that served the current response from the active routing configuration.
+     *
+     * @param messageContext    The Synapse {@link MessageContext} of the response.
+     * @param roundRobinConfigs The configuration for round robin load balancing.
+     * @param llmRouteConfigs   The configuration for LLM routing.
+     * @param failoverConfigs   The configuration for failover handling.
+     * @return The model endpoint the request was sent to, or {@code null} if it cannot be determined.
+     */
+    private ModelEndpointDTO getCurrentModelEndpoint(MessageContext messageContext,
+                                                     Map<String, Object> roundRobinConfigs,
+                                                     Map<String, Object> llmRouteConfigs,
+                                                     Map<String, Object> failoverConfigs) {
+
+        if (roundRobinConfigs != null) {
+            return (ModelEndpointDTO) roundRobinConfigs.get(APIConstants.AIAPIConstants.TARGET_MODEL_ENDPOINT);
+        }
+        if (llmRouteConfigs != null) {
+            return (ModelEndpointDTO) llmRouteConfigs.get(APIConstants.AIAPIConstants.LLM_TARGET_MODEL_ENDPOINT);
+        }
+        if (failoverConfigs != null) {
+            int currentEndpointIndex = getCurrentFailoverIndex(messageContext);
+            if (currentEndpointIndex == 0) {
+                return (ModelEndpointDTO) failoverConfigs
+                        .get(APIConstants.AIAPIConstants.FAILOVER_TARGET_MODEL_ENDPOINT);
+            }
+            List<ModelEndpointDTO> failoverEndpoints =
+                    (List<ModelEndpointDTO>) failoverConfigs.get(APIConstants.AIAPIConstants.FAILOVER_ENDPOINTS);
+            if (failoverEndpoints != null && currentEndpointIndex <= failoverEndpoints.size()) {
+                return failoverEndpoints.get(currentEndpointIndex - 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Clears the consecutive failure count of the endpoint that served a successful response.
+     *
+     * @param messageContext The Synapse {@link MessageContext} of the response.
+     * @param modelEndpoint  The model endpoint that served the response.
+     */
+    private void recordEndpointSuccess(MessageContext messageContext, ModelEndpointDTO modelEndpoint) {
+
+        if (modelEndpoint == null) {
+            return;
+        }
+        EndpointHealthRegistry.EndpointHealth health = EndpointHealthRegistry.getInstance()
+                .forApi(GatewayUtils.getAPIKeyForEndpoints(messageContext))
+                .find(modelEndpoint.getEndpointId(), modelEndpoint.getModel());
+        if (health != null && health.getConsecutiveFailures() > 0) {
+            health.recordSuccess();
+            // Only a suspension that ended here is lifted on the other nodes; while this node still holds one,
+            // the response was in flight before it and says nothing about the endpoint's recovery
+            if (health.clearEndedSuspension(System.currentTimeMillis())) {
+                EndpointHealthSync.getInstance().publishResume(health);
+            }
+        }
+    }
+
+    /**
+     * Records the remaining token budget reported by the provider against the endpoint that served the
+     * response and shares it with the other gateway nodes.
+     *
+     * @param messageContext  The Synapse {@link MessageContext} of the response.
+     * @param modelEndpoint   The model endpoint that served the response.
+     * @param remainingTokens The remaining token count reported by the provider.
+     */
+    private void recordRemainingTokens(MessageContext messageContext, ModelEndpointDTO modelEndpoint,
+                                       long remainingTokens) {
+
+        if (modelEndpoint == null || modelEndpoint.getEndpointId() == null || modelEndpoint.getModel() == null) {
+            return;
+        }
+        EndpointHealthRegistry.EndpointHealth health = EndpointHealthRegistry.getInstance()
+                .forApi(GatewayUtils.getAPIKeyForEndpoints(messageContext))
+                .handle(modelEndpoint.getEndpointId(), modelEndpoint.getModel());
+        health.recordRemainingTokens(remainingTokens, System.currentTimeMillis());
+        EndpointHealthSync.getInstance().publishTokenBudget(health, remainingTokens);
+    }
+
+    /**
+     * Records the latency, throughput and status of an upstream response against the endpoint that served it, and
+     * ends the trace span of the attempt. Without a routing configuration the response is recorded against the
+     * target endpoint of the request and the model reported in the response.
+     *
+     * @param messageContext The Synapse {@link MessageContext} of the response.
+     * @param metadataMap    The response metadata extracted by the provider connector.
+     * @param modelEndpoint  The model endpoint that served the response, or {@code null} if not routed.
+     */
+    private void recordUpstreamResponse(MessageContext messageContext, Map<String, String> metadataMap,
+                                        ModelEndpointDTO modelEndpoint) {
+
+        Object statusCode = ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .getProperty(APIMgtGatewayConstants.HTTP_SC);
+        if (!(statusCode instanceof Integer)) {
+            return;
+        }
+        String endpointId = modelEndpoint != null ? modelEndpoint.getEndpointId()
+                : (String) messageContext.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT);
+        String model = modelEndpoint != null ? modelEndpoint.getModel()
+                : metadataMap.get(APIConstants.AIAPIConstants.LLM_PROVIDER_SERVICE_METADATA_RESPONSE_MODEL);
+        long completionTokens = tokenCount(metadataMap,
+                APIConstants.AIAPIConstants.LLM_PROVIDER_SERVICE_METADATA_COMPLETION_TOKEN_COUNT);
+        long totalTokens = tokenCount(metadataMap,
+                APIConstants.AIAPIConstants.LLM_PROVIDER_SERVICE_METADATA_TOTAL_TOKEN_COUNT);
+        if (totalTokens < 0 && completionTokens >= 0) {
+            long promptTokens = tokenCount(metadataMap,
+                    APIConstants.AIAPIConstants.LLM_PROVIDER_SERVICE_METADATA_PROMPT_TOKEN_COUNT);
+            totalTokens = promptTokens >= 0 ? promptTokens + completionTokens : -1;
+        }
+        SubscriptionTokenLimiter.reconcile(messageContext, totalTokens);
+        long latencyNanos = UpstreamMetrics.elapsedNanos(messageContext);
+        EndpointScoreboard.getInstance().record(endpointId, model, (Integer) statusCode,
+                latencyNanos >= 0 ? latencyNanos / 1e6d : -1.0d);
+        UpstreamMetrics.getInstance().recordResponse(messageContext, endpointId, model, (Integer) statusCode,
+                completionTokens);
+        RequestTracer.getInstance().endUpstream(messageContext, endpointId, model, (Integer) statusCode,
+                completionTokens);
+        MediationEventLog.getInstance().record(MediationEventLog.Type.UPSTREAM_RESPONSE, messageContext, null,
+                endpointId, model, (Integer) statusCode, null);
+    }
+
+    /**
+     * Reads a token count from the response metadata.
+     *
+     * @return The token count, or -1 if the provider reported none.
+     */
+    private static long tokenCount(Map<String, String> metadataMap, String key) {
+
+        String tokenCount = metadataMap.get(key);
+        if (tokenCount != null) {
+            try {
+                return Long.parseLong(tokenCount.trim());
+            } catch (NumberFormatException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Ignoring non-numeric token count " + key + ": " + tokenCount);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the response of a cascade draft, if the request is one.
+     *
+     * @param messageContext The message context of the response.
+     * @return Why the draft is escalated, or {@code null} if the response goes to the client.
+     * @throws XMLStreamException If an error occurs while building the response.
+     * @throws IOException        If an I/O error occurs while reading the response.
+     */
+    private String checkCascadeDraft(MessageContext messageContext) throws XMLStreamException, IOException {
+
+        Map<String, Object> llmRouteConfigs =
+                (Map<String, Object>) messageContext.getProperty(APIConstants.AIAPIConstants.LLM_ROUTE_CONFIGS);
+        if (llmRouteConfigs == null || !llmRouteConfigs.containsKey(CascadeRouter.ESCALATION_ENDPOINT)
+                || !llmRouteConfigs.containsKey(APIConstants.AIAPIConstants.REQUEST_PAYLOAD)) {
+            return null;
+        }
+        Object statusCode = ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .getProperty(APIMgtGatewayConstants.HTTP_SC);
+        if (!(statusCode instanceof Integer) || (Integer) statusCode <= 0) {
+            return null;
+        }
+        CascadeRouter cascade = (CascadeRouter) llmRouteConfigs.get(CascadeRouter.ROUTER);
+        String payload = (Integer) statusCode >= 200 && (Integer) statusCode < 300
+                ? getPayload(((Axis2MessageContext) messageContext).getAxis2MessageContext()) : null;
+        Object maxTokens = messageContext.getProperty(TokenEstimator.MAX_OUTPUT_TOKENS);
+        String reason = cascade.check((Integer) statusCode, payload,
+                Boolean.TRUE.equals(llmRouteConfigs.get(CascadeRouter.EXPECT_JSON)),
+                maxTokens instanceof Integer ? (Integer) maxTokens : 0);
+        if (reason == null) {
+            // The draft is the answer, later responses of this request are not drafts
+            llmRouteConfigs.remove(CascadeRouter.ESCALATION_ENDPOINT);
+        }
+        return reason;
+    }
+
+    /**
+     * Resends a cascaded request whose draft was rejected to the escalation endpoint, like a failover hop.
+     *
+     * @param messageContext        The message context of the draft response.
+     * @param providerConfiguration The LLM provider configuration.
+     * @param llmRouteConfigs       The LLM route configs of the request.
+     * @param reason                Why the draft was rejected.
+     * @param modifyRequestPayload  Whether to set the escalation model in the request payload.
+     * @throws XMLStreamException If an error occurs while restoring the request.
+     * @throws IOException        If an I/O error occurs while restoring the request.
+     */
+    private void escalateCascade(MessageContext messageContext, LLMProviderConfiguration providerConfiguration,
+                                 Map<String, Object> llmRouteConfigs, String reason, boolean modifyRequestPayload)
+            throws XMLStreamException, IOException {
+
+        ModelEndpointDTO draft =
+                (ModelEndpointDTO) llmRouteConfigs.get(APIConstants.AIAPIConstants.LLM_TARGET_MODEL_ENDPOINT);
+        ModelEndpointDTO escalation = (ModelEndpointDTO) llmRouteConfigs.remove(CascadeRouter.ESCALATION_ENDPOINT);
+        updateJsonPayloadWithRequestPayload(messageContext,
+                (String) llmRouteConfigs.get(APIConstants.AIAPIConstants.REQUEST_PAYLOAD));
+        if (modifyRequestPayload) {
+            modifyRequestPayload(escalation.getModel(), providerConfiguration, messageContext);
+        }
+        updateRequestMetadata(messageContext, llmRouteConfigs);
+        llmRouteConfigs.put(APIConstants.AIAPIConstants.LLM_TARGET_MODEL_ENDPOINT, escalation);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Escalating cascade draft of model " + draft.getModel() + " to model "
+                    + escalation.getModel() + ": " + reason);
+        }
+        UpstreamMetrics.getInstance().recordCascadeEscalation(draft.getEndpointId(), draft.getModel());
+        MediationEventLog.getInstance().record(MediationEventLog.Type.CASCADE_ESCALATED, messageContext, null,
+                draft.getEndpointId(), draft.getModel(), 0, reason);
+        RequestTracer.getInstance().root(messageContext).setAttribute("ai.cascade.escalated", reason);
+        messageContext.setProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT, escalation.getEndpointId());
+        UpstreamMetrics.markSent(messageContext);
+        RequestTracer.getInstance().startUpstream(messageContext, escalation.getEndpointId(), 1);
     }
 
     /**
@@ -795,7 +1663,18 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
         }
         updateRequestMetadata(messageContext, failoverConfigs);
 
+        ModelEndpointDTO failedEndpoint = currentEndpointIndex == 0
+                ? (ModelEndpointDTO) failoverConfigs.get(APIConstants.AIAPIConstants.FAILOVER_TARGET_MODEL_ENDPOINT)
+                : failoverEndpoints.get(currentEndpointIndex - 1);
+        if (failedEndpoint != null) {
+            UpstreamMetrics.getInstance().recordFailoverHop(failedEndpoint.getEndpointId(), failedEndpoint.getModel());
+            MediationEventLog.getInstance().record(MediationEventLog.Type.FAILOVER_HOP, messageContext, null,
+                    failedEndpoint.getEndpointId(), failedEndpoint.getModel(), currentEndpointIndex + 1, null);
+        }
         updateTargetEndpoint(messageContext, currentEndpointIndex + 1, failoverEndpoint);
+        UpstreamMetrics.markSent(messageContext);
+        RequestTracer.getInstance().startUpstream(messageContext, failoverEndpoint.getEndpointId(),
+                currentEndpointIndex + 1);
     }
 
     /**
@@ -979,8 +1858,8 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
      * @param newValue            The new value to set for the specified property.
      * @throws AxisFault If an error occurs while modifying the JSON payload.
      */
-    private static void modifyJsonPayload(org.apache.axis2.context.MessageContext axis2MessageContext,
-                                          String jsonPath, String newValue) throws AxisFault {
+    static void modifyJsonPayload(org.apache.axis2.context.MessageContext axis2MessageContext,
+                                  String jsonPath, String newValue) throws AxisFault {
 
         if (!JsonUtil.hasAJsonPayload(axis2MessageContext)) {
             return;
@@ -1083,6 +1962,246 @@ public class AIAPIMediator extends AbstractMediator implements ManagedLifecycle
         this.direction = direction;
     }
 
+    /**
+     * Retrieves the response cache policy of the API.
+     *
+     * @return The response cache mode.
+     */
+    public String getResponseCacheMode() {
+
+        return responseCacheMode.name();
+    }
+
+    /**
+     * Sets the response cache policy of the API: {@code off} (the default), {@code opt_in} (only requests with
+     * {@code X-AI-Cache: true}), {@code deterministic} (also requests with a temperature of 0) or
+     * {@code semantic} (as deterministic, also serving paraphrases of earlier single turn prompts).
+     *
+     * @param responseCacheMode The response cache mode.
+     */
+    public void setResponseCacheMode(String responseCacheMode) {
+
+        this.responseCacheMode = ResponseCache.Mode.parse(responseCacheMode);
+    }
+
+    /**
+     * Retrieves whether cached responses of the API are shared across consumers.
+     *
+     * @return {@code true} if cached responses are shared.
+     */
+    public String getResponseCacheShared() {
+
+        return String.valueOf(responseCacheShared);
+    }
+
+    /**
+     * Shares cached responses of the API across all its consumers. By default a response is only served again to
+     * the application (or user) whose request stored it.
+     *
+     * @param responseCacheShared {@code true} to share cached responses across consumers.
+     */
+    public void setResponseCacheShared(String responseCacheShared) {
+
+        this.responseCacheShared = Boolean.parseBoolean(responseCacheShared.trim());
+    }
+
+    /**
+     * Retrieves how long cached responses of the API stay valid.
+     *
+     * @return The TTL in seconds.
+     */
+    public String getResponseCacheTtl() {
+
+        return String.valueOf(responseCacheTtlMillis / APIConstants.AIAPIConstants.MILLISECONDS_IN_SECOND);
+    }
+
+    /**
+     * Sets how long cached responses of the API stay valid.
+     *
+     * @param responseCacheTtl The TTL in seconds.
+     */
+    public void setResponseCacheTtl(String responseCacheTtl) {
+
+        this.responseCacheTtlMillis = Long.parseLong(responseCacheTtl.trim())
+                * APIConstants.AIAPIConstants.MILLISECONDS_IN_SECOND;
+    }
+
+    /**
+     * Retrieves the request coalescing policy of the API.
+     *
+     * @return The request coalescing mode.
+     */
+    public String getRequestCoalescing() {
+
+        return requestCoalescingMode.name();
+    }
+
+    /**
+     * Sets the request coalescing policy of the API: {@code off} (the default), {@code deterministic} (requests with
+     * a temperature of 0 or {@code X-AI-Cache: true}) or {@code all}. Streaming requests are never coalesced.
+     *
+     * @param requestCoalescing The request coalescing mode.
+     */
+    public void setRequestCoalescing(String requestCoalescing) {
+
+        this.requestCoalescingMode = RequestCoalescer.Mode.parse(requestCoalescing);
+    }
+
+    /**
+     * Retrieves how long a request waits for an identical in-flight request.
+     *
+     * @return The timeout in seconds.
+     */
+    public String getCoalescingTimeout() {
+
+        return String.valueOf(coalescingTimeoutMillis / APIConstants.AIAPIConstants.MILLISECONDS_IN_SECOND);
+    }
+
+    /**
+     * Sets how long a request waits for an identical in-flight request before going upstream itself. The wait is
+     * further capped at a quarter of the upstream request timeout.
+     *
+     * @param coalescingTimeout The timeout in seconds.
+     */
+    public void setCoalescingTimeout(String coalescingTimeout) {
+
+        this.coalescingTimeoutMillis = Long.parseLong(coalescingTimeout.trim())
+                * APIConstants.AIAPIConstants.MILLISECONDS_IN_SECOND;
+    }
+
+    /**
+     * Retrieves the maximum number of requests waiting for one in-flight request.
+     *
+     * @return The maximum number of waiters.
+     */
+    public String getCoalescingMaxWaiters() {
+
+        return String.valueOf(coalescingMaxWaiters);
+    }
+
+    /**
+     * Sets the maximum number of requests waiting for one in-flight request. Waiting requests hold a mediation
+     * thread, so this bounds the threads a burst of identical requests can occupy.
+     *
+     * @param coalescingMaxWaiters The maximum number of waiters.
+     */
+    public void setCoalescingMaxWaiters(String coalescingMaxWaiters) {
+
+        this.coalescingMaxWaiters = Integer.parseInt(coalescingMaxWaiters.trim());
+    }
+
+    /**
+     * Retrieves whether admission control is enabled for the API.
+     *
+     * @return {@code true} if admission control is enabled.
+     */
+    public String getAdmissionControl() {
+
+        return String.valueOf(admissionControl);
+    }
+
+    /**
+     * Enables admission control for the API, see {@link AdmissionController}.
+     *
+     * @param admissionControl {@code true} to enable admission control.
+     */
+    public void setAdmissionControl(String admissionControl) {
+
+        this.admissionControl = Boolean.parseBoolean(admissionControl.trim());
+    }
+
+    /**
+     * Retrieves the admission weights of subscription tiers.
+     *
+     * @return The weights as comma separated {@code tier:weight} pairs.
+     */
+    public String getAdmissionTierWeights() {
+
+        return admissionTierWeights.entrySet().stream().map(entry -> entry.getKey() + ':' + entry.getValue())
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Sets the admission weights of subscription tiers as comma separated {@code tier:weight} pairs, e.g.
+     * {@code Unlimited:8,Gold:4,Bronze:1}. Under contention each tier may hold a share of the admission limit in
+     * proportion to its weight; tiers not listed have a weight of 1.
+     *
+     * @param admissionTierWeights The tier weights.
+     */
+    public void setAdmissionTierWeights(String admissionTierWeights) {
+
+        Map<String, Integer> weights = new HashMap<>();
+        for (String pair : admissionTierWeights.split(",")) {
+            int separator = pair.lastIndexOf(':');
+            if (separator > 0) {
+                weights.put(pair.substring(0, separator).trim(),
+                        Math.max(1, Integer.parseInt(pair.substring(separator + 1).trim())));
+            }
+        }
+        this.admissionTierWeights = weights;
+    }
+
+    /**
+     * Retrieves the token rate limits of subscription tiers.
+     *
+     * @return The limits as comma separated {@code tier:tokens} pairs.
+     */
+    public String getTokenRateLimits() {
+
+        return tokenRateLimits.entrySet().stream().map(entry -> entry.getKey() + ':' + entry.getValue())
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Sets the tokens each subscription of a tier may use per window as comma separated {@code tier:tokens}
+     * pairs, e.g. {@code Gold:200000,Bronze:20000}, see {@link SubscriptionTokenLimiter}. Subscriptions of tiers
+     * not listed are not limited; malformed pairs are skipped with a warning.
+     *
+     * @param tokenRateLimits The token rate limits.
+     */
+    public void setTokenRateLimits(String tokenRateLimits) {
+
+        Map<String, Long> limits = new HashMap<>();
+        for (String pair : tokenRateLimits.split(",")) {
+            if (pair.trim().isEmpty()) {
+                continue;
+            }
+            int separator = pair.lastIndexOf(':');
+            if (separator > 0) {
+                try {
+                    limits.put(pair.substring(0, separator).trim(),
+                            Math.max(0L, Long.parseLong(pair.substring(separator + 1).trim())));
+                    continue;
+                } catch (NumberFormatException e) {
+                    // Reported below
+                }
+            }
+            log.warn("Ignoring malformed token rate limit " + pair.trim() + ", expected tier:tokens");
+        }
+        this.tokenRateLimits = limits;
+    }
+
+    /**
+     * Retrieves the minimum prompt similarity of a semantic cache hit.
+     *
+     * @return The similarity threshold.
+     */
+    public String getSemanticCacheThreshold() {
+
+        return String.valueOf(semanticCacheThreshold);
+    }
+
+    /**
+     * Sets the minimum cosine similarity, between 0 and 1, of a prompt to an earlier one for the semantic cache to
+     * serve the earlier response.
+     *
+     * @param semanticCacheThreshold The similarity threshold.
+     */
+    public void setSemanticCacheThreshold(String semanticCacheThreshold) {
+
+        this.semanticCacheThreshold = Double.parseDouble(semanticCacheThreshold.trim());
+    }
+
     /**
      * Extracts the payload from the message context.
      *
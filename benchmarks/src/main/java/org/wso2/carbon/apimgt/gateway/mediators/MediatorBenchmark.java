@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.synapse.MessageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.apimgt.api.APIConstants;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end benchmarks of the AI mediators on one request or response each, as run by the gateway on a worker
+ * thread.
+ * <p>
+ * The LLM provider is registered in-process with a connector that extracts no response metadata, see
+ * {@link MessageContexts#registerProvider()}, and the routing
+ * classifier is reported unavailable, so neither a provider nor the classifier model is called and the results
+ * are the gateway's own per-request overhead. Each operation works on a fresh message context;
+ * {@link #newRequestContext} and {@link #newResponseContext} measure creating it alone and are to be subtracted
+ * from the other results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class MediatorBenchmark {
+
+    private static final String ROUTE_CONFIGS = "{\"production\":{"
+            + "\"defaultModel\":{\"model\":\"gpt-4o\",\"endpointId\":\"openai-default\"},"
+            + "\"categories\":{"
+            + "\"coding\":{\"model\":\"gpt-4o\",\"endpointId\":\"openai-coding\"},"
+            + "\"summarisation\":{\"model\":\"gpt-4o-mini\",\"endpointId\":\"openai-summary\"}}},"
+            + "\"sandbox\":{\"defaultModel\":{\"model\":\"gpt-4o-mini\",\"endpointId\":\"openai-sandbox\"}}}";
+
+    private static final String REQUEST_CHANGE_CONFIGS = "{"
+            + "\"production\":{\"model\":\"claude-3-5-sonnet-latest\",\"endpointId\":\"claude-production\"},"
+            + "\"sandbox\":{\"model\":\"claude-3-5-haiku-latest\",\"endpointId\":\"claude-sandbox\"}}";
+
+    @Param({"1024", "16384", "131072", "2097152"})
+    private int payloadBytes;
+
+    private String request;
+    private String response;
+    private String eventStream;
+    private String anthropicEventStream;
+
+    private AIAPIMediator inboundMediator;
+    private AIAPIMediator outboundMediator;
+    private LLMRouteMediator routeMediator;
+    private RequestChangeMediator requestChangeMediator;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        MessageContexts.registerProvider();
+        request = PayloadCorpus.chatRequest(payloadBytes);
+        // Completions are far smaller than prompts; scale them with the prompt up to a long answer
+        int completionWords = Math.max(64, Math.min(4096, payloadBytes / 64));
+        response = PayloadCorpus.chatResponse(completionWords);
+        eventStream = PayloadCorpus.chatEventStream(completionWords);
+        ChatResponseTranslator.StreamConverter converter =
+                ChatResponseTranslator.newStreamConverter(ChatSchema.OPENAI, ChatSchema.ANTHROPIC);
+        anthropicEventStream = converter.convert(eventStream) + converter.finish();
+
+        inboundMediator = new AIAPIMediator();
+        inboundMediator.setLlmProviderId(MessageContexts.PROVIDER_ID);
+        inboundMediator.setDirection(APIConstants.AIAPIConstants.TRAFFIC_FLOW_DIRECTION_IN);
+        outboundMediator = new AIAPIMediator();
+        outboundMediator.setLlmProviderId(MessageContexts.PROVIDER_ID);
+        outboundMediator.setDirection(APIConstants.AIAPIConstants.TRAFFIC_FLOW_DIRECTION_OUT);
+        routeMediator = new LLMRouteMediator();
+        routeMediator.setLlmRouteConfigs(ROUTE_CONFIGS);
+        requestChangeMediator = new RequestChangeMediator();
+        requestChangeMediator.setRequestChangeConfigs(REQUEST_CHANGE_CONFIGS);
+
+        // Fail fast instead of measuring an error path
+        verify("AIAPIMediator inbound", inboundMediator.mediate(MessageContexts.jsonRequest(request)));
+        verify("AIAPIMediator outbound", outboundMediator.mediate(MessageContexts.jsonResponse(response, 200)));
+        verify("LLMRouteMediator", routeMediator.mediate(MessageContexts.jsonRequest(request)));
+        verify("RequestChangeMediator", requestChangeMediator.mediate(MessageContexts.jsonRequest(request)));
+    }
+
+    @Benchmark
+    public MessageContext newRequestContext() throws Exception {
+
+        return MessageContexts.jsonRequest(request);
+    }
+
+    @Benchmark
+    public MessageContext newResponseContext() throws Exception {
+
+        return MessageContexts.jsonResponse(response, 200);
+    }
+
+    @Benchmark
+    public boolean aiApiMediatorInbound() throws Exception {
+
+        return inboundMediator.mediate(MessageContexts.jsonRequest(request));
+    }
+
+    @Benchmark
+    public boolean aiApiMediatorOutbound() throws Exception {
+
+        return outboundMediator.mediate(MessageContexts.jsonResponse(response, 200));
+    }
+
+    @Benchmark
+    public boolean aiApiMediatorOutboundEventStream() throws Exception {
+
+        return outboundMediator.mediate(MessageContexts.eventStreamResponse(eventStream, 200));
+    }
+
+    /**
+     * Outbound mediation of an event stream rerouted to an Anthropic model, translated back to the OpenAI schema
+     * the client used.
+     */
+    @Benchmark
+    public boolean aiApiMediatorOutboundTranslatedEventStream() throws Exception {
+
+        MessageContext messageContext = MessageContexts.eventStreamResponse(anthropicEventStream, 200);
+        messageContext.setProperty(ChatResponseTranslator.CLIENT_SCHEMA, ChatSchema.OPENAI);
+        messageContext.setProperty(ChatResponseTranslator.PROVIDER_SCHEMA, ChatSchema.ANTHROPIC);
+        return outboundMediator.mediate(messageContext);
+    }
+
+    @Benchmark
+    public boolean llmRouteMediator() throws Exception {
+
+        return routeMediator.mediate(MessageContexts.jsonRequest(request));
+    }
+
+    @Benchmark
+    public boolean requestChangeMediator() throws Exception {
+
+        return requestChangeMediator.mediate(MessageContexts.jsonRequest(request));
+    }
+
+    private static void verify(String mediator, boolean result) {
+
+        if (!result) {
+            throw new IllegalStateException(mediator + " failed on the benchmark setup, see the gateway log");
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.axis2.transport.base.BaseConstants;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.config.SynapseConfiguration;
+import org.apache.synapse.core.SynapseEnvironment;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.core.axis2.Axis2SynapseEnvironment;
+import org.apache.synapse.rest.RESTConstants;
+import org.apache.synapse.transport.nhttp.NhttpConstants;
+import org.apache.synapse.transport.passthru.PassThroughConstants;
+import org.wso2.carbon.apimgt.api.APIConstants;
+import org.wso2.carbon.apimgt.api.LLMProviderConfiguration;
+import org.wso2.carbon.apimgt.api.LLMProviderMetadata;
+import org.wso2.carbon.apimgt.api.LLMProviderService;
+import org.wso2.carbon.apimgt.api.model.LLMProviderInfo;
+import org.wso2.carbon.apimgt.gateway.APIMgtGatewayConstants;
+import org.wso2.carbon.apimgt.gateway.internal.DataHolder;
+import org.wso2.carbon.apimgt.gateway.internal.ServiceReferenceHolder;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Creates Synapse message contexts as the pass-through transport hands them to the API sequences: the payload
+ * is already built, so that {@code RelayUtils.buildMessage} returns at once and the benchmarks measure the
+ * mediators rather than the message builders. No transport, deployment or registry is involved.
+ */
+final class MessageContexts {
+
+    static final String API_NAME = "admin--ChatAPI";
+    static final String API_VERSION = "v1";
+    static final String API_CONTEXT = "/chat/v1";
+    static final String RESOURCE = "/chat/completions";
+    static final String PROVIDER_ID = "benchmark-openai";
+    static final String CONNECTOR_TYPE = "benchmarkConnector";
+    static final LLMProviderMetadata MODEL_METADATA = new LLMProviderMetadata(
+            APIConstants.AIAPIConstants.LLM_PROVIDER_SERVICE_METADATA_REQUEST_MODEL,
+            APIConstants.AIAPIConstants.INPUT_SOURCE_PAYLOAD, "$.model", true);
+
+    private static final ConfigurationContext CONFIGURATION_CONTEXT =
+            new ConfigurationContext(new AxisConfiguration());
+    private static final SynapseConfiguration SYNAPSE_CONFIGURATION = new SynapseConfiguration();
+    private static final SynapseEnvironment SYNAPSE_ENVIRONMENT =
+            new Axis2SynapseEnvironment(CONFIGURATION_CONTEXT, SYNAPSE_CONFIGURATION);
+
+    private MessageContexts() {
+
+    }
+
+    /**
+     * Returns a production request context carrying the JSON payload.
+     */
+    static MessageContext jsonRequest(String payload) throws AxisFault {
+
+        Axis2MessageContext messageContext = newContext();
+        org.apache.axis2.context.MessageContext axis2Ctx = messageContext.getAxis2MessageContext();
+        axis2Ctx.setProperty(PassThroughConstants.HTTP_METHOD, "POST");
+        axis2Ctx.setProperty(APIMgtGatewayConstants.REST_CONTENT_TYPE, "application/json");
+        axis2Ctx.setProperty(NhttpConstants.REST_URL_POSTFIX, RESOURCE);
+        JsonUtil.getNewJsonPayload(axis2Ctx, payload, true, true);
+        return messageContext;
+    }
+
+    /**
+     * Returns a response context carrying the JSON payload with the given upstream status.
+     */
+    static MessageContext jsonResponse(String payload, int statusCode) throws AxisFault {
+
+        Axis2MessageContext messageContext = newContext();
+        messageContext.setResponse(true);
+        org.apache.axis2.context.MessageContext axis2Ctx = messageContext.getAxis2MessageContext();
+        axis2Ctx.setProperty(APIMgtGatewayConstants.HTTP_SC, statusCode);
+        axis2Ctx.setProperty(APIMgtGatewayConstants.REST_CONTENT_TYPE, "application/json");
+        JsonUtil.getNewJsonPayload(axis2Ctx, payload, true, true);
+        return messageContext;
+    }
+
+    /**
+     * Returns a response context carrying an event stream as the text payload, as built for
+     * {@code text/event-stream} by the pass-through transport.
+     */
+    static MessageContext eventStreamResponse(String stream, int statusCode) throws AxisFault {
+
+        Axis2MessageContext messageContext = newContext();
+        messageContext.setResponse(true);
+        org.apache.axis2.context.MessageContext axis2Ctx = messageContext.getAxis2MessageContext();
+        axis2Ctx.setProperty(APIMgtGatewayConstants.HTTP_SC, statusCode);
+        axis2Ctx.setProperty(APIMgtGatewayConstants.REST_CONTENT_TYPE, "text/event-stream");
+        SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+        OMElement text = factory.createOMElement(BaseConstants.DEFAULT_TEXT_WRAPPER);
+        text.setText(stream);
+        axis2Ctx.getEnvelope().getBody().addChild(text);
+        return messageContext;
+    }
+
+    /**
+     * Registers the benchmark provider with the gateway, as the LLM provider deployer does on startup.
+     */
+    static synchronized void registerProvider() {
+
+        if (DataHolder.getInstance().getLLMProviderConfigurations(PROVIDER_ID) != null) {
+            return;
+        }
+        LLMProviderConfiguration configuration = new LLMProviderConfiguration();
+        configuration.setConnectorType(CONNECTOR_TYPE);
+        configuration.setMetadata(Collections.singletonList(MODEL_METADATA));
+
+        LLMProviderInfo provider = new LLMProviderInfo();
+        provider.setId(PROVIDER_ID);
+        provider.setName(APIConstants.AIAPIConstants.LLM_PROVIDER_SERVICE_OPENAI_NAME);
+        provider.setApiVersion("1.0.0");
+        provider.setConfigurations(configuration);
+        DataHolder.getInstance().addLLMProviderConfigurations(provider);
+
+        // A connector that extracts no metadata, so that results do not depend on a connector implementation
+        LLMProviderService connector = (LLMProviderService) Proxy.newProxyInstance(
+                LLMProviderService.class.getClassLoader(), new Class<?>[]{LLMProviderService.class},
+                (proxy, method, args) -> {
+                    if ("getType".equals(method.getName())) {
+                        return CONNECTOR_TYPE;
+                    }
+                    if (method.getReturnType() == boolean.class) {
+                        return Boolean.FALSE;
+                    }
+                    return null;
+                });
+        ServiceReferenceHolder.getInstance().addLLMProviderService(CONNECTOR_TYPE, connector);
+    }
+
+    private static Axis2MessageContext newContext() throws AxisFault {
+
+        org.apache.axis2.context.MessageContext axis2Ctx = new org.apache.axis2.context.MessageContext();
+        axis2Ctx.setConfigurationContext(CONFIGURATION_CONTEXT);
+        SOAPEnvelope envelope = OMAbstractFactory.getSOAP11Factory().getDefaultEnvelope();
+        axis2Ctx.setEnvelope(envelope);
+        axis2Ctx.setProperty(PassThroughConstants.MESSAGE_BUILDER_INVOKED, Boolean.TRUE);
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Content-Type", "application/json");
+        headers.put("Accept", "application/json");
+        axis2Ctx.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headers);
+
+        Axis2MessageContext messageContext =
+                new Axis2MessageContext(axis2Ctx, SYNAPSE_CONFIGURATION, SYNAPSE_ENVIRONMENT);
+        messageContext.setProperty(RESTConstants.SYNAPSE_REST_API, API_NAME + ":" + API_VERSION);
+        messageContext.setProperty(RESTConstants.SYNAPSE_REST_API_VERSION, API_VERSION);
+        messageContext.setProperty(RESTConstants.REST_API_CONTEXT, API_CONTEXT);
+        messageContext.setProperty(RESTConstants.REST_FULL_REQUEST_PATH, API_CONTEXT + RESOURCE);
+        messageContext.setProperty(RESTConstants.REST_SUB_REQUEST_PATH, RESOURCE);
+        messageContext.setProperty(org.wso2.carbon.apimgt.impl.APIConstants.API_KEY_TYPE,
+                org.wso2.carbon.apimgt.impl.APIConstants.API_KEY_TYPE_PRODUCTION);
+        return messageContext;
+    }
+}
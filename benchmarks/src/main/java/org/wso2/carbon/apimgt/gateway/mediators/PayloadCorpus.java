@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic payloads for the mediator benchmarks: OpenAI style chat histories of a given size, the matching
+ * completion and event stream responses. The same size always yields the same payload, so results of different
+ * runs and gateway versions are comparable.
+ */
+final class PayloadCorpus {
+
+    static final String MODEL = "gpt-4o";
+
+    private static final long SEED = 0x5eedL;
+
+    private static final String[] WORDS = {
+            "the", "gateway", "routes", "each", "request", "to", "a", "model", "deployment", "and", "returns",
+            "response", "tokens", "of", "latency", "budget", "is", "within", "cache", "policy", "for", "tenant",
+            "quota", "please", "summarise", "following", "incident", "report", "customer", "invoice", "with",
+            "error", "retry", "after", "seconds", "configuration", "throughput", "explain", "why", "how", "what",
+            "streaming", "endpoint", "provider", "fallback", "weight", "region", "primary", "secondary", "JSON",
+            "schema", "field", "value", "user", "assistant", "tool", "call", "result", "context", "window"
+    };
+
+    private PayloadCorpus() {
+
+    }
+
+    /**
+     * Returns a chat completion request whose serialized size is close to, and not below, the given size.
+     * The history alternates user and assistant turns of 40 to 400 words and ends with a user turn.
+     *
+     * @param targetBytes The approximate payload size in bytes.
+     * @return The request payload.
+     */
+    static String chatRequest(int targetBytes) {
+
+        SplittableRandom random = new SplittableRandom(SEED + targetBytes);
+        StringWriter buffer = new StringWriter(targetBytes + 1024);
+        try {
+            JsonWriter writer = new JsonWriter(buffer);
+            writer.beginObject();
+            writer.name("model").value(MODEL);
+            writer.name("temperature").value(0.0d);
+            writer.name("max_tokens").value(512);
+            writer.name("messages").beginArray();
+            writeMessage(writer, "system", sentence(random, 30));
+            boolean user = true;
+            while (buffer.getBuffer().length() < targetBytes || user) {
+                writeMessage(writer, user ? "user" : "assistant", sentence(random, 40 + random.nextInt(360)));
+                user = !user;
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Returns a non-streamed chat completion response carrying the given number of completion words.
+     */
+    static String chatResponse(int words) {
+
+        SplittableRandom random = new SplittableRandom(SEED + words);
+        StringWriter buffer = new StringWriter(words * 8 + 512);
+        try {
+            JsonWriter writer = new JsonWriter(buffer);
+            writer.beginObject();
+            writer.name("id").value("chatcmpl-benchmark");
+            writer.name("object").value("chat.completion");
+            writer.name("created").value(1735689600L);
+            writer.name("model").value(MODEL);
+            writer.name("choices").beginArray().beginObject();
+            writer.name("index").value(0);
+            writer.name("message").beginObject();
+            writer.name("role").value("assistant");
+            writer.name("content").value(sentence(random, words));
+            writer.endObject();
+            writer.name("finish_reason").value("stop");
+            writer.endObject().endArray();
+            writeUsage(writer, words);
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Returns a streamed chat completion response of one event per word, terminated by {@code [DONE]}, with the
+     * usage in the last chunk as sent with {@code stream_options.include_usage}.
+     */
+    static String chatEventStream(int words) {
+
+        SplittableRandom random = new SplittableRandom(SEED - words);
+        StringBuilder stream = new StringBuilder(words * 160);
+        String prefix = "data: {\"id\":\"chatcmpl-benchmark\",\"object\":\"chat.completion.chunk\","
+                + "\"created\":1735689600,\"model\":\"" + MODEL + "\",\"choices\":[{\"index\":0,\"delta\":";
+        stream.append(prefix).append("{\"role\":\"assistant\",\"content\":\"\"},\"finish_reason\":null}]}\n\n");
+        for (int i = 0; i < words; i++) {
+            stream.append(prefix).append("{\"content\":\"").append(i == 0 ? "" : " ")
+                    .append(WORDS[random.nextInt(WORDS.length)]).append("\"},\"finish_reason\":null}]}\n\n");
+        }
+        stream.append(prefix).append("{},\"finish_reason\":\"stop\"}],\"usage\":{\"prompt_tokens\":")
+                .append(words * 2).append(",\"completion_tokens\":").append(words)
+                .append(",\"total_tokens\":").append(words * 3).append("}}\n\n");
+        stream.append("data: [DONE]\n\n");
+        return stream.toString();
+    }
+
+    private static void writeMessage(JsonWriter writer, String role, String content) throws IOException {
+
+        writer.beginObject();
+        writer.name("role").value(role);
+        writer.name("content").value(content);
+        writer.endObject();
+    }
+
+    private static void writeUsage(JsonWriter writer, int completionTokens) throws IOException {
+
+        writer.name("usage").beginObject();
+        writer.name("prompt_tokens").value(completionTokens * 2);
+        writer.name("completion_tokens").value(completionTokens);
+        writer.name("total_tokens").value(completionTokens * 3);
+        writer.endObject();
+    }
+
+    private static String sentence(SplittableRandom random, int words) {
+
+        StringBuilder text = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(i % 17 == 0 ? ". " : " ");
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.append('.').toString();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the JSONPath based model extraction and rewrite applied to every AI API request on load
+ * balancing and failover.
+ * <p>
+ * Each operation works on a fresh message context, since a rewrite replaces the payload; {@link #newContext}
+ * measures creating that context alone and is to be subtracted from the other results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PayloadRewriteBenchmark {
+
+    private static final String TARGET_MODEL = "gpt-4o-mini";
+
+    @Param({"1024", "16384", "131072", "2097152"})
+    private int payloadBytes;
+
+    private String payload;
+    private AIAPIMediator mediator;
+
+    @Setup
+    public void setUp() {
+
+        payload = PayloadCorpus.chatRequest(payloadBytes);
+        mediator = new AIAPIMediator();
+    }
+
+    @Benchmark
+    public MessageContext newContext() throws Exception {
+
+        return MessageContexts.jsonRequest(payload);
+    }
+
+    @Benchmark
+    public String extractRequestModelFromJson() throws Exception {
+
+        return mediator.extractRequestModelFromJson(MessageContexts.MODEL_METADATA, axis2Context());
+    }
+
+    @Benchmark
+    public org.apache.axis2.context.MessageContext modifyRequestPayload() throws Exception {
+
+        org.apache.axis2.context.MessageContext axis2Ctx = axis2Context();
+        AIAPIMediator.modifyRequestPayload(TARGET_MODEL, MessageContexts.MODEL_METADATA, axis2Ctx);
+        return axis2Ctx;
+    }
+
+    @Benchmark
+    public org.apache.axis2.context.MessageContext modifyJsonPayload() throws Exception {
+
+        org.apache.axis2.context.MessageContext axis2Ctx = axis2Context();
+        AIAPIMediator.modifyJsonPayload(axis2Ctx, MessageContexts.MODEL_METADATA.getAttributeIdentifier(),
+                TARGET_MODEL);
+        return axis2Ctx;
+    }
+
+    private org.apache.axis2.context.MessageContext axis2Context() throws Exception {
+
+        return ((Axis2MessageContext) MessageContexts.jsonRequest(payload)).getAxis2MessageContext();
+    }
+}
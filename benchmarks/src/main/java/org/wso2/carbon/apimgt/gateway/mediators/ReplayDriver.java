@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.rest.RESTConstants;
+import org.apache.synapse.transport.nhttp.NhttpConstants;
+import org.wso2.carbon.apimgt.api.APIConstants;
+import org.wso2.carbon.apimgt.api.gateway.FailoverPolicyConfigDTO;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Replays captured AI API traffic, see {@link TrafficCapture}, through {@code LLMRouteMediator},
+ * {@code RequestChangeMediator} and {@code AIAPIMediator} against a local provider such as the mock provider in
+ * {@code tools/mock-llm-provider}.
+ * <p>
+ * Requests are sent open loop, at the captured arrival times scaled by {@code --speed} or at a fixed
+ * {@code --rate}, and their latency is measured from the time they were due, so a saturated gateway or provider
+ * shows up as latency rather than as a lower send rate. A response that makes {@code AIAPIMediator} fail over is
+ * sent again to the next endpoint, as the API's sequence does. The report lists throughput, latency percentiles and
+ * the requests for which the routing decision differs from the captured one.
+ * <p>
+ * Options, all as {@code --name=value}:
+ * <ul>
+ * <li>{@code capture}: a capture file, or a directory of {@code ai-traffic*.jsonl} files. Required.</li>
+ * <li>{@code upstream}: the base URL of the provider, {@code http://localhost:8089} by default.</li>
+ * <li>{@code rate}: requests per second; 0, the default, replays the captured arrival times.</li>
+ * <li>{@code speed}: how much faster than captured to replay, 1 by default.</li>
+ * <li>{@code threads}: concurrent requests, 64 by default.</li>
+ * <li>{@code limit}: the number of requests to replay, all by default.</li>
+ * <li>{@code routeConfigs}, {@code requestChangeConfigs}: files holding the routing and request change policy
+ * configurations under evaluation.</li>
+ * <li>{@code failoverConfigs}: a file holding a JSON object of failover policy configurations by request model.</li>
+ * <li>{@code diffs}: the number of routing differences to list, 20 by default.</li>
+ * </ul>
+ */
+public final class ReplayDriver {
+
+    private static final int MAX_FAILOVER_HOPS = 5;
+    private static final Gson GSON = new Gson();
+
+    private final String upstream;
+    private final String routeConfigs;
+    private final String requestChangeConfigs;
+    private final Map<String, FailoverPolicyConfigDTO> failoverConfigs;
+    private final HttpClient client;
+    private final AIAPIMediator inboundMediator = new AIAPIMediator();
+    private final AIAPIMediator outboundMediator = new AIAPIMediator();
+    private final LLMRouteMediator routeMediator = new LLMRouteMediator();
+
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Long> mediationTimes = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> diffs = new ConcurrentLinkedQueue<>();
+    private final Map<String, LongAdder> transitions = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LongAdder failoverHops = new LongAdder();
+    private final LongAdder servedByGateway = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    ReplayDriver(String upstream, String routeConfigs, String requestChangeConfigs,
+                 Map<String, FailoverPolicyConfigDTO> failoverConfigs, int threads) {
+
+        this.upstream = upstream.endsWith("/") ? upstream.substring(0, upstream.length() - 1) : upstream;
+        this.routeConfigs = routeConfigs;
+        this.requestChangeConfigs = requestChangeConfigs;
+        this.failoverConfigs = failoverConfigs;
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newFixedThreadPool(Math.max(2, threads / 4))).build();
+        MessageContexts.registerProvider();
+        inboundMediator.setLlmProviderId(MessageContexts.PROVIDER_ID);
+        inboundMediator.setDirection(APIConstants.AIAPIConstants.TRAFFIC_FLOW_DIRECTION_IN);
+        outboundMediator.setLlmProviderId(MessageContexts.PROVIDER_ID);
+        outboundMediator.setDirection(APIConstants.AIAPIConstants.TRAFFIC_FLOW_DIRECTION_OUT);
+        routeMediator.setLlmRouteConfigs(routeConfigs);
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> options = parseOptions(args);
+        if (!options.containsKey("capture")) {
+            System.err.println("Usage: ReplayDriver --capture=<file or directory> [--upstream=<url>] [--rate=<rps>]"
+                    + " [--speed=<factor>] [--threads=<n>] [--limit=<n>] [--routeConfigs=<file>]"
+                    + " [--requestChangeConfigs=<file>] [--failoverConfigs=<file>] [--diffs=<n>]");
+            System.exit(2);
+        }
+        List<JsonObject> records = load(Paths.get(options.get("capture")),
+                Integer.parseInt(options.getOrDefault("limit", String.valueOf(Integer.MAX_VALUE))));
+        if (records.isEmpty()) {
+            System.err.println("No replayable requests found in " + options.get("capture"));
+            System.exit(1);
+        }
+        Map<String, FailoverPolicyConfigDTO> failoverConfigs = options.containsKey("failoverConfigs")
+                ? GSON.fromJson(read(options.get("failoverConfigs")),
+                new TypeToken<Map<String, FailoverPolicyConfigDTO>>() { }.getType())
+                : null;
+        int threads = Integer.parseInt(options.getOrDefault("threads", "64"));
+        ReplayDriver driver = new ReplayDriver(options.getOrDefault("upstream", "http://localhost:8089"),
+                read(options.get("routeConfigs")), read(options.get("requestChangeConfigs")), failoverConfigs,
+                threads);
+        long elapsedNanos = driver.replay(records, Double.parseDouble(options.getOrDefault("rate", "0")),
+                Double.parseDouble(options.getOrDefault("speed", "1")), threads);
+        driver.report(records.size(), elapsedNanos, Integer.parseInt(options.getOrDefault("diffs", "20")));
+        System.exit(0);
+    }
+
+    /**
+     * Sends the records on their schedule and waits for all of them to complete.
+     *
+     * @return The time taken in nanoseconds.
+     */
+    long replay(List<JsonObject> records, double rate, double speed, int threads) throws InterruptedException {
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        long firstTimestamp = records.get(0).get("timestamp").getAsLong();
+        long start = System.nanoTime();
+        for (int i = 0; i < records.size(); i++) {
+            JsonObject record = records.get(i);
+            long offsetNanos = rate > 0 ? (long) (i * 1e9d / rate)
+                    : (long) (TimeUnit.MILLISECONDS.toNanos(record.get("timestamp").getAsLong() - firstTimestamp)
+                    / Math.max(speed, 1e-6d));
+            long due = start + offsetNanos;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            workers.execute(() -> replay(record, due));
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        return System.nanoTime() - start;
+    }
+
+    private void replay(JsonObject record, long due) {
+
+        try {
+            JsonObject captured = record.getAsJsonObject("request");
+            MessageContext request = MessageContexts.jsonRequest(captured.get("body").getAsString());
+            org.apache.axis2.context.MessageContext axis2Request =
+                    ((Axis2MessageContext) request).getAxis2MessageContext();
+            String path = string(captured, "path");
+            if (path != null) {
+                request.setProperty(RESTConstants.REST_SUB_REQUEST_PATH, path);
+                axis2Request.setProperty(NhttpConstants.REST_URL_POSTFIX, path);
+            }
+            if (captured.has("headers")) {
+                Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (Map.Entry<String, JsonElement> header : captured.getAsJsonObject("headers").entrySet()) {
+                    headers.put(header.getKey(), header.getValue().getAsString());
+                }
+                axis2Request.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headers);
+            }
+            if (failoverConfigs != null) {
+                request.setProperty(APIConstants.AIAPIConstants.FAILOVER_CONFIG_MAP, failoverConfigs);
+            }
+            if (requestChangeConfigs != null) {
+                request.setProperty("requestChangeConfigs", requestChangeConfigs);
+            }
+
+            long mediationStart = System.nanoTime();
+            if (routeConfigs != null) {
+                routeMediator.mediate(request);
+            }
+            boolean proceed = inboundMediator.mediate(request);
+            long mediationNanos = System.nanoTime() - mediationStart;
+            compareRouting(record, request);
+            String endpoint = (String) request.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT);
+            if (!proceed) {
+                servedByGateway.increment();
+            } else if (APIConstants.AIAPIConstants.REJECT_ENDPOINT.equals(endpoint)) {
+                rejected.increment();
+            } else {
+                mediationNanos += exchange(request, endpoint);
+            }
+            mediationTimes.add(mediationNanos);
+            latencies.add(System.nanoTime() - due);
+        } catch (Exception e) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Sends the request upstream and mediates the response, following failovers.
+     *
+     * @return The time spent in outbound mediation in nanoseconds.
+     */
+    private long exchange(MessageContext request, String endpoint) throws Exception {
+
+        long mediationNanos = 0;
+        MessageContext current = request;
+        for (int hop = 0; hop <= MAX_FAILOVER_HOPS; hop++) {
+            org.apache.axis2.context.MessageContext axis2Ctx =
+                    ((Axis2MessageContext) current).getAxis2MessageContext();
+            HttpRequest.Builder upstreamRequest = HttpRequest.newBuilder(URI.create(upstream + upstreamPath(axis2Ctx)))
+                    .timeout(Duration.ofMinutes(2))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(JsonUtil.jsonPayloadToString(axis2Ctx)));
+            if (endpoint != null) {
+                upstreamRequest.header("X-Endpoint-Id", endpoint);
+            }
+            HttpResponse<String> upstreamResponse =
+                    client.send(upstreamRequest.build(), HttpResponse.BodyHandlers.ofString());
+            statuses.computeIfAbsent(upstreamResponse.statusCode(), status -> new LongAdder()).increment();
+
+            String contentType = upstreamResponse.headers().firstValue("Content-Type").orElse("application/json");
+            MessageContext response = contentType.contains("text/event-stream")
+                    ? MessageContexts.eventStreamResponse(upstreamResponse.body(), upstreamResponse.statusCode())
+                    : MessageContexts.jsonResponse(upstreamResponse.body(), upstreamResponse.statusCode());
+            // Synapse carries the request's properties over to its response
+            for (Object key : current.getPropertyKeySet()) {
+                response.setProperty((String) key, current.getProperty((String) key));
+            }
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            upstreamResponse.headers().map().forEach((name, values) -> headers.put(name, values.get(0)));
+            ((Axis2MessageContext) response).getAxis2MessageContext()
+                    .setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headers);
+
+            int failoverIndex = failoverIndex(response);
+            long mediationStart = System.nanoTime();
+            outboundMediator.mediate(response);
+            mediationNanos += System.nanoTime() - mediationStart;
+
+            String nextEndpoint = (String) response.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT);
+            if (failoverIndex(response) == failoverIndex
+                    || APIConstants.AIAPIConstants.REJECT_ENDPOINT.equals(nextEndpoint)) {
+                return mediationNanos;
+            }
+            // AIAPIMediator restored the request payload for the next endpoint; send it again
+            failoverHops.increment();
+            current = response;
+            endpoint = nextEndpoint;
+        }
+        return mediationNanos;
+    }
+
+    private void compareRouting(JsonObject record, MessageContext request) {
+
+        String capturedCategory = string(record, "category");
+        String capturedEndpoint = string(record, "endpoint");
+        String category = (String) request.getProperty(LLMRouteMediator.CATEGORY);
+        String endpoint = (String) request.getProperty(APIConstants.AIAPIConstants.TARGET_ENDPOINT);
+        if (Objects.equals(capturedCategory, category) && Objects.equals(capturedEndpoint, endpoint)) {
+            return;
+        }
+        String transition = capturedCategory + "/" + capturedEndpoint + " -> " + category + "/" + endpoint;
+        transitions.computeIfAbsent(transition, key -> new LongAdder()).increment();
+        diffs.add(string(record, "id") + ": " + transition);
+    }
+
+    void report(int requests, long elapsedNanos, int maxDiffs) {
+
+        double seconds = elapsedNanos / 1e9d;
+        System.out.printf("Requests:          %d in %.1f s (%.1f/s)%n", requests, seconds, requests / seconds);
+        System.out.printf("Served by gateway: %d, rejected: %d, errors: %d, failover hops: %d%n",
+                servedByGateway.sum(), rejected.sum(), errors.sum(), failoverHops.sum());
+        System.out.println("Upstream statuses: " + new TreeMap<>(statuses.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().sum()))));
+        printPercentiles("Latency (ms):     ", latencies);
+        printPercentiles("Mediation (ms):   ", mediationTimes);
+
+        long differing = diffs.size();
+        System.out.printf("Routing diffs:     %d of %d (%.1f%%)%n", differing, requests,
+                100.0d * differing / requests);
+        transitions.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> entry) -> entry.getValue().sum())
+                        .reversed())
+                .forEach(entry -> System.out.printf("  %6d  %s%n", entry.getValue().sum(), entry.getKey()));
+        diffs.stream().limit(maxDiffs).forEach(diff -> System.out.println("  " + diff));
+    }
+
+    private static void printPercentiles(String label, ConcurrentLinkedQueue<Long> samples) {
+
+        long[] sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+        if (sorted.length == 0) {
+            System.out.println(label + "no samples");
+            return;
+        }
+        System.out.printf("%sp50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n", label,
+                percentile(sorted, 0.5d), percentile(sorted, 0.9d), percentile(sorted, 0.99d),
+                percentile(sorted, 0.999d), sorted[sorted.length - 1] / 1e6d);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6d;
+    }
+
+    /**
+     * Loads the first record of every captured request, in arrival order. Requests whose body was too large to
+     * be captured are skipped.
+     */
+    static List<JsonObject> load(Path capture, int limit) throws IOException {
+
+        List<Path> files;
+        if (Files.isDirectory(capture)) {
+            try (Stream<Path> listing = Files.list(capture)) {
+                files = listing.filter(file -> {
+                    String name = file.getFileName().toString();
+                    return name.startsWith("ai-traffic") && name.endsWith(".jsonl");
+                }).collect(Collectors.toList());
+            }
+        } else {
+            files = Arrays.asList(capture);
+        }
+        Map<String, JsonObject> requests = new LinkedHashMap<>();
+        for (Path file : files) {
+            try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                lines.filter(line -> !line.trim().isEmpty()).forEach(line -> {
+                    JsonObject record = JsonParser.parseString(line).getAsJsonObject();
+                    JsonObject request = record.getAsJsonObject("request");
+                    if (request == null || !request.has("body")) {
+                        return;
+                    }
+                    // A request failing over has a record per attempt; the first one holds the routing decision
+                    requests.merge(string(record, "id"), record, (first, other) ->
+                            failoverIndex(other) < failoverIndex(first) ? other : first);
+                });
+            }
+        }
+        return requests.values().stream()
+                .sorted(Comparator.comparingLong(record -> record.get("timestamp").getAsLong()))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private static String upstreamPath(org.apache.axis2.context.MessageContext axis2Ctx) {
+
+        // RequestChangeMediator points the request at the new provider's URL; keep its path only
+        Object address = axis2Ctx.getProperty("ENDPOINT_ADDRESS");
+        if (address instanceof String) {
+            URI uri = URI.create((String) address);
+            return uri.getRawQuery() != null ? uri.getRawPath() + "?" + uri.getRawQuery() : uri.getRawPath();
+        }
+        Object path = axis2Ctx.getProperty(NhttpConstants.REST_URL_POSTFIX);
+        return path instanceof String ? (String) path : MessageContexts.RESOURCE;
+    }
+
+    private static int failoverIndex(MessageContext messageContext) {
+
+        Object index = messageContext.getProperty(APIConstants.AIAPIConstants.CURRENT_ENDPOINT_INDEX);
+        return index instanceof Integer ? (Integer) index : 0;
+    }
+
+    private static int failoverIndex(JsonObject record) {
+
+        return record.has("failoverIndex") ? record.get("failoverIndex").getAsInt() : 0;
+    }
+
+    private static String string(JsonObject object, String name) {
+
+        JsonElement value = object.get(name);
+        return value != null && !value.isJsonNull() ? value.getAsString() : null;
+    }
+
+    private static String read(String file) throws IOException {
+
+        return file != null ? new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8) : null;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.indexOf('=') > 2) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that requests beyond the limit are rejected at once, that tiers are held to their weighted share under
+ * contention and that permits feed every hop to the limit until they are released.
+ */
+public class AdmissionControllerTest {
+
+    @Test
+    public void testRejectsAtOnceAtTheLimit() {
+
+        AdmissionController controller = new AdmissionController(2, 1, 10, 60000L);
+        AdmissionController.Permit first = controller.acquire("api", null, 1).getPermit();
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(controller.acquire("api", null, 1).getPermit());
+        Assert.assertNull(controller.acquire("api", null, 1).getPermit());
+        Assert.assertEquals(1L, controller.getRejected());
+
+        first.release();
+        first.release();
+        Assert.assertNotNull(controller.acquire("api", null, 1).getPermit());
+        Assert.assertNull(controller.acquire("api", null, 1).getPermit());
+    }
+
+    @Test
+    public void testTierIsHeldToItsShareUnderContention() {
+
+        AdmissionController controller = new AdmissionController(4, 1, 10, 60000L);
+        List<AdmissionController.Permit> batch = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            batch.add(controller.acquire("api", "Bronze", 1).getPermit());
+        }
+        Assert.assertFalse(batch.contains(null));
+        // Gold is rejected while the limit is reached, which marks it as having demand
+        Assert.assertNull(controller.acquire("api", "Gold", 3).getPermit());
+
+        batch.remove(0).release();
+        Assert.assertNull(controller.acquire("api", "Bronze", 1).getPermit());
+        Assert.assertNotNull(controller.acquire("api", "Gold", 3).getPermit());
+    }
+
+    @Test
+    public void testPermitIsHeldAcrossHops() {
+
+        AdmissionController controller = new AdmissionController(5, 1, 10, 60000L);
+        AdmissionController.Permit permit = controller.acquire("api", null, 1).getPermit();
+        permit.observe(503);
+        Assert.assertEquals(4, controller.getLimit("api"));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNotNull(controller.acquire("api", null, 1).getPermit());
+        }
+        // The failed hop did not return the permit
+        Assert.assertNull(controller.acquire("api", null, 1).getPermit());
+
+        permit.observe(200);
+        permit.release();
+        Assert.assertNotNull(controller.acquire("api", null, 1).getPermit());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks how draft responses in the OpenAI, Anthropic and Gemini schemas are read and judged.
+ */
+public class CascadeRouterTest {
+
+    private static final CascadeRouter ROUTER = CascadeRouter.DEFAULT;
+
+    @Test
+    public void testOpenAIDraft() {
+
+        CascadeRouter.Draft draft = parse("{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"Hi\"},"
+                + "\"finish_reason\":\"length\",\"logprobs\":{\"content\":[{\"logprob\":-0.5},{\"logprob\":-1.5}]}}],"
+                + "\"usage\":{\"prompt_tokens\":9,\"completion_tokens\":16}}");
+        Assert.assertEquals("Hi", draft.text.toString());
+        Assert.assertEquals(ChatResponseTranslator.FinishReason.LENGTH, draft.finishReason);
+        Assert.assertEquals(16, draft.outputTokens);
+        Assert.assertEquals(-1.0d, draft.meanLogprob, 1e-9d);
+
+        CascadeRouter.Draft toolCall = parse("{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":null,"
+                + "\"tool_calls\":[{\"id\":\"c\",\"type\":\"function\",\"function\":{\"name\":\"f\","
+                + "\"arguments\":\"{\\\"a\\\":1}\"}}]},\"finish_reason\":\"stop\"}]}");
+        Assert.assertEquals("{\"a\":1}", toolCall.toolArguments.get(0));
+        Assert.assertEquals(ChatResponseTranslator.FinishReason.TOOL_CALLS, toolCall.finishReason);
+        Assert.assertEquals(-1, toolCall.outputTokens);
+    }
+
+    @Test
+    public void testAnthropicDraft() {
+
+        CascadeRouter.Draft draft = parse("{\"type\":\"message\",\"content\":[{\"type\":\"text\",\"text\":\"Let me\"},"
+                + "{\"type\":\"tool_use\",\"id\":\"t\",\"name\":\"f\",\"input\":{\"a\":1}}],"
+                + "\"stop_reason\":\"tool_use\",\"usage\":{\"input_tokens\":5,\"output_tokens\":12}}");
+        Assert.assertEquals("Let me", draft.text.toString());
+        Assert.assertEquals(1, JsonParser.parseString(draft.toolArguments.get(0)).getAsJsonObject().get("a")
+                .getAsInt());
+        Assert.assertEquals(ChatResponseTranslator.FinishReason.TOOL_CALLS, draft.finishReason);
+        Assert.assertEquals(12, draft.outputTokens);
+        Assert.assertTrue(Double.isNaN(draft.meanLogprob));
+    }
+
+    @Test
+    public void testGeminiDraft() {
+
+        CascadeRouter.Draft draft = parse("{\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":["
+                + "{\"text\":\"Sure\"},{\"functionCall\":{\"name\":\"f\",\"args\":{\"a\":1}}}]},"
+                + "\"finishReason\":\"MAX_TOKENS\",\"avgLogprobs\":-0.25}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":4,\"candidatesTokenCount\":32}}");
+        Assert.assertEquals("Sure", draft.text.toString());
+        Assert.assertEquals("{\"a\":1}", draft.toolArguments.get(0));
+        Assert.assertEquals(ChatResponseTranslator.FinishReason.LENGTH, draft.finishReason);
+        Assert.assertEquals(32, draft.outputTokens);
+        Assert.assertEquals(-0.25d, draft.meanLogprob, 1e-9d);
+    }
+
+    @Test
+    public void testTruncationByTheClientsLimitIsAccepted() {
+
+        String openAI = "{\"choices\":[{\"message\":{\"content\":\"Part of the answer\"},"
+                + "\"finish_reason\":\"length\"}],\"usage\":{\"completion_tokens\":16}}";
+        String anthropic = "{\"content\":[{\"type\":\"text\",\"text\":\"Part of the answer\"}],"
+                + "\"stop_reason\":\"max_tokens\",\"usage\":{\"output_tokens\":16}}";
+        String gemini = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Part of the answer\"}]},"
+                + "\"finishReason\":\"MAX_TOKENS\"}],\"usageMetadata\":{\"candidatesTokenCount\":16}}";
+        for (String payload : new String[]{openAI, anthropic, gemini}) {
+            Assert.assertNull(payload, ROUTER.check(200, payload, false, 16));
+            // The draft model stopped before the client's limit, or the request set none
+            Assert.assertEquals(payload, "truncated", ROUTER.check(200, payload, false, 64));
+            Assert.assertEquals(payload, "truncated", ROUTER.check(200, payload, false, 0));
+        }
+        // Without usage the client's limit is taken as the cause
+        Assert.assertNull(ROUTER.check(200, "{\"choices\":[{\"message\":{\"content\":\"Part\"},"
+                + "\"finish_reason\":\"length\"}]}", false, 16));
+    }
+
+    @Test
+    public void testChecks() {
+
+        Assert.assertEquals("status 503", ROUTER.check(503, null, false, 0));
+        Assert.assertEquals("status 429", ROUTER.check(429, null, false, 0));
+        Assert.assertNull(ROUTER.check(400, null, false, 0));
+        Assert.assertEquals("unreadable response", ROUTER.check(200, "not json", false, 0));
+        Assert.assertEquals("content filter", ROUTER.check(200, "{\"candidates\":[{\"content\":{\"parts\":"
+                + "[{\"text\":\"x\"}]},\"finishReason\":\"SAFETY\"}]}", false, 0));
+        Assert.assertEquals("short answer", ROUTER.check(200, openAI(" "), false, 0));
+        Assert.assertEquals("escalate pattern", ROUTER.check(200, openAI("I'm sorry, I can't help."), false, 0));
+        Assert.assertEquals("malformed JSON", ROUTER.check(200, openAI("{\\\"a\\\":"), true, 0));
+        Assert.assertNull(ROUTER.check(200, openAI("```json\\n{\\\"a\\\":1}\\n```"), true, 0));
+        Assert.assertEquals("malformed tool call", ROUTER.check(200, "{\"choices\":[{\"message\":{\"tool_calls\":"
+                + "[{\"function\":{\"name\":\"f\",\"arguments\":\"{\\\"a\\\":\"}}]},"
+                + "\"finish_reason\":\"tool_calls\"}]}", false, 0));
+
+        CascadeRouter confident = CascadeRouter.fromPolicy(JsonParser.parseString(
+                "{\"cascade\":{\"minLogprob\":-0.7,\"escalatePatterns\":[\"(\"]}}").getAsJsonObject());
+        Assert.assertEquals("low confidence", confident.check(200, "{\"candidates\":[{\"content\":{\"parts\":"
+                + "[{\"text\":\"Maybe\"}]},\"avgLogprobs\":-1.2}]}", false, 0));
+        // The invalid pattern is skipped, so an apology passes
+        Assert.assertNull(confident.check(200, openAI("I'm sorry, here it is."), false, 0));
+    }
+
+    private static CascadeRouter.Draft parse(String payload) {
+
+        return CascadeRouter.Draft.parse(JsonParser.parseString(payload).getAsJsonObject());
+    }
+
+    private static String openAI(String content) {
+
+        return "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\"},"
+                + "\"finish_reason\":\"stop\"}]}";
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translates a conversation with tool calls, images and parameters into every schema and back, checks how
+ * streamed requests are carried to each provider and that untranslatable requests are rejected.
+ */
+public class ChatRequestTranslatorTest {
+
+    private static final String OPENAI_REQUEST = "{\"model\":\"gpt-4o\",\"stream\":true,\"temperature\":0.2,"
+            + "\"max_tokens\":256,\"stop\":[\"END\"],\"messages\":["
+            + "{\"role\":\"system\",\"content\":\"Be brief.\"},"
+            + "{\"role\":\"user\",\"content\":\"Weather in Colombo?\"},"
+            + "{\"role\":\"assistant\",\"content\":null,\"tool_calls\":[{\"id\":\"call_0\",\"type\":\"function\","
+            + "\"function\":{\"name\":\"weather\",\"arguments\":\"{\\\"city\\\":\\\"Colombo\\\"}\"}}]},"
+            + "{\"role\":\"tool\",\"tool_call_id\":\"call_0\",\"content\":\"{\\\"celsius\\\":31}\"},"
+            + "{\"role\":\"user\",\"content\":\"Thanks\"}],"
+            + "\"tools\":[{\"type\":\"function\",\"function\":{\"name\":\"weather\",\"description\":\"Weather\","
+            + "\"parameters\":{\"type\":\"object\"}}}]}";
+
+    @Test
+    public void testRoundTripThroughEverySchema() throws Exception {
+
+        ChatRequestTranslator.ChatRequest source = ChatRequestTranslator.parse(OPENAI_REQUEST);
+        Assert.assertEquals(ChatSchema.OPENAI, source.getSourceSchema());
+        for (ChatSchema schema : ChatSchema.values()) {
+            String payload = ChatRequestTranslator.write(source, schema, "target-model");
+            ChatRequestTranslator.ChatRequest parsed = ChatRequestTranslator.parse(payload);
+            Assert.assertNotNull(schema.name(), parsed);
+            Assert.assertEquals(schema.name(), "Be brief.", parsed.getSystem());
+            Assert.assertEquals(schema.name(), Integer.valueOf(256), parsed.getMaxTokens());
+            Assert.assertEquals(schema.name(), 1, parsed.getTools().size());
+            Assert.assertEquals(schema.name(), "weather", parsed.getTools().get(0).getName());
+
+            // Anthropic merges the tool result and the following user text into one turn, so compare the parts
+            List<ChatRequestTranslator.Part> parts = new ArrayList<>();
+            for (ChatRequestTranslator.Message message : parsed.getMessages()) {
+                parts.addAll(message.getParts());
+            }
+            Assert.assertEquals(schema.name(), 4, parts.size());
+            Assert.assertEquals("Weather in Colombo?", parts.get(0).getText());
+            ChatRequestTranslator.Part call = parts.get(1);
+            Assert.assertEquals(ChatRequestTranslator.PartType.TOOL_CALL, call.getType());
+            Assert.assertEquals("weather", call.getName());
+            Assert.assertEquals("Colombo",
+                    JsonParser.parseString(call.getArguments()).getAsJsonObject().get("city").getAsString());
+            Assert.assertEquals(ChatRequestTranslator.PartType.TOOL_RESULT, parts.get(2).getType());
+            Assert.assertEquals(31, JsonParser.parseString(parts.get(2).getText())
+                    .getAsJsonObject().get("celsius").getAsInt());
+            Assert.assertEquals("Thanks", parts.get(3).getText());
+            Assert.assertEquals(ChatRequestTranslator.Role.USER,
+                    parsed.getMessages().get(parsed.getMessages().size() - 1).getRole());
+
+            // The stream flag survives only where the schema carries it in the body
+            Assert.assertEquals(schema.name(), schema.isStreamInBody(), parsed.isStream());
+        }
+    }
+
+    @Test
+    public void testModelPlacement() throws Exception {
+
+        ChatRequestTranslator.ChatRequest source = ChatRequestTranslator.parse(OPENAI_REQUEST);
+        Assert.assertEquals("target-model", json(ChatRequestTranslator.write(source, ChatSchema.OPENAI,
+                "target-model")).get("model").getAsString());
+        Assert.assertEquals("target-model", json(ChatRequestTranslator.write(source, ChatSchema.ANTHROPIC,
+                "target-model")).get("model").getAsString());
+        JsonObject bedrock = json(ChatRequestTranslator.write(source, ChatSchema.BEDROCK, "target-model"));
+        Assert.assertFalse(bedrock.has("model"));
+        Assert.assertEquals("bedrock-2023-05-31", bedrock.get("anthropic_version").getAsString());
+        JsonObject gemini = json(ChatRequestTranslator.write(source, ChatSchema.GEMINI, "target-model"));
+        Assert.assertFalse(gemini.has("model"));
+        Assert.assertEquals(256, gemini.getAsJsonObject("generationConfig").get("maxOutputTokens").getAsInt());
+    }
+
+    @Test
+    public void testEmptyTextIsNotSentToAnthropic() throws Exception {
+
+        ChatRequestTranslator.ChatRequest source = ChatRequestTranslator.parse("{\"messages\":["
+                + "{\"role\":\"user\",\"content\":[{\"type\":\"text\",\"text\":\"\"},{\"type\":\"text\","
+                + "\"text\":\"Hello\"}]},{\"role\":\"assistant\",\"content\":\"\"},"
+                + "{\"role\":\"user\",\"content\":\"Again\"}]}");
+        for (ChatSchema schema : new ChatSchema[]{ChatSchema.ANTHROPIC, ChatSchema.BEDROCK}) {
+            JsonArray messages = json(ChatRequestTranslator.write(source, schema, "claude")).getAsJsonArray("messages");
+            // The empty assistant turn is dropped and the user turns around it are merged
+            Assert.assertEquals(1, messages.size());
+            JsonArray content = messages.get(0).getAsJsonObject().getAsJsonArray("content");
+            Assert.assertEquals(2, content.size());
+            Assert.assertEquals("Hello", content.get(0).getAsJsonObject().get("text").getAsString());
+            Assert.assertEquals("Again", content.get(1).getAsJsonObject().get("text").getAsString());
+        }
+        Assert.assertFalse(ChatRequestTranslator.parse("{\"messages\":[{\"role\":\"user\",\"content\":\"\"}]}")
+                .hasContent());
+    }
+
+    @Test
+    public void testStreamingRequestsPerSchema() throws Exception {
+
+        ChatRequestTranslator.ChatRequest source = ChatRequestTranslator.parse(OPENAI_REQUEST);
+        Assert.assertTrue(source.isStream());
+        for (ChatSchema schema : new ChatSchema[]{ChatSchema.OPENAI, ChatSchema.MISTRAL, ChatSchema.ANTHROPIC}) {
+            Assert.assertTrue(json(ChatRequestTranslator.write(source, schema, "m")).get("stream").getAsBoolean());
+            Assert.assertEquals("https://provider/v1/chat", schema.streamingUrl("https://provider/v1/chat"));
+        }
+        Assert.assertFalse(json(ChatRequestTranslator.write(source, ChatSchema.GEMINI, "m")).has("stream"));
+        Assert.assertEquals(
+                "https://generativelanguage.googleapis.com/v1beta/models/gemini-pro:streamGenerateContent?alt=sse",
+                ChatSchema.GEMINI.streamingUrl(
+                        "https://generativelanguage.googleapis.com/v1beta/models/gemini-pro:generateContent"));
+        Assert.assertEquals("https://gemini/models/g:streamGenerateContent?key=k&alt=sse",
+                ChatSchema.GEMINI.streamingUrl("https://gemini/models/g:generateContent?key=k"));
+        Assert.assertEquals("https://gemini/models/g:streamGenerateContent?alt=sse",
+                ChatSchema.GEMINI.streamingUrl("https://gemini/models/g:streamGenerateContent?alt=sse"));
+        Assert.assertNull(ChatSchema.GEMINI.streamingUrl("https://gemini.internal/chat"));
+
+        // Bedrock streams the binary event stream encoding, which is not translated back for the client
+        Assert.assertFalse(json(ChatRequestTranslator.write(source, ChatSchema.BEDROCK, "m")).has("stream"));
+        Assert.assertNull(ChatSchema.BEDROCK.streamingUrl(
+                "https://bedrock-runtime.us-east-1.amazonaws.com/model/anthropic.claude-v2/invoke"));
+    }
+
+    @Test
+    public void testGeminiAndAnthropicSourcesAreDetected() throws Exception {
+
+        ChatRequestTranslator.ChatRequest gemini = ChatRequestTranslator.parse("{\"contents\":[{\"role\":\"user\","
+                + "\"parts\":[{\"text\":\"Hi\"}]}],\"systemInstruction\":{\"parts\":[{\"text\":\"Sys\"}]},"
+                + "\"generationConfig\":{\"maxOutputTokens\":12,\"temperature\":0}}");
+        Assert.assertEquals(ChatSchema.GEMINI, gemini.getSourceSchema());
+        Assert.assertEquals("Sys", gemini.getSystem());
+        Assert.assertEquals(Integer.valueOf(12), gemini.getMaxTokens());
+        JsonObject openAI = json(ChatRequestTranslator.write(gemini, ChatSchema.OPENAI, "gpt"));
+        Assert.assertEquals(0.0d, openAI.get("temperature").getAsDouble(), 0.0d);
+        Assert.assertEquals("system", openAI.getAsJsonArray("messages").get(0).getAsJsonObject()
+                .get("role").getAsString());
+
+        ChatRequestTranslator.ChatRequest anthropic = ChatRequestTranslator.parse("{\"model\":\"claude\","
+                + "\"system\":\"Sys\",\"max_tokens\":5,\"messages\":[{\"role\":\"user\",\"content\":\"Hi\"}]}");
+        Assert.assertEquals(ChatSchema.ANTHROPIC, anthropic.getSourceSchema());
+    }
+
+    @Test
+    public void testMistypedFieldsAreMalformed() throws Exception {
+
+        String[] payloads = {
+                "{\"temperature\":\"warm\",\"messages\":[{\"role\":\"user\",\"content\":\"Hi\"}]}",
+                "{\"messages\":[{\"role\":\"user\",\"content\":{\"text\":\"Hi\"}}]}",
+                "{\"messages\":[{\"role\":\"user\",\"content\":[\"Hi\"]}]}",
+                "{\"messages\":{\"role\":\"user\"}}",
+                "{\"contents\":[{\"parts\":[{\"text\":[1,2]}]}]}",
+                "{\"messages\":[{\"role\":\"user\",\"content\":\"Hi\"}"
+        };
+        for (String payload : payloads) {
+            try {
+                ChatRequestTranslator.parse(payload);
+                Assert.fail("Accepted " + payload);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+        // Numbers written as strings are still numbers
+        Assert.assertEquals(Integer.valueOf(7), ChatRequestTranslator.parse("{\"max_tokens\":\"7\","
+                + "\"messages\":[{\"role\":\"user\",\"content\":\"Hi\"}]}").getMaxTokens());
+    }
+
+    @Test
+    public void testImagesThroughEverySchema() throws Exception {
+
+        ChatRequestTranslator.ChatRequest source = ChatRequestTranslator.parse("{\"messages\":[{\"role\":\"user\","
+                + "\"content\":[{\"type\":\"text\",\"text\":\"What is this?\"},{\"type\":\"image_url\","
+                + "\"image_url\":{\"url\":\"data:image/png;base64,iVBORw0KGgo=\"}}]}]}");
+        Assert.assertTrue(source.hasContent());
+        for (ChatSchema schema : ChatSchema.values()) {
+            ChatRequestTranslator.ChatRequest parsed = ChatRequestTranslator.parse(
+                    ChatRequestTranslator.write(source, schema, "m"));
+            List<ChatRequestTranslator.Part> parts = parsed.getMessages().get(0).getParts();
+            Assert.assertEquals(schema.name(), 2, parts.size());
+            Assert.assertEquals("What is this?", parts.get(0).getText());
+            Assert.assertEquals(ChatRequestTranslator.PartType.IMAGE, parts.get(1).getType());
+            Assert.assertEquals(schema.name(), "image/png", parts.get(1).getMediaType());
+            Assert.assertEquals(schema.name(), "iVBORw0KGgo=", parts.get(1).getData());
+        }
+
+        ChatRequestTranslator.ChatRequest byUrl = ChatRequestTranslator.parse("{\"messages\":[{\"role\":\"user\","
+                + "\"content\":[{\"type\":\"image_url\",\"image_url\":{\"url\":\"https://img/cat.JPG?s=1\"}}]}]}");
+        JsonObject fileData = json(ChatRequestTranslator.write(byUrl, ChatSchema.GEMINI, "m"))
+                .getAsJsonArray("contents").get(0).getAsJsonObject().getAsJsonArray("parts").get(0)
+                .getAsJsonObject().getAsJsonObject("fileData");
+        Assert.assertEquals("image/jpeg", fileData.get("mimeType").getAsString());
+        Assert.assertEquals("url", json(ChatRequestTranslator.write(byUrl, ChatSchema.ANTHROPIC, "m"))
+                .getAsJsonArray("messages").get(0).getAsJsonObject().getAsJsonArray("content").get(0)
+                .getAsJsonObject().getAsJsonObject("source").get("type").getAsString());
+        assertUnsupported(byUrl, ChatSchema.BEDROCK);
+    }
+
+    @Test
+    public void testParametersThroughEverySchema() throws Exception {
+
+        ChatRequestTranslator.ChatRequest source = ChatRequestTranslator.parse("{\"messages\":[{\"role\":\"user\","
+                + "\"content\":\"Weather?\"}],\"tools\":[{\"type\":\"function\",\"function\":{\"name\":\"weather\"}}],"
+                + "\"tool_choice\":{\"type\":\"function\",\"function\":{\"name\":\"weather\"}},"
+                + "\"frequency_penalty\":0,\"response_format\":{\"type\":\"text\"}}");
+        for (ChatSchema schema : ChatSchema.values()) {
+            ChatRequestTranslator.ChatRequest parsed = ChatRequestTranslator.parse(
+                    ChatRequestTranslator.write(source, schema, "m"));
+            Assert.assertEquals(schema.name(), ChatRequestTranslator.ToolChoice.FUNCTION, parsed.getToolChoice());
+        }
+        JsonObject anthropic = json(ChatRequestTranslator.write(source, ChatSchema.ANTHROPIC, "m"));
+        Assert.assertEquals("tool", anthropic.getAsJsonObject("tool_choice").get("type").getAsString());
+        Assert.assertFalse(anthropic.has("frequency_penalty"));
+
+        ChatRequestTranslator.ChatRequest gemini = ChatRequestTranslator.parse("{\"contents\":[{\"parts\":["
+                + "{\"text\":\"Hi\"}]}],\"generationConfig\":{\"topK\":40,\"presencePenalty\":0.5,"
+                + "\"responseMimeType\":\"application/json\",\"responseJsonSchema\":{\"type\":\"object\"}}}");
+        Assert.assertEquals(ChatRequestTranslator.ResponseFormat.JSON_SCHEMA, gemini.getResponseFormat());
+        JsonObject config = json(ChatRequestTranslator.write(gemini, ChatSchema.GEMINI, "m"))
+                .getAsJsonObject("generationConfig");
+        Assert.assertEquals(40, config.get("topK").getAsInt());
+        Assert.assertEquals(0.5d, config.get("presencePenalty").getAsDouble(), 0.0d);
+        Assert.assertEquals("object", config.getAsJsonObject("responseJsonSchema").get("type").getAsString());
+        // OpenAI has no top_k and Anthropic neither penalties nor a JSON response format
+        assertUnsupported(gemini, ChatSchema.OPENAI);
+        assertUnsupported(gemini, ChatSchema.ANTHROPIC);
+    }
+
+    @Test
+    public void testUntranslatableContentIsRejected() throws Exception {
+
+        String[] payloads = {
+                "{\"messages\":[{\"role\":\"user\",\"content\":[{\"type\":\"input_audio\","
+                        + "\"input_audio\":{\"data\":\"AAA=\",\"format\":\"wav\"}}]}]}",
+                "{\"messages\":[{\"role\":\"user\",\"content\":[{\"type\":\"document\",\"source\":{}}]}]}",
+                "{\"contents\":[{\"parts\":[{\"executableCode\":{\"code\":\"1\"}}]}]}",
+                "{\"messages\":[{\"role\":\"user\",\"content\":[{\"type\":\"image_url\","
+                        + "\"image_url\":{\"url\":\"data:image/png,raw\"}}]}]}"
+        };
+        for (String payload : payloads) {
+            try {
+                ChatRequestTranslator.parse(payload);
+                Assert.fail("Accepted " + payload);
+            } catch (ChatRequestTranslator.UnsupportedRequestException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyTextIsNotSentToGemini() throws Exception {
+
+        ChatRequestTranslator.ChatRequest source = ChatRequestTranslator.parse("{\"messages\":["
+                + "{\"role\":\"user\",\"content\":[{\"type\":\"text\",\"text\":\"\"},{\"type\":\"text\","
+                + "\"text\":\"Hello\"}]},{\"role\":\"assistant\",\"content\":\"\"}]}");
+        JsonArray contents = json(ChatRequestTranslator.write(source, ChatSchema.GEMINI, "m"))
+                .getAsJsonArray("contents");
+        Assert.assertEquals(1, contents.size());
+        JsonArray parts = contents.get(0).getAsJsonObject().getAsJsonArray("parts");
+        Assert.assertEquals(1, parts.size());
+        Assert.assertEquals("Hello", parts.get(0).getAsJsonObject().get("text").getAsString());
+    }
+
+    private static void assertUnsupported(ChatRequestTranslator.ChatRequest request, ChatSchema target)
+            throws IOException {
+
+        try {
+            ChatRequestTranslator.write(request, target, "m");
+            Assert.fail("Wrote an untranslatable request for " + target);
+        } catch (ChatRequestTranslator.UnsupportedRequestException e) {
+            // Expected
+        }
+    }
+
+    private static JsonObject json(String payload) {
+
+        return JsonParser.parseString(payload).getAsJsonObject();
+    }
+}
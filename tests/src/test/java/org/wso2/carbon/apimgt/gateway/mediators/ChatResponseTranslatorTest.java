@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts server-sent event streams between the OpenAI, Anthropic and Gemini schemas, fed whole and in small
+ * chunks that split lines and events.
+ */
+public class ChatResponseTranslatorTest {
+
+    private static final String OPENAI_STREAM =
+            "data: {\"id\":\"chatcmpl-1\",\"model\":\"gpt-4o\",\"choices\":[{\"index\":0,\"delta\":{\"role\":"
+                    + "\"assistant\",\"content\":\"\"},\"finish_reason\":null}]}\n\n"
+                    + "data: {\"id\":\"chatcmpl-1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hello\"},"
+                    + "\"finish_reason\":null}]}\n\n"
+                    + "data: {\"id\":\"chatcmpl-1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\" world\"},"
+                    + "\"finish_reason\":null}]}\n\n"
+                    + "data: {\"id\":\"chatcmpl-1\",\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":"
+                    + "\"length\"}],\"usage\":{\"prompt_tokens\":9,\"completion_tokens\":2}}\n\n"
+                    + "data: [DONE]\n\n";
+
+    private static final String ANTHROPIC_STREAM =
+            "event: message_start\n"
+                    + "data: {\"type\":\"message_start\",\"message\":{\"id\":\"msg_1\",\"model\":\"claude\","
+                    + "\"usage\":{\"input_tokens\":12,\"output_tokens\":1}}}\n\n"
+                    + "event: content_block_start\n"
+                    + "data: {\"type\":\"content_block_start\",\"index\":0,\"content_block\":{\"type\":\"text\","
+                    + "\"text\":\"\"}}\n\n"
+                    + "event: content_block_delta\n"
+                    + "data: {\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\","
+                    + "\"text\":\"Checking\"}}\n\n"
+                    + "event: content_block_stop\n"
+                    + "data: {\"type\":\"content_block_stop\",\"index\":0}\n\n"
+                    + "event: content_block_start\n"
+                    + "data: {\"type\":\"content_block_start\",\"index\":1,\"content_block\":{\"type\":\"tool_use\","
+                    + "\"id\":\"toolu_1\",\"name\":\"weather\",\"input\":{}}}\n\n"
+                    + "event: content_block_delta\n"
+                    + "data: {\"type\":\"content_block_delta\",\"index\":1,\"delta\":{\"type\":\"input_json_delta\","
+                    + "\"partial_json\":\"{\\\"city\\\":\"}}\n\n"
+                    + "event: content_block_delta\n"
+                    + "data: {\"type\":\"content_block_delta\",\"index\":1,\"delta\":{\"type\":\"input_json_delta\","
+                    + "\"partial_json\":\"\\\"Colombo\\\"}\"}}\n\n"
+                    + "event: content_block_stop\n"
+                    + "data: {\"type\":\"content_block_stop\",\"index\":1}\n\n"
+                    + "event: message_delta\n"
+                    + "data: {\"type\":\"message_delta\",\"delta\":{\"stop_reason\":\"tool_use\"},"
+                    + "\"usage\":{\"output_tokens\":20}}\n\n"
+                    + "event: message_stop\n"
+                    + "data: {\"type\":\"message_stop\"}\n\n";
+
+    private static final String GEMINI_STREAM =
+            "data: {\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":\"Hi \"}]},\"index\":0}],"
+                    + "\"modelVersion\":\"gemini-2.0-flash\",\"responseId\":\"r1\"}\r\n\r\n"
+                    + "data: {\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":\"there\"}]},"
+                    + "\"finishReason\":\"STOP\",\"index\":0}],\"usageMetadata\":{\"promptTokenCount\":4,"
+                    + "\"candidatesTokenCount\":2}}\r\n\r\n";
+
+    @Test
+    public void testOpenAIStreamToAnthropic() throws Exception {
+
+        String whole = convertWhole(ChatSchema.OPENAI, ChatSchema.ANTHROPIC, OPENAI_STREAM);
+        // Splitting the stream anywhere gives the same events
+        Assert.assertEquals(whole, convertInChunks(ChatSchema.OPENAI, ChatSchema.ANTHROPIC, OPENAI_STREAM, 7));
+
+        List<JsonObject> events = dataEvents(whole);
+        Assert.assertEquals("message_start", type(events.get(0)));
+        Assert.assertEquals("chatcmpl-1", events.get(0).getAsJsonObject("message").get("id").getAsString());
+        StringBuilder text = new StringBuilder();
+        for (JsonObject event : events) {
+            if ("content_block_delta".equals(type(event))) {
+                text.append(event.getAsJsonObject("delta").get("text").getAsString());
+            }
+        }
+        Assert.assertEquals("Hello world", text.toString());
+        JsonObject messageDelta = events.get(events.size() - 2);
+        Assert.assertEquals("message_delta", type(messageDelta));
+        Assert.assertEquals("max_tokens", messageDelta.getAsJsonObject("delta").get("stop_reason").getAsString());
+        Assert.assertEquals(2, messageDelta.getAsJsonObject("usage").get("output_tokens").getAsInt());
+        Assert.assertEquals("message_stop", type(events.get(events.size() - 1)));
+        Assert.assertTrue(whole.contains("event: content_block_stop\n"));
+    }
+
+    @Test
+    public void testAnthropicStreamWithToolCallToOpenAI() throws Exception {
+
+        for (int chunkSize : new int[]{Integer.MAX_VALUE, 1, 13}) {
+            String converted = convertInChunks(ChatSchema.BEDROCK, ChatSchema.OPENAI, ANTHROPIC_STREAM, chunkSize);
+            Assert.assertTrue(converted.endsWith("data: [DONE]\n\n"));
+            StringBuilder text = new StringBuilder();
+            StringBuilder arguments = new StringBuilder();
+            String toolName = null;
+            String finishReason = null;
+            JsonObject usage = null;
+            for (JsonObject chunk : dataEvents(converted)) {
+                Assert.assertEquals("msg_1", chunk.get("id").getAsString());
+                JsonObject choice = chunk.getAsJsonArray("choices").get(0).getAsJsonObject();
+                JsonObject delta = choice.getAsJsonObject("delta");
+                if (delta.has("content") && !delta.get("content").isJsonNull()) {
+                    text.append(delta.get("content").getAsString());
+                }
+                if (delta.has("tool_calls")) {
+                    JsonObject function = delta.getAsJsonArray("tool_calls").get(0).getAsJsonObject()
+                            .getAsJsonObject("function");
+                    if (function.has("name")) {
+                        toolName = function.get("name").getAsString();
+                    }
+                    arguments.append(function.get("arguments").getAsString());
+                }
+                if (!choice.get("finish_reason").isJsonNull()) {
+                    finishReason = choice.get("finish_reason").getAsString();
+                    usage = chunk.getAsJsonObject("usage");
+                }
+            }
+            Assert.assertEquals("Checking", text.toString());
+            Assert.assertEquals("weather", toolName);
+            Assert.assertEquals("Colombo",
+                    JsonParser.parseString(arguments.toString()).getAsJsonObject().get("city").getAsString());
+            Assert.assertEquals("tool_calls", finishReason);
+            Assert.assertEquals(12, usage.get("prompt_tokens").getAsInt());
+            Assert.assertEquals(20, usage.get("completion_tokens").getAsInt());
+        }
+    }
+
+    @Test
+    public void testAnthropicToolCallToGemini() throws Exception {
+
+        List<JsonObject> chunks = dataEvents(convertWhole(ChatSchema.ANTHROPIC, ChatSchema.GEMINI, ANTHROPIC_STREAM));
+        // Gemini carries function calls whole, so they arrive with the final chunk
+        JsonObject last = chunks.get(chunks.size() - 1).getAsJsonArray("candidates").get(0).getAsJsonObject();
+        Assert.assertEquals("STOP", last.get("finishReason").getAsString());
+        JsonObject call = last.getAsJsonObject("content").getAsJsonArray("parts").get(0).getAsJsonObject()
+                .getAsJsonObject("functionCall");
+        Assert.assertEquals("weather", call.get("name").getAsString());
+        Assert.assertEquals("Colombo", call.getAsJsonObject("args").get("city").getAsString());
+    }
+
+    @Test
+    public void testGeminiStreamToOpenAI() throws Exception {
+
+        String converted = convertInChunks(ChatSchema.GEMINI, ChatSchema.OPENAI, GEMINI_STREAM, 5);
+        StringBuilder text = new StringBuilder();
+        String finishReason = null;
+        for (JsonObject chunk : dataEvents(converted)) {
+            Assert.assertEquals("r1", chunk.get("id").getAsString());
+            JsonObject choice = chunk.getAsJsonArray("choices").get(0).getAsJsonObject();
+            JsonObject delta = choice.getAsJsonObject("delta");
+            if (delta.has("content")) {
+                text.append(delta.get("content").getAsString());
+            }
+            if (!choice.get("finish_reason").isJsonNull()) {
+                finishReason = choice.get("finish_reason").getAsString();
+            }
+        }
+        Assert.assertEquals("Hi there", text.toString());
+        Assert.assertEquals("stop", finishReason);
+        Assert.assertTrue(converted.endsWith("data: [DONE]\n\n"));
+    }
+
+    @Test
+    public void testUnterminatedStreamIsCompletedOnFinish() throws Exception {
+
+        // The provider stream stops after the first text delta and without a final newline
+        String truncated = OPENAI_STREAM.substring(0, OPENAI_STREAM.indexOf("data:", OPENAI_STREAM.indexOf("Hello")))
+                .trim();
+        String converted = convertWhole(ChatSchema.OPENAI, ChatSchema.ANTHROPIC, truncated);
+        List<JsonObject> events = dataEvents(converted);
+        Assert.assertEquals("message_stop", type(events.get(events.size() - 1)));
+        Assert.assertEquals("end_turn", events.get(events.size() - 2).getAsJsonObject("delta")
+                .get("stop_reason").getAsString());
+    }
+
+    @Test
+    public void testMalformedToolArgumentsBecomeEmptyObject() throws Exception {
+
+        // Arguments cut short by the token limit are not valid JSON
+        String response = "{\"id\":\"c1\",\"model\":\"gpt\",\"choices\":[{\"index\":0,\"finish_reason\":\"length\","
+                + "\"message\":{\"role\":\"assistant\",\"content\":null,\"tool_calls\":[{\"id\":\"t1\","
+                + "\"type\":\"function\",\"function\":{\"name\":\"weather\","
+                + "\"arguments\":\"{\\\"city\\\": \\\"Col\"}}]}}]}";
+        JsonObject anthropic = JsonParser.parseString(
+                ChatResponseTranslator.translate(response, ChatSchema.OPENAI, ChatSchema.ANTHROPIC)).getAsJsonObject();
+        JsonObject toolUse = anthropic.getAsJsonArray("content").get(0).getAsJsonObject();
+        Assert.assertEquals("weather", toolUse.get("name").getAsString());
+        Assert.assertEquals(0, toolUse.getAsJsonObject("input").size());
+        JsonObject gemini = JsonParser.parseString(
+                ChatResponseTranslator.translate(response, ChatSchema.OPENAI, ChatSchema.GEMINI)).getAsJsonObject();
+        Assert.assertEquals(0, gemini.getAsJsonArray("candidates").get(0).getAsJsonObject().getAsJsonObject("content")
+                .getAsJsonArray("parts").get(0).getAsJsonObject().getAsJsonObject("functionCall")
+                .getAsJsonObject("args").size());
+    }
+
+    private static String convertWhole(ChatSchema provider, ChatSchema client, String stream) throws Exception {
+
+        ChatResponseTranslator.StreamConverter converter = ChatResponseTranslator.newStreamConverter(provider, client);
+        return converter.convert(stream) + converter.finish();
+    }
+
+    private static String convertInChunks(ChatSchema provider, ChatSchema client, String stream, int chunkSize)
+            throws Exception {
+
+        ChatResponseTranslator.StreamConverter converter = ChatResponseTranslator.newStreamConverter(provider, client);
+        StringBuilder converted = new StringBuilder();
+        for (int i = 0; i < stream.length(); i += Math.min(chunkSize, stream.length() - i)) {
+            converted.append(converter.convert(stream.substring(i, i + Math.min(chunkSize, stream.length() - i))));
+        }
+        return converted.append(converter.finish()).toString();
+    }
+
+    private static List<JsonObject> dataEvents(String stream) {
+
+        List<JsonObject> events = new ArrayList<>();
+        for (String line : stream.split("\r?\n")) {
+            if (line.startsWith("data: ") && !line.equals("data: [DONE]")) {
+                events.add(JsonParser.parseString(line.substring(6)).getAsJsonObject());
+            }
+        }
+        return events;
+    }
+
+    private static String type(JsonObject event) {
+
+        return event.get("type").getAsString();
+    }
+}
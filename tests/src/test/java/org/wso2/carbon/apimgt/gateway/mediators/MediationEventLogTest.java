@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the event level is parsed defensively.
+ */
+public class MediationEventLogTest {
+
+    @Test
+    public void testLevelParsing() {
+
+        Assert.assertEquals(MediationEventLog.Level.OFF, MediationEventLog.Level.parse(null));
+        Assert.assertEquals(MediationEventLog.Level.OFF, MediationEventLog.Level.parse(""));
+        Assert.assertEquals(MediationEventLog.Level.DECISION, MediationEventLog.Level.parse(" decision "));
+        Assert.assertEquals(MediationEventLog.Level.DETAIL, MediationEventLog.Level.parse("Detail"));
+        // A typo turns the log off instead of failing the mediators' class initialisation
+        Assert.assertEquals(MediationEventLog.Level.OFF, MediationEventLog.Level.parse("DECISIONS"));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks how model names resolve to the built-in families and to the entries of a routing policy.
+ */
+public class ModelCapabilitiesTest {
+
+    private static final ModelCapabilities.Catalog CATALOG = ModelCapabilities.Catalog.BUILT_IN_ONLY;
+
+    @Test
+    public void testVersionsResolveToTheirFamily() {
+
+        Assert.assertEquals(8192, CATALOG.of("gpt-4").getContextWindow());
+        Assert.assertEquals(8192, CATALOG.of("gpt-4-0613").getContextWindow());
+        Assert.assertEquals(128000, CATALOG.of("gpt-4o-2024-08-06").getContextWindow());
+        Assert.assertEquals(1, CATALOG.of("gpt-4o-mini-2024-07-18").getTier());
+        Assert.assertEquals(64000, CATALOG.of("claude-3-7-sonnet-20250219").getMaxOutputTokens());
+        Assert.assertEquals(8192, CATALOG.of("claude-3-5-sonnet@20240620").getMaxOutputTokens());
+        Assert.assertEquals(4096, CATALOG.of("anthropic.claude-3-haiku-20240307-v1:0").getMaxOutputTokens());
+        Assert.assertEquals(2097152, CATALOG.of("models/gemini-1.5-pro-002").getContextWindow());
+        Assert.assertEquals(131072, CATALOG.of("mistral-large-latest").getContextWindow());
+    }
+
+    @Test
+    public void testVariantsAreNotTakenForTheBaseModel() {
+
+        Assert.assertEquals(32768, CATALOG.of("gpt-4-32k").getContextWindow());
+        Assert.assertEquals(32768, CATALOG.of("gpt-4-32k-0613").getContextWindow());
+        Assert.assertEquals(128000, CATALOG.of("gpt-4-1106-preview").getContextWindow());
+        Assert.assertEquals(128000, CATALOG.of("gpt-4-0125-preview").getContextWindow());
+        Assert.assertEquals(128000, CATALOG.of("gpt-4-turbo-preview").getContextWindow());
+        Assert.assertNull(CATALOG.of("gpt-4-vision-preview"));
+        Assert.assertNull(CATALOG.of("gpt-4o-audio-preview"));
+        Assert.assertNull(CATALOG.of("gemini-1.5-flash-8b"));
+    }
+
+    @Test
+    public void testPolicyEntriesComeFirst() {
+
+        ModelCapabilities.Catalog catalog = ModelCapabilities.Catalog.fromPolicy(JsonParser.parseString(
+                "{\"modelCapabilities\":{\"My-Deployment\":{\"contextWindow\":4000},"
+                        + "\"gpt-4\":{\"contextWindow\":9000,\"tier\":1},\"broken\":{\"tier\":1}}}")
+                .getAsJsonObject());
+        ModelCapabilities deployment = catalog.of("my-deployment");
+        Assert.assertEquals(4000, deployment.getMaxOutputTokens());
+        Assert.assertEquals(2, deployment.getTier());
+        Assert.assertEquals(9000, catalog.of("gpt-4").getContextWindow());
+        Assert.assertNull(catalog.of("broken"));
+        Assert.assertTrue(deployment.fits(3000, 1000));
+        Assert.assertFalse(deployment.fits(3001, 1000));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the coalescing policy, that followers receive the leader's response and that one follower takes over
+ * from a failed leader.
+ */
+public class RequestCoalescerTest {
+
+    @Test
+    public void testModeDefaultsToOff() {
+
+        Assert.assertEquals(RequestCoalescer.Mode.OFF, RequestCoalescer.Mode.parse(null));
+        Assert.assertEquals(RequestCoalescer.Mode.OFF, RequestCoalescer.Mode.parse(""));
+        Assert.assertEquals(RequestCoalescer.Mode.ALL, RequestCoalescer.Mode.parse("all"));
+    }
+
+    @Test
+    public void testStreamingRequestsAreNotCoalesced() {
+
+        JsonObject streamed = ResponseCache.parseRequest("{\"temperature\":0,\"stream\":true,\"messages\":[]}");
+        JsonObject complete = ResponseCache.parseRequest("{\"temperature\":0,\"messages\":[]}");
+        for (RequestCoalescer.Mode mode : new RequestCoalescer.Mode[]{RequestCoalescer.Mode.DETERMINISTIC,
+                RequestCoalescer.Mode.ALL}) {
+            Assert.assertFalse(mode.name(), RequestCoalescer.isCoalescable(mode, "true", streamed));
+            Assert.assertTrue(mode.name(), RequestCoalescer.isCoalescable(mode, null, complete));
+        }
+        Assert.assertFalse(RequestCoalescer.isCoalescable(RequestCoalescer.Mode.OFF, "true", complete));
+    }
+
+    @Test
+    public void testFollowerReceivesLeaderResponse() throws Exception {
+
+        RequestCoalescer coalescer = new RequestCoalescer();
+        RequestCoalescer.Flight flight = coalescer.lead("key", 5000L);
+        Assert.assertNotNull(flight);
+        Assert.assertNull(coalescer.lead("key", 5000L));
+        // Another consumer's identical request has another key and leads its own flight
+        Assert.assertNotNull(coalescer.lead("other-consumer-key", 5000L));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<RequestCoalescer.Outcome> follower = executor.submit(() -> coalescer.follow("key", 4, 5000L));
+            while (flight.getFollowers() == 0) {
+                Thread.sleep(1L);
+            }
+            flight.complete(200, "application/json", "{\"id\":\"1\"}");
+            Assert.assertEquals("{\"id\":\"1\"}", follower.get().getResponse().getBody());
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1L, coalescer.getCoalesced());
+        // Too many followers go upstream themselves
+        Assert.assertNotNull(coalescer.lead("key", 5000L));
+        RequestCoalescer.Outcome alone = coalescer.follow("key", 0, 5000L);
+        Assert.assertNull(alone.getResponse());
+        Assert.assertNull(alone.getFlight());
+        // Followers stop waiting after their timeout
+        Assert.assertNull(coalescer.follow("key", 4, 10L).getResponse());
+    }
+
+    @Test
+    public void testOneFollowerTakesOverFromFailedLeader() throws Exception {
+
+        RequestCoalescer coalescer = new RequestCoalescer();
+        RequestCoalescer.Flight flight = coalescer.lead("key", 5000L);
+        int followers = 3;
+        ExecutorService executor = Executors.newFixedThreadPool(followers);
+        try {
+            List<Future<RequestCoalescer.Outcome>> outcomes = new ArrayList<>();
+            for (int i = 0; i < followers; i++) {
+                outcomes.add(executor.submit(() -> coalescer.follow("key", 4, 5000L)));
+            }
+            while (flight.getFollowers() < followers) {
+                Thread.sleep(1L);
+            }
+            flight.abandon();
+
+            // Exactly one follower leads the next flight, the others wait for its response
+            RequestCoalescer.Flight next = null;
+            while (next == null) {
+                for (Future<RequestCoalescer.Outcome> outcome : outcomes) {
+                    if (outcome.isDone()) {
+                        Assert.assertNull("Another follower took over", next);
+                        next = outcome.get().getFlight();
+                        Assert.assertNotNull(next);
+                    }
+                }
+                Thread.sleep(1L);
+            }
+            while (next.getFollowers() < followers - 1) {
+                Thread.sleep(1L);
+            }
+            next.complete(200, "application/json", "{\"id\":\"2\"}");
+            int served = 0;
+            for (Future<RequestCoalescer.Outcome> outcome : outcomes) {
+                if (outcome.get().getResponse() != null) {
+                    Assert.assertEquals("{\"id\":\"2\"}", outcome.get().getResponse().getBody());
+                    served++;
+                }
+            }
+            Assert.assertEquals(followers - 1, served);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
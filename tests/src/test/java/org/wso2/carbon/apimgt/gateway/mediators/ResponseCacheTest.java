@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import com.google.gson.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the cache policy parsing and that cache keys keep consumers apart.
+ */
+public class ResponseCacheTest {
+
+    private static final JsonObject REQUEST = ResponseCache.parseRequest(
+            "{\"model\":\"gpt-4o\",\"temperature\":0,\"messages\":[{\"role\":\"user\",\"content\":\"Hi\"}]}");
+
+    @Test
+    public void testModeDefaultsToOff() {
+
+        Assert.assertEquals(ResponseCache.Mode.OFF, ResponseCache.Mode.parse(null));
+        Assert.assertEquals(ResponseCache.Mode.OFF, ResponseCache.Mode.parse(" "));
+        Assert.assertEquals(ResponseCache.Mode.OFF, ResponseCache.Mode.parse("bogus"));
+        Assert.assertEquals(ResponseCache.Mode.OPT_IN, ResponseCache.Mode.parse("opt-in"));
+        Assert.assertEquals(ResponseCache.Mode.DETERMINISTIC, ResponseCache.Mode.parse("Deterministic"));
+    }
+
+    @Test
+    public void testOnlyDeterministicRequestsAreCacheable() {
+
+        JsonObject sampled = ResponseCache.parseRequest(
+                "{\"temperature\":0.7,\"messages\":[{\"role\":\"user\",\"content\":\"Hi\"}]}");
+        JsonObject unset = ResponseCache.parseRequest("{\"messages\":[{\"role\":\"user\",\"content\":\"Hi\"}]}");
+        JsonObject gemini = ResponseCache.parseRequest("{\"contents\":[],\"generationConfig\":{\"temperature\":0}}");
+        JsonObject streamed = ResponseCache.parseRequest("{\"temperature\":0,\"stream\":true,\"messages\":[]}");
+        for (ResponseCache.Mode mode : new ResponseCache.Mode[]{ResponseCache.Mode.DETERMINISTIC,
+                ResponseCache.Mode.SEMANTIC}) {
+            Assert.assertTrue(mode.name(), ResponseCache.isCacheable(mode, null, REQUEST));
+            Assert.assertTrue(mode.name(), ResponseCache.isCacheable(mode, null, gemini));
+            Assert.assertFalse(mode.name(), ResponseCache.isCacheable(mode, null, sampled));
+            Assert.assertFalse(mode.name(), ResponseCache.isCacheable(mode, null, unset));
+            Assert.assertTrue(mode.name(), ResponseCache.isCacheable(mode, "true", sampled));
+            Assert.assertFalse(mode.name(), ResponseCache.isCacheable(mode, "false", REQUEST));
+            Assert.assertFalse(mode.name(), ResponseCache.isCacheable(mode, "true", streamed));
+        }
+        Assert.assertFalse(ResponseCache.isCacheable(ResponseCache.Mode.OPT_IN, null, REQUEST));
+        Assert.assertTrue(ResponseCache.isCacheable(ResponseCache.Mode.OPT_IN, "true", sampled));
+        Assert.assertFalse(ResponseCache.isCacheable(ResponseCache.Mode.OFF, "true", REQUEST));
+    }
+
+    @Test
+    public void testKeysArePerConsumer() throws Exception {
+
+        String app1 = ResponseCache.key("api", "app-1", "ep", "gpt-4o", null, REQUEST);
+        String app2 = ResponseCache.key("api", "app-2", "ep", "gpt-4o", null, REQUEST);
+        String anonymous = ResponseCache.key("api", "", "ep", "gpt-4o", null, REQUEST);
+        String shared = ResponseCache.key("api", null, "ep", "gpt-4o", null, REQUEST);
+        Assert.assertEquals(app1, ResponseCache.key("api", "app-1", "ep", "gpt-4o", null, REQUEST));
+        Assert.assertNotEquals(app1, app2);
+        Assert.assertNotEquals(app1, shared);
+        Assert.assertNotEquals(anonymous, shared);
+        // Formatting differences do not matter
+        Assert.assertEquals(app1, ResponseCache.key("api", "app-1", "ep", "gpt-4o", null, ResponseCache.parseRequest(
+                "{ \"messages\" : [ {\"content\":\"Hi\", \"role\":\"user\"} ], \"temperature\": 0.0,"
+                        + " \"model\": \"gpt-4o\" }")));
+    }
+
+    @Test
+    public void testKeysArePerClientSchema() throws Exception {
+
+        // A changed request's response is stored in the client's schema, so shared entries must not mix schemas
+        String unchanged = ResponseCache.key("api", null, "ep", "claude", null, REQUEST);
+        String openAIClient = ResponseCache.key("api", null, "ep", "claude", ChatSchema.OPENAI.name(), REQUEST);
+        String geminiClient = ResponseCache.key("api", null, "ep", "claude", ChatSchema.GEMINI.name(), REQUEST);
+        Assert.assertNotEquals(unchanged, openAIClient);
+        Assert.assertNotEquals(openAIClient, geminiClient);
+        Assert.assertEquals(openAIClient, ResponseCache.key("api", null, "ep", "claude", "OPENAI", REQUEST));
+        Assert.assertNotEquals(SemanticResponseCache.namespace("api", null, "ep", "claude", "OPENAI", "Be brief."),
+                SemanticResponseCache.namespace("api", null, "ep", "claude", "GEMINI", "Be brief."));
+    }
+}
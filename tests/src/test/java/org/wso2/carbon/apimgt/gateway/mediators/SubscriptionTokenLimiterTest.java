@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks reservations against the limit of a subscription and the usage reported by other nodes.
+ */
+public class SubscriptionTokenLimiterTest {
+
+    @Test
+    public void testReservationsAreLimitedPerSubscription() {
+
+        SubscriptionTokenLimiter limiter = new SubscriptionTokenLimiter(60L, 100, 10, null, 1000L);
+        SubscriptionTokenLimiter.Decision first = limiter.reserve("api", "app-1", 500L, 300, 50);
+        Assert.assertNotNull(first.getReservation());
+        Assert.assertEquals(150L, first.getRemaining());
+        Assert.assertNull(limiter.reserve("api", "app-1", 500L, 300, 50).getReservation());
+        Assert.assertTrue(limiter.reserve("api", "app-1", 500L, 300, 50).getRetryAfterMillis() > 0L);
+        // Another application has its own window
+        Assert.assertNotNull(limiter.reserve("api", "app-2", 500L, 300, 50).getReservation());
+    }
+
+    @Test
+    public void testRemoteUsageCountsAgainstTheLimit() {
+
+        SubscriptionTokenLimiter limiter = new SubscriptionTokenLimiter(60L, 100, 10, null, 1000L);
+        limiter.applyRemote("api", "app-1", 400L);
+        Assert.assertNull(limiter.reserve("api", "app-1", 500L, 100, 50).getReservation());
+        // A downward reconciliation on the other node frees its tokens
+        limiter.applyRemote("api", "app-1", -200L);
+        SubscriptionTokenLimiter.Decision decision = limiter.reserve("api", "app-1", 500L, 100, 50);
+        Assert.assertNotNull(decision.getReservation());
+        Assert.assertEquals(150L, decision.getRemaining());
+    }
+}
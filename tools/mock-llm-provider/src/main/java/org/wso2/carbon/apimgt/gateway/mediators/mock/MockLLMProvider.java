@@ -0,0 +1,703 @@
+/*
+ * Copyright (c) 2025 WSO2 LLC. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 LLC. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.wso2.carbon.apimgt.gateway.mediators.mock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Mock LLM provider for load, soak and failover tests of the AI gateway without calling paid upstreams.
+ * <p>
+ * Serves the chat APIs of OpenAI and Mistral ({@code .../chat/completions}), Anthropic ({@code .../messages}) and
+ * Gemini ({@code ...:generateContent} and {@code ...:streamGenerateContent}), streamed or not, with completions of
+ * a configurable length. Latency is drawn from a configurable distribution for the first token, followed by a
+ * fixed delay per token. Errors and throttling are injected at configurable rates, and a per-minute token budget
+ * drives the providers' rate limit headers, remaining token counts included, down to 429 once it is spent.
+ * <p>
+ * Behavior is set with {@code --name=value} arguments and can be overridden per endpoint, identified by the
+ * {@code X-Endpoint-Id} request header or the first path segment, with {@code --endpoint.<id>.<name>=value} or at
+ * run time with {@code POST /_mock/endpoints/<id>?<name>=value&...}. {@code GET /_mock/stats} returns the
+ * responses sent by status. Runs from source without a build:
+ * <pre>
+ * java MockLLMProvider.java --port=8089 --latency=lognormal:400:2000 --errorRate=0.01
+ * </pre>
+ */
+public final class MockLLMProvider {
+
+    private static final Pattern MAX_TOKENS = Pattern.compile("\"(?:max_tokens|max_completion_tokens|maxOutputTokens)\""
+            + "\\s*:\\s*(\\d+)");
+    private static final Pattern STREAM = Pattern.compile("\"stream\"\\s*:\\s*true");
+    private static final Pattern MODEL = Pattern.compile("\"model\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern GEMINI_MODEL = Pattern.compile("/models/([^/:]+):");
+    private static final String[] WORDS = {
+            "The", "gateway", "forwarded", "this", "request", "to", "a", "mock", "provider", "which", "answers",
+            "with", "deterministic", "text", "so", "that", "load", "and", "failover", "tests", "are", "repeatable"
+    };
+
+    private final Behavior defaults;
+    private final Map<String, Behavior> endpoints = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    MockLLMProvider(Behavior defaults) {
+
+        this.defaults = defaults;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2) {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        MockLLMProvider provider = new MockLLMProvider(new Behavior().configure(options, ""));
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().startsWith("endpoint.")) {
+                String endpoint = option.getKey().substring("endpoint.".length(), option.getKey().lastIndexOf('.'));
+                provider.endpoints.computeIfAbsent(endpoint,
+                        id -> provider.defaults.copy().configure(options, "endpoint." + id + "."));
+            }
+        }
+        int port = Integer.parseInt(options.getOrDefault("port", "8089"));
+        provider.start(port, Integer.parseInt(options.getOrDefault("backlog", "1024")));
+        System.out.println("Mock LLM provider listening on http://localhost:" + port);
+    }
+
+    /**
+     * Starts serving on the port; the server threads are daemon threads.
+     */
+    HttpServer start(int port, int backlog) throws IOException {
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), backlog);
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "mock-llm-provider");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/_mock/", this::control);
+        server.createContext("/", exchange -> {
+            try {
+                serve(exchange);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // The client went away, e.g. on a gateway timeout
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException, InterruptedException {
+
+        String path = exchange.getRequestURI().getPath();
+        String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        Schema schema = Schema.of(path);
+        if (schema == null) {
+            send(exchange, 404, "application/json", "{\"error\":{\"message\":\"Unknown path " + path + "\"}}");
+            return;
+        }
+        Behavior behavior = behaviorOf(exchange, path);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean stream = path.endsWith(":streamGenerateContent") || STREAM.matcher(body).find();
+        int promptTokens = Math.max(1, body.length() / 4);
+        int completionTokens = completionTokens(body, behavior);
+
+        Thread.sleep(behavior.latency.sample(random));
+        if (random.nextDouble() < behavior.errorRate) {
+            int status = behavior.errorCodes[random.nextInt(behavior.errorCodes.length)];
+            send(exchange, status, "application/json", schema.error(status, "Injected upstream error"));
+            return;
+        }
+        long remaining = behavior.reserve(promptTokens + completionTokens);
+        if (remaining < 0 || random.nextDouble() < behavior.throttleRate) {
+            schema.rateLimitHeaders(exchange, behavior, 0);
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(behavior.secondsToReset()));
+            send(exchange, 429, "application/json", schema.error(429, "Rate limit reached"));
+            return;
+        }
+        schema.rateLimitHeaders(exchange, behavior, remaining);
+
+        String model = model(path, body);
+        String id = "mock-" + ids.incrementAndGet();
+        if (!stream) {
+            Thread.sleep((long) completionTokens * behavior.tokenIntervalMillis);
+            send(exchange, 200, "application/json",
+                    schema.completion(id, model, text(completionTokens), promptTokens, completionTokens));
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        count(200);
+        OutputStream out = exchange.getResponseBody();
+        write(out, schema.streamStart(id, model, promptTokens));
+        for (int i = 0; i < completionTokens; i++) {
+            if (behavior.tokenIntervalMillis > 0) {
+                Thread.sleep(behavior.tokenIntervalMillis);
+            }
+            String token = (i == 0 ? "" : " ") + WORDS[i % WORDS.length];
+            write(out, schema.streamDelta(id, model, token));
+        }
+        write(out, schema.streamEnd(id, model, promptTokens, completionTokens));
+        out.close();
+    }
+
+    private void control(HttpExchange exchange) throws IOException {
+
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/_mock/stats")) {
+                StringBuilder stats = new StringBuilder("{");
+                new TreeMap<>(statuses).forEach((status, sent) ->
+                        stats.append(stats.length() > 1 ? "," : "").append('"').append(status).append("\":")
+                                .append(sent.sum()));
+                send(exchange, 200, "application/json", stats.append('}').toString());
+            } else if (path.startsWith("/_mock/endpoints/")) {
+                String endpoint = path.substring("/_mock/endpoints/".length());
+                if ("DELETE".equals(exchange.getRequestMethod())) {
+                    endpoints.remove(endpoint);
+                } else {
+                    Map<String, String> options = query(exchange.getRequestURI().getRawQuery());
+                    endpoints.compute(endpoint, (id, current) ->
+                            (current != null ? current : defaults).copy().configure(options, ""));
+                }
+                send(exchange, 204, null, null);
+            } else {
+                send(exchange, 404, null, null);
+            }
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, "text/plain", e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Behavior behaviorOf(HttpExchange exchange, String path) {
+
+        String endpoint = exchange.getRequestHeaders().getFirst("X-Endpoint-Id");
+        if (endpoint == null) {
+            String[] segments = path.split("/");
+            endpoint = segments.length > 1 ? segments[1] : "";
+        }
+        Behavior behavior = endpoints.get(endpoint);
+        return behavior != null ? behavior : defaults;
+    }
+
+    private static int completionTokens(String body, Behavior behavior) {
+
+        Matcher maxTokens = MAX_TOKENS.matcher(body);
+        return maxTokens.find() ? Math.max(1, Math.min(behavior.completionTokens,
+                Integer.parseInt(maxTokens.group(1)))) : behavior.completionTokens;
+    }
+
+    private static String model(String path, String body) {
+
+        Matcher model = MODEL.matcher(body);
+        if (model.find()) {
+            return model.group(1);
+        }
+        Matcher geminiModel = GEMINI_MODEL.matcher(path);
+        return geminiModel.find() ? geminiModel.group(1) : "mock-model";
+    }
+
+    private static String text(int tokens) {
+
+        StringBuilder text = new StringBuilder(tokens * 8);
+        for (int i = 0; i < tokens; i++) {
+            text.append(i == 0 ? "" : " ").append(WORDS[i % WORDS.length]);
+        }
+        return text.toString();
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+
+        count(status);
+        byte[] bytes = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private void count(int status) {
+
+        statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+    }
+
+    private static void write(OutputStream out, String events) throws IOException {
+
+        out.write(events.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+
+        Map<String, String> options = new HashMap<>();
+        if (rawQuery == null) {
+            return options;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                options.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return options;
+    }
+
+    private static String quote(String value) {
+
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * How an endpoint responds.
+     */
+    static final class Behavior {
+
+        private Latency latency = Latency.parse("lognormal:300:1500");
+        private long tokenIntervalMillis = 10;
+        private int completionTokens = 64;
+        private double errorRate;
+        private int[] errorCodes = {500, 502, 503};
+        private double throttleRate;
+        private long tokensPerMinute = 1_000_000;
+        private long requestsPerMinute = 10_000;
+        private long windowStart = System.currentTimeMillis();
+        private long tokensUsed;
+        private long requestsUsed;
+
+        Behavior configure(Map<String, String> options, String prefix) {
+
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                if (!option.getKey().startsWith(prefix)) {
+                    continue;
+                }
+                String name = option.getKey().substring(prefix.length());
+                String value = option.getValue();
+                switch (name) {
+                    case "latency":
+                        latency = Latency.parse(value);
+                        break;
+                    case "tokenInterval":
+                        tokenIntervalMillis = Long.parseLong(value);
+                        break;
+                    case "completionTokens":
+                        completionTokens = Integer.parseInt(value);
+                        break;
+                    case "errorRate":
+                        errorRate = Double.parseDouble(value);
+                        break;
+                    case "errorCodes":
+                        errorCodes = Arrays.stream(value.split(",")).mapToInt(code -> Integer.parseInt(code.trim()))
+                                .toArray();
+                        break;
+                    case "throttleRate":
+                        throttleRate = Double.parseDouble(value);
+                        break;
+                    case "tokensPerMinute":
+                        tokensPerMinute = Long.parseLong(value);
+                        break;
+                    case "requestsPerMinute":
+                        requestsPerMinute = Long.parseLong(value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return this;
+        }
+
+        Behavior copy() {
+
+            Behavior copy = new Behavior();
+            copy.latency = latency;
+            copy.tokenIntervalMillis = tokenIntervalMillis;
+            copy.completionTokens = completionTokens;
+            copy.errorRate = errorRate;
+            copy.errorCodes = errorCodes;
+            copy.throttleRate = throttleRate;
+            copy.tokensPerMinute = tokensPerMinute;
+            copy.requestsPerMinute = requestsPerMinute;
+            return copy;
+        }
+
+        /**
+         * Takes tokens from the current one minute window.
+         *
+         * @return The tokens remaining in the window, or -1 if the request exceeds the budget.
+         */
+        synchronized long reserve(int tokens) {
+
+            rollWindow();
+            if (tokensUsed + tokens > tokensPerMinute || requestsUsed + 1 > requestsPerMinute) {
+                return -1;
+            }
+            tokensUsed += tokens;
+            requestsUsed++;
+            return tokensPerMinute - tokensUsed;
+        }
+
+        synchronized long remainingRequests() {
+
+            rollWindow();
+            return requestsPerMinute - requestsUsed;
+        }
+
+        synchronized long secondsToReset() {
+
+            return Math.max(1, (windowStart + 60_000 - System.currentTimeMillis() + 999) / 1000);
+        }
+
+        private void rollWindow() {
+
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= 60_000) {
+                windowStart = now;
+                tokensUsed = 0;
+                requestsUsed = 0;
+            }
+        }
+    }
+
+    /**
+     * Latency distribution of the first token: {@code fixed:<ms>}, {@code uniform:<min>:<max>} or
+     * {@code lognormal:<median>:<p99>}.
+     */
+    static final class Latency {
+
+        private static final double Z_99 = 2.326d;
+
+        private final String kind;
+        private final double first;
+        private final double second;
+
+        private Latency(String kind, double first, double second) {
+
+            this.kind = kind;
+            this.first = first;
+            this.second = second;
+        }
+
+        static Latency parse(String value) {
+
+            String[] parts = value.split(":");
+            switch (parts[0]) {
+                case "fixed":
+                    return new Latency(parts[0], Double.parseDouble(parts[1]), 0);
+                case "uniform":
+                case "lognormal":
+                    if (parts.length != 3) {
+                        throw new IllegalArgumentException("Expected " + parts[0] + ":<a>:<b>, got " + value);
+                    }
+                    return new Latency(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                default:
+                    throw new IllegalArgumentException("Unknown latency distribution " + value);
+            }
+        }
+
+        long sample(ThreadLocalRandom random) {
+
+            switch (kind) {
+                case "uniform":
+                    return (long) (first + random.nextDouble() * (second - first));
+                case "lognormal":
+                    // Median e^mu and 99th percentile e^(mu + 2.326 sigma)
+                    double mu = Math.log(Math.max(1.0d, first));
+                    double sigma = Math.max(0.0d, (Math.log(Math.max(first, second)) - mu) / Z_99);
+                    return (long) Math.exp(mu + sigma * random.nextGaussian());
+                default:
+                    return (long) first;
+            }
+        }
+    }
+
+    /**
+     * Wire format of a provider.
+     */
+    enum Schema {
+
+        OPENAI {
+            @Override
+            String completion(String id, String model, String text, int promptTokens, int completionTokens) {
+
+                return "{\"id\":\"" + id + "\",\"object\":\"chat.completion\",\"created\":" + now() + ",\"model\":"
+                        + quote(model) + ",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\","
+                        + "\"content\":" + quote(text) + "},\"finish_reason\":\"stop\"}]," + usage(promptTokens,
+                        completionTokens) + "}";
+            }
+
+            @Override
+            String streamStart(String id, String model, int promptTokens) {
+
+                return chunk(id, model, "{\"role\":\"assistant\",\"content\":\"\"}", "null", null);
+            }
+
+            @Override
+            String streamDelta(String id, String model, String token) {
+
+                return chunk(id, model, "{\"content\":" + quote(token) + "}", "null", null);
+            }
+
+            @Override
+            String streamEnd(String id, String model, int promptTokens, int completionTokens) {
+
+                return chunk(id, model, "{}", "\"stop\"", usage(promptTokens, completionTokens))
+                        + "data: [DONE]\n\n";
+            }
+
+            @Override
+            String error(int status, String message) {
+
+                return "{\"error\":{\"message\":" + quote(message) + ",\"type\":\""
+                        + (status == 429 ? "rate_limit_exceeded" : "server_error") + "\",\"code\":" + status + "}}";
+            }
+
+            @Override
+            void rateLimitHeaders(HttpExchange exchange, Behavior behavior, long remainingTokens) {
+
+                exchange.getResponseHeaders().set("x-ratelimit-limit-tokens",
+                        String.valueOf(behavior.tokensPerMinute));
+                exchange.getResponseHeaders().set("x-ratelimit-remaining-tokens", String.valueOf(remainingTokens));
+                exchange.getResponseHeaders().set("x-ratelimit-limit-requests",
+                        String.valueOf(behavior.requestsPerMinute));
+                exchange.getResponseHeaders().set("x-ratelimit-remaining-requests",
+                        String.valueOf(behavior.remainingRequests()));
+                exchange.getResponseHeaders().set("x-ratelimit-reset-tokens", behavior.secondsToReset() + "s");
+                // Mistral reports the same budget under its own names
+                exchange.getResponseHeaders().set("x-ratelimitbysize-remaining", String.valueOf(remainingTokens));
+                exchange.getResponseHeaders().set("x-ratelimitbysize-limit", String.valueOf(behavior.tokensPerMinute));
+            }
+
+            private String chunk(String id, String model, String delta, String finishReason, String usage) {
+
+                return "data: {\"id\":\"" + id + "\",\"object\":\"chat.completion.chunk\",\"created\":" + now()
+                        + ",\"model\":" + quote(model) + ",\"choices\":[{\"index\":0,\"delta\":" + delta
+                        + ",\"finish_reason\":" + finishReason + "}]" + (usage != null ? "," + usage : "") + "}\n\n";
+            }
+
+            private String usage(int promptTokens, int completionTokens) {
+
+                return "\"usage\":{\"prompt_tokens\":" + promptTokens + ",\"completion_tokens\":" + completionTokens
+                        + ",\"total_tokens\":" + (promptTokens + completionTokens) + "}";
+            }
+        },
+
+        ANTHROPIC {
+            @Override
+            String completion(String id, String model, String text, int promptTokens, int completionTokens) {
+
+                return "{\"id\":\"" + id + "\",\"type\":\"message\",\"role\":\"assistant\",\"model\":" + quote(model)
+                        + ",\"content\":[{\"type\":\"text\",\"text\":" + quote(text) + "}],\"stop_reason\":"
+                        + "\"end_turn\",\"stop_sequence\":null,\"usage\":{\"input_tokens\":" + promptTokens
+                        + ",\"output_tokens\":" + completionTokens + "}}";
+            }
+
+            @Override
+            String streamStart(String id, String model, int promptTokens) {
+
+                return event("message_start", "{\"type\":\"message_start\",\"message\":{\"id\":\"" + id
+                        + "\",\"type\":\"message\",\"role\":\"assistant\",\"model\":" + quote(model)
+                        + ",\"content\":[],\"stop_reason\":null,\"stop_sequence\":null,\"usage\":{\"input_tokens\":"
+                        + promptTokens + ",\"output_tokens\":1}}}")
+                        + event("content_block_start", "{\"type\":\"content_block_start\",\"index\":0,"
+                        + "\"content_block\":{\"type\":\"text\",\"text\":\"\"}}");
+            }
+
+            @Override
+            String streamDelta(String id, String model, String token) {
+
+                return event("content_block_delta", "{\"type\":\"content_block_delta\",\"index\":0,"
+                        + "\"delta\":{\"type\":\"text_delta\",\"text\":" + quote(token) + "}}");
+            }
+
+            @Override
+            String streamEnd(String id, String model, int promptTokens, int completionTokens) {
+
+                return event("content_block_stop", "{\"type\":\"content_block_stop\",\"index\":0}")
+                        + event("message_delta", "{\"type\":\"message_delta\",\"delta\":{\"stop_reason\":"
+                        + "\"end_turn\",\"stop_sequence\":null},\"usage\":{\"output_tokens\":" + completionTokens
+                        + "}}")
+                        + event("message_stop", "{\"type\":\"message_stop\"}");
+            }
+
+            @Override
+            String error(int status, String message) {
+
+                return "{\"type\":\"error\",\"error\":{\"type\":\""
+                        + (status == 429 ? "rate_limit_error" : status == 529 ? "overloaded_error" : "api_error")
+                        + "\",\"message\":" + quote(message) + "}}";
+            }
+
+            @Override
+            void rateLimitHeaders(HttpExchange exchange, Behavior behavior, long remainingTokens) {
+
+                exchange.getResponseHeaders().set("anthropic-ratelimit-tokens-limit",
+                        String.valueOf(behavior.tokensPerMinute));
+                exchange.getResponseHeaders().set("anthropic-ratelimit-tokens-remaining",
+                        String.valueOf(remainingTokens));
+                exchange.getResponseHeaders().set("anthropic-ratelimit-requests-limit",
+                        String.valueOf(behavior.requestsPerMinute));
+                exchange.getResponseHeaders().set("anthropic-ratelimit-requests-remaining",
+                        String.valueOf(behavior.remainingRequests()));
+            }
+
+            private String event(String type, String data) {
+
+                return "event: " + type + "\ndata: " + data + "\n\n";
+            }
+        },
+
+        GEMINI {
+            @Override
+            String completion(String id, String model, String text, int promptTokens, int completionTokens) {
+
+                return "{" + candidate(text, "STOP") + "," + usage(promptTokens, completionTokens)
+                        + ",\"modelVersion\":" + quote(model) + "}";
+            }
+
+            @Override
+            String streamStart(String id, String model, int promptTokens) {
+
+                return "";
+            }
+
+            @Override
+            String streamDelta(String id, String model, String token) {
+
+                return "data: {" + candidate(token, null) + ",\"modelVersion\":" + quote(model) + "}\r\n\r\n";
+            }
+
+            @Override
+            String streamEnd(String id, String model, int promptTokens, int completionTokens) {
+
+                return "data: {" + candidate("", "STOP") + "," + usage(promptTokens, completionTokens)
+                        + ",\"modelVersion\":" + quote(model) + "}\r\n\r\n";
+            }
+
+            @Override
+            String error(int status, String message) {
+
+                return "{\"error\":{\"code\":" + status + ",\"message\":" + quote(message) + ",\"status\":\""
+                        + (status == 429 ? "RESOURCE_EXHAUSTED" : "UNAVAILABLE") + "\"}}";
+            }
+
+            @Override
+            void rateLimitHeaders(HttpExchange exchange, Behavior behavior, long remainingTokens) {
+
+                // Gemini reports quota exhaustion only through 429 responses
+            }
+
+            private String candidate(String text, String finishReason) {
+
+                return "\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":" + quote(text)
+                        + "}]}" + (finishReason != null ? ",\"finishReason\":\"" + finishReason + "\"" : "")
+                        + ",\"index\":0}]";
+            }
+
+            private String usage(int promptTokens, int completionTokens) {
+
+                return "\"usageMetadata\":{\"promptTokenCount\":" + promptTokens + ",\"candidatesTokenCount\":"
+                        + completionTokens + ",\"totalTokenCount\":" + (promptTokens + completionTokens) + "}";
+            }
+        };
+
+        static Schema of(String path) {
+
+            if (path.endsWith("/chat/completions")) {
+                return OPENAI;
+            }
+            if (path.endsWith("/messages")) {
+                return ANTHROPIC;
+            }
+            if (path.endsWith(":generateContent") || path.endsWith(":streamGenerateContent")) {
+                return GEMINI;
+            }
+            return null;
+        }
+
+        abstract String completion(String id, String model, String text, int promptTokens, int completionTokens);
+
+        abstract String streamStart(String id, String model, int promptTokens);
+
+        abstract String streamDelta(String id, String model, String token);
+
+        abstract String streamEnd(String id, String model, int promptTokens, int completionTokens);
+
+        abstract String error(int status, String message);
+
+        abstract void rateLimitHeaders(HttpExchange exchange, Behavior behavior, long remainingTokens);
+
+        private static long now() {
+
+            return System.currentTimeMillis() / 1000;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.wso2.carbon.apimgt.gateway.mediators;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonElement;
@@ -12,6 +14,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.synapse.ManagedLifecycle;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.core.SynapseEnvironment;
+import org.apache.synapse.commons.json.JsonUtil;
 import org.apache.synapse.core.axis2.Axis2MessageContext;
 import org.apache.synapse.mediators.AbstractMediator;
 import org.apache.synapse.transport.passthru.util.RelayUtils;
@@ -22,6 +25,9 @@ import org.wso2.carbon.apimgt.gateway.internal.DataHolder;
 import org.wso2.carbon.apimgt.gateway.utils.GatewayUtils;
 import org.wso2.carbon.apimgt.gateway.mediators.MistralService;
 import org.wso2.carbon.apimgt.impl.APIConstants;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
@@ -30,12 +36,64 @@ import javax.xml.namespace.QName;
 
 
 public class LLMRouteMediator extends AbstractMediator implements ManagedLifecycle {
+    /**
+     * Message context property holding the category the request was classified into, if any.
+     */
+    public static final String CATEGORY = "AI_ROUTING_CATEGORY";
+
     private static final Log log = LogFactory.getLog(LLMRouteMediator.class);
+    private static final long CLASSIFIER_TIMEOUT_MILLIS = Long.getLong("ai.routing.classifier.timeoutMs", 3000L);
 
     private String llmRouteConfigs;
-
+    private String routingStrategy;
+    private volatile ModelCapabilities.Catalog modelCapabilities = ModelCapabilities.Catalog.BUILT_IN_ONLY;
+    private volatile int downgradeBelowTokens;
+    private volatile OptimizingRouter optimizingRouter = OptimizingRouter.DEFAULT;
+    private volatile CascadeRouter cascadeRouter = CascadeRouter.DEFAULT;
+
+    /**
+     * Sets the routing policy. Besides the endpoints, the policy may carry {@code modelCapabilities} for models
+     * that are not built in, and {@code downgradeBelowTokens}, the prompt size under which a request is moved to
+     * a cheaper model that fits it. The {@code optimization} object configures the {@code optimize} strategy,
+     * see {@link OptimizingRouter}, and the {@code cascade} object the {@code cascade} strategy, see
+     * {@link CascadeRouter}.
+     */
     public void setLlmRouteConfigs(String llmRouteConfigs) {
         this.llmRouteConfigs = llmRouteConfigs;
+        ModelCapabilities.Catalog catalog = ModelCapabilities.Catalog.BUILT_IN_ONLY;
+        int downgradeThreshold = 0;
+        OptimizingRouter router = OptimizingRouter.DEFAULT;
+        CascadeRouter cascade = CascadeRouter.DEFAULT;
+        if (llmRouteConfigs != null && !llmRouteConfigs.trim().isEmpty()) {
+            try {
+                JsonElement policy = JsonParser.parseString(llmRouteConfigs);
+                if (policy.isJsonObject()) {
+                    catalog = ModelCapabilities.Catalog.fromPolicy(policy.getAsJsonObject());
+                    JsonElement threshold = policy.getAsJsonObject().get("downgradeBelowTokens");
+                    downgradeThreshold = threshold != null && threshold.isJsonPrimitive() ? threshold.getAsInt() : 0;
+                    router = OptimizingRouter.fromPolicy(policy.getAsJsonObject());
+                    cascade = CascadeRouter.fromPolicy(policy.getAsJsonObject());
+                }
+            } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+                log.warn("Ignoring model capabilities, optimization and cascade settings of the LLM routing "
+                        + "configuration: " + e.getMessage());
+            }
+        }
+        this.modelCapabilities = catalog;
+        this.downgradeBelowTokens = downgradeThreshold;
+        this.optimizingRouter = router;
+        this.cascadeRouter = cascade;
+    }
+
+    /**
+     * Sets how a request is placed among deployments serving the selected model. Use
+     * {@code prefixAffinity} to keep requests sharing a prompt prefix on the same deployment, or {@code optimize}
+     * to skip classification and score every endpoint of the policy on live latency, errors, price and quota, or
+     * {@code cascade} to try a cheaper model first and escalate to the selected one when its answer is not good
+     * enough.
+     */
+    public void setRoutingStrategy(String routingStrategy) {
+        this.routingStrategy = routingStrategy;
     }
 
     @Override
@@ -101,29 +159,86 @@ public class LLMRouteMediator extends AbstractMediator implements ManagedLifecyc
                 }
             }
             
-            String classifiedCategory = classifyRequest(messageContext, targetConfig);
+            RequestTracer tracer = RequestTracer.getInstance();
+            boolean optimize = OptimizingRouter.STRATEGY.equals(routingStrategy);
+            String classifiedCategory = null;
+            if (!optimize) {
+                RequestTracer.Span classifySpan = tracer.startSpan(messageContext, "ai.route.classify");
+                classifiedCategory = classifyRequest(messageContext, targetConfig);
+                messageContext.setProperty(CATEGORY, classifiedCategory);
+                classifySpan.setAttribute("ai.category", classifiedCategory).end();
+            }
 
             if (log.isDebugEnabled()) {
                 logAllAvailableEndpoints(targetConfig, classifiedCategory);
             }
 
-            ModelEndpointDTO selectedEndpoint = GatewayUtils.selectLLMEndpoint(targetConfig, messageContext, classifiedCategory);
-            if (selectedEndpoint != null) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Successfully selected endpoint: " + selectedEndpoint.getEndpointId() +
-                            " for category: " + classifiedCategory);
+            RequestTracer.Span selectSpan = tracer.startSpan(messageContext, "ai.route.select");
+            ModelEndpointDTO selectedEndpoint;
+            String selectionDetail = null;
+            if (optimize) {
+                OptimizingRouter.Selection selection = selectByScore(messageContext, targetConfig);
+                selectedEndpoint = selection != null ? selection.getEndpoint() : null;
+                if (selection == null) {
+                    selectionDetail = "optimize: no eligible endpoint";
+                } else if (selection.isExplored()) {
+                    selectionDetail = "optimize: explored";
+                } else if (!Double.isNaN(selection.getScore()) && (selectSpan.isRecording()
+                        || MediationEventLog.getInstance().isEnabled(MediationEventLog.Type.ROUTE_SELECTED))) {
+                    // Formatted only for the trace and the event log, which are off for most requests
+                    selectionDetail = String.format(Locale.ROOT, "optimize: score %.3f", selection.getScore());
                 }
+            } else {
+                selectedEndpoint = GatewayUtils.selectLLMEndpoint(targetConfig, messageContext, classifiedCategory);
+            }
+            if (selectedEndpoint != null && !optimize) {
+                ModelEndpointDTO sized = selectByContextWindow(messageContext, targetConfig, selectedEndpoint);
+                if (sized != selectedEndpoint) {
+                    selectionDetail = sized != null ? "context window: " + selectedEndpoint.getModel() + " -> "
+                            + sized.getModel() : "context window: no model fits";
+                }
+                selectedEndpoint = sized;
+            }
+            if (selectedEndpoint != null && PrefixAffinityRouter.STRATEGY.equals(routingStrategy)) {
+                selectedEndpoint = selectByPrefixAffinity(messageContext, targetConfig, selectedEndpoint);
+            }
+            ModelEndpointDTO escalationEndpoint = null;
+            CascadeRouter cascade = cascadeRouter;
+            if (selectedEndpoint != null && CascadeRouter.STRATEGY.equals(routingStrategy)) {
+                ModelEndpointDTO draft = selectCascadeDraft(messageContext, targetConfig, selectedEndpoint, cascade);
+                if (draft != null) {
+                    selectionDetail = "cascade: " + draft.getModel() + ", escalating to "
+                            + selectedEndpoint.getModel();
+                    escalationEndpoint = selectedEndpoint;
+                    selectedEndpoint = draft;
+                }
+            }
+            if (selectedEndpoint != null) {
+                selectSpan.setAttribute("ai.endpoint", selectedEndpoint.getEndpointId())
+                        .setAttribute("ai.model", selectedEndpoint.getModel())
+                        .setAttribute("ai.selection", selectionDetail);
+            } else {
+                selectSpan.setError(selectionDetail != null ? selectionDetail : "No endpoint for category");
+            }
+            selectSpan.end();
+            if (selectedEndpoint != null) {
+                MediationEventLog.getInstance().record(MediationEventLog.Type.ROUTE_SELECTED, messageContext,
+                        classifiedCategory, selectedEndpoint.getEndpointId(), selectedEndpoint.getModel(), 0,
+                        selectionDetail);
                 messageContext.setProperty(AIAPIConstants.TARGET_ENDPOINT, selectedEndpoint.getEndpointId());
 
                 Map<String, Object> llmRouteConfigs = new HashMap<>();
                 llmRouteConfigs.put(AIAPIConstants.LLM_TARGET_MODEL_ENDPOINT, selectedEndpoint);
                 llmRouteConfigs.put(AIAPIConstants.SUSPEND_DURATION,
                         endpoints.getSuspendDuration() * AIAPIConstants.MILLISECONDS_IN_SECOND);
+                if (escalationEndpoint != null) {
+                    llmRouteConfigs.put(CascadeRouter.ESCALATION_ENDPOINT, escalationEndpoint);
+                    llmRouteConfigs.put(CascadeRouter.ROUTER, cascade);
+                }
                 messageContext.setProperty(AIAPIConstants.LLM_ROUTE_CONFIGS, llmRouteConfigs);
             } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("No endpoint selected for category: " + classifiedCategory + ", rejecting request");
-                }
+                MediationEventLog.getInstance().record(MediationEventLog.Type.ROUTE_REJECTED, messageContext,
+                        classifiedCategory, null, null, 0, selectionDetail);
                 messageContext.setProperty(AIAPIConstants.TARGET_ENDPOINT, AIAPIConstants.REJECT_ENDPOINT);
             }
 
@@ -134,6 +249,238 @@ public class LLMRouteMediator extends AbstractMediator implements ManagedLifecyc
         }
     }
 
+    /**
+     * Scores the healthy endpoints of the deployment config that fit the request, with models of unknown
+     * capabilities included, and picks the best one.
+     *
+     * @return The selection, or {@code null} if no endpoint is eligible.
+     */
+    private OptimizingRouter.Selection selectByScore(MessageContext messageContext,
+                                                     LLMRPolicyConfigDTO.LLMRDeploymentConfigDTO targetConfig) {
+        if (targetConfig == null) {
+            return null;
+        }
+        ModelCapabilities.Catalog catalog = modelCapabilities;
+        int promptTokens = TokenEstimator.estimate(messageContext);
+        Object maxTokens = messageContext.getProperty(TokenEstimator.MAX_OUTPUT_TOKENS);
+        int outputTokens = maxTokens instanceof Integer ? (Integer) maxTokens : 0;
+
+        List<ModelEndpointDTO> candidates = new ArrayList<>();
+        if (targetConfig.getCategories() != null) {
+            candidates.addAll(targetConfig.getCategories().values());
+        }
+        candidates.add(targetConfig.getDefaultModel());
+        EndpointHealthRegistry.ApiEndpoints endpointHealth = EndpointHealthRegistry.getInstance()
+                .forApi(GatewayUtils.getAPIKeyForEndpoints(messageContext));
+        List<ModelEndpointDTO> fitting = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (ModelEndpointDTO candidate : candidates) {
+            if (!isValidModel(candidate) || !seen.add(candidate.getEndpointId() + '\n' + candidate.getModel())) {
+                continue;
+            }
+            ModelCapabilities capabilities = catalog.of(candidate.getModel());
+            if (capabilities == null || promptTokens < 0 || capabilities.fits(promptTokens, outputTokens)) {
+                fitting.add(candidate);
+            }
+        }
+        List<ModelEndpointDTO> eligible = endpointHealth.filterHealthy(fitting);
+        if (eligible.isEmpty()) {
+            return null;
+        }
+        OptimizingRouter.Selection selection =
+                optimizingRouter.select(endpointHealth, eligible, promptTokens, outputTokens);
+        if (log.isDebugEnabled()) {
+            log.debug("Optimizing router selected endpoint " + selection.getEndpoint().getEndpointId() + " (model "
+                    + selection.getEndpoint().getModel() + ") out of " + eligible.size() + " endpoints"
+                    + (selection.isExplored() ? " to explore" : ", score " + selection.getScore()));
+        }
+        return selection;
+    }
+
+    /**
+     * Picks the draft model of a cascade: the cheapest healthy model of a lower tier than the selected one that fits
+     * the request, preferring the smallest context window among equally cheap ones.
+     *
+     * @return The draft endpoint, or {@code null} if the request goes to the selected endpoint directly.
+     */
+    private ModelEndpointDTO selectCascadeDraft(MessageContext messageContext,
+                                                LLMRPolicyConfigDTO.LLMRDeploymentConfigDTO targetConfig,
+                                                ModelEndpointDTO selectedEndpoint, CascadeRouter cascade) {
+        ModelCapabilities.Catalog catalog = modelCapabilities;
+        ModelCapabilities selected = catalog.of(selectedEndpoint.getModel());
+        int promptTokens = TokenEstimator.estimate(messageContext);
+        if (selected == null || promptTokens < 0 || !cascade.accepts(promptTokens)) {
+            return null;
+        }
+        Object maxTokens = messageContext.getProperty(TokenEstimator.MAX_OUTPUT_TOKENS);
+        int outputTokens = maxTokens instanceof Integer ? (Integer) maxTokens : 0;
+
+        List<ModelEndpointDTO> candidates = new ArrayList<>();
+        if (targetConfig.getCategories() != null) {
+            candidates.addAll(targetConfig.getCategories().values());
+        }
+        candidates.add(targetConfig.getDefaultModel());
+        EndpointHealthRegistry.ApiEndpoints endpointHealth = EndpointHealthRegistry.getInstance()
+                .forApi(GatewayUtils.getAPIKeyForEndpoints(messageContext));
+        ModelEndpointDTO draft = null;
+        ModelCapabilities draftCapabilities = null;
+        for (ModelEndpointDTO candidate : candidates) {
+            if (!isValidModel(candidate)) {
+                continue;
+            }
+            ModelCapabilities capabilities = catalog.of(candidate.getModel());
+            if (capabilities == null || capabilities.getTier() >= selected.getTier()
+                    || !capabilities.fits(promptTokens, outputTokens) || endpointHealth.isSuspended(candidate)) {
+                continue;
+            }
+            if (draft == null || capabilities.getTier() < draftCapabilities.getTier()
+                    || (capabilities.getTier() == draftCapabilities.getTier()
+                    && capabilities.getContextWindow() < draftCapabilities.getContextWindow())) {
+                draft = candidate;
+                draftCapabilities = capabilities;
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Cascade draft for model " + selectedEndpoint.getModel() + ": "
+                    + (draft != null ? draft.getModel() : "none"));
+        }
+        return draft;
+    }
+
+    /**
+     * Picks the deployment for the request's prompt prefix among the healthy endpoints of the deployment config
+     * that serve the same model as the selected endpoint. Falls back to the selected endpoint when there is no
+     * alternative or the payload is not a chat request.
+     */
+    private ModelEndpointDTO selectByPrefixAffinity(MessageContext messageContext,
+                                                    LLMRPolicyConfigDTO.LLMRDeploymentConfigDTO targetConfig,
+                                                    ModelEndpointDTO selectedEndpoint) {
+        EndpointHealthRegistry.ApiEndpoints endpointHealth = EndpointHealthRegistry.getInstance()
+                .forApi(GatewayUtils.getAPIKeyForEndpoints(messageContext));
+        List<ModelEndpointDTO> eligible = endpointHealth.filterHealthy(getReplicas(targetConfig, selectedEndpoint));
+        if (eligible.size() < 2) {
+            return selectedEndpoint;
+        }
+        try {
+            org.apache.axis2.context.MessageContext axis2MessageContext =
+                    ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+            RelayUtils.buildMessage(axis2MessageContext);
+            if (!JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+                return selectedEndpoint;
+            }
+            ChatRequestTranslator.ChatRequest request =
+                    ChatRequestTranslator.parse(JsonUtil.jsonPayloadToString(axis2MessageContext));
+            if (request == null) {
+                return selectedEndpoint;
+            }
+            PrefixAffinityRouter router = PrefixAffinityRouter.getInstance();
+            ModelEndpointDTO endpoint =
+                    router.select(messageContext, endpointHealth, eligible, router.prefixHash(request));
+            if (log.isDebugEnabled()) {
+                log.debug("Prefix affinity selected endpoint " + endpoint.getEndpointId() + " out of "
+                        + eligible.size() + " deployments of model " + selectedEndpoint.getModel());
+            }
+            return endpoint;
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Prefix affinity routing skipped: " + e.getMessage());
+            }
+            return selectedEndpoint;
+        }
+    }
+
+    /**
+     * Checks the selected endpoint's model against the estimated size of the request. A request that does not fit
+     * is moved to the cheapest healthy model of the deployment config that fits it, preferring the smallest
+     * context window among equally cheap ones. When {@code downgradeBelowTokens} is set, a shorter request is
+     * moved to a cheaper model that fits it. Models of unknown capabilities are kept when selected and are not
+     * moved to. A request whose size is only estimated from characters, as for families whose tokenizer is not
+     * available, is not moved up or rejected and is left to the selected model to accept or refuse.
+     *
+     * @return The endpoint to use, or {@code null} if the counted request fits none of the known models.
+     */
+    private ModelEndpointDTO selectByContextWindow(MessageContext messageContext,
+                                                   LLMRPolicyConfigDTO.LLMRDeploymentConfigDTO targetConfig,
+                                                   ModelEndpointDTO selectedEndpoint) {
+        ModelCapabilities.Catalog catalog = modelCapabilities;
+        ModelCapabilities selected = catalog.of(selectedEndpoint.getModel());
+        if (selected == null) {
+            return selectedEndpoint;
+        }
+        int promptTokens = TokenEstimator.estimate(messageContext);
+        if (promptTokens < 0) {
+            return selectedEndpoint;
+        }
+        Object maxTokens = messageContext.getProperty(TokenEstimator.MAX_OUTPUT_TOKENS);
+        int outputTokens = maxTokens instanceof Integer ? (Integer) maxTokens : 0;
+        boolean fits = selected.fits(promptTokens, outputTokens);
+        boolean downgrade = fits && promptTokens < downgradeBelowTokens;
+        if ((fits && !downgrade) || (!fits && !TokenEstimator.isExact(messageContext))) {
+            return selectedEndpoint;
+        }
+
+        List<ModelEndpointDTO> candidates = new ArrayList<>();
+        if (targetConfig.getCategories() != null) {
+            candidates.addAll(targetConfig.getCategories().values());
+        }
+        candidates.add(targetConfig.getDefaultModel());
+        EndpointHealthRegistry.ApiEndpoints endpointHealth = EndpointHealthRegistry.getInstance()
+                .forApi(GatewayUtils.getAPIKeyForEndpoints(messageContext));
+        ModelEndpointDTO best = null;
+        ModelCapabilities bestCapabilities = null;
+        for (ModelEndpointDTO candidate : candidates) {
+            if (!isValidModel(candidate)) {
+                continue;
+            }
+            ModelCapabilities capabilities = catalog.of(candidate.getModel());
+            if (capabilities == null || !capabilities.fits(promptTokens, outputTokens)
+                    || (downgrade && capabilities.getTier() >= selected.getTier())
+                    || endpointHealth.isSuspended(candidate)) {
+                continue;
+            }
+            if (best == null || capabilities.getTier() < bestCapabilities.getTier()
+                    || (capabilities.getTier() == bestCapabilities.getTier()
+                    && capabilities.getContextWindow() < bestCapabilities.getContextWindow())) {
+                best = candidate;
+                bestCapabilities = capabilities;
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Request of " + promptTokens + " prompt tokens " + (fits ? "fits" : "exceeds") + " model "
+                    + selectedEndpoint.getModel() + ", moving to " + (best != null ? best.getModel() : "none"));
+        }
+        if (best != null) {
+            return best;
+        }
+        return fits ? selectedEndpoint : null;
+    }
+
+    /**
+     * Returns the valid endpoints of the deployment config serving the model of the given endpoint, including it.
+     */
+    private List<ModelEndpointDTO> getReplicas(LLMRPolicyConfigDTO.LLMRDeploymentConfigDTO targetConfig,
+                                               ModelEndpointDTO selectedEndpoint) {
+        List<ModelEndpointDTO> replicas = new ArrayList<>();
+        replicas.add(selectedEndpoint);
+        Set<String> endpointIds = new HashSet<>();
+        endpointIds.add(selectedEndpoint.getEndpointId());
+
+        List<ModelEndpointDTO> candidates = new ArrayList<>();
+        if (targetConfig.getCategories() != null) {
+            candidates.addAll(targetConfig.getCategories().values());
+        }
+        candidates.add(targetConfig.getDefaultModel());
+        for (ModelEndpointDTO candidate : candidates) {
+            if (isValidModel(candidate) && selectedEndpoint.getModel().equals(candidate.getModel())
+                    && endpointIds.add(candidate.getEndpointId())) {
+                replicas.add(candidate);
+            }
+        }
+        // Order independent of the selected endpoint so every request sees the same ring
+        replicas.sort((a, b) -> a.getEndpointId().compareTo(b.getEndpointId()));
+        return replicas;
+    }
+
     private String extractUserRequestContent(MessageContext messageContext) {
         try {
             org.apache.axis2.context.MessageContext msgContext = ((Axis2MessageContext) messageContext).getAxis2MessageContext();
@@ -174,16 +521,17 @@ public class LLMRouteMediator extends AbstractMediator implements ManagedLifecyc
             String prompt = "Classify this request into one of these categories: " + categoryOptions +
                     ". Respond with exactly one category name from the list for this request: " + content;
 
-            MistralService mistralService = new MistralService();
-
-            if (!mistralService.isServiceAvailable()) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Mistral service not available, will use default model");
+            // The classifier is a remote call; bound the time it may hold the worker thread
+            String response = BlockingOffload.call("classifier", () -> {
+                MistralService mistralService = new MistralService();
+                if (!mistralService.isServiceAvailable()) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Mistral service not available, will use default model");
+                    }
+                    return null;
                 }
-                return null;
-            }
-
-            String response = mistralService.classifyRequest(prompt);
+                return mistralService.classifyRequest(prompt);
+            }, CLASSIFIER_TIMEOUT_MILLIS, null);
 
             if (response != null) {
                 String cleanResponse = response.trim();
@@ -315,6 +663,10 @@ public class LLMRouteMediator extends AbstractMediator implements ManagedLifecyc
         return llmRouteConfigs;
     }
 
+    public String getRoutingStrategy() {
+        return routingStrategy;
+    }
+
     @Override
     public void destroy() {
 